@@ -1,31 +1,50 @@
 package com.qltiku2.aspect;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qltiku2.common.Result;
 import com.qltiku2.entity.OperationLog;
-import com.qltiku2.entity.SysUser;
+import com.qltiku2.security.LoginUser;
 import com.qltiku2.service.OperationLogService;
-import com.qltiku2.service.IpLocationService;
-import com.qltiku2.mapper.SysUserMapper;
 import com.qltiku2.utils.IpUtils;
 import lombok.extern.slf4j.Slf4j;
-import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.*;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.reactivestreams.Publisher;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.validation.BindingResult;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
 import java.time.LocalDateTime;
-import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 操作日志AOP切面
+ * 按接口的记录策略（全部/采样/仅异常）决定是否记录；请求参数与响应数据以有界方式序列化，
+ * 超出长度即停止，不会完整序列化大对象；用户信息取自JWT认证主体，IP地理位置在保存时异步补充。
  */
 @Slf4j
 @Aspect
@@ -35,14 +54,22 @@ public class OperationLogAspect {
     @Autowired
     private OperationLogService operationLogService;
     
-    @Autowired
-    private IpLocationService ipLocationService;
-    
     @Autowired
     private ObjectMapper objectMapper;
     
-    @Autowired
-    private SysUserMapper sysUserMapper;
+    @Value("${operation-log.default-mode:ALWAYS}")
+    private OperationLogPolicy.Mode defaultMode;
+    
+    @Value("${operation-log.sample-rate:0.1}")
+    private double defaultSampleRate;
+    
+    @Value("${operation-log.max-payload-length:2000}")
+    private int maxPayloadLength;
+    
+    /**
+     * 方法 -> 解析后的记录策略
+     */
+    private final ConcurrentHashMap<Method, Policy> policies = new ConcurrentHashMap<>();
     
     /**
      * 定义切点：拦截所有controller包下的方法，但排除OperationLogController
@@ -55,145 +82,247 @@ public class OperationLogAspect {
      */
     @Around("controllerPointcut()")
     public Object around(ProceedingJoinPoint joinPoint) throws Throwable {
-        long startTime = System.currentTimeMillis();
-        
-        // 获取请求信息
         ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
         if (attributes == null) {
             return joinPoint.proceed();
         }
-        
-        HttpServletRequest request = attributes.getRequest();
+    
+        long startNanos = System.nanoTime();
+        LocalDateTime startTime = LocalDateTime.now();
+        Object result = null;
+        Throwable thrown = null;
+    
+        try {
+            // 执行目标方法
+            result = joinPoint.proceed();
+            return result;
+        } catch (Throwable e) {
+            thrown = e;
+            throw e;
+        } finally {
+            try {
+                record(joinPoint, attributes, startTime, System.nanoTime() - startNanos, result, thrown);
+            } catch (Exception e) {
+                log.warn("记录操作日志失败: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 按策略决定是否记录，需要记录时才采集参数与响应
+     */
+    private void record(ProceedingJoinPoint joinPoint, ServletRequestAttributes attributes, LocalDateTime startTime,
+                        long elapsedNanos, Object result, Throwable thrown) {
         HttpServletResponse response = attributes.getResponse();
-        
-        // 创建操作日志对象
+        int statusCode = response != null ? response.getStatus() : (thrown != null ? 500 : 200);
+        boolean failed = thrown != null || statusCode >= 400
+                || (result instanceof Result && ((Result<?>) result).getCode() != null && ((Result<?>) result).getCode() != 200);
+    
+        Policy policy = policies.computeIfAbsent(((MethodSignature) joinPoint.getSignature()).getMethod(), this::resolvePolicy);
+        if (!failed) {
+            if (policy.mode == OperationLogPolicy.Mode.ERRORS_ONLY) {
+                return;
+            }
+            if (policy.mode == OperationLogPolicy.Mode.SAMPLED && ThreadLocalRandom.current().nextDouble() >= policy.sampleRate) {
+                return;
+            }
+        }
+    
+        HttpServletRequest request = attributes.getRequest();
         OperationLog operationLog = new OperationLog();
-        operationLog.setCreateTime(LocalDateTime.now());
-        
-        // 设置基本信息
+        operationLog.setCreateTime(startTime);
         operationLog.setRequestMethod(request.getMethod());
         operationLog.setRequestUrl(request.getRequestURL().toString());
-        
-        // 获取真实IP地址（支持反向代理）
-    String ipAddress = IpUtils.getRealIpAddress(request);
-    operationLog.setIpAddress(ipAddress);
-        
-        // 异步获取IP地理位置信息（避免阻塞主流程）
-        try {
-            String location = ipLocationService.getSimpleLocationByIp(ipAddress);
-            operationLog.setLocation(location);
-        } catch (Exception e) {
-            log.warn("获取IP地理位置失败，IP: {}, 错误: {}", ipAddress, e.getMessage());
-            operationLog.setLocation("位置获取失败");
-        }
-        
+        // 获取真实IP地址（支持反向代理），地理位置在异步保存时补充
+        operationLog.setIpAddress(IpUtils.getRealIpAddress(request));
         operationLog.setUserAgent(request.getHeader("User-Agent"));
         operationLog.setOperationMethod(joinPoint.getSignature().getDeclaringTypeName() + "." + joinPoint.getSignature().getName());
-        
-        // 获取请求参数
-        try {
-            Object[] args = joinPoint.getArgs();
-            if (args != null && args.length > 0) {
-                // 过滤掉HttpServletRequest、HttpServletResponse等对象
-                String params = Arrays.stream(args)
-                    .filter(arg -> !(arg instanceof HttpServletRequest) 
-                                && !(arg instanceof HttpServletResponse)
-                                && arg != null)
-                    .map(arg -> {
-                        try {
-                            return objectMapper.writeValueAsString(arg);
-                        } catch (Exception e) {
-                            return arg.toString();
-                        }
-                    })
-                    .collect(Collectors.joining(", "));
-                operationLog.setRequestParams(params.length() > 2000 ? params.substring(0, 2000) + "..." : params);
+        operationLog.setRequestParams(serializeArgs(joinPoint.getArgs()));
+    
+        // 用户信息取自认证主体（JWT声明），不查库
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            operationLog.setUsername(authentication.getName());
+            if (authentication.getPrincipal() instanceof LoginUser) {
+                operationLog.setUserId(((LoginUser) authentication.getPrincipal()).getUserId());
             }
-        } catch (Exception e) {
-            log.warn("获取请求参数失败", e);
-            operationLog.setRequestParams("参数解析失败");
+        } else {
+            // 对于公开接口，标记为系统
+            operationLog.setUsername("系统");
+        }
+    
+        if (policy.logResponse && result != null) {
+            operationLog.setResponseData(serialize(result));
+        }
+    
+        operationLog.setExecutionTime(elapsedNanos / 1_000_000);
+        operationLog.setStatusCode(statusCode);
+        if (thrown != null) {
+            operationLog.setErrorMessage(thrown.getMessage());
+            log.error("控制器方法执行异常: {}", joinPoint.getSignature().getName(), thrown);
+        } else if (statusCode >= 400) {
+            operationLog.setErrorMessage("HTTP状态码: " + statusCode);
+        }
+    
+        // 异步保存日志
+        operationLogService.saveLogAsync(operationLog);
+    }
+    
+    private Policy resolvePolicy(Method method) {
+        OperationLogPolicy annotation = AnnotatedElementUtils.findMergedAnnotation(method, OperationLogPolicy.class);
+        if (annotation == null) {
+            annotation = AnnotatedElementUtils.findMergedAnnotation(method.getDeclaringClass(), OperationLogPolicy.class);
+        }
+        if (annotation == null) {
+            return new Policy(defaultMode, defaultSampleRate, true);
         }
-        
-        // 获取用户信息（从Spring Security上下文中获取）
+        double sampleRate = annotation.sampleRate() >= 0 ? annotation.sampleRate() : defaultSampleRate;
+        return new Policy(annotation.value(), sampleRate, annotation.logResponse());
+    }
+    
+    /**
+     * 序列化请求参数，过滤掉请求/响应、文件、流等对象
+     */
+    private String serializeArgs(Object[] args) {
+        if (args == null || args.length == 0) {
+            return null;
+        }
+        BoundedWriter writer = new BoundedWriter(maxPayloadLength);
         try {
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-            if (authentication != null && authentication.isAuthenticated() && 
-                !"anonymousUser".equals(authentication.getPrincipal())) {
-                
-                String username = authentication.getName();
-                operationLog.setUsername(username);
-                
-                // 通过用户名查询用户ID
-                try {
-                    SysUser user = sysUserMapper.selectByUsername(username);
-                    if (user != null) {
-                        operationLog.setUserId(user.getId());
-                    }
-                } catch (Exception e) {
-                    log.warn("通过用户名查询用户ID失败: {}", username, e);
+            boolean first = true;
+            for (Object arg : args) {
+                if (arg == null || arg instanceof ServletRequest || arg instanceof ServletResponse
+                        || arg instanceof BindingResult) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write(", ");
                 }
-            } else {
-                // 对于公开接口，标记为系统
-                operationLog.setUsername("系统");
+                first = false;
+                writeValue(writer, arg);
             }
         } catch (Exception e) {
-            log.warn("获取用户信息失败", e);
-            operationLog.setUsername("未知用户");
+            if (!writer.isTruncated()) {
+                return "参数解析失败";
+            }
         }
-        
-        Object result = null;
-        Exception thrownException = null;
-        
+        return writer.result();
+    }
+    
+    /**
+     * 序列化响应数据
+     */
+    private String serialize(Object value) {
+        BoundedWriter writer = new BoundedWriter(maxPayloadLength);
         try {
-            // 执行目标方法
-            result = joinPoint.proceed();
-            
-            // 设置响应数据（限制长度）
-            if (result != null) {
-                try {
-                    String responseData = objectMapper.writeValueAsString(result);
-                    operationLog.setResponseData(responseData.length() > 2000 ? responseData.substring(0, 2000) + "..." : responseData);
-                } catch (Exception e) {
-                    operationLog.setResponseData("响应数据序列化失败");
-                }
+            writeValue(writer, value);
+        } catch (Exception e) {
+            if (!writer.isTruncated()) {
+                return "响应数据序列化失败";
             }
-            
+        }
+        return writer.result();
+    }
+    
+    private void writeValue(BoundedWriter writer, Object value) throws IOException {
+        if (isOpaque(value)) {
+            writer.write("[" + value.getClass().getSimpleName() + "]");
+            return;
+        }
+        try {
+            objectMapper.writeValue(writer, value);
         } catch (Exception e) {
-            // 记录异常信息
-            thrownException = e;
-            operationLog.setErrorMessage(e.getMessage());
-            log.error("控制器方法执行异常: {}", joinPoint.getSignature().getName(), e);
-        } finally {
-            // 计算执行时间
-            long endTime = System.currentTimeMillis();
-            operationLog.setExecutionTime(endTime - startTime);
-            
-            // 设置状态码 - 优先从HttpServletResponse获取实际状态码
-            if (response != null) {
-                int statusCode = response.getStatus();
-                operationLog.setStatusCode(statusCode);
-                
-                // 如果状态码表示错误但没有异常信息，记录状态码相关信息
-                if (statusCode >= 400 && operationLog.getErrorMessage() == null) {
-                    operationLog.setErrorMessage("HTTP状态码: " + statusCode);
-                }
-            } else if (thrownException != null) {
-                // 如果没有response但有异常，设置为500
-                operationLog.setStatusCode(500);
-            } else {
-                // 默认200
-                operationLog.setStatusCode(200);
+            if (writer.isTruncated()) {
+                throw e;
+            }
+            writer.write(String.valueOf(value));
+        }
+    }
+    
+    /**
+     * 文件、流式响应等不序列化内容，只记录类型
+     */
+    private boolean isOpaque(Object value) {
+        if (value instanceof ResponseEntity) {
+            Object body = ((ResponseEntity<?>) value).getBody();
+            return body != null && isOpaque(body);
+        }
+        return value instanceof MultipartFile || value instanceof MultipartFile[] || value instanceof InputStream
+                || value instanceof Resource || value instanceof byte[] || value instanceof Publisher
+                || value instanceof ResponseBodyEmitter || value instanceof StreamingResponseBody
+                || value instanceof DeferredResult || value instanceof CompletionStage;
+    }
+    
+    private static final class Policy {
+        private final OperationLogPolicy.Mode mode;
+        private final double sampleRate;
+        private final boolean logResponse;
+    
+        private Policy(OperationLogPolicy.Mode mode, double sampleRate, boolean logResponse) {
+            this.mode = mode;
+            this.sampleRate = sampleRate;
+            this.logResponse = logResponse;
+        }
+    }
+    
+    /**
+     * 有界输出：写满上限后抛出异常中止序列化，已写入的内容即截断结果
+     */
+    private static final class BoundedWriter extends Writer {
+    
+        /**
+         * 无堆栈的预分配异常，仅用于中止序列化
+         */
+        private static final IOException LIMIT_REACHED = new IOException("payload limit reached") {
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        };
+    
+        private final StringBuilder buffer;
+        private final int limit;
+        private boolean truncated;
+    
+        private BoundedWriter(int limit) {
+            this.limit = limit;
+            this.buffer = new StringBuilder(Math.min(limit, 256));
+        }
+    
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (truncated) {
+                throw LIMIT_REACHED;
+            }
+            int remaining = limit - buffer.length();
+            if (len > remaining) {
+                buffer.append(cbuf, off, remaining);
+                truncated = true;
+                throw LIMIT_REACHED;
             }
-            
-            // 异步保存日志
-            operationLogService.saveLogAsync(operationLog);
+            buffer.append(cbuf, off, len);
+        }
+    
+        @Override
+        public void write(String str) throws IOException {
+            write(str.toCharArray(), 0, str.length());
+        }
+    
+        @Override
+        public void flush() {
+        }
+    
+        @Override
+        public void close() {
         }
-        
-        // 如果有异常，重新抛出
-        if (thrownException != null) {
-            throw thrownException;
+    
+        private boolean isTruncated() {
+            return truncated;
+        }
+    
+        private String result() {
+            return truncated ? buffer + "..." : buffer.toString();
         }
-        
-        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package com.qltiku2.aspect;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 操作日志记录策略
+ * 标注在控制器类或方法上（方法优先），未标注的接口使用 operation-log.default-mode 配置
+ */
+@Documented
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface OperationLogPolicy {
+    
+    /**
+     * 记录模式
+     */
+    Mode value() default Mode.ALWAYS;
+    
+    /**
+     * 采样比例（0~1），仅SAMPLED模式生效，小于0时使用 operation-log.sample-rate 配置
+     */
+    double sampleRate() default -1;
+    
+    /**
+     * 是否记录响应数据
+     */
+    boolean logResponse() default true;
+    
+    enum Mode {
+        /**
+         * 全部记录
+         */
+        ALWAYS,
+        /**
+         * 按比例采样，异常请求始终记录
+         */
+        SAMPLED,
+        /**
+         * 仅记录异常请求（抛出异常、HTTP状态码>=400或业务返回码非200）
+         */
+        ERRORS_ONLY
+    }
+}
@@ -0,0 +1,54 @@
+package com.qltiku2.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AI模型调用并发控制配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "ai.concurrency")
+public class AiConcurrencyConfig {
+
+    /**
+     * 全局同时进行的模型调用上限
+     */
+    private int globalMaxConcurrent = 32;
+
+    /**
+     * 单个模型同时进行的调用上限（未在modelLimits中单独配置时使用）
+     */
+    private int perModelMaxConcurrent = 16;
+
+    /**
+     * 按模型代码单独配置的并发上限
+     */
+    private Map<String, Integer> modelLimits = new HashMap<>();
+
+    /**
+     * 等待队列容量，超出时直接拒绝
+     */
+    private int maxQueueSize = 200;
+
+    /**
+     * 单个用户最多排队的请求数
+     */
+    private int maxQueuedPerUser = 2;
+
+    /**
+     * 排队最长等待时间（毫秒），超时后拒绝
+     */
+    private long maxWaitMs = 15000;
+
+    /**
+     * 获取模型的并发上限
+     */
+    public int limitFor(String modelCode) {
+        return modelLimits.getOrDefault(modelCode, perModelMaxConcurrent);
+    }
+}
@@ -1,5 +1,6 @@
 package com.qltiku2.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.AsyncTaskExecutor;
@@ -49,4 +50,44 @@ public class AsyncConfig {
         // 包装为支持安全上下文传播的执行器
         return new DelegatingSecurityContextAsyncTaskExecutor(executor);
     }
-}
\ No newline at end of file
+    
+    /**
+     * AI判题专用线程池：只执行判题前后的数据库操作，模型调用本身是非阻塞的；
+     * 队列满时拒绝新任务（提示繁忙），不占用调用线程
+     */
+    @Bean("aiGradingExecutor")
+    public AsyncTaskExecutor aiGradingExecutor(@Value("${ai.grading.pool-size:4}") int poolSize,
+                                               @Value("${ai.grading.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ai-grading-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        
+        // 包装为支持安全上下文传播的执行器
+        return new DelegatingSecurityContextAsyncTaskExecutor(executor);
+    }
+    
+    /**
+     * IP地理位置HTTP回退查询专用线程池：线程数即最大并发查询数，队列很小；
+     * 队列满时直接拒绝（调用方放弃本次查询），不占用业务线程也不挤占公共线程池
+     */
+    @Bean("ipLookupExecutor")
+    public AsyncTaskExecutor ipLookupExecutor(@Value("${ip-location.http-fallback-max-concurrent:4}") int poolSize,
+                                              @Value("${ip-location.http-fallback-queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ip-lookup-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        // 查询结果只是缓存，关闭时不等待未完成的查询
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -1,6 +1,7 @@
 package com.qltiku2.config;
 
 import com.qltiku2.utils.QuestionCacheUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
@@ -10,6 +11,7 @@ import org.springframework.stereotype.Component;
  * 
  * @author qltiku2
  */
+@Slf4j
 @Component
 public class CacheCleanConfig implements CommandLineRunner {
     
@@ -19,11 +21,11 @@ public class CacheCleanConfig implements CommandLineRunner {
     @Override
     public void run(String... args) throws Exception {
         try {
-            System.out.println("应用启动，开始清理题目缓存...");
-            questionCache.clearAll();
-            System.out.println("题目缓存清理完成");
+            log.info("应用启动，开始清理题目缓存...");
+            QuestionCacheUtils.CacheClearResult result = questionCache.clearAll();
+            log.info("题目缓存清理完成，删除键数: {}, 耗时: {}ms", result.getKeysRemoved(), result.getElapsedMillis());
         } catch (Exception e) {
-            System.err.println("清理缓存失败: " + e.getMessage());
+            log.error("清理缓存失败: {}", e.getMessage());
         }
     }
 }
\ No newline at end of file
@@ -30,6 +30,11 @@ public class FtpConfig {
      */
     private Upload upload = new Upload();
     
+    /**
+     * 连接池配置
+     */
+    private Pool pool = new Pool();
+    
     @Data
     public static class Server {
         /**
@@ -107,4 +112,42 @@ public class FtpConfig {
             "mp4", "avi", "mp3", "wav"
         );
     }
-}
\ No newline at end of file
+    
+    @Data
+    public static class Pool {
+        /**
+         * 最大连接数
+         */
+        private int maxTotal = 8;
+        
+        /**
+         * 借用连接的最长等待时间（毫秒）
+         */
+        private long borrowTimeoutMs = 10000;
+        
+        /**
+         * 空闲超过该时间的连接在借出前发送NOOP校验（毫秒）
+         */
+        private long validateAfterIdleMs = 30000;
+        
+        /**
+         * 空闲连接最长保留时间（毫秒），应小于服务器的空闲断开时间
+         */
+        private long maxIdleMs = 240000;
+        
+        /**
+         * 连接最长存活时间（毫秒）
+         */
+        private long maxLifetimeMs = 1800000;
+        
+        /**
+         * 空闲连接回收检查间隔（毫秒）
+         */
+        private long evictionIntervalMs = 60000;
+        
+        /**
+         * 已确认存在的目录缓存时间（毫秒）
+         */
+        private long directoryCacheTtlMs = 3600000;
+    }
+}
@@ -2,6 +2,7 @@ package com.qltiku2.config;
 
 import com.qltiku2.security.JwtAuthenticationFilter;
 import org.springframework.beans.factory.annotation.Autowired;
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -66,6 +67,8 @@ public class SecurityConfig {
             
             // 配置请求授权
             .authorizeHttpRequests(auth -> auth
+                // 异步请求（DeferredResult/SSE）的再次分派沿用原请求的授权结果
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // 公开访问的端点
                 // 公开访问的端点
                 .requestMatchers(
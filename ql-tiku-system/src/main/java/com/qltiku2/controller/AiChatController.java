@@ -4,9 +4,11 @@ import com.qltiku2.common.Result;
 import com.qltiku2.entity.AiChatRecord;
 import com.qltiku2.entity.AiChatSession;
 import com.qltiku2.entity.SysUser;
+import com.qltiku2.exception.AiBusyException;
 import com.qltiku2.mapper.AiChatSessionMapper;
 import com.qltiku2.mapper.SysUserMapper;
 import com.qltiku2.service.AiChatService;
+import com.qltiku2.service.AiConcurrencyLimiter;
 import com.qltiku2.service.AiQuotaService;
 import com.qltiku2.utils.JwtUtils;
 import com.qltiku2.vo.AiChatSessionVO;
@@ -43,6 +45,9 @@ public class AiChatController {
     @Autowired
     private AiQuotaService aiQuotaService;
 
+    @Autowired
+    private AiConcurrencyLimiter aiConcurrencyLimiter;
+
     @Autowired
     private JwtUtils jwtUtils;
     
@@ -85,6 +90,12 @@ public class AiChatController {
                 log.info("生成新的sessionId: {}", sessionId);
             }
 
+            // 模型调用已满负荷时直接提示重试，不扣减配额；扣减后排队超时等繁忙情况由busy()退还
+            int retryAfter = aiConcurrencyLimiter.checkAdmission(userId);
+            if (retryAfter > 0) {
+                return Flux.just(busyEvent(retryAfter), "data: [DONE]\n\n");
+            }
+
             // 检查并消耗配额
             boolean hasQuota = aiQuotaService.hasQuota(userId, "chat");
             if (!hasQuota) {
@@ -115,6 +126,7 @@ public class AiChatController {
                             return "data: {\"content\":\"" + content + "\"}\n\n";
                         }
                     })
+                    .onErrorResume(AiBusyException.class, e -> busy(userId, "chat", e))
                     .concatWith(Flux.just("data: [DONE]\n\n"))
                     .doOnComplete(() -> log.info("AI聊天流式响应完成"))
                     .doOnError(error -> log.error("AI聊天流式响应错误", error))
@@ -167,6 +179,12 @@ public class AiChatController {
                 log.info("生成新的sessionId: {}", sessionId);
             }
 
+            // 模型调用已满负荷时直接提示重试，不扣减配额；扣减后排队超时等繁忙情况由busy()退还
+            int retryAfter = aiConcurrencyLimiter.checkAdmission(userId);
+            if (retryAfter > 0) {
+                return Flux.just(busyEvent(retryAfter), "data: [DONE]\n\n");
+            }
+
             // 检查并消耗配额
             boolean hasQuota = aiQuotaService.hasQuota(userId, "analyze");
             if (!hasQuota) {
@@ -197,6 +215,7 @@ public class AiChatController {
                             return "data: {\"content\":\"" + content + "\"}\n\n";
                         }
                     })
+                    .onErrorResume(AiBusyException.class, e -> busy(userId, "analyze", e))
                     .concatWith(Flux.just("data: [DONE]\n\n"))
                     .doOnComplete(() -> log.info("AI题目解析流式响应完成"))
                     .doOnError(error -> log.error("AI题目解析流式响应错误", error))
@@ -234,6 +253,12 @@ public class AiChatController {
 
             log.info("AI判题请求参数: userId={}, questionId={}, userAnswer={}", userId, questionId, userAnswer);
 
+            // 模型调用已满负荷时直接提示重试，不扣减配额；扣减后排队超时等繁忙情况由busy()退还
+            int retryAfter = aiConcurrencyLimiter.checkAdmission(userId);
+            if (retryAfter > 0) {
+                return Flux.just(busyEvent(retryAfter), "data: [DONE]\n\n");
+            }
+
             // 检查并消耗配额
             boolean hasQuota = aiQuotaService.hasQuota(userId, "grading");
             if (!hasQuota) {
@@ -277,6 +302,7 @@ public class AiChatController {
                             return "data: {\"content\":\"" + content + "\"}\n\n";
                         }
                     })
+                    .onErrorResume(AiBusyException.class, e -> busy(userId, "grading", e))
                     .concatWith(Flux.just("data: [DONE]\n\n"))
                     .doOnComplete(() -> log.info("AI判题流式响应完成"))
                     .doOnError(error -> log.error("AI判题流式响应错误", error))
@@ -500,6 +526,21 @@ public class AiChatController {
         }
     }
 
+    /**
+     * 已扣减配额但因繁忙未能调用模型（排队超时、队列已满）：退还本次配额并提示重试
+     */
+    private Flux<String> busy(Long userId, String aiType, AiBusyException e) {
+        aiQuotaService.refundQuota(userId, aiType, 1);
+        return Flux.just(busyEvent(e.getRetryAfterSeconds()));
+    }
+
+    /**
+     * 构建繁忙提示事件，retryAfter为建议的重试等待秒数
+     */
+    private String busyEvent(int retryAfter) {
+        return "data: {\"error\":\"AI服务繁忙，请" + retryAfter + "秒后重试\",\"retryAfter\":" + retryAfter + "}\n\n";
+    }
+
     /**
      * 从请求中获取当前用户ID
      */
@@ -2,17 +2,16 @@ package com.qltiku2.controller;
 
 import com.qltiku2.common.Result;
 import com.qltiku2.entity.FileInfo;
+import com.qltiku2.service.FileDownloadService;
 import com.qltiku2.service.FileService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +30,9 @@ public class FileController {
     @Autowired
     private FileService fileService;
     
+    @Autowired
+    private FileDownloadService fileDownloadService;
+    
     /**
      * 分页获取文件列表
      * @param page 页码（从1开始）
@@ -148,10 +150,7 @@ public class FileController {
      * @param response HTTP响应
      */
     @GetMapping("/download/{id}")
-    public void downloadFile(@PathVariable Long id, HttpServletResponse response) {
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
-        
+    public void downloadFile(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) {
         try {
             FileInfo fileInfo = fileService.getFileById(id);
             if (fileInfo == null) {
@@ -161,59 +160,24 @@ public class FileController {
             }
             
             log.info("开始下载文件: id={}, name={}, path={}", id, fileInfo.getOriginalFileName(), fileInfo.getFtpPath());
-            
-            // 跳过文件存在性检查，直接尝试下载（避免FTP数据连接超时问题）
-            log.info("跳过文件存在性检查，直接尝试下载文件");
-            
-            // 设置响应头
-            response.setContentType(fileInfo.getMimeType() != null ? fileInfo.getMimeType() : "application/octet-stream");
-            response.setContentLengthLong(fileInfo.getFileSize());
-            
-            // 设置文件名
-            String encodedFileName = URLEncoder.encode(fileInfo.getOriginalFileName(), StandardCharsets.UTF_8.toString());
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + encodedFileName + "\"");
-            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
-            response.setHeader("Pragma", "no-cache");
-            response.setHeader("Expires", "0");
-            
-            // 获取文件流
-            inputStream = fileService.getFileStream(fileInfo.getFtpPath());
-            outputStream = response.getOutputStream();
-            
-            // 使用更大的缓冲区提高传输效率
-            byte[] buffer = new byte[32768]; // 32KB缓冲区
-            int bytesRead;
-            long totalBytesRead = 0;
             long startTime = System.currentTimeMillis();
             
-            log.info("开始传输文件数据，文件大小: {} bytes", fileInfo.getFileSize());
-            
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-                totalBytesRead += bytesRead;
-                
-                // 每传输1MB记录一次进度
-                if (totalBytesRead % (1024 * 1024) == 0) {
-                    long elapsed = System.currentTimeMillis() - startTime;
-                    log.debug("文件传输进度: {} / {} bytes, 耗时: {}ms", totalBytesRead, fileInfo.getFileSize(), elapsed);
-                }
-                
-                // 检查传输超时（超过60秒）
-                if (System.currentTimeMillis() - startTime > 60000) {
-                    log.error("文件传输超时，已传输: {} / {} bytes", totalBytesRead, fileInfo.getFileSize());
-                    response.setStatus(HttpServletResponse.SC_REQUEST_TIMEOUT);
-                    return;
-                }
-            }
-            
-            outputStream.flush();
+            // 优先读取本地缓存，支持断点续传与ETag条件请求
+            boolean counted = fileDownloadService.download(fileInfo, request, response);
             
             long elapsed = System.currentTimeMillis() - startTime;
-            log.info("文件下载完成: id={}, 传输字节数: {}, 耗时: {}ms", id, totalBytesRead, elapsed);
+            log.info("文件下载完成: id={}, 状态: {}, 耗时: {}ms", id, response.getStatus(), elapsed);
             
             // 增加下载次数
-            fileService.incrementDownloadCount(id);
+            if (counted) {
+                fileService.incrementDownloadCount(id);
+            }
             
+        } catch (FileNotFoundException e) {
+            log.warn("FTP文件不存在: id={}, error={}", id, e.getMessage());
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
         } catch (IOException e) {
             log.error("文件下载IO异常: id={}, error={}", id, e.getMessage(), e);
             if (!response.isCommitted()) {
@@ -224,24 +188,6 @@ public class FileController {
             if (!response.isCommitted()) {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
-        } finally {
-            // 确保资源被正确关闭
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                    log.debug("输入流已关闭");
-                } catch (IOException e) {
-                    log.error("关闭输入流失败", e);
-                }
-            }
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                    log.debug("输出流已关闭");
-                } catch (IOException e) {
-                    log.error("关闭输出流失败", e);
-                }
-            }
         }
     }
 }
\ No newline at end of file
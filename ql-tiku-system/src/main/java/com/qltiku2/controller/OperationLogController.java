@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.qltiku2.entity.OperationLog;
 import com.qltiku2.service.OperationLogService;
+import com.qltiku2.service.OperationLogWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
@@ -23,6 +24,9 @@ public class OperationLogController {
     @Autowired
     private OperationLogService operationLogService;
     
+    @Autowired
+    private OperationLogWriter operationLogWriter;
+    
     /**
      * 分页查询操作日志
      */
@@ -73,6 +77,19 @@ public class OperationLogController {
         return response;
     }
     
+    /**
+     * 获取日志写入管道统计（队列深度、丢弃数、溢出文件等）
+     */
+    @GetMapping("/pipeline-stats")
+    public Map<String, Object> getPipelineStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("code", 200);
+        response.put("message", "查询成功");
+        response.put("data", operationLogWriter.getStats());
+        
+        return response;
+    }
+    
     /**
      * 根据ID查询操作日志详情
      */
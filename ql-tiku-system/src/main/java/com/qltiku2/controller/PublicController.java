@@ -1,5 +1,6 @@
 package com.qltiku2.controller;
 
+import com.qltiku2.aspect.OperationLogPolicy;
 import com.qltiku2.common.Result;
 import com.qltiku2.service.SysConfigService;
 import lombok.extern.slf4j.Slf4j;
@@ -33,6 +34,7 @@ public class PublicController {
      * 获取系统基本配置信息
      * 包括系统名称、Logo、备案信息等
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.ERRORS_ONLY)
     @GetMapping("/config")
     public Result<Map<String, Object>> getPublicConfig() {
         try {
@@ -86,6 +88,7 @@ public class PublicController {
     /**
      * 获取每日一语
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.ERRORS_ONLY)
     @GetMapping("/daily-quote")
     public Result<String> getDailyQuote() {
         try {
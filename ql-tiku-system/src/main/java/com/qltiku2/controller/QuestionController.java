@@ -1,10 +1,12 @@
 package com.qltiku2.controller;
 
 import com.baomidou.mybatisplus.core.metadata.IPage;
+import com.qltiku2.aspect.OperationLogPolicy;
 import com.qltiku2.common.Result;
 import com.qltiku2.dto.AnswerSubmitRequest;
 import com.qltiku2.dto.QuestionQueryRequest;
 import com.qltiku2.dto.QuestionSaveRequest;
+import com.qltiku2.service.AiGradingEngine;
 import com.qltiku2.service.AiQuotaService;
 import com.qltiku2.service.PracticeCacheService;
 import com.qltiku2.service.QuestionService;
@@ -14,6 +16,7 @@ import com.qltiku2.vo.QuestionVO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.http.MediaType;
 
@@ -35,6 +38,11 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class QuestionController {
     
+    /**
+     * AI判题的最长等待时间（毫秒），两个提示词并发执行，各自超时30秒
+     */
+    private static final long AI_GRADING_TIMEOUT_MILLIS = 45000L;
+    
     @Autowired
     private QuestionService questionService;
     
@@ -51,6 +59,7 @@ public class QuestionController {
     /**
      * 分页查询题目列表
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @PostMapping("/page")
     public Result<IPage<QuestionVO>> getQuestionPage(@RequestBody QuestionQueryRequest request) {
         return questionService.getQuestionPage(request);
@@ -59,6 +68,7 @@ public class QuestionController {
     /**
      * 根据ID获取题目详情
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @GetMapping("/{id}")
     public Result<QuestionVO> getQuestionById(@PathVariable Long id) {
         return questionService.getQuestionById(id);
@@ -104,6 +114,7 @@ public class QuestionController {
     /**
      * 随机获取题目（用于练习）
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @GetMapping("/random")
     public Result<List<QuestionVO>> getRandomQuestions(
             @RequestParam(required = false) Long subjectId,
@@ -116,6 +127,7 @@ public class QuestionController {
     /**
      * 获取练习题目（支持顺序和随机不重复）
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @GetMapping("/practice")
     public Result<List<QuestionVO>> getPracticeQuestions(
             @RequestParam(required = false) Long subjectId,
@@ -163,6 +175,7 @@ public class QuestionController {
     /**
      * 搜索题目（支持模糊查询和多种筛选条件）
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @GetMapping("/search")
     public Result<IPage<QuestionVO>> searchQuestions(
             @RequestParam(defaultValue = "1") Integer current,
@@ -236,6 +249,7 @@ public class QuestionController {
     /**
      * 获取题目类型列表
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @GetMapping("/types")
     public Result<List<Map<String, Object>>> getQuestionTypes() {
         List<Map<String, Object>> types = new ArrayList<>();
@@ -266,6 +280,7 @@ public class QuestionController {
     /**
      * 获取难度等级列表
      */
+    @OperationLogPolicy(OperationLogPolicy.Mode.SAMPLED)
     @GetMapping("/difficulties")
     public Result<List<Map<String, Object>>> getDifficulties() {
         List<Map<String, Object>> difficulties = new ArrayList<>();
@@ -300,8 +315,17 @@ public class QuestionController {
      * AI判题
      */
     @PostMapping("/ai-grading")
-    public Result<Map<String, Object>> aiGrading(@Valid @RequestBody Map<String, Object> request) {
-        return questionService.aiGrading(request);
+    public DeferredResult<Result<Map<String, Object>>> aiGrading(@Valid @RequestBody Map<String, Object> request) {
+        // 判题异步完成，请求线程立即释放
+        DeferredResult<Result<Map<String, Object>>> deferredResult =
+                new DeferredResult<>(AI_GRADING_TIMEOUT_MILLIS, Result.error("AI判题超时，请稍后重试"));
+        if (!AiGradingEngine.isValidRequest(request)) {
+            deferredResult.setResult(Result.error("参数错误"));
+            return deferredResult;
+        }
+        questionService.aiGrading(request).whenComplete((result, error) ->
+                deferredResult.setResult(error == null ? result : Result.error("AI判题失败：" + error.getMessage())));
+        return deferredResult;
     }
     
     /**
@@ -328,6 +352,17 @@ public class QuestionController {
         SseEmitter emitter = new SseEmitter(60000L); // 60秒超时
         
         try {
+            // 参数错误时不消耗配额
+            if (!AiGradingEngine.isValidRequest(request)) {
+                emitter.send(SseEmitter.event()
+                    .data("{\"error\":\"参数错误\"}")
+                    .id(String.valueOf(System.currentTimeMillis()))
+                    .name("error"));
+                emitter.send(SseEmitter.event().data("[DONE]").id("done").name("done"));
+                emitter.complete();
+                return emitter;
+            }
+            
             // 检查并消耗AI配额
             if (aiQuotaService.hasQuota(userId, "grading")) {
                 // 消耗配额 - 在调用大模型之前扣除
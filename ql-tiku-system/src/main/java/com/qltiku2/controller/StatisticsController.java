@@ -1,5 +1,6 @@
 package com.qltiku2.controller;
 
+import com.qltiku2.aspect.OperationLogPolicy;
 import com.qltiku2.common.Result;
 import com.qltiku2.service.StatisticsService;
 import com.qltiku2.utils.UserContext;
@@ -16,6 +17,7 @@ import java.util.Map;
  */
 @RestController
 @RequestMapping("/statistics")
+@OperationLogPolicy(OperationLogPolicy.Mode.ERRORS_ONLY)
 @CrossOrigin(origins = "*")
 public class StatisticsController {
     
@@ -8,9 +8,14 @@ import com.qltiku2.entity.AiChatRecord;
 import com.qltiku2.entity.AiChatSession;
 import com.qltiku2.entity.AiGradingRecord;
 import com.qltiku2.entity.SysUser;
+import com.qltiku2.service.AiAnalysisCache;
 import com.qltiku2.service.AiChatRecordService;
 import com.qltiku2.service.AiChatSessionService;
+import com.qltiku2.service.AiChatStreamWriter;
+import com.qltiku2.service.AiConcurrencyLimiter;
+import com.qltiku2.service.AiGradingEngine;
 import com.qltiku2.service.AiGradingRecordService;
+import com.qltiku2.service.AiTokenAccounting;
 import com.qltiku2.mapper.SysUserMapper;
 import com.qltiku2.vo.AiChatRecordVO;
 import com.qltiku2.vo.AiChatSessionAdminVO;
@@ -41,6 +46,11 @@ public class AdminAiDataController {
     private final AiChatRecordService aiChatRecordService;
     private final AiGradingRecordService aiGradingRecordService;
     private final SysUserMapper sysUserMapper;
+    private final AiChatStreamWriter aiChatStreamWriter;
+    private final AiGradingEngine aiGradingEngine;
+    private final AiAnalysisCache aiAnalysisCache;
+    private final AiConcurrencyLimiter aiConcurrencyLimiter;
+    private final AiTokenAccounting aiTokenAccounting;
 
     /**
      * 获取AI聊天会话列表
@@ -473,4 +483,49 @@ public class AdminAiDataController {
             return Result.error("批量删除AI评分记录失败：" + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取AI流式回复写入统计
+     */
+    @GetMapping("/stream-stats")
+    @Operation(summary = "获取AI流式回复写入统计")
+    public Result<Map<String, Object>> getStreamStats() {
+        return Result.success(aiChatStreamWriter.getStats());
+    }
+
+    /**
+     * 获取AI判题引擎统计
+     */
+    @GetMapping("/grading-stats")
+    @Operation(summary = "获取AI判题引擎统计")
+    public Result<Map<String, Object>> getGradingStats() {
+        return Result.success(aiGradingEngine.getStats());
+    }
+
+    /**
+     * 获取AI题目解析缓存统计
+     */
+    @GetMapping("/analysis-cache-stats")
+    @Operation(summary = "获取AI题目解析缓存统计")
+    public Result<Map<String, Object>> getAnalysisCacheStats() {
+        return Result.success(aiAnalysisCache.getStats());
+    }
+
+    /**
+     * 获取AI模型调用并发统计（进行中调用、排队、排队等待与首个token延迟）
+     */
+    @GetMapping("/concurrency-stats")
+    @Operation(summary = "获取AI模型调用并发统计")
+    public Result<Map<String, Object>> getConcurrencyStats() {
+        return Result.success(aiConcurrencyLimiter.getStats());
+    }
+
+    /**
+     * 获取AI token用量核算统计
+     */
+    @GetMapping("/token-stats")
+    @Operation(summary = "获取AI token用量核算统计")
+    public Result<Map<String, Object>> getTokenStats() {
+        return Result.success(aiTokenAccounting.getStats());
+    }
+}
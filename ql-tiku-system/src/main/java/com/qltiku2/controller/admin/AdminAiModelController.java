@@ -3,6 +3,7 @@ package com.qltiku2.controller.admin;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.qltiku2.common.Result;
 import com.qltiku2.dto.AiModelSaveRequest;
+import com.qltiku2.service.AiModelRegistry;
 import com.qltiku2.service.AiModelService;
 import com.qltiku2.vo.AiModelVO;
 import lombok.extern.slf4j.Slf4j;
@@ -30,6 +31,9 @@ public class AdminAiModelController {
     @Autowired
     private AiModelService aiModelService;
 
+    @Autowired
+    private AiModelRegistry aiModelRegistry;
+
     /**
      * 分页查询AI模型列表
      */
@@ -107,4 +111,12 @@ public class AdminAiModelController {
         }
         return aiModelService.toggleModelStatus(id, enabled);
     }
+
+    /**
+     * 获取模型注册表缓存统计（命中、加载、ChatClient构建次数）
+     */
+    @GetMapping("/registry-stats")
+    public Result<Map<String, Object>> getRegistryStats() {
+        return Result.success(aiModelRegistry.getStats());
+    }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.qltiku2.controller.admin;
 
 import com.qltiku2.common.Result;
 import com.qltiku2.service.AnalyticsService;
+import com.qltiku2.service.LearningStatsRollupService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
@@ -21,6 +22,9 @@ public class AdminAnalyticsController {
     @Autowired
     private AnalyticsService analyticsService;
     
+    @Autowired
+    private LearningStatsRollupService learningStatsRollupService;
+    
     /**
      * 获取分析数据（综合数据）
      */
@@ -76,4 +80,26 @@ public class AdminAnalyticsController {
     public Result<Map<String, Object>> getWrongQuestionStats(@RequestParam(required = false) String dateRange) {
         return analyticsService.getWrongQuestionStats(dateRange);
     }
+    
+    /**
+     * 获取学习统计汇总的写回状态
+     */
+    @GetMapping("/rollup/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> getRollupStats() {
+        return Result.success(learningStatsRollupService.getStats());
+    }
+    
+    /**
+     * 由答题记录回填学习统计汇总表（重算今天之前的数据）
+     */
+    @PostMapping("/rollup/backfill")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> backfillRollup() {
+        Map<String, Object> result = learningStatsRollupService.backfill();
+        if (result == null) {
+            return Result.error("回填任务正在执行中");
+        }
+        return Result.success("回填完成", result);
+    }
 }
\ No newline at end of file
@@ -1,13 +1,18 @@
 package com.qltiku2.controller.admin;
 
 import com.qltiku2.common.Result;
+import com.qltiku2.service.IpLocationService;
+import com.qltiku2.utils.JwtUtils;
 import com.qltiku2.utils.QuestionCacheUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 /**
  * 管理员缓存管理控制器
  * 
@@ -20,17 +25,23 @@ public class AdminCacheController {
     @Autowired
     private QuestionCacheUtils questionCache;
     
+    @Autowired
+    private JwtUtils jwtUtils;
+    
+    @Autowired
+    private IpLocationService ipLocationService;
+    
     /**
      * 清除所有题目缓存（管理员专用）
+     * 仅递增缓存版本号，旧键随TTL自然过期，不阻塞Redis
      * 
-     * @return 操作结果
+     * @return 清理结果
      */
     @PostMapping("/clear/question")
     @PreAuthorize("hasRole('ADMIN')")
-    public Result<String> clearQuestionCache() {
+    public Result<QuestionCacheUtils.CacheClearResult> clearQuestionCache() {
         try {
-            questionCache.clearAll();
-            return Result.success("题目缓存已清除");
+            return Result.success("题目缓存已清除", questionCache.invalidateAll());
         } catch (Exception e) {
             return Result.error("清除缓存失败：" + e.getMessage());
         }
@@ -38,17 +49,65 @@ public class AdminCacheController {
     
     /**
      * 清除所有缓存（管理员专用）
+     * 使用SCAN + UNLINK物理删除所有题目缓存键
      * 
-     * @return 操作结果
+     * @return 清理结果（删除的键数与耗时）
      */
     @PostMapping("/clear/all")
     @PreAuthorize("hasRole('ADMIN')")
-    public Result<String> clearAllCache() {
+    public Result<QuestionCacheUtils.CacheClearResult> clearAllCache() {
         try {
-            questionCache.clearAll();
-            return Result.success("所有缓存已清除");
+            return Result.success("所有缓存已清除", questionCache.clearAll());
         } catch (Exception e) {
             return Result.error("清除缓存失败：" + e.getMessage());
         }
     }
+    
+    /**
+     * 获取题目本地缓存统计（管理员专用）
+     * 
+     * @return 命中率等统计信息
+     */
+    @GetMapping("/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> getCacheStats() {
+        return Result.success(questionCache.getLocalCacheStats());
+    }
+    
+    /**
+     * 获取JWT认证统计（管理员专用）
+     * 
+     * @return 平均认证耗时、认证主体缓存命中率、Redis会话检查次数
+     */
+    @GetMapping("/jwt-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> getJwtStats() {
+        return Result.success(jwtUtils.getAuthenticateStats());
+    }
+    
+    /**
+     * 获取IP地理位置查询统计（管理员专用）
+     * 
+     * @return 地址库规模、缓存命中、HTTP回退次数
+     */
+    @GetMapping("/ip-location/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> getIpLocationStats() {
+        return Result.success(ipLocationService.getStats());
+    }
+    
+    /**
+     * 重新加载IP地址库（管理员专用）
+     * 
+     * @return 加载后的统计信息
+     */
+    @PostMapping("/ip-location/reload")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> reloadIpLocation() {
+        try {
+            return Result.success("IP地址库已重新加载", ipLocationService.reload());
+        } catch (Exception e) {
+            return Result.error("重新加载IP地址库失败：" + e.getMessage());
+        }
+    }
 }
\ No newline at end of file
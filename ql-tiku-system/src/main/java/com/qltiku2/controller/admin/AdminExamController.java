@@ -5,6 +5,7 @@ import com.qltiku2.common.Result;
 import com.qltiku2.dto.ExamQueryRequest;
 import com.qltiku2.dto.ExamSaveRequest;
 import com.qltiku2.dto.QuestionQueryRequest;
+import com.qltiku2.service.ExamGradingService;
 import com.qltiku2.service.ExamService;
 import com.qltiku2.service.QuestionService;
 import com.qltiku2.utils.UserContext;
@@ -17,6 +18,7 @@ import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 管理端考试控制器
@@ -33,6 +35,18 @@ public class AdminExamController {
     @Resource
     private QuestionService questionService;
     
+    @Resource
+    private ExamGradingService examGradingService;
+    
+    /**
+     * 获取交卷判分统计（平均数据库往返次数与耗时）
+     */
+    @GetMapping("/grading/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> getGradingStats() {
+        return Result.success(examGradingService.getStats());
+    }
+    
     /**
      * 分页查询考试
      */
@@ -2,17 +2,17 @@ package com.qltiku2.controller.admin;
 
 import com.qltiku2.common.Result;
 import com.qltiku2.entity.FileInfo;
+import com.qltiku2.service.FileDownloadService;
 import com.qltiku2.service.FileService;
+import com.qltiku2.service.FtpService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +30,12 @@ public class AdminFileController {
     @Autowired
     private FileService fileService;
     
+    @Autowired
+    private FtpService ftpService;
+    
+    @Autowired
+    private FileDownloadService fileDownloadService;
+    
     /**
      * 分页获取文件列表
      * @param page 页码（从1开始）
@@ -236,13 +242,39 @@ public class AdminFileController {
         }
     }
     
+    /**
+     * 获取FTP连接池统计信息
+     * @return 连接池统计（借出、空闲、等待时间、目录缓存命中等）
+     */
+    @GetMapping("/ftp-pool-stats")
+    public Result<Map<String, Object>> getFtpPoolStats() {
+        try {
+            return Result.success(ftpService.getPoolStats());
+        } catch (Exception e) {
+            return Result.error("获取FTP连接池统计失败：" + e.getMessage());
+        }
+    }
+    
+    /**
+     * 获取文件下载缓存统计信息
+     * @return 缓存统计（命中率、占用空间、合并的并发填充等）
+     */
+    @GetMapping("/download-cache-stats")
+    public Result<Map<String, Object>> getDownloadCacheStats() {
+        try {
+            return Result.success(fileDownloadService.getCacheStats());
+        } catch (Exception e) {
+            return Result.error("获取下载缓存统计失败：" + e.getMessage());
+        }
+    }
+    
     /**
      * 下载文件
      * @param id 文件ID
      * @param response HTTP响应
      */
     @GetMapping("/download/{id}")
-    public void downloadFile(@PathVariable Long id, HttpServletResponse response) {
+    public void downloadFile(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) {
         try {
             FileInfo fileInfo = fileService.getFileById(id);
             if (fileInfo == null) {
@@ -250,39 +282,24 @@ public class AdminFileController {
                 return;
             }
             
-            // 检查文件是否存在
-            if (!fileService.fileExists(fileInfo.getFtpPath())) {
-                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                return;
+            // 优先读取本地缓存，支持断点续传与ETag条件请求
+            if (fileDownloadService.download(fileInfo, request, response)) {
+                // 增加下载次数
+                fileService.incrementDownloadCount(id);
             }
             
-            // 设置响应头
-            response.setContentType(fileInfo.getMimeType() != null ? fileInfo.getMimeType() : "application/octet-stream");
-            response.setContentLengthLong(fileInfo.getFileSize());
-            
-            // 设置文件名
-            String encodedFileName = URLEncoder.encode(fileInfo.getOriginalFileName(), StandardCharsets.UTF_8.toString());
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + encodedFileName + "\"");
-            
-            // 获取文件流并写入响应
-            try (InputStream inputStream = fileService.getFileStream(fileInfo.getFtpPath());
-                 OutputStream outputStream = response.getOutputStream()) {
-                
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-                outputStream.flush();
+        } catch (FileNotFoundException e) {
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             }
-            
-            // 增加下载次数
-            fileService.incrementDownloadCount(id);
-            
         } catch (IOException e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
         } catch (Exception e) {
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
         }
     }
 }
\ No newline at end of file
@@ -173,6 +173,20 @@ public class AdminSystemController {
         }
     }
 
+    /**
+     * 获取配置快照统计
+     */
+    @GetMapping("/config/cache-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Result<Map<String, Object>> getConfigCacheStats() {
+        try {
+            return Result.success(sysConfigService.getConfigCacheStats());
+        } catch (Exception e) {
+            log.error("获取配置快照统计失败", e);
+            return Result.error("获取配置快照统计失败");
+        }
+    }
+
     /**
      * 添加或更新配置
      */
@@ -0,0 +1,28 @@
+package com.qltiku2.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * AI每日token用量汇总实体类
+ * 按 (用户, 日期, 模型代码) 累加调用次数与token数
+ * 
+ * @author qltiku2
+ */
+@Data
+@TableName("ai_token_usage_daily")
+public class AiTokenUsageDaily {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    
+    private Long userId;
+    private LocalDate usageDate;
+    private String modelCode;
+    private Integer requestCount;
+    private Long promptTokens;
+    private Long completionTokens;
+    private Long totalTokens;
+    private LocalDateTime updateTime;
+}
@@ -25,6 +25,18 @@ public class AiUsageLog {
     private Integer promptTokens;
     private Integer completionTokens;
     private Integer totalTokens;
+    /**
+     * 是否由解析缓存或并发请求的共享调用提供（未调用模型）
+     */
+    private Boolean cacheHit;
+    /**
+     * 命中缓存时节省的token数（估算）
+     */
+    private Integer tokensSaved;
+    /**
+     * 从发起请求到回复结束的耗时（毫秒）
+     */
+    private Long latencyMs;
     
     @TableField(fill = FieldFill.INSERT)
     private LocalDateTime usageTime;
@@ -0,0 +1,28 @@
+package com.qltiku2.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 用户每日学习统计汇总实体类
+ * 按 (用户, 日期, 科目, 难度) 累加答题数、正确数与答题用时，科目/难度为0表示未知
+ * 
+ * @author qltiku2
+ */
+@Data
+@TableName("user_daily_stats")
+public class UserDailyStats {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    
+    private Long userId;
+    private LocalDate statDate;
+    private Long subjectId;
+    private Integer difficulty;
+    private Integer attemptCount;
+    private Integer correctCount;
+    private Long totalAnswerTime;
+    private LocalDateTime updateTime;
+}
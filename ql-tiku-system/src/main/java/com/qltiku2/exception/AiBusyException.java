@@ -0,0 +1,25 @@
+package com.qltiku2.exception;
+
+/**
+ * AI服务繁忙异常（并发已满且等待队列已满或等待超时）
+ *
+ * @author qltiku2
+ */
+public class AiBusyException extends BusinessException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 建议的重试等待时间（秒）
+     */
+    private final int retryAfterSeconds;
+
+    public AiBusyException(int retryAfterSeconds) {
+        super(429, "AI服务繁忙，请" + retryAfterSeconds + "秒后重试");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
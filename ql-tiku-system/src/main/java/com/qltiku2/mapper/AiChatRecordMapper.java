@@ -2,6 +2,7 @@ package com.qltiku2.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.qltiku2.entity.AiChatRecord;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -37,4 +38,18 @@ public interface AiChatRecordMapper extends BaseMapper<AiChatRecord> {
      */
     @Select("SELECT DISTINCT session_id FROM ai_chat_record WHERE user_id = #{userId} ORDER BY create_time DESC LIMIT #{limit}")
     List<String> getRecentSessions(@Param("userId") Long userId, @Param("limit") Integer limit);
+
+    /**
+     * 批量插入聊天记录（多行INSERT，一次往返）
+     *
+     * @param records 聊天记录
+     * @return 插入行数
+     */
+    @Insert("<script>" +
+            "INSERT INTO ai_chat_record (user_id, session_id, question_id, message_type, content, create_time) VALUES " +
+            "<foreach collection='records' item='r' separator=','>" +
+            "(#{r.userId}, #{r.sessionId}, #{r.questionId}, #{r.messageType}, #{r.content}, #{r.createTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("records") List<AiChatRecord> records);
 }
\ No newline at end of file
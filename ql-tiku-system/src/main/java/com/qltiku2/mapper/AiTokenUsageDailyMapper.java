@@ -0,0 +1,42 @@
+package com.qltiku2.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.qltiku2.entity.AiTokenUsageDaily;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * AI每日token用量汇总Mapper接口
+ * 
+ * @author qltiku2
+ */
+@Mapper
+public interface AiTokenUsageDailyMapper extends BaseMapper<AiTokenUsageDaily> {
+    
+    /**
+     * 批量累加用量增量（多行 INSERT ... ON DUPLICATE KEY UPDATE）
+     */
+    @Insert("<script>" +
+            "INSERT INTO ai_token_usage_daily (user_id, usage_date, model_code, request_count, prompt_tokens, completion_tokens, total_tokens) VALUES " +
+            "<foreach collection='rows' item='r' separator=','>" +
+            "(#{r.userId}, #{r.usageDate}, #{r.modelCode}, #{r.requestCount}, #{r.promptTokens}, #{r.completionTokens}, #{r.totalTokens})" +
+            "</foreach>" +
+            " ON DUPLICATE KEY UPDATE " +
+            "request_count = request_count + VALUES(request_count), " +
+            "prompt_tokens = prompt_tokens + VALUES(prompt_tokens), " +
+            "completion_tokens = completion_tokens + VALUES(completion_tokens), " +
+            "total_tokens = total_tokens + VALUES(total_tokens)" +
+            "</script>")
+    int upsertBatch(@Param("rows") List<AiTokenUsageDaily> rows);
+    
+    /**
+     * 统计用户某天所有模型的token总数
+     */
+    @Select("SELECT COALESCE(SUM(total_tokens), 0) FROM ai_token_usage_daily WHERE user_id = #{userId} AND usage_date = #{usageDate}")
+    long sumTotalTokens(@Param("userId") Long userId, @Param("usageDate") LocalDate usageDate);
+}
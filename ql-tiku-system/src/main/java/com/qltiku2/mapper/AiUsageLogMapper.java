@@ -2,9 +2,13 @@ package com.qltiku2.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.qltiku2.entity.AiUsageLog;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
+import java.util.List;
+
 /**
  * AI使用日志Mapper接口
  * 
@@ -24,4 +28,17 @@ public interface AiUsageLogMapper extends BaseMapper<AiUsageLog> {
      */
     @Select("SELECT COUNT(*) FROM ai_usage_log WHERE user_id = #{userId} AND YEAR(usage_time) = YEAR(NOW()) AND MONTH(usage_time) = MONTH(NOW())")
     int countMonthlyUsage(Long userId);
+    
+    /**
+     * 批量插入使用日志（多行INSERT，一次往返）
+     */
+    @Insert("<script>" +
+            "INSERT INTO ai_usage_log (user_id, ai_type, tokens_used, ip_address, user_agent, model_id, model_code, " +
+            "prompt_tokens, completion_tokens, total_tokens, cache_hit, tokens_saved, latency_ms, usage_time) VALUES " +
+            "<foreach collection='logs' item='l' separator=','>" +
+            "(#{l.userId}, #{l.aiType}, #{l.tokensUsed}, #{l.ipAddress}, #{l.userAgent}, #{l.modelId}, #{l.modelCode}, " +
+            "#{l.promptTokens}, #{l.completionTokens}, #{l.totalTokens}, #{l.cacheHit}, #{l.tokensSaved}, #{l.latencyMs}, #{l.usageTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("logs") List<AiUsageLog> logs);
 }
\ No newline at end of file
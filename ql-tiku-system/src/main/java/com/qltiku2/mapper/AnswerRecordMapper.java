@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.qltiku2.entity.AnswerRecord;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -90,6 +91,30 @@ public interface AnswerRecordMapper extends BaseMapper<AnswerRecord> {
             "ORDER BY date ASC")
     List<Map<String, Object>> selectDailyStats(@Param("userId") Long userId, @Param("startDate") LocalDateTime startDate);
     
+    /**
+     * 按天聚合用户答题数、正确数与答题用时（SQL见AnswerRecordMapper.xml）
+     */
+    List<Map<String, Object>> selectDailyAnswerStats(@Param("userId") Long userId,
+                                                     @Param("startTime") LocalDateTime startTime,
+                                                     @Param("endTime") LocalDateTime endTime,
+                                                     @Param("subjectId") Long subjectId);
+    
+    /**
+     * 按科目聚合用户答题数与正确数（SQL见AnswerRecordMapper.xml）
+     */
+    List<Map<String, Object>> selectSubjectAnswerStats(@Param("userId") Long userId,
+                                                       @Param("startTime") LocalDateTime startTime,
+                                                       @Param("endTime") LocalDateTime endTime,
+                                                       @Param("subjectId") Long subjectId);
+    
+    /**
+     * 按难度聚合用户答题数与正确数（SQL见AnswerRecordMapper.xml）
+     */
+    List<Map<String, Object>> selectDifficultyAnswerStats(@Param("userId") Long userId,
+                                                          @Param("startTime") LocalDateTime startTime,
+                                                          @Param("endTime") LocalDateTime endTime,
+                                                          @Param("subjectId") Long subjectId);
+    
     /**
      * 检查用户是否已答过某题
      */
@@ -101,4 +126,17 @@ public interface AnswerRecordMapper extends BaseMapper<AnswerRecord> {
      */
     @Select("SELECT COUNT(DISTINCT exam_id) FROM answer_record WHERE user_id = #{userId} AND practice_type = 2 AND exam_id IS NOT NULL")
     Integer countDistinctExamsByUserId(@Param("userId") Long userId);
+    
+    /**
+     * 批量插入答题记录（多行INSERT，一次往返）
+     */
+    @Insert("<script>" +
+            "INSERT INTO answer_record (user_id, question_id, exam_id, user_answer, is_correct, score, " +
+            "answer_time, practice_type, remark, create_time) VALUES " +
+            "<foreach collection='records' item='r' separator=','>" +
+            "(#{r.userId}, #{r.questionId}, #{r.examId}, #{r.userAnswer}, #{r.isCorrect}, #{r.score}, " +
+            "#{r.answerTime}, #{r.practiceType}, #{r.remark}, #{r.createTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("records") List<AnswerRecord> records);
 }
\ No newline at end of file
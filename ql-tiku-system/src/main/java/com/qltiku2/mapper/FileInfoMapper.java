@@ -39,6 +39,21 @@ public interface FileInfoMapper {
     @Select("SELECT COUNT(*) FROM file_info")
     long count();
     
+    @Select("SELECT * FROM file_info WHERE checksum = #{checksum} ORDER BY id LIMIT 1")
+    FileInfo selectOneByChecksum(String checksum);
+    
+    /**
+     * 锁定并返回文件记录（需在事务中调用）
+     */
+    @Select("SELECT * FROM file_info WHERE id = #{id} FOR UPDATE")
+    FileInfo selectByIdForUpdate(Long id);
+    
+    /**
+     * 锁定共用同一存储文件的所有记录，返回除自身外的记录ID（需在事务中调用）
+     */
+    @Select("SELECT id FROM file_info WHERE checksum = #{checksum} AND ftp_path = #{ftpPath} AND id <> #{id} FOR UPDATE")
+    List<Long> selectSharedStorageForUpdate(@Param("id") Long id, @Param("checksum") String checksum, @Param("ftpPath") String ftpPath);
+    
     @Select("SELECT * FROM file_info WHERE generated_file_name = #{generatedFileName}")
     FileInfo selectByGeneratedFileName(String generatedFileName);
     
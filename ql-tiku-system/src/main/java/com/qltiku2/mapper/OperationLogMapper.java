@@ -2,11 +2,30 @@ package com.qltiku2.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.qltiku2.entity.OperationLog;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * 操作日志Mapper接口
  */
 @Mapper
 public interface OperationLogMapper extends BaseMapper<OperationLog> {
-}
\ No newline at end of file
+    
+    /**
+     * 批量插入操作日志（多行INSERT，一次往返）
+     */
+    @Insert("<script>" +
+            "INSERT INTO operation_log (user_id, username, operation_method, request_method, request_url, " +
+            "request_params, response_data, status_code, ip_address, location, user_agent, execution_time, " +
+            "error_message, create_time) VALUES " +
+            "<foreach collection='logs' item='l' separator=','>" +
+            "(#{l.userId}, #{l.username}, #{l.operationMethod}, #{l.requestMethod}, #{l.requestUrl}, " +
+            "#{l.requestParams}, #{l.responseData}, #{l.statusCode}, #{l.ipAddress}, #{l.location}, #{l.userAgent}, " +
+            "#{l.executionTime}, #{l.errorMessage}, #{l.createTime})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("logs") List<OperationLog> logs);
+}
@@ -3,8 +3,12 @@ package com.qltiku2.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.qltiku2.entity.UserAiQuota;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Update;
 
+import java.time.LocalDate;
+import java.util.List;
+
 /**
  * 用户AI配额Mapper接口
  * 
@@ -26,4 +30,16 @@ public interface UserAiQuotaMapper extends BaseMapper<UserAiQuota> {
      */
     @Update("UPDATE user_ai_quota SET used_monthly = 0")
     void resetAllMonthlyQuota();
+    
+    /**
+     * 批量写回已使用次数（Redis计数器的镜像），一条语句更新多个用户
+     */
+    @Update("<script>" +
+            "UPDATE user_ai_quota SET " +
+            "used_daily = CASE user_id <foreach collection='rows' item='r' separator=' '>WHEN #{r.userId} THEN #{r.usedDaily}</foreach> END, " +
+            "used_monthly = CASE user_id <foreach collection='rows' item='r' separator=' '>WHEN #{r.userId} THEN #{r.usedMonthly}</foreach> END, " +
+            "last_reset_date = #{resetDate} " +
+            "WHERE user_id IN <foreach collection='rows' item='r' open='(' separator=',' close=')'>#{r.userId}</foreach>" +
+            "</script>")
+    int batchUpdateUsage(@Param("rows") List<UserAiQuota> rows, @Param("resetDate") LocalDate resetDate);
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package com.qltiku2.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.qltiku2.entity.UserDailyStats;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 用户每日学习统计汇总Mapper接口（SQL见UserDailyStatsMapper.xml）
+ * 
+ * @author qltiku2
+ */
+@Mapper
+public interface UserDailyStatsMapper extends BaseMapper<UserDailyStats> {
+    
+    /**
+     * 批量累加统计增量（多行 INSERT ... ON DUPLICATE KEY UPDATE）
+     */
+    int upsertBatch(@Param("rows") List<UserDailyStats> rows);
+    
+    /**
+     * 按天汇总用户答题数与正确数
+     */
+    List<Map<String, Object>> selectDaily(@Param("userId") Long userId,
+                                          @Param("startDate") LocalDate startDate,
+                                          @Param("endDate") LocalDate endDate,
+                                          @Param("subjectId") Long subjectId);
+    
+    /**
+     * 按科目汇总用户答题数与正确数（不含未知科目）
+     */
+    List<Map<String, Object>> selectBySubject(@Param("userId") Long userId,
+                                              @Param("startDate") LocalDate startDate,
+                                              @Param("endDate") LocalDate endDate,
+                                              @Param("subjectId") Long subjectId);
+    
+    /**
+     * 按难度汇总用户答题数与正确数（不含未知科目）
+     */
+    List<Map<String, Object>> selectByDifficulty(@Param("userId") Long userId,
+                                                 @Param("startDate") LocalDate startDate,
+                                                 @Param("endDate") LocalDate endDate,
+                                                 @Param("subjectId") Long subjectId);
+    
+    /**
+     * 按天汇总全站答题数
+     */
+    List<Map<String, Object>> selectGlobalDaily(@Param("startDate") LocalDate startDate,
+                                                @Param("endDate") LocalDate endDate);
+    
+    /**
+     * 统计指定日期起有答题的用户数
+     */
+    Long countActiveUsers(@Param("startDate") LocalDate startDate);
+    
+    /**
+     * 分页获取有答题记录的用户ID（按ID递增，用于回填）
+     */
+    List<Long> selectAnswerUserIds(@Param("afterUserId") Long afterUserId, @Param("limit") int limit);
+    
+    /**
+     * 删除指定用户在截止日期之前的统计（回填重算前调用）
+     */
+    int deleteForUsers(@Param("userIds") List<Long> userIds, @Param("beforeDate") LocalDate beforeDate);
+    
+    /**
+     * 由答题记录重算指定用户在截止时间之前的统计（需先调用 {@link #deleteForUsers}）
+     */
+    int rebuildForUsers(@Param("userIds") List<Long> userIds, @Param("before") LocalDateTime before);
+}
@@ -4,11 +4,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.qltiku2.entity.WrongQuestion;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -120,4 +122,21 @@ public interface WrongQuestionMapper extends BaseMapper<WrongQuestion> {
      */
     @Update("UPDATE wrong_question SET wrong_count = wrong_count + 1, last_wrong_time = NOW() WHERE user_id = #{userId} AND question_id = #{questionId}")
     Integer increaseWrongCount(@Param("userId") Long userId, @Param("questionId") Long questionId);
+    
+    /**
+     * 批量写入错题（已存在则错误次数+1），依赖 uk_user_question 唯一索引
+     */
+    @Insert("<script>" +
+            "INSERT INTO wrong_question (user_id, question_id, wrong_type, wrong_count, is_mastered, " +
+            "last_wrong_time, create_time, update_time) VALUES " +
+            "<foreach collection='questionIds' item='qid' separator=','>" +
+            "(#{userId}, #{qid}, #{wrongType}, 1, 0, #{now}, #{now}, #{now})" +
+            "</foreach>" +
+            " ON DUPLICATE KEY UPDATE wrong_count = wrong_count + 1, last_wrong_time = VALUES(last_wrong_time), " +
+            "wrong_type = VALUES(wrong_type), update_time = VALUES(update_time)" +
+            "</script>")
+    int upsertBatch(@Param("userId") Long userId,
+                    @Param("questionIds") List<Long> questionIds,
+                    @Param("wrongType") String wrongType,
+                    @Param("now") LocalDateTime now);
 }
\ No newline at end of file
@@ -1,11 +1,9 @@
 package com.qltiku2.security;
 
-import com.qltiku2.service.UserDetailsServiceImpl;
 import com.qltiku2.utils.JwtUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -18,88 +16,51 @@ import java.io.IOException;
 
 /**
  * JWT认证过滤器
- * 处理每个请求的JWT令牌验证
+ * 处理每个请求的JWT令牌验证：令牌只解析一次，用户名、用户ID、用户类型与权限均取自声明，
+ * 不再按请求查库；Redis会话校验为一次MGET，验证结果按token短时缓存在本地
  * 
  * @author qltiku2
  */
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
     
-    @Autowired
-    private JwtUtils jwtUtils;
+    private final WebAuthenticationDetailsSource detailsSource = new WebAuthenticationDetailsSource();
     
     @Autowired
-    private UserDetailsServiceImpl userDetailsService;
+    private JwtUtils jwtUtils;
     
     @Override
     protected void doFilterInternal(HttpServletRequest request, 
                                    HttpServletResponse response, 
                                    FilterChain filterChain) throws ServletException, IOException {
         
-        String requestURI = request.getRequestURI();
-        String method = request.getMethod();
-        logger.info("=== JWT过滤器开始处理请求 ===");
-        logger.info("请求URI: " + requestURI);
-        logger.info("请求方法: " + method);
-        logger.info("请求来源: " + request.getRemoteAddr());
-        logger.debug("JWT过滤器处理请求: " + requestURI);
+        if (logger.isDebugEnabled()) {
+            logger.debug("JWT过滤器处理请求: " + request.getMethod() + " " + request.getRequestURI());
+        }
         
         try {
-            // 获取请求头中的Authorization
-            String authHeader = request.getHeader(jwtUtils.getHeader());
-            logger.debug("Authorization头: " + authHeader);
-            
-            String username = null;
-            String token = null;
+            // 获取请求头中的Authorization并提取token
+            String token = jwtUtils.getTokenFromHeader(request.getHeader(jwtUtils.getHeader()));
             
-            // 验证token格式并提取
-            if (jwtUtils.validateTokenFormat(authHeader)) {
-                token = jwtUtils.getTokenFromHeader(authHeader);
-                logger.debug("提取的token: " + (token != null ? token.substring(0, Math.min(20, token.length())) + "..." : "null"));
-                try {
-                    username = jwtUtils.getUsernameFromToken(token);
-                    logger.debug("从token中解析的用户名: " + username);
-                } catch (Exception e) {
-                    logger.warn("JWT令牌解析失败: " + e.getMessage());
-                }
-            } else {
-                logger.debug("Token格式验证失败，authHeader: " + authHeader);
-            }
-            
-            // 如果用户名不为空且当前没有认证信息
-            if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                logger.debug("开始验证用户: " + username);
-                
-                // 加载用户详情
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-                logger.debug("加载的用户详情: " + userDetails.getUsername() + ", 权限: " + userDetails.getAuthorities());
-                
-                // 验证token
-                if (jwtUtils.validateToken(token, userDetails.getUsername())) {
-                    logger.debug("Token验证成功，设置认证信息");
-                    
+            // 如果token不为空且当前没有认证信息
+            if (token != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+                LoginUser loginUser = jwtUtils.authenticate(token);
+                if (loginUser != null) {
                     // 创建认证对象
                     UsernamePasswordAuthenticationToken authToken = 
                         new UsernamePasswordAuthenticationToken(
-                            userDetails, 
+                            loginUser, 
                             null, 
-                            userDetails.getAuthorities()
+                            loginUser.getAuthorities()
                         );
                     
                     // 设置详情
-                    authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    authToken.setDetails(detailsSource.buildDetails(request));
                     
                     // 设置到安全上下文
                     SecurityContextHolder.getContext().setAuthentication(authToken);
-                    logger.debug("认证信息已设置到SecurityContext");
-                } else {
-                    logger.warn("Token验证失败，用户: " + username);
-                }
-            } else {
-                if (username == null) {
-                    logger.debug("未从token中解析到用户名");
                 } else {
-                    logger.debug("SecurityContext中已存在认证信息");
+                    logger.debug("Token验证失败");
                 }
             }
         } catch (Exception e) {
@@ -109,4 +70,4 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         // 继续过滤器链
         filterChain.doFilter(request, response);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package com.qltiku2.security;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * 已登录用户主体
+ * 由JWT声明直接构建（不查库），在 UserDetails 基础上携带用户ID与用户类型
+ * 
+ * @author qltiku2
+ */
+public class LoginUser extends User {
+    
+    private final Long userId;
+    
+    private final Integer userType;
+    
+    public LoginUser(Long userId, String username, Integer userType, Collection<? extends GrantedAuthority> authorities) {
+        super(username, "", authorities);
+        this.userId = userId;
+        this.userType = userType;
+    }
+    
+    public Long getUserId() {
+        return userId;
+    }
+    
+    public Integer getUserType() {
+        return userType;
+    }
+}
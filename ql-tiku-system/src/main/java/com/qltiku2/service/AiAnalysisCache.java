@@ -0,0 +1,248 @@
+package com.qltiku2.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * AI题目解析结果缓存
+ * 以 规范化提示词的SHA-256 + 模型代码 为键，本地缓存在前、Redis（带TTL）在后。
+ * 命中时把缓存内容切片后模拟流式输出；未命中时同一键的并发请求共享一次上游调用（后到的请求从头重放已生成的片段），
+ * 上游正常结束后写入缓存，出错的结果不缓存。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class AiAnalysisCache {
+
+    private static final String CACHE_PREFIX = "ai_analysis_cache:";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    @Value("${ai.analysis-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.analysis-cache.ttl-hours:168}")
+    private long ttlHours;
+
+    @Value("${ai.analysis-cache.local-size:1000}")
+    private int localSize;
+
+    @Value("${ai.analysis-cache.local-ttl-minutes:30}")
+    private long localTtlMinutes;
+
+    @Value("${ai.analysis-cache.replay-chunk-chars:16}")
+    private int replayChunkChars;
+
+    @Value("${ai.analysis-cache.replay-delay-ms:10}")
+    private long replayDelayMs;
+
+    private Cache<String, String> localCache;
+
+    /**
+     * 进行中的上游调用：缓存键 -> 共享的回复流
+     */
+    private final Map<String, Flux<String>> inflight = new ConcurrentHashMap<>();
+
+    // 缓存统计
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong redisHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localSize)
+                .expireAfterWrite(localTtlMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 构建缓存键：规范化（去首尾空白、合并连续空白）后的提示词哈希 + 模型代码
+     */
+    public String keyOf(String prompt, String modelCode) {
+        String normalized = WHITESPACE.matcher(prompt.trim()).replaceAll(" ");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return CACHE_PREFIX + modelCode + ":" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 查询缓存，未命中时调用上游（同一键并发时只调用一次）
+     *
+     * @param key 缓存键
+     * @param upstream 上游回复流
+     * @return 回复流及是否由缓存或其他请求提供
+     */
+    public Lookup lookup(String key, Supplier<Flux<String>> upstream) {
+        if (!enabled) {
+            return new Lookup(upstream.get(), false);
+        }
+
+        String cached = get(key);
+        if (cached != null) {
+            return new Lookup(replay(cached), true);
+        }
+
+        boolean[] leader = {false};
+        Flux<String> shared = inflight.computeIfAbsent(key, k -> {
+            leader[0] = true;
+            return share(k, upstream.get());
+        });
+        if (leader[0]) {
+            misses.incrementAndGet();
+        } else {
+            coalesced.incrementAndGet();
+        }
+        return new Lookup(shared, !leader[0]);
+    }
+
+    private String get(String key) {
+        String cached = localCache.getIfPresent(key);
+        if (cached != null) {
+            localHits.incrementAndGet();
+            return cached;
+        }
+        try {
+            cached = redisTemplate.opsForValue().get(key);
+        } catch (Exception e) {
+            log.warn("读取AI解析缓存失败: {}", e.getMessage());
+            return null;
+        }
+        if (cached != null) {
+            redisHits.incrementAndGet();
+            localCache.put(key, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * 包装上游：累积完整回复，正常结束后写入缓存；多个订阅者共享同一次上游调用，
+     * 订阅者取消不会中断上游，保证结果能够写入缓存
+     */
+    private Flux<String> share(String key, Flux<String> upstream) {
+        StringBuilder content = new StringBuilder();
+        return upstream
+                .doOnNext(content::append)
+                .doOnComplete(() -> store(key, content.toString()))
+                .doFinally(signal -> inflight.remove(key))
+                .replay()
+                .autoConnect(1);
+    }
+
+    private void store(String key, String content) {
+        if (content.isEmpty()) {
+            return;
+        }
+        localCache.put(key, content);
+        stores.incrementAndGet();
+        // Redis写入放到线程池，不阻塞流式输出
+        taskExecutor.execute(() -> {
+            try {
+                redisTemplate.opsForValue().set(key, content, ttlHours, TimeUnit.HOURS);
+            } catch (Exception e) {
+                log.warn("写入AI解析缓存失败: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 把缓存内容切片，模拟流式输出
+     */
+    private Flux<String> replay(String content) {
+        Flux<String> chunks = Flux.generate(() -> 0, (start, sink) -> {
+            if (start >= content.length()) {
+                sink.complete();
+                return start;
+            }
+            int end = Math.min(start + replayChunkChars, content.length());
+            // 不拆分代理对
+            if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end++;
+            }
+            sink.next(content.substring(start, end));
+            return end;
+        });
+        return replayDelayMs > 0 ? chunks.delayElements(Duration.ofMillis(replayDelayMs)) : chunks;
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStats() {
+        long hits = localHits.get() + redisHits.get() + coalesced.get();
+        long total = hits + misses.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("localHits", localHits.get());
+        stats.put("redisHits", redisHits.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total > 0 ? (double) hits / total : 0.0);
+        stats.put("stores", stores.get());
+        stats.put("localSize", localCache.estimatedSize());
+        stats.put("inflight", inflight.size());
+        return stats;
+    }
+
+    /**
+     * 查询结果
+     */
+    public static final class Lookup {
+        private final Flux<String> content;
+        private final boolean served;
+
+        private Lookup(Flux<String> content, boolean served) {
+            this.content = content;
+            this.served = served;
+        }
+
+        /**
+         * 回复流
+         */
+        public Flux<String> content() {
+            return content;
+        }
+
+        /**
+         * 是否由缓存或并发请求的共享调用提供（本次未产生上游调用）
+         */
+        public boolean isServed() {
+            return served;
+        }
+    }
+}
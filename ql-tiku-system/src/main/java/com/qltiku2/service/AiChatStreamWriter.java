@@ -0,0 +1,476 @@
+package com.qltiku2.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qltiku2.entity.AiChatRecord;
+import com.qltiku2.entity.AiUsageLog;
+import com.qltiku2.mapper.AiChatRecordMapper;
+import com.qltiku2.mapper.AiUsageLogMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI流式回复的累积与持久化
+ *
+ * 每个流式回复在内存中累积（有长度上限），流式输出路径上只做内存追加，不访问Redis或数据库。
+ * 后台定时任务负责：按片段数或时间间隔把进行中的回复快照以一次管道写入Redis检查点；
+ * 把已结束的回复与使用日志分别以多行INSERT批量写库，并删除对应检查点。
+ * 进程崩溃时检查点保留在Redis中，长时间未更新的检查点由定时任务恢复为聊天记录（标记为中断）。
+ * 待写库队列有长度上限，数据库长时间不可用时超出部分直接丢弃并计数，避免内存无限增长。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class AiChatStreamWriter {
+
+    private static final String CHECKPOINT_PREFIX = "ai_stream:checkpoint:";
+
+    /**
+     * 单条批量SQL的最大行数
+     */
+    private static final int BATCH_SIZE = 200;
+
+    /**
+     * 每个待写库队列的最大长度
+     */
+    private static final int MAX_PENDING = 20000;
+
+    private static final String INTERRUPTED_SUFFIX = "\n\n[回复中断]";
+
+    @Autowired
+    private AiChatRecordMapper aiChatRecordMapper;
+
+    @Autowired
+    private AiUsageLogMapper aiUsageLogMapper;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${ai.stream.max-response-chars:100000}")
+    private int maxResponseChars;
+
+    @Value("${ai.stream.checkpoint-chunks:50}")
+    private int checkpointChunks;
+
+    @Value("${ai.stream.checkpoint-interval-ms:2000}")
+    private long checkpointIntervalMs;
+
+    @Value("${ai.stream.checkpoint-ttl-minutes:30}")
+    private long checkpointTtlMinutes;
+
+    @Value("${ai.stream.checkpoint-stale-minutes:5}")
+    private long checkpointStaleMinutes;
+
+    /**
+     * 进行中的回复
+     */
+    private final Map<String, StreamAccumulator> activeStreams = new ConcurrentHashMap<>();
+
+    /**
+     * 待写库的聊天记录、使用日志及写库后待删除的检查点
+     */
+    private final BlockingQueue<AiChatRecord> pendingRecords = new LinkedBlockingQueue<>(MAX_PENDING);
+    private final BlockingQueue<AiUsageLog> pendingUsageLogs = new LinkedBlockingQueue<>(MAX_PENDING);
+    private final BlockingQueue<String> pendingCheckpointDeletes = new LinkedBlockingQueue<>(MAX_PENDING);
+
+    // 写入统计
+    private final AtomicLong openedStreams = new AtomicLong();
+    private final AtomicLong checkpointWrites = new AtomicLong();
+    private final AtomicLong persistedRecords = new AtomicLong();
+    private final AtomicLong persistedUsageLogs = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong recoveredStreams = new AtomicLong();
+    private final AtomicLong truncatedStreams = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong droppedUsageLogs = new AtomicLong();
+    private final AtomicLong droppedCheckpointDeletes = new AtomicLong();
+
+    /**
+     * 开始累积一个流式回复
+     */
+    public StreamAccumulator open(Long userId, String sessionId, Long questionId, AiUsageLog usageLog) {
+        StreamAccumulator accumulator = new StreamAccumulator(UUID.randomUUID().toString(), userId, sessionId,
+                questionId, usageLog, maxResponseChars);
+        activeStreams.put(accumulator.id, accumulator);
+        openedStreams.incrementAndGet();
+        return accumulator;
+    }
+
+    /**
+     * 回复结束（正常完成或客户端断开）：把回复与使用日志放入批量写入队列
+     *
+     * @param usageLog 已填写token统计的使用日志
+     */
+    public void complete(StreamAccumulator accumulator, AiUsageLog usageLog) {
+        if (!accumulator.close()) {
+            return;
+        }
+        String content = accumulator.getContent();
+        if (!content.isEmpty()) {
+            enqueue(pendingRecords, accumulator.toRecord(content), droppedRecords);
+            enqueue(pendingUsageLogs, usageLog, droppedUsageLogs);
+        }
+        finish(accumulator);
+    }
+
+    /**
+     * 回复失败：记录错误消息与失败的使用日志
+     */
+    public void fail(StreamAccumulator accumulator, String errorMessage, AiUsageLog usageLog) {
+        if (!accumulator.close()) {
+            return;
+        }
+        enqueue(pendingRecords, accumulator.toRecord(errorMessage), droppedRecords);
+        enqueue(pendingUsageLogs, usageLog, droppedUsageLogs);
+        finish(accumulator);
+    }
+
+    /**
+     * 单独的使用日志（如配额扣减记录）也经批量写入
+     */
+    public void submitUsageLog(AiUsageLog usageLog) {
+        enqueue(pendingUsageLogs, usageLog, droppedUsageLogs);
+    }
+
+    private void finish(StreamAccumulator accumulator) {
+        activeStreams.remove(accumulator.id);
+        if (accumulator.isCheckpointed()) {
+            // 放不下时检查点随TTL过期
+            enqueue(pendingCheckpointDeletes, CHECKPOINT_PREFIX + accumulator.id, droppedCheckpointDeletes);
+        }
+        if (accumulator.isTruncated()) {
+            truncatedStreams.incrementAndGet();
+        }
+    }
+
+    /**
+     * 写检查点并批量写库
+     */
+    @Scheduled(fixedDelayString = "${ai.stream.flush-interval-ms:500}", initialDelay = 1000)
+    public void flush() {
+        try {
+            writeCheckpoints();
+        } catch (Exception e) {
+            log.warn("AI回复检查点写入失败: {}", e.getMessage());
+        }
+        persistPending();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 进行中的回复保留检查点，由下次启动后的恢复任务处理
+        flush();
+    }
+
+    private void writeCheckpoints() throws Exception {
+        long now = System.currentTimeMillis();
+        Map<String, String> snapshots = new HashMap<>();
+        for (StreamAccumulator accumulator : activeStreams.values()) {
+            Checkpoint checkpoint = accumulator.checkpointIfDue(now, checkpointChunks, checkpointIntervalMs);
+            if (checkpoint != null) {
+                snapshots.put(CHECKPOINT_PREFIX + accumulator.id, objectMapper.writeValueAsString(checkpoint));
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        long ttlSeconds = TimeUnit.MINUTES.toSeconds(checkpointTtlMinutes);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            snapshots.forEach((key, value) -> connection.stringCommands().setEx(
+                    key.getBytes(StandardCharsets.UTF_8), ttlSeconds, value.getBytes(StandardCharsets.UTF_8)));
+            return null;
+        });
+        checkpointWrites.addAndGet(snapshots.size());
+    }
+
+    private synchronized void persistPending() {
+        List<AiChatRecord> records = drain(pendingRecords);
+        List<AiUsageLog> usageLogs = drain(pendingUsageLogs);
+        List<String> checkpointKeys = drain(pendingCheckpointDeletes);
+        if (records.isEmpty() && usageLogs.isEmpty() && checkpointKeys.isEmpty()) {
+            return;
+        }
+
+        try {
+            // 每写入一批即从列表移除，失败时只重试未写入的部分
+            while (!records.isEmpty()) {
+                List<AiChatRecord> batch = records.subList(0, Math.min(BATCH_SIZE, records.size()));
+                aiChatRecordMapper.insertBatch(batch);
+                persistedRecords.addAndGet(batch.size());
+                batch.clear();
+            }
+            while (!usageLogs.isEmpty()) {
+                List<AiUsageLog> batch = usageLogs.subList(0, Math.min(BATCH_SIZE, usageLogs.size()));
+                aiUsageLogMapper.insertBatch(batch);
+                persistedUsageLogs.addAndGet(batch.size());
+                batch.clear();
+            }
+        } catch (Exception e) {
+            // 未写入的部分放回队列（超出上限的丢弃并计数），检查点保留，下次重试
+            failedFlushCount.incrementAndGet();
+            log.error("AI聊天记录批量写入失败，将在下次重试: {}", e.getMessage());
+            records.forEach(record -> enqueue(pendingRecords, record, droppedRecords));
+            usageLogs.forEach(usageLog -> enqueue(pendingUsageLogs, usageLog, droppedUsageLogs));
+            checkpointKeys.forEach(key -> enqueue(pendingCheckpointDeletes, key, droppedCheckpointDeletes));
+            return;
+        }
+
+        if (!checkpointKeys.isEmpty()) {
+            try {
+                redisTemplate.delete(checkpointKeys);
+            } catch (Exception e) {
+                // 检查点随TTL过期；恢复任务只处理长时间未更新的检查点，已写库的回复可能被重复恢复，仅记录告警
+                log.warn("删除AI回复检查点失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 恢复崩溃遗留的检查点：长时间未更新的进行中回复保存为聊天记录，并计入使用日志
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 30000)
+    public void recoverStaleCheckpoints() {
+        long staleBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(checkpointStaleMinutes);
+        try {
+            List<String> keys = redisTemplate.execute((RedisCallback<List<String>>) connection -> scanKeys(connection));
+            if (keys == null || keys.isEmpty()) {
+                return;
+            }
+            List<String> values = redisTemplate.opsForValue().multiGet(keys);
+            List<String> recovered = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                String id = keys.get(i).substring(CHECKPOINT_PREFIX.length());
+                String value = values != null ? values.get(i) : null;
+                if (value == null || activeStreams.containsKey(id)) {
+                    continue;
+                }
+                Checkpoint checkpoint = objectMapper.readValue(value, Checkpoint.class);
+                // 先删除检查点再恢复，多实例同时恢复时只有删除成功的一方写入
+                if (checkpoint.getUpdatedAt() > staleBefore || !Boolean.TRUE.equals(redisTemplate.delete(keys.get(i)))) {
+                    continue;
+                }
+                enqueue(pendingRecords, new AiChatRecord()
+                        .setUserId(checkpoint.getUserId())
+                        .setSessionId(checkpoint.getSessionId())
+                        .setQuestionId(checkpoint.getQuestionId())
+                        .setMessageType(AiChatRecord.MESSAGE_TYPE_AI)
+                        .setContent(checkpoint.getContent() + INTERRUPTED_SUFFIX)
+                        .setCreateTime(LocalDateTime.now()), droppedRecords);
+                AiUsageLog usageLog = new AiUsageLog();
+                usageLog.setUserId(checkpoint.getUserId());
+                usageLog.setAiType(checkpoint.getAiType());
+                usageLog.setModelId(checkpoint.getModelId());
+                usageLog.setModelCode(checkpoint.getModelCode());
+                usageLog.setUsageTime(checkpoint.getUsageTime());
+                usageLog.setTokensUsed(0);
+                usageLog.setPromptTokens(0);
+                usageLog.setCompletionTokens(0);
+                usageLog.setTotalTokens(0);
+                usageLog.setCacheHit(false);
+                usageLog.setTokensSaved(0);
+                enqueue(pendingUsageLogs, usageLog, droppedUsageLogs);
+                recovered.add(keys.get(i));
+            }
+            if (!recovered.isEmpty()) {
+                recoveredStreams.addAndGet(recovered.size());
+                log.info("恢复中断的AI回复: {} 条", recovered.size());
+                persistPending();
+            }
+        } catch (Exception e) {
+            log.warn("恢复AI回复检查点失败: {}", e.getMessage());
+        }
+    }
+
+    private List<String> scanKeys(RedisConnection connection) {
+        List<String> keys = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match(CHECKPOINT_PREFIX + "*").count(200).build();
+        try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+            while (cursor.hasNext()) {
+                keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 放入待写库队列，队列已满时丢弃并计数
+     */
+    private <T> void enqueue(BlockingQueue<T> queue, T item, AtomicLong dropped) {
+        if (!queue.offer(item)) {
+            // 只在第一次及之后每1000条记录一次，避免数据库故障期间刷屏
+            if (dropped.getAndIncrement() % 1000 == 0) {
+                log.error("AI聊天写入队列已满（上限{}），丢弃待写入数据，累计丢弃{}条", MAX_PENDING, dropped.get());
+            }
+        }
+    }
+
+    private static <T> List<T> drain(Queue<T> queue) {
+        List<T> items = new ArrayList<>();
+        T item;
+        while ((item = queue.poll()) != null) {
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * 获取写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeStreams", activeStreams.size());
+        stats.put("openedStreams", openedStreams.get());
+        stats.put("checkpointWrites", checkpointWrites.get());
+        stats.put("pendingRecords", pendingRecords.size());
+        stats.put("pendingUsageLogs", pendingUsageLogs.size());
+        stats.put("persistedRecords", persistedRecords.get());
+        stats.put("persistedUsageLogs", persistedUsageLogs.get());
+        stats.put("failedFlushCount", failedFlushCount.get());
+        stats.put("recoveredStreams", recoveredStreams.get());
+        stats.put("truncatedStreams", truncatedStreams.get());
+        stats.put("maxPending", MAX_PENDING);
+        stats.put("droppedRecords", droppedRecords.get());
+        stats.put("droppedUsageLogs", droppedUsageLogs.get());
+        stats.put("droppedCheckpointDeletes", droppedCheckpointDeletes.get());
+        return stats;
+    }
+
+    /**
+     * 单个流式回复的内存累积器
+     */
+    public static final class StreamAccumulator {
+
+        private final String id;
+        private final Long userId;
+        private final String sessionId;
+        private final Long questionId;
+        private final AiUsageLog usageLog;
+        private final int maxChars;
+        private final StringBuilder content = new StringBuilder();
+
+        private int chunksSinceCheckpoint;
+        private long lastCheckpointMillis = System.currentTimeMillis();
+        private boolean checkpointed;
+        private boolean truncated;
+        private boolean closed;
+
+        private StreamAccumulator(String id, Long userId, String sessionId, Long questionId, AiUsageLog usageLog, int maxChars) {
+            this.id = id;
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.questionId = questionId;
+            this.usageLog = usageLog;
+            this.maxChars = maxChars;
+        }
+
+        /**
+         * 追加片段（仅内存操作），超出长度上限的部分不再累积
+         */
+        public synchronized void append(String chunk) {
+            if (chunk == null || closed) {
+                return;
+            }
+            int remaining = maxChars - content.length();
+            if (chunk.length() > remaining) {
+                content.append(chunk, 0, Math.max(remaining, 0));
+                truncated = true;
+            } else {
+                content.append(chunk);
+            }
+            chunksSinceCheckpoint++;
+        }
+
+        public synchronized String getContent() {
+            return content.toString();
+        }
+
+        private synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+
+        private synchronized boolean isCheckpointed() {
+            return checkpointed;
+        }
+
+        private synchronized boolean isTruncated() {
+            return truncated;
+        }
+
+        /**
+         * 片段数或时间间隔达到阈值且有新内容时生成检查点
+         */
+        private synchronized Checkpoint checkpointIfDue(long now, int chunkThreshold, long intervalMillis) {
+            if (closed || chunksSinceCheckpoint == 0
+                    || (chunksSinceCheckpoint < chunkThreshold && now - lastCheckpointMillis < intervalMillis)) {
+                return null;
+            }
+            chunksSinceCheckpoint = 0;
+            lastCheckpointMillis = now;
+            checkpointed = true;
+
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.setUserId(userId);
+            checkpoint.setSessionId(sessionId);
+            checkpoint.setQuestionId(questionId);
+            checkpoint.setAiType(usageLog.getAiType());
+            checkpoint.setModelId(usageLog.getModelId());
+            checkpoint.setModelCode(usageLog.getModelCode());
+            checkpoint.setUsageTime(usageLog.getUsageTime());
+            checkpoint.setContent(content.toString());
+            checkpoint.setUpdatedAt(now);
+            return checkpoint;
+        }
+
+        private AiChatRecord toRecord(String text) {
+            return new AiChatRecord()
+                    .setUserId(userId)
+                    .setSessionId(sessionId)
+                    .setQuestionId(questionId)
+                    .setMessageType(AiChatRecord.MESSAGE_TYPE_AI)
+                    .setContent(text)
+                    .setCreateTime(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Redis中的回复检查点
+     */
+    @Data
+    public static class Checkpoint {
+        private Long userId;
+        private String sessionId;
+        private Long questionId;
+        private String aiType;
+        private Long modelId;
+        private String modelCode;
+        private LocalDateTime usageTime;
+        private String content;
+        private long updatedAt;
+    }
+}
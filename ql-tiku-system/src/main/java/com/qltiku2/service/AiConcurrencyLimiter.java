@@ -0,0 +1,399 @@
+package com.qltiku2.service;
+
+import com.qltiku2.config.AiConcurrencyConfig;
+import com.qltiku2.exception.AiBusyException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * AI模型调用并发控制
+ * 限制全局及每个模型同时进行的上游流式调用数；超出时进入有界等待队列，
+ * 队列按用户轮转出队，避免单个用户的大量请求挤占其他用户。队列已满、用户排队过多或等待超时时
+ * 立即抛出 {@link AiBusyException}，并根据当前排队长度与平均调用时长给出建议的重试时间。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class AiConcurrencyLimiter {
+
+    private static final int MAX_RETRY_AFTER_SECONDS = 60;
+
+    @Autowired
+    private AiConcurrencyConfig config;
+
+    private final Object lock = new Object();
+
+    /**
+     * 按用户分组的等待队列，迭代顺序即轮转顺序（受lock保护）
+     */
+    private final LinkedHashMap<Long, ArrayDeque<Waiter>> waitingByUser = new LinkedHashMap<>();
+
+    private final Map<String, ModelGauge> models = new ConcurrentHashMap<>();
+
+    // 全局计数（受lock保护修改）
+    private final AtomicInteger globalInFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // 统计
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * 单次调用平均时长（毫秒，指数加权），用于估算重试时间
+     */
+    private volatile double avgStreamMillis = 5000;
+
+    /**
+     * 对上游调用进行并发控制：获得许可后才订阅上游，上游结束、出错或被取消时归还许可
+     *
+     * @param userId 用户ID
+     * @param modelCode 模型代码
+     * @param upstream 上游调用
+     * @return 受控的回复流，繁忙时以 {@link AiBusyException} 结束
+     */
+    public <T> Flux<T> limit(Long userId, String modelCode, Supplier<Flux<T>> upstream) {
+        return Flux.defer(() -> {
+            ModelGauge gauge = models.computeIfAbsent(modelCode, ModelGauge::new);
+            long enqueuedAt = System.nanoTime();
+            return acquire(userId, gauge).flatMapMany(permit -> {
+                long grantedAt = System.nanoTime();
+                gauge.recordWait(grantedAt - enqueuedAt);
+                AtomicBoolean firstToken = new AtomicBoolean();
+                return Flux.using(() -> permit,
+                        p -> upstream.get().doOnNext(item -> {
+                            if (firstToken.compareAndSet(false, true)) {
+                                gauge.recordFirstToken(System.nanoTime() - grantedAt);
+                            }
+                        }),
+                        this::release);
+            });
+        });
+    }
+
+    /**
+     * 快速准入检查（不占用许可），供扣减配额前调用
+     *
+     * @return 需要等待的秒数，0表示可以提交
+     */
+    public int checkAdmission(Long userId) {
+        synchronized (lock) {
+            if (isQueueFull(userId)) {
+                rejected.incrementAndGet();
+                return retryAfterSeconds();
+            }
+        }
+        return 0;
+    }
+
+    private Mono<Permit> acquire(Long userId, ModelGauge gauge) {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(userId, gauge, sink);
+            sink.onCancel(() -> cancel(waiter));
+            Permit permit = null;
+            int retryAfter = 0;
+            synchronized (lock) {
+                if (waiter.state == Waiter.CANCELLED) {
+                    // 订阅者在进入队列前已取消
+                    return;
+                }
+                if (gauge.queued.get() == 0 && canRun(gauge)) {
+                    // 许可记录在waiter上：此后取消时由cancel()归还，success在已取消的sink上被丢弃也不会泄漏
+                    permit = grantLocked(gauge);
+                    waiter.state = Waiter.GRANTED;
+                    waiter.permit = permit;
+                } else if (isQueueFull(userId)) {
+                    retryAfter = retryAfterSeconds();
+                } else {
+                    waitingByUser.computeIfAbsent(userId, k -> new ArrayDeque<>()).add(waiter);
+                    queued.incrementAndGet();
+                    gauge.queued.incrementAndGet();
+                }
+            }
+            if (permit != null) {
+                sink.success(permit);
+            } else if (retryAfter > 0) {
+                rejected.incrementAndGet();
+                gauge.rejected.incrementAndGet();
+                sink.error(new AiBusyException(retryAfter));
+            } else {
+                waiter.timer = Schedulers.parallel().schedule(() -> timeout(waiter), config.getMaxWaitMs(), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private boolean isQueueFull(Long userId) {
+        if (queued.get() >= config.getMaxQueueSize()) {
+            return true;
+        }
+        ArrayDeque<Waiter> userQueue = waitingByUser.get(userId);
+        return userQueue != null && userQueue.size() >= config.getMaxQueuedPerUser();
+    }
+
+    private boolean canRun(ModelGauge gauge) {
+        return globalInFlight.get() < config.getGlobalMaxConcurrent()
+                && gauge.inFlight.get() < config.limitFor(gauge.modelCode);
+    }
+
+    private Permit grantLocked(ModelGauge gauge) {
+        globalInFlight.incrementAndGet();
+        gauge.inFlight.incrementAndGet();
+        gauge.streams.incrementAndGet();
+        admitted.incrementAndGet();
+        return new Permit(gauge);
+    }
+
+    private void release(Permit permit) {
+        if (!permit.released.compareAndSet(false, true)) {
+            return;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - permit.grantedAt);
+        avgStreamMillis = avgStreamMillis * 0.9 + elapsedMillis * 0.1;
+        List<Waiter> granted;
+        synchronized (lock) {
+            globalInFlight.decrementAndGet();
+            permit.gauge.inFlight.decrementAndGet();
+            granted = dispatchLocked();
+        }
+        deliver(granted);
+    }
+
+    /**
+     * 按用户轮转分配空闲许可：每轮每个用户最多出队一个请求，出队后该用户移到队尾
+     */
+    private List<Waiter> dispatchLocked() {
+        List<Waiter> granted = new ArrayList<>();
+        boolean progress = true;
+        while (progress && queued.get() > 0 && globalInFlight.get() < config.getGlobalMaxConcurrent()) {
+            progress = false;
+            for (Long userId : new ArrayList<>(waitingByUser.keySet())) {
+                if (globalInFlight.get() >= config.getGlobalMaxConcurrent()) {
+                    break;
+                }
+                ArrayDeque<Waiter> userQueue = waitingByUser.get(userId);
+                Waiter waiter = pollRunnable(userQueue);
+                if (waiter == null) {
+                    continue;
+                }
+                waiter.state = Waiter.GRANTED;
+                waiter.permit = grantLocked(waiter.gauge);
+                granted.add(waiter);
+                waitingByUser.remove(userId);
+                if (!userQueue.isEmpty()) {
+                    waitingByUser.put(userId, userQueue);
+                }
+                progress = true;
+            }
+        }
+        return granted;
+    }
+
+    private Waiter pollRunnable(ArrayDeque<Waiter> userQueue) {
+        Iterator<Waiter> it = userQueue.iterator();
+        while (it.hasNext()) {
+            Waiter waiter = it.next();
+            if (canRun(waiter.gauge)) {
+                it.remove();
+                queued.decrementAndGet();
+                waiter.gauge.queued.decrementAndGet();
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private void deliver(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (waiter.timer != null) {
+                waiter.timer.dispose();
+            }
+            waiter.sink.success(waiter.permit);
+        }
+    }
+
+    private boolean removeLocked(Waiter waiter) {
+        if (waiter.state != Waiter.WAITING) {
+            return false;
+        }
+        ArrayDeque<Waiter> userQueue = waitingByUser.get(waiter.userId);
+        if (userQueue == null || !userQueue.remove(waiter)) {
+            return false;
+        }
+        if (userQueue.isEmpty()) {
+            waitingByUser.remove(waiter.userId);
+        }
+        queued.decrementAndGet();
+        waiter.gauge.queued.decrementAndGet();
+        return true;
+    }
+
+    private void timeout(Waiter waiter) {
+        int retryAfter;
+        synchronized (lock) {
+            if (!removeLocked(waiter)) {
+                return;
+            }
+            waiter.state = Waiter.CANCELLED;
+            retryAfter = retryAfterSeconds();
+        }
+        timedOut.incrementAndGet();
+        waiter.gauge.timedOut.incrementAndGet();
+        waiter.sink.error(new AiBusyException(retryAfter));
+    }
+
+    private void cancel(Waiter waiter) {
+        Permit permit = null;
+        synchronized (lock) {
+            if (waiter.state == Waiter.WAITING) {
+                // 可能已在队列中，也可能尚未入队（acquire看到CANCELLED后不再分配许可）
+                removeLocked(waiter);
+                waiter.state = Waiter.CANCELLED;
+            } else if (waiter.state == Waiter.GRANTED) {
+                // 许可已分配但订阅者已取消，归还许可
+                permit = waiter.permit;
+            }
+        }
+        if (waiter.timer != null) {
+            waiter.timer.dispose();
+        }
+        if (permit != null) {
+            release(permit);
+        }
+    }
+
+    /**
+     * 估算重试时间：排在前面的请求数 / 全局并发数 × 平均调用时长
+     */
+    private int retryAfterSeconds() {
+        double rounds = (double) (queued.get() + 1) / Math.max(1, config.getGlobalMaxConcurrent());
+        int seconds = (int) Math.ceil(rounds * avgStreamMillis / 1000);
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+
+    /**
+     * 获取并发控制统计（全局及每个模型的进行中调用数、排队数、排队等待与首个token延迟）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("globalMaxConcurrent", config.getGlobalMaxConcurrent());
+        stats.put("inFlight", globalInFlight.get());
+        stats.put("queued", queued.get());
+        stats.put("maxQueueSize", config.getMaxQueueSize());
+        stats.put("admitted", admitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("timedOut", timedOut.get());
+        stats.put("avgStreamMillis", Math.round(avgStreamMillis));
+        synchronized (lock) {
+            stats.put("queuedUsers", waitingByUser.size());
+        }
+        Map<String, Object> modelStats = new TreeMap<>();
+        for (ModelGauge gauge : models.values()) {
+            modelStats.put(gauge.modelCode, gauge.toStats(config.limitFor(gauge.modelCode)));
+        }
+        stats.put("models", modelStats);
+        return stats;
+    }
+
+    /**
+     * 许可，归还一次后失效
+     */
+    private static final class Permit {
+        private final ModelGauge gauge;
+        private final long grantedAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ModelGauge gauge) {
+            this.gauge = gauge;
+        }
+    }
+
+    /**
+     * 排队中的请求，state 受lock保护
+     */
+    private static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Long userId;
+        private final ModelGauge gauge;
+        private final MonoSink<Permit> sink;
+        private int state = WAITING;
+        private Permit permit;
+        private volatile Disposable timer;
+
+        private Waiter(Long userId, ModelGauge gauge, MonoSink<Permit> sink) {
+            this.userId = userId;
+            this.gauge = gauge;
+            this.sink = sink;
+        }
+    }
+
+    /**
+     * 单个模型的计数与延迟统计
+     */
+    private static final class ModelGauge {
+        private final String modelCode;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong streams = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong waitCount = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong firstTokenCount = new AtomicLong();
+        private final AtomicLong firstTokenNanos = new AtomicLong();
+        private volatile long lastFirstTokenNanos;
+
+        private ModelGauge(String modelCode) {
+            this.modelCode = modelCode;
+        }
+
+        private void recordWait(long nanos) {
+            waitCount.incrementAndGet();
+            waitNanos.addAndGet(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private void recordFirstToken(long nanos) {
+            firstTokenCount.incrementAndGet();
+            firstTokenNanos.addAndGet(nanos);
+            lastFirstTokenNanos = nanos;
+        }
+
+        private Map<String, Object> toStats(int limit) {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("limit", limit);
+            stats.put("inFlight", inFlight.get());
+            stats.put("queued", queued.get());
+            stats.put("streams", streams.get());
+            stats.put("rejected", rejected.get());
+            stats.put("timedOut", timedOut.get());
+            stats.put("avgQueueWaitMs", average(waitNanos.get(), waitCount.get()));
+            stats.put("maxQueueWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+            stats.put("avgFirstTokenMs", average(firstTokenNanos.get(), firstTokenCount.get()));
+            stats.put("lastFirstTokenMs", TimeUnit.NANOSECONDS.toMillis(lastFirstTokenNanos));
+            return stats;
+        }
+
+        private static long average(long totalNanos, long count) {
+            return count > 0 ? TimeUnit.NANOSECONDS.toMillis(totalNanos / count) : 0;
+        }
+    }
+}
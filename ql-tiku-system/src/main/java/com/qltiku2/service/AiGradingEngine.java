@@ -0,0 +1,369 @@
+package com.qltiku2.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qltiku2.common.Result;
+import com.qltiku2.entity.AiGradingRecord;
+import com.qltiku2.entity.AnswerRecord;
+import com.qltiku2.exception.AiBusyException;
+import com.qltiku2.mapper.AnswerRecordMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI判题引擎
+ * 模型调用全程非阻塞：正确性判断与详细评价两个提示词并发请求，结果通过 CompletableFuture / SSE 返回，
+ * 不占用请求线程等待模型输出。查询与保存判题记录等数据库操作在专用的有界线程池上执行，
+ * 线程池满时直接拒绝并提示繁忙，不会无限排队。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class AiGradingEngine {
+
+    private static final String DEFAULT_GRADING_TEMPLATE = "请对以下简答题进行判题评分：\n题目：{question}\n用户答案：{userAnswer}\n参考答案：{correctAnswer}\n请给出评分和详细的评价，并在最后一行明确标注：判断结果：正确 或 判断结果：错误";
+
+    private static final String DEFAULT_CORRECTNESS_TEMPLATE = "请判断以下简答题答案是否正确：\n题目：{question}\n用户答案：{userAnswer}\n参考答案：{correctAnswer}\n请只回答：正确 或 错误";
+
+    @Autowired
+    private AiChatService aiChatService;
+
+    @Autowired
+    private SysConfigService sysConfigService;
+
+    @Autowired
+    private AiGradingRecordService aiGradingRecordService;
+
+    @Autowired
+    private AnswerRecordMapper answerRecordMapper;
+
+    @Autowired
+    private LearningStatsRollupService learningStatsRollupService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("aiGradingExecutor")
+    private AsyncTaskExecutor aiGradingExecutor;
+
+    @Value("${ai.grading.timeout-seconds:30}")
+    private long timeoutSeconds;
+
+    /**
+     * 基于专用线程池的调度器，用于数据库操作等阻塞步骤
+     */
+    private Scheduler scheduler;
+
+    // 判题统计
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Schedulers.fromExecutor(aiGradingExecutor);
+    }
+
+    /**
+     * AI判题：并发请求正确性判断与详细评价，全部完成后保存判题记录
+     *
+     * @param userId 用户ID
+     * @param request 请求参数（questionId、questionContent、userAnswer、correctAnswer）
+     * @return 判题结果
+     */
+    public CompletableFuture<Result<Map<String, Object>>> grade(Long userId, Map<String, Object> request) {
+        GradingRequest grading = GradingRequest.of(request);
+        if (grading == null) {
+            return CompletableFuture.completedFuture(Result.error("参数错误"));
+        }
+        CompletableFuture<Result<Map<String, Object>>> future = new CompletableFuture<>();
+        submittedCount.incrementAndGet();
+        inFlight.incrementAndGet();
+
+        Mono.fromCallable(() -> prepare(userId, grading.questionId))
+                .subscribeOn(scheduler)
+                .flatMap(hasHistory -> {
+                    long now = System.currentTimeMillis();
+                    String sessionId = "grading_" + grading.questionId + "_" + userId + "_" + now;
+                    String correctnessSessionId = "correctness_" + grading.questionId + "_" + userId + "_" + now;
+
+                    Mono<String> correctness = collect(aiChatService.sendMessage(userId, correctnessSessionId,
+                            buildPrompt("ai.grading.correctness.prefix", DEFAULT_CORRECTNESS_TEMPLATE, grading),
+                            grading.questionId, null));
+                    // 详细评价失败时使用简单的判断结果
+                    Mono<String> review = collect(aiChatService.sendMessage(userId, sessionId,
+                            buildPrompt("ai.grading.prefix", DEFAULT_GRADING_TEMPLATE, grading),
+                            grading.questionId, null))
+                            .onErrorResume(e -> {
+                                log.warn("AI详细评价失败，使用简单判断结果: {}", e.getMessage());
+                                return Mono.just("");
+                            });
+
+                    return Mono.zip(correctness, review)
+                            .publishOn(scheduler)
+                            .map(responses -> {
+                                String correctnessResult = responses.getT1().trim();
+                                boolean isCorrect = correctnessResult.contains("正确") && !correctnessResult.contains("错误");
+                                String gradingResult = responses.getT2().isEmpty()
+                                        ? (isCorrect ? "AI判断：答案正确" : "AI判断：答案需要改进")
+                                        : responses.getT2();
+                                AiGradingRecord record = saveResult(userId, grading, gradingResult, isCorrect);
+
+                                Map<String, Object> result = new HashMap<>();
+                                result.put("gradingResult", gradingResult);
+                                result.put("isCorrect", isCorrect);
+                                result.put("questionId", grading.questionId);
+                                result.put("sessionId", sessionId);
+                                result.put("recordId", record.getId());
+                                result.put("hasHistory", hasHistory);
+                                return result;
+                            });
+                })
+                .doFinally(signal -> inFlight.decrementAndGet())
+                .subscribe(result -> {
+                    completedCount.incrementAndGet();
+                    future.complete(Result.success(result));
+                }, error -> future.complete(errorResult(error)));
+        return future;
+    }
+
+    /**
+     * AI判题（SSE流式）：模型输出逐段推送，完成后推送判题结果
+     *
+     * @param userId 用户ID
+     * @param request 请求参数
+     * @param emitter SSE发射器
+     */
+    public void gradeStream(Long userId, Map<String, Object> request, SseEmitter emitter) {
+        GradingRequest grading = GradingRequest.of(request);
+        if (grading == null) {
+            try {
+                emitter.send(SseEmitter.event().name("error").data("参数错误"));
+                emitter.complete();
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+            return;
+        }
+        submittedCount.incrementAndGet();
+        inFlight.incrementAndGet();
+        StringBuilder aiResponse = new StringBuilder();
+        String sessionId = "grading_" + grading.questionId + "_" + userId + "_" + System.currentTimeMillis();
+
+        Disposable subscription = Mono.fromCallable(() -> prepare(userId, grading.questionId))
+                .subscribeOn(scheduler)
+                .flatMapMany(hasHistory -> aiChatService.sendMessage(userId, sessionId,
+                        buildPrompt("ai.grading.prefix", DEFAULT_GRADING_TEMPLATE, grading), grading.questionId, null))
+                .doOnNext(chunk -> {
+                    aiResponse.append(chunk);
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("content", chunk);
+                    data.put("type", "content");
+                    send(emitter, data);
+                })
+                .then(Mono.fromCallable(() -> {
+                    // 判断答案是否正确
+                    String fullResponse = aiResponse.toString();
+                    boolean isCorrect = fullResponse.contains("判断结果：正确")
+                            || (fullResponse.contains("正确") && !fullResponse.contains("错误"));
+                    AiGradingRecord record = saveResult(userId, grading, fullResponse, isCorrect);
+
+                    Map<String, Object> resultData = new HashMap<>();
+                    resultData.put("isCorrect", isCorrect);
+                    resultData.put("score", isCorrect ? 1 : 0);
+                    resultData.put("recordId", record.getId());
+                    resultData.put("type", "result");
+                    return resultData;
+                }).subscribeOn(scheduler))
+                .doFinally(signal -> inFlight.decrementAndGet())
+                .subscribe(resultData -> {
+                    completedCount.incrementAndGet();
+                    try {
+                        send(emitter, resultData);
+                        // 发送完成标记
+                        emitter.send(SseEmitter.event().name("data").data("[DONE]"));
+                        emitter.complete();
+                    } catch (Exception e) {
+                        log.warn("发送AI判题结果失败: {}", e.getMessage());
+                        emitter.completeWithError(e);
+                    }
+                }, error -> {
+                    Result<Map<String, Object>> result = errorResult(error);
+                    try {
+                        emitter.send(SseEmitter.event().name("error").data(result.getMessage()));
+                        emitter.complete();
+                    } catch (Exception e) {
+                        emitter.completeWithError(error);
+                    }
+                });
+
+        // 客户端断开或超时时取消模型调用
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(e -> subscription.dispose());
+    }
+
+    /**
+     * 校验判题请求参数（题目ID、题目内容、用户答案必填）
+     */
+    public static boolean isValidRequest(Map<String, Object> request) {
+        return GradingRequest.of(request) != null;
+    }
+
+    /**
+     * 查询历史记录，重新判题时软删除旧记录
+     *
+     * @return 是否有历史记录
+     */
+    private boolean prepare(Long userId, Long questionId) {
+        AiGradingRecord latestRecord = aiGradingRecordService.getLatestRecord(userId, questionId);
+        if (latestRecord != null) {
+            aiGradingRecordService.softDeleteOldRecords(userId, questionId);
+        }
+        return latestRecord != null;
+    }
+
+    /**
+     * AI判断正确时更新最近一次答题记录，并保存判题记录
+     */
+    private AiGradingRecord saveResult(Long userId, GradingRequest grading, String gradingResult, boolean isCorrect) {
+        if (isCorrect) {
+            QueryWrapper<AnswerRecord> queryWrapper = new QueryWrapper<>();
+            queryWrapper.eq("user_id", userId)
+                    .eq("question_id", grading.questionId)
+                    .orderByDesc("create_time")
+                    .last("LIMIT 1");
+            AnswerRecord existingRecord = answerRecordMapper.selectOne(queryWrapper);
+            if (existingRecord != null) {
+                boolean wasCorrect = existingRecord.getIsCorrect() != null && existingRecord.getIsCorrect() == 1;
+                existingRecord.setIsCorrect(1);
+                existingRecord.setScore(1);
+                if (answerRecordMapper.updateById(existingRecord) > 0 && !wasCorrect) {
+                    // 同步修正学习统计中的正确数
+                    learningStatsRollupService.recordCorrection(existingRecord, 1);
+                }
+            }
+        }
+        return aiGradingRecordService.saveGradingRecord(userId, grading.questionId, grading.userAnswer,
+                gradingResult, isCorrect);
+    }
+
+    private String buildPrompt(String configKey, String defaultTemplate, GradingRequest grading) {
+        String template = sysConfigService.getConfigValue(configKey);
+        if (template == null || template.trim().isEmpty()) {
+            template = defaultTemplate;
+        }
+        return template
+                .replace("{question}", grading.questionContent)
+                .replace("{userAnswer}", grading.userAnswer)
+                .replace("{correctAnswer}", grading.correctAnswer != null ? grading.correctAnswer : "无参考答案");
+    }
+
+    private Mono<String> collect(Flux<String> response) {
+        return response
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .collect(StringBuilder::new, StringBuilder::append)
+                .map(StringBuilder::toString);
+    }
+
+    private void send(SseEmitter emitter, Map<String, Object> data) {
+        try {
+            emitter.send(SseEmitter.event().name("data").data(objectMapper.writeValueAsString(data)));
+        } catch (Exception e) {
+            log.debug("发送流式数据失败: {}", e.getMessage());
+        }
+    }
+
+    private Result<Map<String, Object>> errorResult(Throwable error) {
+        if (error instanceof RejectedExecutionException) {
+            rejectedCount.incrementAndGet();
+            return Result.error("AI判题繁忙，请稍后重试");
+        }
+        if (error instanceof AiBusyException) {
+            rejectedCount.incrementAndGet();
+            return Result.error(error.getMessage());
+        }
+        failedCount.incrementAndGet();
+        log.error("AI判题失败", error);
+        return Result.error("AI判题失败：" + error.getMessage());
+    }
+
+    /**
+     * 获取判题统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("submitted", submittedCount.get());
+        stats.put("completed", completedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("inFlight", inFlight.get());
+        return stats;
+    }
+
+    private static final class GradingRequest {
+        private final Long questionId;
+        private final String questionContent;
+        private final String userAnswer;
+        private final String correctAnswer;
+
+        private GradingRequest(Long questionId, String questionContent, String userAnswer, String correctAnswer) {
+            this.questionId = questionId;
+            this.questionContent = questionContent;
+            this.userAnswer = userAnswer;
+            this.correctAnswer = correctAnswer;
+        }
+
+        /**
+         * 解析请求参数，缺少必填项或题目ID不是数字时返回null
+         */
+        private static GradingRequest of(Map<String, Object> request) {
+            if (request == null) {
+                return null;
+            }
+            Long questionId;
+            try {
+                Object value = request.get("questionId");
+                questionId = value != null ? Long.valueOf(value.toString().trim()) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            String questionContent = text(request.get("questionContent"));
+            String userAnswer = text(request.get("userAnswer"));
+            if (questionId == null || questionContent == null || userAnswer == null) {
+                return null;
+            }
+            return new GradingRequest(questionId, questionContent, userAnswer, text(request.get("correctAnswer")));
+        }
+
+        private static String text(Object value) {
+            if (value == null) {
+                return null;
+            }
+            String text = value.toString();
+            return text.trim().isEmpty() ? null : text;
+        }
+    }
+}
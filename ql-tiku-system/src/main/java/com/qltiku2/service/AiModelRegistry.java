@@ -0,0 +1,182 @@
+package com.qltiku2.service;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.qltiku2.entity.AiModel;
+import com.qltiku2.mapper.AiModelMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI模型注册表
+ * 缓存已启用的模型配置（一次查询加载全部）以及按模型代码预先构建的ChatClient，
+ * 每次对话只需两次Map查找。模型被新增、修改、删除或启停时由 {@link com.qltiku2.service.impl.AiModelServiceImpl} 失效；
+ * 多实例部署时其他实例的缓存最多在刷新间隔后更新。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class AiModelRegistry {
+
+    @Autowired
+    private AiModelMapper aiModelMapper;
+
+    @Autowired
+    private DashScopeChatModel dashScopeChatModel;
+
+    @Value("${ai.model-registry.refresh-seconds:60}")
+    private long refreshSeconds;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 失效代数，每次失效递增；加载期间发生失效时丢弃加载结果，避免旧数据覆盖失效
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * 模型代码 -> ChatClient
+     */
+    private final Map<String, ChatClient> chatClients = new ConcurrentHashMap<>();
+
+    // 命中统计
+    private final AtomicLong modelHits = new AtomicLong();
+    private final AtomicLong modelLoads = new AtomicLong();
+    private final AtomicLong clientHits = new AtomicLong();
+    private final AtomicLong clientBuilds = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 获取AI模型配置，指定ID不存在或未启用时返回默认模型
+     *
+     * @param modelId 模型ID，可为空
+     * @return 模型配置，没有任何启用的模型时返回null
+     */
+    public AiModel resolve(Long modelId) {
+        Snapshot current = currentSnapshot();
+        if (modelId != null) {
+            AiModel model = current.byId.get(modelId);
+            if (model != null) {
+                return model;
+            }
+        }
+        return current.defaultModel;
+    }
+
+    /**
+     * 获取默认模型（排序最靠前的启用模型）
+     */
+    public AiModel getDefaultModel() {
+        return currentSnapshot().defaultModel;
+    }
+
+    /**
+     * 获取模型对应的ChatClient，首次使用时构建
+     */
+    public ChatClient getChatClient(AiModel aiModel) {
+        ChatClient client = chatClients.get(aiModel.getCode());
+        if (client != null) {
+            clientHits.incrementAndGet();
+            return client;
+        }
+        return chatClients.computeIfAbsent(aiModel.getCode(), code -> {
+            clientBuilds.incrementAndGet();
+            log.info("创建ChatClient，使用模型: {} ({})", aiModel.getName(), code);
+            // 简化配置，只设置模型代码，避免API兼容性问题
+            DashScopeChatOptions options = DashScopeChatOptions.builder()
+                    .withModel(code)
+                    .build();
+            // 使用全局的DashScopeChatModel但设置特定的默认选项
+            return ChatClient.builder(dashScopeChatModel)
+                    .defaultOptions(options)
+                    .build();
+        });
+    }
+
+    /**
+     * 失效全部缓存，下次使用时重新加载
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+        chatClients.clear();
+        invalidations.incrementAndGet();
+        log.info("AI模型注册表已失效");
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null && System.nanoTime() < current.expiresAtNanos) {
+            modelHits.incrementAndGet();
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (current != null && System.nanoTime() < current.expiresAtNanos) {
+                modelHits.incrementAndGet();
+                return current;
+            }
+            long loadGeneration = generation.get();
+            current = load();
+            if (generation.get() == loadGeneration) {
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private Snapshot load() {
+        modelLoads.incrementAndGet();
+        List<AiModel> models = aiModelMapper.selectEnabledModels();
+        Map<Long, AiModel> byId = new HashMap<>();
+        Set<String> codes = new HashSet<>();
+        for (AiModel model : models) {
+            byId.put(model.getId(), model);
+            codes.add(model.getCode());
+        }
+        // 移除已不再启用的模型的ChatClient
+        chatClients.keySet().retainAll(codes);
+        if (models.isEmpty()) {
+            log.warn("没有找到启用的AI模型");
+        }
+        return new Snapshot(byId, models.isEmpty() ? null : models.get(0),
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(refreshSeconds));
+    }
+
+    /**
+     * 获取命中统计
+     */
+    public Map<String, Object> getStats() {
+        Snapshot current = snapshot;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabledModels", current != null ? current.byId.size() : 0);
+        stats.put("chatClients", chatClients.size());
+        stats.put("modelHits", modelHits.get());
+        stats.put("modelLoads", modelLoads.get());
+        stats.put("clientHits", clientHits.get());
+        stats.put("clientBuilds", clientBuilds.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private static final class Snapshot {
+        private final Map<Long, AiModel> byId;
+        private final AiModel defaultModel;
+        private final long expiresAtNanos;
+
+        private Snapshot(Map<Long, AiModel> byId, AiModel defaultModel, long expiresAtNanos) {
+            this.byId = byId;
+            this.defaultModel = defaultModel;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -22,6 +22,11 @@ public interface AiQuotaService extends IService<UserAiQuota> {
      */
     boolean consumeQuota(Long userId, String aiType, int tokens);
     
+    /**
+     * 退还已扣减的AI使用次数（请求因繁忙未能调用模型时）
+     */
+    void refundQuota(Long userId, String aiType, int count);
+    
     /**
      * 获取用户配额信息
      */
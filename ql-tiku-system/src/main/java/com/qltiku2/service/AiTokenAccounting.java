@@ -0,0 +1,335 @@
+package com.qltiku2.service;
+
+import com.qltiku2.entity.AiTokenUsageDaily;
+import com.qltiku2.entity.AiUsageLog;
+import com.qltiku2.mapper.AiTokenUsageDailyMapper;
+import com.qltiku2.utils.TokenCounter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI token用量核算
+ * 优先使用模型响应元数据中的实际用量（DashScope流式响应会随片段返回累计用量），
+ * 没有元数据时用 {@link TokenCounter} 随流式片段增量估算，回复结束时不再重新扫描全文。
+ * 每次调用的用量按 (用户, 日期, 模型) 在内存中累加，定时批量写回 ai_token_usage_daily；
+ * 用户当天的token总数保存在Redis计数器（ai_quota:tokens:yyyyMMdd:用户ID，次日零点过期）中，
+ * 所有实例的调用都累加到同一计数器，配额检查只需一次GET。计数器不存在时以汇总表与本实例未写回的增量初始化，
+ * 其他实例尚未写回的增量（最多一个写回周期）在初始化时不计入。
+ * 本实例的增量与计数器累加在同一把锁内完成，初始化时持有同一把锁并等待进行中的写回结束，
+ * 因此每笔增量要么计入初始值、要么在初始化之后累加，不会重复也不会遗漏。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class AiTokenAccounting {
+
+    /**
+     * 单条批量SQL的最大行数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    private static final String TOKENS_PREFIX = "ai_quota:tokens:";
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    // 计数器存在时累加：KEYS[1]=当天计数，ARGV[1]=token数；不存在时由下次查询初始化
+    private static final DefaultRedisScript<Long> INCR_IF_EXISTS_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return redis.call('INCRBY', KEYS[1], ARGV[1]) end " +
+            "return -1",
+            Long.class);
+
+    // 初始化计数器：KEYS[1]=当天计数，ARGV[1]=初始值，ARGV[2]=过期时间戳；已存在时不覆盖，返回当前值
+    private static final DefaultRedisScript<Long> SEED_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX') then redis.call('EXPIREAT', KEYS[1], ARGV[2]) end " +
+            "return tonumber(redis.call('GET', KEYS[1]))",
+            Long.class);
+
+    @Autowired
+    private AiTokenUsageDailyMapper aiTokenUsageDailyMapper;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final Object bufferLock = new Object();
+
+    /**
+     * 写回汇总表期间持有，初始化计数器时据此避开"已移出缓冲、尚未写入汇总表"的增量
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * 待写回的增量：(用户, 日期, 模型) -> [调用次数, 输入token, 输出token, 总token]
+     */
+    private Map<PendingKey, long[]> pending = new HashMap<>();
+
+    // 核算统计
+    private final AtomicLong settledCalls = new AtomicLong();
+    private final AtomicLong reportedCalls = new AtomicLong();
+    private final AtomicLong estimatedCalls = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong seededTotals = new AtomicLong();
+    private final AtomicLong failedCounterUpdates = new AtomicLong();
+
+    /**
+     * 为一次模型调用创建计量器
+     */
+    public Meter open() {
+        return new Meter();
+    }
+
+    /**
+     * 调用结束：确定本次用量并写入使用日志，同时计入用户/模型的每日汇总
+     *
+     * @param meter 计量器
+     * @param prompt 提示词（仅在没有实际用量时用于估算）
+     * @param usageLog 使用日志
+     */
+    public void settle(Meter meter, String prompt, AiUsageLog usageLog) {
+        if (meter.reportedPromptTokens > 0 && meter.reportedCompletionTokens > 0) {
+            reportedCalls.incrementAndGet();
+        } else {
+            estimatedCalls.incrementAndGet();
+        }
+        // 元数据缺少某一项时单独估算该项
+        int promptTokens = meter.reportedPromptTokens > 0 ? meter.reportedPromptTokens : TokenCounter.count(prompt);
+        int completionTokens = meter.reportedCompletionTokens > 0 ? meter.reportedCompletionTokens : meter.completionTokens();
+        int totalTokens = promptTokens + completionTokens;
+        usageLog.setPromptTokens(promptTokens);
+        usageLog.setCompletionTokens(completionTokens);
+        usageLog.setTotalTokens(totalTokens);
+        usageLog.setTokensUsed(totalTokens);
+        settledCalls.incrementAndGet();
+
+        if (usageLog.getUserId() == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        String modelCode = usageLog.getModelCode() != null ? usageLog.getModelCode() : "";
+        synchronized (bufferLock) {
+            long[] delta = pending.computeIfAbsent(new PendingKey(usageLog.getUserId(), today, modelCode), k -> new long[4]);
+            delta[0]++;
+            delta[1] += promptTokens;
+            delta[2] += completionTokens;
+            delta[3] += totalTokens;
+            // 与初始化互斥：计数器不存在时这笔增量由初始化计入，存在时在此累加
+            try {
+                stringRedisTemplate.execute(INCR_IF_EXISTS_SCRIPT,
+                        Collections.singletonList(totalKey(usageLog.getUserId(), today)), String.valueOf(totalTokens));
+            } catch (Exception e) {
+                // 计数器只用于配额检查，更新失败不影响写回汇总表
+                failedCounterUpdates.incrementAndGet();
+                log.warn("更新用户{}当天token计数失败: {}", usageLog.getUserId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 估算由缓存提供的回复所节省的token数
+     */
+    public int estimateSaved(Meter meter, String prompt) {
+        return TokenCounter.count(prompt) + meter.completionTokens();
+    }
+
+    /**
+     * 获取用户当天已使用的token总数
+     */
+    public long getTodayTokens(Long userId) {
+        LocalDate today = LocalDate.now();
+        String key = totalKey(userId, today);
+        String value = stringRedisTemplate.opsForValue().get(key);
+        if (value != null) {
+            return Long.parseLong(value);
+        }
+
+        long expireAt = today.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+        // 写回进行中时等待其完成，汇总表与缓冲合起来恰好是本实例的全部用量
+        synchronized (flushLock) {
+            long total = aiTokenUsageDailyMapper.sumTotalTokens(userId, today);
+            synchronized (bufferLock) {
+                for (Map.Entry<PendingKey, long[]> entry : pending.entrySet()) {
+                    if (entry.getKey().userId.equals(userId) && entry.getKey().date.equals(today)) {
+                        total += entry.getValue()[3];
+                    }
+                }
+                Long seeded = stringRedisTemplate.execute(SEED_SCRIPT, Collections.singletonList(key),
+                        String.valueOf(total), String.valueOf(expireAt));
+                seededTotals.incrementAndGet();
+                return seeded != null ? seeded : total;
+            }
+        }
+    }
+
+    /**
+     * 将缓冲的增量批量写回汇总表
+     */
+    @Scheduled(fixedDelay = 5000, initialDelay = 5000)
+    public void flush() {
+        synchronized (flushLock) {
+            doFlush();
+        }
+    }
+
+    private void doFlush() {
+        Map<PendingKey, long[]> batch;
+        synchronized (bufferLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+
+        try {
+            List<AiTokenUsageDaily> rows = new ArrayList<>(batch.size());
+            batch.forEach((key, delta) -> {
+                AiTokenUsageDaily row = new AiTokenUsageDaily();
+                row.setUserId(key.userId);
+                row.setUsageDate(key.date);
+                row.setModelCode(key.modelCode);
+                row.setRequestCount((int) delta[0]);
+                row.setPromptTokens(delta[1]);
+                row.setCompletionTokens(delta[2]);
+                row.setTotalTokens(delta[3]);
+                rows.add(row);
+            });
+            for (int i = 0; i < rows.size(); i += BATCH_SIZE) {
+                aiTokenUsageDailyMapper.upsertBatch(rows.subList(i, Math.min(i + BATCH_SIZE, rows.size())));
+            }
+            flushCount.incrementAndGet();
+            flushedRows.addAndGet(rows.size());
+        } catch (Exception e) {
+            // 写回失败时放回缓冲，下次重试
+            failedFlushCount.incrementAndGet();
+            log.error("AI token用量写回失败，将在下次重试: {}", e.getMessage());
+            synchronized (bufferLock) {
+                batch.forEach((key, delta) -> {
+                    long[] current = pending.computeIfAbsent(key, k -> new long[4]);
+                    for (int i = 0; i < delta.length; i++) {
+                        current[i] += delta[i];
+                    }
+                });
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private static String totalKey(Long userId, LocalDate date) {
+        return TOKENS_PREFIX + date.format(DAY_FORMAT) + ":" + userId;
+    }
+
+    /**
+     * 获取核算统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (bufferLock) {
+            stats.put("pendingKeys", pending.size());
+        }
+        stats.put("settledCalls", settledCalls.get());
+        stats.put("reportedCalls", reportedCalls.get());
+        stats.put("estimatedCalls", estimatedCalls.get());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("flushCount", flushCount.get());
+        stats.put("failedFlushCount", failedFlushCount.get());
+        stats.put("seededTotals", seededTotals.get());
+        stats.put("failedCounterUpdates", failedCounterUpdates.get());
+        return stats;
+    }
+
+    /**
+     * 单次调用的计量器：记录响应元数据中的用量，并对输出片段增量计数
+     */
+    public static final class Meter {
+        private final TokenCounter completion = new TokenCounter();
+        private volatile int reportedPromptTokens;
+        private volatile int reportedCompletionTokens;
+
+        private Meter() {
+        }
+
+        /**
+         * 记录模型响应中的用量（流式响应中为累计值，保留最后一次）
+         */
+        public void observe(ChatResponse response) {
+            Usage usage = response.getMetadata() != null ? response.getMetadata().getUsage() : null;
+            if (usage == null) {
+                return;
+            }
+            Integer promptTokens = usage.getPromptTokens();
+            Integer completionTokens = usage.getCompletionTokens();
+            if (promptTokens != null && promptTokens > 0) {
+                reportedPromptTokens = promptTokens;
+            }
+            if (completionTokens != null && completionTokens > 0) {
+                reportedCompletionTokens = completionTokens;
+            }
+        }
+
+        /**
+         * 累加一个输出片段（没有实际用量时使用）
+         */
+        public synchronized void append(String chunk) {
+            completion.feed(chunk);
+        }
+
+        /**
+         * 是否还没有任何输出或用量
+         */
+        public boolean isEmpty() {
+            return reportedPromptTokens == 0 && reportedCompletionTokens == 0 && completionTokens() == 0;
+        }
+
+        private synchronized int completionTokens() {
+            return completion.tokens();
+        }
+    }
+
+    private static final class PendingKey {
+        private final Long userId;
+        private final LocalDate date;
+        private final String modelCode;
+
+        private PendingKey(Long userId, LocalDate date, String modelCode) {
+            this.userId = userId;
+            this.date = date;
+            this.modelCode = modelCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey that = (PendingKey) o;
+            return userId.equals(that.userId) && date.equals(that.date) && modelCode.equals(that.modelCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, date, modelCode);
+        }
+    }
+}
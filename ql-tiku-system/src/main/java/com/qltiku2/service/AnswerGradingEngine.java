@@ -0,0 +1,258 @@
+package com.qltiku2.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.qltiku2.entity.Question;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 答案判分引擎
+ * 将题目的正确答案预编译为紧凑形式（多选题为位掩码、判断题为布尔值）并按题目ID + 更新时间缓存，
+ * 判分时只做无分配的比较。练习、考试、模拟考试共用此引擎。简答题不自动判分，始终判为错误（由AI判题或人工批改）。
+ * 除考试中的填空题外，所有比较都区分大小写（与原有判分规则一致）。
+ *
+ * @author qltiku2
+ */
+@Service
+public class AnswerGradingEngine {
+
+    /**
+     * 缓存的最大题目数，超出后按使用频率淘汰
+     */
+    private static final int MAX_CACHE_SIZE = 50000;
+
+    private static final int TYPE_SINGLE = 0;
+    private static final int TYPE_MULTIPLE = 1;
+    private static final int TYPE_JUDGE = 2;
+    private static final int TYPE_FILL = 3;
+    private static final int TYPE_SHORT_ANSWER = 4;
+
+    private final Cache<Long, CompiledKey> cache = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHE_SIZE)
+            .build();
+
+    /**
+     * 判断答案是否正确
+     *
+     * @param question 题目（至少包含ID、题型、正确答案）
+     * @param userAnswer 用户答案
+     * @return 是否正确
+     */
+    public boolean grade(Question question, String userAnswer) {
+        return grade(question, userAnswer, false);
+    }
+
+    /**
+     * 判断答案是否正确
+     *
+     * @param question 题目（至少包含ID、题型、正确答案）
+     * @param userAnswer 用户答案
+     * @param fillIgnoreCase 填空题是否忽略大小写（考试判分忽略，练习判分区分）
+     * @return 是否正确
+     */
+    public boolean grade(Question question, String userAnswer, boolean fillIgnoreCase) {
+        if (question == null || userAnswer == null || isBlank(userAnswer)) {
+            return false;
+        }
+        CompiledKey key = compile(question);
+        return key != null && key.matches(userAnswer, fillIgnoreCase);
+    }
+
+    /**
+     * 获取（或编译）题目的答案键
+     */
+    CompiledKey compile(Question question) {
+        if (question.getCorrectAnswer() == null || question.getQuestionType() == null) {
+            return null;
+        }
+
+        Long id = question.getId();
+        if (id != null) {
+            CompiledKey cached = cache.getIfPresent(id);
+            if (cached != null && cached.isFresh(question)) {
+                return cached;
+            }
+        }
+
+        CompiledKey compiled = new CompiledKey(question);
+        if (id != null) {
+            cache.put(id, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * 使某道题目的答案键失效（题目更新或删除时调用）
+     */
+    public void evict(Long questionId) {
+        if (questionId != null) {
+            cache.invalidate(questionId);
+        }
+    }
+
+    /**
+     * 预编译的答案键
+     */
+    static final class CompiledKey {
+        private final int questionType;
+        private final LocalDateTime updateTime;
+        private final String source;
+        /**
+         * 去除首尾空白后的正确答案
+         */
+        private final String trimmed;
+        /**
+         * 多选题位掩码（A=bit0 ... Z=bit25），无法编译时为-1
+         */
+        private final int optionMask;
+        /**
+         * 判断题答案，无法识别时为null
+         */
+        private final Boolean judgement;
+        /**
+         * 多选题无法编译为位掩码时，使用排序后的选项兜底比较
+         */
+        private final String[] sortedOptions;
+
+        CompiledKey(Question question) {
+            this.questionType = question.getQuestionType();
+            this.updateTime = question.getUpdateTime();
+            this.source = question.getCorrectAnswer();
+            this.trimmed = source.trim();
+            this.optionMask = questionType == TYPE_MULTIPLE ? parseMask(source) : -1;
+            this.judgement = questionType == TYPE_JUDGE ? parseJudgement(source, 0, source.length()) : null;
+            if (questionType == TYPE_MULTIPLE && optionMask < 0) {
+                this.sortedOptions = splitAndSort(source);
+            } else {
+                this.sortedOptions = null;
+            }
+        }
+
+        boolean isFresh(Question question) {
+            if (question.getQuestionType() == null || question.getQuestionType() != questionType) {
+                return false;
+            }
+            if (updateTime != null && question.getUpdateTime() != null) {
+                return updateTime.equals(question.getUpdateTime());
+            }
+            // 没有更新时间（如考试快照中的题目）时按答案原文校验
+            return Objects.equals(source, question.getCorrectAnswer());
+        }
+
+        boolean matches(String userAnswer, boolean fillIgnoreCase) {
+            switch (questionType) {
+                case TYPE_MULTIPLE:
+                    if (optionMask >= 0) {
+                        return parseMask(userAnswer) == optionMask;
+                    }
+                    return Arrays.equals(sortedOptions, splitAndSort(userAnswer));
+                case TYPE_JUDGE:
+                    if (judgement != null) {
+                        int start = firstNonBlank(userAnswer);
+                        int end = lastNonBlank(userAnswer);
+                        Boolean answer = parseJudgement(userAnswer, start, end);
+                        if (answer != null) {
+                            return answer.equals(judgement);
+                        }
+                    }
+                    return equalsTrimmed(userAnswer, false);
+                case TYPE_FILL:
+                    // 填空题忽略前后空格
+                    return equalsTrimmed(userAnswer, fillIgnoreCase);
+                case TYPE_SHORT_ANSWER:
+                    // 简答题不做字符串比对
+                    return false;
+                case TYPE_SINGLE:
+                default:
+                    return equalsTrimmed(userAnswer, false);
+            }
+        }
+
+        private boolean equalsTrimmed(String userAnswer, boolean ignoreCase) {
+            int start = firstNonBlank(userAnswer);
+            int end = lastNonBlank(userAnswer);
+            return end - start == trimmed.length()
+                    && userAnswer.regionMatches(ignoreCase, start, trimmed, 0, trimmed.length());
+        }
+    }
+
+    /**
+     * 将 "A,B,C" 形式的答案解析为位掩码；包含非单个大写字母的选项或重复选项（如 "A,A"）时返回-1
+     */
+    static int parseMask(String answer) {
+        int mask = 0;
+        int tokenLength = 0;
+        for (int i = 0; i < answer.length(); i++) {
+            char c = answer.charAt(i);
+            if (c == ',') {
+                tokenLength = 0;
+            } else if (!Character.isWhitespace(c)) {
+                if (c < 'A' || c > 'Z' || ++tokenLength > 1) {
+                    return -1;
+                }
+                int bit = 1 << (c - 'A');
+                if ((mask & bit) != 0) {
+                    return -1;
+                }
+                mask |= bit;
+            }
+        }
+        return mask == 0 ? -1 : mask;
+    }
+
+    /**
+     * 解析判断题答案：A/true/正确/对 为真，B/false/错误/错 为假，其余返回null
+     */
+    static Boolean parseJudgement(String answer, int start, int end) {
+        int length = end - start;
+        if (length <= 0) {
+            return null;
+        }
+        if (regionEquals(answer, start, length, "A") || regionEquals(answer, start, length, "true")
+                || regionEquals(answer, start, length, "正确") || regionEquals(answer, start, length, "对")) {
+            return Boolean.TRUE;
+        }
+        if (regionEquals(answer, start, length, "B") || regionEquals(answer, start, length, "false")
+                || regionEquals(answer, start, length, "错误") || regionEquals(answer, start, length, "错")) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private static boolean regionEquals(String text, int start, int length, String expected) {
+        return length == expected.length() && text.regionMatches(start, expected, 0, length);
+    }
+
+    private static String[] splitAndSort(String answer) {
+        String[] options = answer.split(",");
+        for (int i = 0; i < options.length; i++) {
+            options[i] = options[i].trim();
+        }
+        Arrays.sort(options);
+        return options;
+    }
+
+    private static int firstNonBlank(String text) {
+        int i = 0;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int lastNonBlank(String text) {
+        int i = text.length();
+        while (i > 0 && Character.isWhitespace(text.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(String text) {
+        return firstNonBlank(text) == text.length();
+    }
+}
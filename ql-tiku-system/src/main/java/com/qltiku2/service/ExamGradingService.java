@@ -0,0 +1,241 @@
+package com.qltiku2.service;
+
+import com.qltiku2.dto.AnswerSubmitRequest;
+import com.qltiku2.entity.AnswerRecord;
+import com.qltiku2.entity.Question;
+import com.qltiku2.mapper.AnswerRecordMapper;
+import com.qltiku2.mapper.QuestionMapper;
+import com.qltiku2.mapper.WrongQuestionMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 试卷判分服务
+ * 一次批量加载整张试卷的题目，在内存中判分，答题记录与错题本以批量SQL在同一事务中写入。
+ * 作为 submitExam / submitFixedPaperExam / submitSimulationExam 的统一判分引擎。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class ExamGradingService {
+
+    /**
+     * 单条批量SQL的最大行数，避免超出 max_allowed_packet
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private QuestionMapper questionMapper;
+
+    @Autowired
+    private AnswerRecordMapper answerRecordMapper;
+
+    @Autowired
+    private WrongQuestionMapper wrongQuestionMapper;
+
+    @Autowired
+    private AnswerGradingEngine answerGradingEngine;
+
+    @Autowired
+    private LearningStatsRollupService learningStatsRollupService;
+
+    // 判分统计：提交次数、数据库往返次数、累计耗时
+    private final AtomicLong submissionCount = new AtomicLong();
+    private final AtomicLong roundTripCount = new AtomicLong();
+    private final AtomicLong elapsedNanos = new AtomicLong();
+
+    /**
+     * 判分并保存答题记录
+     *
+     * @param request 判分请求
+     * @return 判分结果
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public GradingResult gradeAndSave(GradingRequest request) {
+        long start = System.nanoTime();
+        int roundTrips = 0;
+
+        List<PaperItem> paper = request.getPaper() != null ? request.getPaper() : Collections.emptyList();
+
+        // 用户答案映射
+        Map<Long, AnswerSubmitRequest> answerMap = new HashMap<>();
+        if (request.getAnswers() != null) {
+            for (AnswerSubmitRequest answer : request.getAnswers()) {
+                if (answer != null && answer.getQuestionId() != null) {
+                    answerMap.put(answer.getQuestionId(), answer);
+                }
+            }
+        }
+
+        // 一次性加载整张试卷的题目（已提供题目快照时不再查库）
+        Map<Long, Question> questionMap = request.getQuestions() != null ? request.getQuestions() : new HashMap<>();
+        Set<Long> questionIds = paper.stream()
+                .map(PaperItem::getQuestionId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (request.getQuestions() == null && !questionIds.isEmpty()) {
+            questionMap = questionMapper.selectBatchIds(questionIds).stream()
+                    .collect(Collectors.toMap(Question::getId, Function.identity(), (a, b) -> a));
+            roundTrips++;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        GradingResult result = new GradingResult();
+        List<AnswerRecord> records = new ArrayList<>(paper.size());
+        List<Long> wrongQuestionIds = new ArrayList<>();
+
+        for (PaperItem item : paper) {
+            Question question = questionMap.get(item.getQuestionId());
+            if (question == null) {
+                log.warn("判分时题目不存在，题目ID: {}", item.getQuestionId());
+                if (request.isSkipMissingQuestions()) {
+                    continue;
+                }
+            }
+
+            AnswerRecord record = new AnswerRecord();
+            record.setUserId(request.getUserId());
+            record.setQuestionId(item.getQuestionId());
+            record.setExamId(request.getExamId());
+            record.setPracticeType(request.getPracticeType());
+            record.setRemark(request.getRemark());
+            record.setCreateTime(now);
+
+            AnswerSubmitRequest userAnswer = answerMap.get(item.getQuestionId());
+            if (userAnswer != null) {
+                record.setUserAnswer(userAnswer.getUserAnswer());
+                record.setAnswerTime(userAnswer.getAnswerTime());
+            } else {
+                // 未答题目
+                record.setUserAnswer("");
+                record.setAnswerTime(0);
+            }
+
+            // 考试填空题忽略大小写
+            boolean isCorrect = question != null && userAnswer != null
+                    && answerGradingEngine.grade(question, userAnswer.getUserAnswer(), true);
+            record.setIsCorrect(isCorrect ? 1 : 0);
+            record.setScore(isCorrect && item.getScore() != null ? item.getScore() : 0);
+
+            if (isCorrect) {
+                result.setCorrectCount(result.getCorrectCount() + 1);
+                result.setTotalScore(result.getTotalScore() + record.getScore());
+            } else if (question != null) {
+                // 添加到错题本（包括未答题目）
+                wrongQuestionIds.add(item.getQuestionId());
+            }
+            records.add(record);
+        }
+
+        // 批量写入答题记录
+        for (int i = 0; i < records.size(); i += BATCH_SIZE) {
+            answerRecordMapper.insertBatch(records.subList(i, Math.min(i + BATCH_SIZE, records.size())));
+            roundTrips++;
+        }
+        learningStatsRollupService.recordAnswers(records);
+
+        // 批量写入错题本
+        if (request.getWrongType() != null) {
+            for (int i = 0; i < wrongQuestionIds.size(); i += BATCH_SIZE) {
+                wrongQuestionMapper.upsertBatch(request.getUserId(),
+                        wrongQuestionIds.subList(i, Math.min(i + BATCH_SIZE, wrongQuestionIds.size())),
+                        request.getWrongType(), now);
+                roundTrips++;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        submissionCount.incrementAndGet();
+        roundTripCount.addAndGet(roundTrips);
+        elapsedNanos.addAndGet(elapsed);
+
+        result.setRecords(records);
+        result.setRoundTrips(roundTrips);
+        result.setElapsedMillis(elapsed / 1_000_000);
+        log.debug("试卷判分完成 - 用户: {}, 题目数: {}, 数据库往返: {}, 耗时: {}ms",
+                request.getUserId(), records.size(), roundTrips, result.getElapsedMillis());
+        return result;
+    }
+
+    /**
+     * 获取判分统计（每次提交的平均数据库往返次数与耗时）
+     */
+    public Map<String, Object> getStats() {
+        long submissions = submissionCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("submissions", submissions);
+        stats.put("roundTrips", roundTripCount.get());
+        stats.put("avgRoundTrips", submissions > 0 ? (double) roundTripCount.get() / submissions : 0);
+        stats.put("avgLatencyMillis", submissions > 0 ? elapsedNanos.get() / 1_000_000.0 / submissions : 0);
+        return stats;
+    }
+
+    /**
+     * 试卷中的一道题
+     */
+    @Data
+    public static class PaperItem {
+        private Long questionId;
+        /**
+         * 答对时的得分
+         */
+        private Integer score;
+
+        public PaperItem() {}
+
+        public PaperItem(Long questionId, Integer score) {
+            this.questionId = questionId;
+            this.score = score;
+        }
+    }
+
+    /**
+     * 判分请求
+     */
+    @Data
+    public static class GradingRequest {
+        private Long userId;
+        private Long examId;
+        /**
+         * 练习类型：2-考试，3-模拟考试，4-固定试卷
+         */
+        private Integer practiceType;
+        private String remark;
+        /**
+         * 错题类型，为空时不写入错题本
+         */
+        private String wrongType;
+        private List<PaperItem> paper;
+        private List<AnswerSubmitRequest> answers;
+        /**
+         * 预先加载的题目（至少包含ID、题型、正确答案），为空时按试卷批量查库
+         */
+        private Map<Long, Question> questions;
+        /**
+         * 题目不存在时是否跳过（不生成答题记录）
+         */
+        private boolean skipMissingQuestions;
+    }
+
+    /**
+     * 判分结果
+     */
+    @Data
+    public static class GradingResult {
+        private int totalScore;
+        private int correctCount;
+        private List<AnswerRecord> records;
+        private int roundTrips;
+        private long elapsedMillis;
+    }
+}
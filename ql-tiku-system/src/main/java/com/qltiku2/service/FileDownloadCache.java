@@ -0,0 +1,428 @@
+package com.qltiku2.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.qltiku2.entity.FileInfo;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 资料库文件本地磁盘缓存
+ * 以文件MD5（FileInfo.checksum）为键保存FTP文件的本地副本，内容相同的文件共用一份缓存。
+ * 未命中时从FTP读取并写入本地，同一文件的并发填充只会发起一次FTP下载；
+ * 写入时校验MD5，与记录不一致的内容只用于本次响应，不会进入缓存。
+ * 缓存总大小超出预算时按最近最少使用的顺序淘汰，淘汰的文件在宽限期后删除。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class FileDownloadCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 淘汰的文件在该时间后才删除
+     */
+    private static final long EVICTION_GRACE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    @Autowired
+    private FtpService ftpService;
+
+    @Value("${file.download-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.download-cache.dir:./cache/files}")
+    private String cacheDir;
+
+    @Value("${file.download-cache.max-size-mb:2048}")
+    private long maxSizeMb;
+
+    /**
+     * 单个文件超过缓存预算的该比例时不缓存，避免一个大文件挤掉全部缓存
+     */
+    @Value("${file.download-cache.max-entry-ratio:0.25}")
+    private double maxEntryRatio;
+
+    private Path root;
+
+    /**
+     * 缓存索引：checksum -> 文件大小，按访问顺序排列
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Object indexLock = new Object();
+
+    private long totalBytes;
+
+    /**
+     * 正在填充的缓存：checksum -> 填充结果
+     */
+    private final Map<String, CompletableFuture<Boolean>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * 已淘汰、等待删除的文件：checksum -> 淘汰时间（nanoTime），按淘汰顺序排列
+     */
+    private final LinkedHashMap<String, Long> evicted = new LinkedHashMap<>();
+
+    /**
+     * FTP内容与记录的MD5不一致的文件，一段时间内不再尝试缓存
+     */
+    private final Cache<String, Boolean> mismatched = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    // 缓存统计
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fills = new AtomicLong();
+    private final AtomicLong fillFailures = new AtomicLong();
+    private final AtomicLong checksumMismatches = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesFromFtp = new AtomicLong();
+
+    /**
+     * 启动时加载已有的缓存文件，清理未完成的临时文件
+     */
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            root = Paths.get(cacheDir).toAbsolutePath().normalize();
+            Files.createDirectories(root);
+            List<Path> existing = new ArrayList<>();
+            try (Stream<Path> files = Files.list(root)) {
+                files.forEach(existing::add);
+            }
+            existing.sort(Comparator.comparingLong(this::lastModified));
+            synchronized (indexLock) {
+                for (Path file : existing) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        Files.deleteIfExists(file);
+                    } else if (isChecksum(name)) {
+                        long size = Files.size(file);
+                        index.put(name, size);
+                        totalBytes += size;
+                    }
+                }
+            }
+            evictIfNeeded();
+            log.info("文件下载缓存已加载: {}, 共{}个文件, {}MB", root, index.size(), totalBytes / 1024 / 1024);
+        } catch (IOException e) {
+            log.error("初始化文件下载缓存失败，下载将直接读取FTP: {}", e.getMessage());
+            enabled = false;
+        }
+    }
+
+    /**
+     * 打开文件的本地缓存，未缓存时从FTP填充
+     * 返回的文件已打开，之后即使被淘汰也能读完；使用完毕后必须关闭。
+     *
+     * @param fileInfo 文件信息
+     * @return 已打开的缓存文件；文件不适合缓存（无checksum、过大、内容与checksum不符或缓存不可用）时返回null，由调用方直接读取FTP
+     * @throws IOException FTP读取失败（文件不存在时为 {@link java.io.FileNotFoundException}）
+     */
+    public CachedFile obtain(FileInfo fileInfo) throws IOException {
+        String checksum = normalize(fileInfo.getChecksum());
+        if (!enabled || checksum == null || !isCacheable(fileInfo.getFileSize())
+                || mismatched.getIfPresent(checksum) != null) {
+            return null;
+        }
+
+        CachedFile cached = openCached(checksum);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inflight.putIfAbsent(checksum, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return Boolean.TRUE.equals(await(existing)) ? openCached(checksum) : null;
+        }
+        try {
+            CachedFile filled = fill(checksum, fileInfo.getFtpPath());
+            mine.complete(!filled.isTemporary());
+            return filled;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(checksum, mine);
+        }
+    }
+
+    /**
+     * 删除淘汰超过宽限期的文件
+     * 淘汰时不立即删除：通过sendfile输出的响应在请求线程返回后才由容器打开文件，宽限期内文件仍然可用
+     */
+    @Scheduled(fixedDelay = 10000, initialDelay = 10000)
+    public void purgeEvicted() {
+        long deadline = System.nanoTime() - EVICTION_GRACE_NANOS;
+        // 删除在索引锁内进行，避免删掉同一checksum刚填充完成的新文件
+        synchronized (indexLock) {
+            Iterator<Map.Entry<String, Long>> it = evicted.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                if (entry.getValue() - deadline > 0) {
+                    break;
+                }
+                it.remove();
+                // 宽限期内被重新填充的文件不能删除
+                if (index.containsKey(entry.getKey())) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(root.resolve(entry.getKey()));
+                } catch (IOException e) {
+                    log.warn("删除缓存文件失败: {}", entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (indexLock) {
+            stats.put("entries", index.size());
+            stats.put("totalBytes", totalBytes);
+        }
+        long lookups = hits.get() + misses.get();
+        stats.put("enabled", enabled);
+        stats.put("maxBytes", maxBytes());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", lookups > 0 ? (double) hits.get() / lookups : 0);
+        stats.put("coalesced", coalesced.get());
+        stats.put("fills", fills.get());
+        stats.put("fillFailures", fillFailures.get());
+        stats.put("checksumMismatches", checksumMismatches.get());
+        stats.put("evictions", evictions.get());
+        stats.put("bytesFromFtp", bytesFromFtp.get());
+        stats.put("inflight", inflight.size());
+        stats.put("mismatchedFiles", mismatched.estimatedSize());
+        return stats;
+    }
+
+    /**
+     * 在索引锁内打开缓存文件：淘汰只会在索引移除之后删除文件，打开成功后文件即使被删除也能读完
+     */
+    private CachedFile openCached(String checksum) {
+        synchronized (indexLock) {
+            if (index.get(checksum) == null) {
+                return null;
+            }
+            Path path = root.resolve(checksum);
+            try {
+                return new CachedFile(path, FileChannel.open(path, StandardOpenOption.READ), false);
+            } catch (IOException e) {
+                // 缓存文件被外部删除
+                Long size = index.remove(checksum);
+                if (size != null) {
+                    totalBytes -= size;
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 从FTP下载到临时文件，校验MD5后移动到缓存位置
+     * MD5与记录不一致时不进入缓存，临时文件仅用于本次响应（关闭时删除），之后该文件直接读取FTP
+     */
+    private CachedFile fill(String checksum, String ftpPath) throws IOException {
+        fills.incrementAndGet();
+        Path temp = root.resolve(checksum + "." + UUID.randomUUID().toString().replace("-", "") + TEMP_SUFFIX);
+        boolean keepTemp = false;
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            long size;
+            try (InputStream inputStream = new DigestInputStream(ftpService.downloadFile(ftpPath), md5)) {
+                size = Files.copy(inputStream, temp);
+            }
+            bytesFromFtp.addAndGet(size);
+
+            String actual = HexFormat.of().formatHex(md5.digest());
+            if (!actual.equals(checksum)) {
+                // 记录的checksum与实际内容不符，不能以它为键缓存
+                checksumMismatches.incrementAndGet();
+                mismatched.put(checksum, Boolean.TRUE);
+                log.warn("FTP文件MD5与记录不一致，不缓存: {}, 记录={}, 实际={}", ftpPath, checksum, actual);
+                CachedFile file = new CachedFile(temp, FileChannel.open(temp, StandardOpenOption.READ), true);
+                keepTemp = true;
+                return file;
+            }
+
+            Path target = root.resolve(checksum);
+            CachedFile file;
+            synchronized (indexLock) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                evicted.remove(checksum);
+                file = new CachedFile(target, FileChannel.open(target, StandardOpenOption.READ), false);
+                Long previous = index.put(checksum, size);
+                totalBytes += size - (previous != null ? previous : 0);
+            }
+            evictIfNeeded();
+            log.debug("文件已缓存: {} -> {}, {} bytes", ftpPath, checksum, size);
+            return file;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException | RuntimeException e) {
+            fillFailures.incrementAndGet();
+            throw e;
+        } finally {
+            if (!keepTemp) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private Boolean await(CompletableFuture<Boolean> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 超出预算时淘汰最久未访问的文件，文件在宽限期后由 {@link #purgeEvicted} 删除
+     */
+    private void evictIfNeeded() {
+        long maxBytes = maxBytes();
+        long now = System.nanoTime();
+        synchronized (indexLock) {
+            Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                totalBytes -= eldest.getValue();
+                evicted.remove(eldest.getKey());
+                evicted.put(eldest.getKey(), now);
+                evictions.incrementAndGet();
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isCacheable(Long fileSize) {
+        return fileSize == null || fileSize <= maxBytes() * maxEntryRatio;
+    }
+
+    private long maxBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String normalize(String checksum) {
+        if (checksum == null) {
+            return null;
+        }
+        String value = checksum.trim().toLowerCase(Locale.ROOT);
+        return isChecksum(value) ? value : null;
+    }
+
+    /**
+     * 是否为MD5十六进制串（同时保证用作文件名是安全的）
+     */
+    private static boolean isChecksum(String value) {
+        if (value.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 已打开的缓存文件
+     */
+    public static final class CachedFile implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final boolean temporary;
+
+        private CachedFile(Path path, FileChannel channel, boolean temporary) {
+            this.path = path;
+            this.channel = channel;
+            this.temporary = temporary;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        /**
+         * 是否为不进入缓存的临时文件（关闭时删除）
+         */
+        public boolean isTemporary() {
+            return temporary;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (temporary) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+}
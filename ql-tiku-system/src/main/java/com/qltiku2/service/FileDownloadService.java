@@ -0,0 +1,229 @@
+package com.qltiku2.service;
+
+import com.qltiku2.entity.FileInfo;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 资料库文件下载
+ * 缓存命中时优先交给Tomcat以sendfile零拷贝发送，容器不支持时经 {@link FileChannel#transferTo} 写入输出流；
+ * 支持单段Range请求与ETag条件请求（ETag为文件MD5）。文件不适合缓存时直接转发FTP文件流。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class FileDownloadService {
+
+    /**
+     * Tomcat sendfile请求属性
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Autowired
+    private FileDownloadCache fileDownloadCache;
+
+    @Autowired
+    private FtpService ftpService;
+
+    private final AtomicLong sendfileCount = new AtomicLong();
+    private final AtomicLong streamedCount = new AtomicLong();
+
+    /**
+     * 输出文件内容
+     *
+     * @param fileInfo 文件信息
+     * @param request HTTP请求
+     * @param response HTTP响应
+     * @return 是否应计入下载次数（完整下载或从头开始的分段下载；304与续传不计入）
+     * @throws IOException FTP读取或响应写出失败（文件不存在时为 {@link java.io.FileNotFoundException}）
+     */
+    public boolean download(FileInfo fileInfo, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String etag = fileInfo.getChecksum() != null ? "\"" + fileInfo.getChecksum() + "\"" : null;
+
+        // 设置响应头
+        response.setContentType(fileInfo.getMimeType() != null ? fileInfo.getMimeType() : "application/octet-stream");
+        String encodedFileName = URLEncoder.encode(fileInfo.getOriginalFileName(), StandardCharsets.UTF_8);
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + encodedFileName + "\"");
+        // 允许客户端保存副本，但每次使用前需用ETag向服务器确认
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (etag != null) {
+            response.setHeader("ETag", etag);
+            if (matches(request.getHeader("If-None-Match"), etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return false;
+            }
+        }
+
+        try (FileDownloadCache.CachedFile cached = fileDownloadCache.obtain(fileInfo)) {
+            if (cached == null) {
+                streamFromFtp(fileInfo, response);
+                return true;
+            }
+            return serve(cached, etag, request, response);
+        }
+    }
+
+    /**
+     * 获取下载缓存统计
+     */
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = fileDownloadCache.getStats();
+        stats.put("sendfileResponses", sendfileCount.get());
+        stats.put("streamedResponses", streamedCount.get());
+        return stats;
+    }
+
+    private boolean serve(FileDownloadCache.CachedFile cached, String etag,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long size = cached.size();
+        response.setHeader("Accept-Ranges", "bytes");
+        long[] range = null;
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null || ifRange.trim().equals(etag)) {
+            range = parseRange(request.getHeader("Range"), size);
+        }
+        if (range != null && range.length == 0) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + size);
+            return false;
+        }
+
+        long start = 0;
+        long length = size;
+        if (range != null) {
+            start = range[0];
+            length = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        response.setContentLengthLong(length);
+
+        if (!cached.isTemporary() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 交给Tomcat在请求线程返回后用sendfile直接从文件发送到socket（零拷贝）；
+            // 淘汰的缓存文件有删除宽限期，容器打开文件前不会被删除
+            request.setAttribute(SENDFILE_FILENAME, cached.getPath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            sendfileCount.incrementAndGet();
+            return start == 0;
+        }
+
+        // 容器不支持sendfile时经Servlet输出流写出：transferTo到非文件/套接字通道时JDK会经缓冲区复制，并非零拷贝
+        FileChannel channel = cached.getChannel();
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            long written = channel.transferTo(position, remaining, out);
+            if (written <= 0) {
+                break;
+            }
+            position += written;
+            remaining -= written;
+        }
+        response.flushBuffer();
+        streamedCount.incrementAndGet();
+        return start == 0;
+    }
+
+    private void streamFromFtp(FileInfo fileInfo, HttpServletResponse response) throws IOException {
+        if (fileInfo.getFileSize() != null) {
+            response.setContentLengthLong(fileInfo.getFileSize());
+        }
+        try (InputStream inputStream = ftpService.downloadFile(fileInfo.getFtpPath())) {
+            OutputStream outputStream = response.getOutputStream();
+            inputStream.transferTo(outputStream);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * If-None-Match是否匹配当前ETag（弱比较）
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析单段Range请求
+     *
+     * @return null表示忽略Range返回完整内容（无Range、格式错误、结束位置小于起始位置或多段请求），
+     *         空数组表示范围无法满足（起始位置不小于文件长度），否则为[起始, 结束]（含）
+     */
+    static long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 最后N个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (start < 0) {
+                    return null;
+                }
+                if (last.isEmpty()) {
+                    end = size - 1;
+                } else {
+                    end = Long.parseLong(last);
+                    if (end < start) {
+                        // 语法无效的范围按无Range处理（RFC 7233 §3.1）
+                        return null;
+                    }
+                    end = Math.min(end, size - 1);
+                }
+            }
+            if (start >= size) {
+                return new long[0];
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -9,12 +9,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -242,16 +242,30 @@ public class FileService {
         String fileExtension = getFileExtension(originalFileName);
         String generatedFileName = generateFileName(fileExtension);
         
-        // 计算文件MD5
-        String checksum;
-        try {
-            checksum = calculateMD5(file.getBytes());
-        } catch (IOException e) {
-            throw new IOException("计算文件MD5失败", e);
-        }
+        // 上传文件到FTP服务器，上传的同时得到文件大小和MD5
+        FtpService.UploadResult upload = ftpService.uploadFile(file, description);
+        String checksum = upload.getChecksum();
+        String ftpPath = upload.getRemotePath();
         
-        // 上传文件到FTP服务器，获取FTP路径
-        String ftpPath = ftpService.uploadFile(file, description);
+        // 已有相同内容的文件时复用其FTP文件并删除刚上传的副本，只新增文件记录
+        boolean deduplicated = false;
+        FileInfo duplicate = fileInfoMapper.selectOneByChecksum(checksum);
+        if (duplicate != null) {
+            // 锁定要复用的记录直到本事务提交，与deleteFile串行：对方已删除时这里读不到记录，不再复用
+            duplicate = fileInfoMapper.selectByIdForUpdate(duplicate.getId());
+        }
+        if (duplicate != null && duplicate.getFileSize() != null && duplicate.getFileSize() == upload.getSize()
+                && !ftpPath.equals(duplicate.getFtpPath())) {
+            try {
+                if (ftpService.deleteFile(ftpPath)) {
+                    log.info("文件内容与已有文件相同，复用存储: {} -> {}", originalFileName, duplicate.getFtpPath());
+                    ftpPath = duplicate.getFtpPath();
+                    deduplicated = true;
+                }
+            } catch (IOException e) {
+                log.warn("删除重复上传的FTP文件失败，保留新副本: {}", ftpPath, e);
+            }
+        }
         
         // 使用选定的CDN前缀生成文件访问URL
         String relativePath = ftpPath;
@@ -265,7 +279,7 @@ public class FileService {
         fileInfo.setOriginalFileName(originalFileName);
         fileInfo.setGeneratedFileName(generatedFileName);
         fileInfo.setFileExtension(fileExtension);
-        fileInfo.setFileSize(file.getSize());
+        fileInfo.setFileSize(upload.getSize());
         fileInfo.setDescription(description);
         fileInfo.setCdnPrefix(selectedPrefix.getPrefix());
         fileInfo.setFullUrl(fullUrl);
@@ -281,11 +295,13 @@ public class FileService {
         if (result > 0) {
             return fileInfo;
         } else {
-            // 如果数据库保存失败，删除已上传的文件
-            try {
-                ftpService.deleteFile(ftpPath);
-            } catch (IOException e) {
-                log.error("删除FTP文件失败: {}", ftpPath, e);
+            // 如果数据库保存失败，删除已上传的文件（复用的已有文件不能删除）
+            if (!deduplicated) {
+                try {
+                    ftpService.deleteFile(ftpPath);
+                } catch (IOException e) {
+                    log.error("删除FTP文件失败: {}", ftpPath, e);
+                }
             }
             throw new RuntimeException("保存文件信息失败");
         }
@@ -320,21 +336,41 @@ public class FileService {
      */
     @Transactional
     public boolean deleteFile(Long id) {
-        FileInfo fileInfo = fileInfoMapper.selectById(id);
+        // 锁定待删除记录：正在复用该记录存储的上传提交前，这里会等待
+        FileInfo fileInfo = fileInfoMapper.selectByIdForUpdate(id);
         if (fileInfo == null) {
             return false;
         }
         
-        // 从FTP服务器删除文件
+        // 去重后的记录可能共用同一个FTP文件，仍有其他记录引用时保留
+        boolean shared = fileInfo.getChecksum() != null
+                && !fileInfoMapper.selectSharedStorageForUpdate(id, fileInfo.getChecksum(), fileInfo.getFtpPath()).isEmpty();
+        
+        int result = fileInfoMapper.deleteById(id);
+        if (result > 0 && !shared) {
+            // 记录删除提交后再删除FTP文件，事务回滚时文件仍然可用
+            String ftpPath = fileInfo.getFtpPath();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        deleteFtpFile(ftpPath);
+                    }
+                });
+            } else {
+                deleteFtpFile(ftpPath);
+            }
+        }
+        return result > 0;
+    }
+    
+    private void deleteFtpFile(String ftpPath) {
         try {
-            ftpService.deleteFile(fileInfo.getFtpPath());
+            ftpService.deleteFile(ftpPath);
         } catch (IOException e) {
+            // 数据库记录已删除，FTP文件删除失败仅记录日志
             log.error("删除FTP文件失败: {}", e.getMessage());
-            // 继续删除数据库记录，即使FTP文件删除失败
         }
-        
-        int result = fileInfoMapper.deleteById(id);
-        return result > 0;
     }
     
     /**
@@ -385,23 +421,4 @@ public class FileService {
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
         return uuid + "_" + timestamp + fileExtension;
     }
-    
-    /**
-     * 计算文件MD5
-     * @param fileBytes 文件字节数组
-     * @return MD5值
-     */
-    private String calculateMD5(byte[] fileBytes) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(fileBytes);
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5计算失败", e);
-        }
-    }
 }
\ No newline at end of file
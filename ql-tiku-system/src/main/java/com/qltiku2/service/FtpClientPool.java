@@ -0,0 +1,343 @@
+package com.qltiku2.service;
+
+import com.qltiku2.config.FtpConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FTP连接池
+ * 复用已登录的FTP控制连接，避免每次操作都重新建立TCP连接、登录和设置传输模式。
+ * 借出前对空闲较久的连接发送NOOP校验，超过最长存活时间的连接归还时直接关闭，
+ * 空闲过久的连接由定时任务回收；连接数达到上限时借用方排队等待，超时后失败。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class FtpClientPool {
+
+    /**
+     * 默认数据传输超时（毫秒），归还时恢复，避免单次操作的设置影响后续借用方
+     */
+    private static final int DEFAULT_DATA_TIMEOUT = 15000;
+
+    @Autowired
+    private FtpConfig ftpConfig;
+
+    /**
+     * 空闲连接（后进先出，优先复用最近使用的连接）
+     */
+    private final Deque<Session> idle = new ArrayDeque<>();
+
+    private final Object idleLock = new Object();
+
+    private volatile Semaphore permits;
+
+    private volatile boolean closed;
+
+    private final AtomicInteger borrowed = new AtomicInteger();
+
+    // 连接池统计
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowTimeoutCount = new AtomicLong();
+    private final AtomicLong validationFailedCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * 借出一个已登录的连接，使用完毕后必须调用 {@link #release}
+     */
+    public Session borrow() throws IOException {
+        if (closed) {
+            throw new IOException("FTP连接池已关闭");
+        }
+        FtpConfig.Pool config = ftpConfig.getPool();
+        long start = System.nanoTime();
+        try {
+            if (!permits().tryAcquire(config.getBorrowTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                borrowTimeoutCount.incrementAndGet();
+                throw new IOException("获取FTP连接超时，当前连接均在使用中");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待FTP连接时被中断", e);
+        }
+        long waitNanos = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+
+        try {
+            Session session;
+            while ((session = pollIdle()) != null) {
+                long now = System.currentTimeMillis();
+                if (now - session.createdAt > config.getMaxLifetimeMs()) {
+                    destroy(session);
+                    continue;
+                }
+                if (now - session.lastUsedAt > config.getValidateAfterIdleMs() && !validate(session)) {
+                    validationFailedCount.incrementAndGet();
+                    destroy(session);
+                    continue;
+                }
+                break;
+            }
+            if (session == null) {
+                session = create();
+            }
+            borrowed.incrementAndGet();
+            borrowCount.incrementAndGet();
+            return session;
+        } catch (IOException | RuntimeException e) {
+            permits().release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接
+     *
+     * @param session 借出的连接
+     * @param reusable 连接状态是否正常（操作失败或传输未正常结束时传false，连接将被关闭）
+     */
+    public void release(Session session, boolean reusable) {
+        if (session == null) {
+            return;
+        }
+        borrowed.decrementAndGet();
+        try {
+            long now = System.currentTimeMillis();
+            boolean keep = reusable && !closed && session.client.isConnected()
+                    && now - session.createdAt <= ftpConfig.getPool().getMaxLifetimeMs();
+            if (keep) {
+                session.client.setDataTimeout(DEFAULT_DATA_TIMEOUT);
+                session.lastUsedAt = now;
+                synchronized (idleLock) {
+                    idle.push(session);
+                }
+            } else {
+                destroy(session);
+            }
+        } finally {
+            permits().release();
+        }
+    }
+
+    /**
+     * 借出连接执行操作并归还；操作抛出异常时连接状态不可确定，直接关闭
+     */
+    public <T> T execute(FtpCallback<T> callback) throws IOException {
+        Session session = borrow();
+        boolean reusable = false;
+        try {
+            T result = callback.doInFtp(session.client);
+            reusable = true;
+            return result;
+        } finally {
+            release(session, reusable);
+        }
+    }
+
+    /**
+     * 回收空闲过久或超过最长存活时间的连接
+     */
+    @Scheduled(fixedDelayString = "${ftp.pool.eviction-interval-ms:60000}",
+            initialDelayString = "${ftp.pool.eviction-interval-ms:60000}")
+    public void evict() {
+        FtpConfig.Pool config = ftpConfig.getPool();
+        long now = System.currentTimeMillis();
+        List<Session> expired = new ArrayList<>();
+        synchronized (idleLock) {
+            Iterator<Session> it = idle.iterator();
+            while (it.hasNext()) {
+                Session session = it.next();
+                if (now - session.lastUsedAt > config.getMaxIdleMs() || now - session.createdAt > config.getMaxLifetimeMs()) {
+                    it.remove();
+                    expired.add(session);
+                }
+            }
+        }
+        for (Session session : expired) {
+            evictedCount.incrementAndGet();
+            destroy(session);
+        }
+        if (!expired.isEmpty()) {
+            log.debug("回收空闲FTP连接{}个", expired.size());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        List<Session> sessions;
+        synchronized (idleLock) {
+            sessions = new ArrayList<>(idle);
+            idle.clear();
+        }
+        sessions.forEach(this::destroy);
+    }
+
+    /**
+     * 获取连接池统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (idleLock) {
+            stats.put("idle", idle.size());
+        }
+        long borrows = borrowCount.get();
+        stats.put("maxTotal", ftpConfig.getPool().getMaxTotal());
+        stats.put("borrowed", borrowed.get());
+        stats.put("waiting", permits().getQueueLength());
+        stats.put("borrowCount", borrows);
+        stats.put("createdCount", createdCount.get());
+        stats.put("destroyedCount", destroyedCount.get());
+        stats.put("borrowTimeoutCount", borrowTimeoutCount.get());
+        stats.put("validationFailedCount", validationFailedCount.get());
+        stats.put("evictedCount", evictedCount.get());
+        stats.put("avgWaitMs", borrows > 0 ? totalWaitNanos.get() / borrows / 1_000_000.0 : 0);
+        stats.put("maxWaitMs", maxWaitNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    private Semaphore permits() {
+        Semaphore semaphore = permits;
+        if (semaphore == null) {
+            synchronized (this) {
+                if (permits == null) {
+                    permits = new Semaphore(Math.max(1, ftpConfig.getPool().getMaxTotal()), true);
+                }
+                semaphore = permits;
+            }
+        }
+        return semaphore;
+    }
+
+    private Session pollIdle() {
+        synchronized (idleLock) {
+            return idle.poll();
+        }
+    }
+
+    private boolean validate(Session session) {
+        try {
+            return session.client.isConnected() && session.client.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 建立并登录一个新连接
+     */
+    private Session create() throws IOException {
+        FTPClient ftpClient = new FTPClient();
+
+        try {
+            // 超时需在连接前设置才会生效
+            ftpClient.setConnectTimeout(10000); // 10秒连接超时
+            ftpClient.setDataTimeout(DEFAULT_DATA_TIMEOUT);
+            ftpClient.setControlKeepAliveTimeout(10000); // 传输期间每10秒在控制连接上发送NOOP
+            ftpClient.setControlEncoding("UTF-8");
+
+            // 连接FTP服务器
+            ftpClient.connect(ftpConfig.getServer().getHost(), ftpConfig.getServer().getPort());
+
+            // 登录
+            boolean loginSuccess = ftpClient.login(
+                ftpConfig.getServer().getUsername(),
+                ftpConfig.getServer().getPassword()
+            );
+
+            if (!loginSuccess) {
+                throw new IOException("FTP登录失败");
+            }
+
+            // 设置文件传输模式为二进制
+            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+
+            // 设置被动模式
+            if (ftpConfig.getServer().isPassiveMode()) {
+                ftpClient.enterLocalPassiveMode();
+            } else {
+                ftpClient.enterLocalActiveMode();
+            }
+
+            // 设置缓冲区大小
+            ftpClient.setBufferSize(32768); // 32KB缓冲区
+
+            createdCount.incrementAndGet();
+            log.info("FTP连接成功: {}:{}", ftpConfig.getServer().getHost(), ftpConfig.getServer().getPort());
+            return new Session(ftpClient);
+
+        } catch (IOException e) {
+            if (ftpClient.isConnected()) {
+                try {
+                    ftpClient.disconnect();
+                } catch (IOException ex) {
+                    log.error("关闭FTP连接失败", ex);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void destroy(Session session) {
+        destroyedCount.incrementAndGet();
+        FTPClient ftpClient = session.client;
+        if (ftpClient.isConnected()) {
+            try {
+                ftpClient.logout();
+            } catch (IOException e) {
+                log.debug("FTP登出失败: {}", e.getMessage());
+            }
+            try {
+                ftpClient.disconnect();
+                log.debug("FTP连接已关闭");
+            } catch (IOException e) {
+                log.error("关闭FTP连接失败", e);
+            }
+        }
+    }
+
+    /**
+     * 在借出的连接上执行的操作
+     */
+    @FunctionalInterface
+    public interface FtpCallback<T> {
+        T doInFtp(FTPClient ftpClient) throws IOException;
+    }
+
+    /**
+     * 池化的FTP连接
+     */
+    public static final class Session {
+        private final FTPClient client;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+
+        private Session(FTPClient client) {
+            this.client = client;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+        }
+
+        public FTPClient getClient() {
+            return client;
+        }
+    }
+}
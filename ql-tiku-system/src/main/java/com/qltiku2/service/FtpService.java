@@ -1,8 +1,13 @@
 package com.qltiku2.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.qltiku2.config.FtpConfig;
+import com.qltiku2.utils.HashingInputStream;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,13 +18,14 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * FTP服务类
- * 专用于资料库文件管理
+ * 专用于资料库文件管理，所有操作使用 {@link FtpClientPool} 中已登录的连接
  */
 @Slf4j
 @Service
@@ -28,122 +34,69 @@ public class FtpService {
     @Autowired
     private FtpConfig ftpConfig;
     
-    /**
-     * 创建FTP连接
-     */
-    private FTPClient createFtpClient() throws IOException {
-        FTPClient ftpClient = new FTPClient();
-        
-        try {
-            // 连接FTP服务器
-            ftpClient.connect(ftpConfig.getServer().getHost(), ftpConfig.getServer().getPort());
-            
-            // 登录
-            boolean loginSuccess = ftpClient.login(
-                ftpConfig.getServer().getUsername(), 
-                ftpConfig.getServer().getPassword()
-            );
-            
-            if (!loginSuccess) {
-                throw new IOException("FTP登录失败");
-            }
-            
-            // 设置文件传输模式为二进制
-            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-            
-            // 设置被动模式
-            if (ftpConfig.getServer().isPassiveMode()) {
-                ftpClient.enterLocalPassiveMode();
-                log.debug("FTP被动模式已启用");
-            } else {
-                ftpClient.enterLocalActiveMode();
-                log.debug("FTP主动模式已启用");
-            }
-            
-            // 设置更短的超时时间以快速失败
-            ftpClient.setConnectTimeout(10000); // 10秒连接超时
-            ftpClient.setDataTimeout(15000);    // 15秒数据超时
-            ftpClient.setControlKeepAliveTimeout(10000); // 10秒控制连接超时
-            
-            // 设置缓冲区大小
-            ftpClient.setBufferSize(32768); // 32KB缓冲区
-            
-            // 设置编码
-            ftpClient.setControlEncoding("UTF-8");
-            
-            log.info("FTP连接成功: {}:{}", ftpConfig.getServer().getHost(), ftpConfig.getServer().getPort());
-            return ftpClient;
-            
-        } catch (IOException e) {
-            if (ftpClient.isConnected()) {
-                try {
-                    ftpClient.disconnect();
-                } catch (IOException ex) {
-                    log.error("关闭FTP连接失败", ex);
-                }
-            }
-            throw e;
-        }
-    }
+    @Autowired
+    private FtpClientPool ftpClientPool;
     
     /**
-     * 关闭FTP连接
+     * 已确认存在的目录（上传时跳过逐级检查）
      */
-    private void closeFtpClient(FTPClient ftpClient) {
-        if (ftpClient != null && ftpClient.isConnected()) {
-            try {
-                ftpClient.logout();
-                ftpClient.disconnect();
-                log.debug("FTP连接已关闭");
-            } catch (IOException e) {
-                log.error("关闭FTP连接失败", e);
-            }
-        }
+    private Cache<String, Boolean> knownDirectories;
+    
+    private final AtomicLong directoryCacheHits = new AtomicLong();
+    private final AtomicLong directoryCacheMisses = new AtomicLong();
+    
+    @PostConstruct
+    public void initDirectoryCache() {
+        knownDirectories = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(ftpConfig.getPool().getDirectoryCacheTtlMs(), TimeUnit.MILLISECONDS)
+                .build();
     }
     
     /**
      * 上传文件到FTP服务器
+     * 上传过程中同时计算MD5和字节数，文件内容只读取一次且不进入堆内存
      */
-    public String uploadFile(MultipartFile file, String description) throws IOException {
+    public UploadResult uploadFile(MultipartFile file, String description) throws IOException {
         // 验证文件
         validateFile(file);
         
-        FTPClient ftpClient = null;
-        try {
-            ftpClient = createFtpClient();
-            
-            // 生成唯一文件名
-            String originalFileName = file.getOriginalFilename();
-            String fileExtension = getFileExtension(originalFileName);
-            String generatedFileName = generateFileName(fileExtension);
-            
+        // 生成唯一文件名
+        String originalFileName = file.getOriginalFilename();
+        String fileExtension = getFileExtension(originalFileName);
+        String generatedFileName = generateFileName(fileExtension);
+        
+        String datePath = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
+        String remotePath = ftpConfig.getStorage().getRootPath() + datePath + "/";
+        String remoteFilePath = remotePath + generatedFileName;
+        
+        UploadResult result = ftpClientPool.execute(ftpClient -> {
             // 创建目录结构
-            String datePath = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy/MM/dd"));
-            String remotePath = ftpConfig.getStorage().getRootPath() + datePath + "/";
             createDirectoryTree(ftpClient, remotePath);
             
             // 上传文件
-            String remoteFilePath = remotePath + generatedFileName;
-            try (InputStream inputStream = file.getInputStream()) {
+            try (HashingInputStream inputStream = new HashingInputStream(file.getInputStream())) {
                 boolean uploadSuccess = ftpClient.storeFile(remoteFilePath, inputStream);
                 if (!uploadSuccess) {
+                    // 目录可能已在服务器上被删除，下次上传重新检查
+                    knownDirectories.invalidate(remotePath);
                     throw new IOException("文件上传失败: " + ftpClient.getReplyString());
                 }
+                return new UploadResult(remoteFilePath, inputStream.getCount(), inputStream.getMd5Hex());
             }
-            
-            log.info("文件上传成功: {} -> {}", originalFileName, remoteFilePath);
-            return remoteFilePath;
-            
-        } finally {
-            closeFtpClient(ftpClient);
-        }
+        });
+        
+        log.info("文件上传成功: {} -> {}, {} bytes, md5={}", originalFileName, remoteFilePath, result.getSize(), result.getChecksum());
+        return result;
     }
     
     /**
      * 从FTP服务器下载文件
+     * 返回的流占用一个池化连接，关闭流时归还
      */
     public InputStream downloadFile(String remotePath) throws IOException {
-        FTPClient ftpClient = createFtpClient();
+        FtpClientPool.Session session = ftpClientPool.borrow();
+        FTPClient ftpClient = session.getClient();
         
         try {
             // 设置更短的数据传输超时时间
@@ -152,19 +105,22 @@ public class FtpService {
             log.info("开始从FTP服务器获取文件流: {}", remotePath);
             InputStream inputStream = ftpClient.retrieveFileStream(remotePath);
             if (inputStream == null) {
-                closeFtpClient(ftpClient);
+                // 控制连接仍然可用，直接归还
+                ftpClientPool.release(session, true);
                 log.error("无法获取文件流，文件可能不存在: {}", remotePath);
-                throw new IOException("文件不存在或下载失败: " + remotePath);
+                throw new FileNotFoundException("文件不存在或下载失败: " + remotePath);
             }
             
             log.info("FTP文件流获取成功: {}", remotePath);
             
-            // 返回一个包装的InputStream，在关闭时同时关闭FTP连接
-            return new FtpInputStream(inputStream, ftpClient, remotePath);
+            // 返回一个包装的InputStream，在关闭时将连接归还连接池
+            return new FtpInputStream(inputStream, session, ftpClientPool, remotePath);
             
-        } catch (IOException e) {
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
             log.error("FTP文件下载失败: {}, 错误: {}", remotePath, e.getMessage());
-            closeFtpClient(ftpClient);
+            ftpClientPool.release(session, false);
             throw e;
         }
     }
@@ -173,58 +129,43 @@ public class FtpService {
      * 删除FTP服务器上的文件
      */
     public boolean deleteFile(String remotePath) throws IOException {
-        FTPClient ftpClient = null;
-        try {
-            ftpClient = createFtpClient();
-            
+        return ftpClientPool.execute(ftpClient -> {
             boolean deleteSuccess = ftpClient.deleteFile(remotePath);
             if (deleteSuccess) {
                 log.info("文件删除成功: {}", remotePath);
             } else {
                 log.warn("文件删除失败: {}, 原因: {}", remotePath, ftpClient.getReplyString());
             }
-            
             return deleteSuccess;
-            
-        } finally {
-            closeFtpClient(ftpClient);
-        }
+        });
     }
     
     /**
      * 检查文件是否存在
      */
     public boolean fileExists(String remotePath) throws IOException {
-        FTPClient ftpClient = null;
-        try {
-            ftpClient = createFtpClient();
-            
-            FTPFile[] files = ftpClient.listFiles(remotePath);
-            return files.length > 0;
-            
-        } finally {
-            closeFtpClient(ftpClient);
-        }
+        return ftpClientPool.execute(ftpClient -> ftpClient.listFiles(remotePath).length > 0);
     }
     
     /**
      * 获取文件大小
      */
     public long getFileSize(String remotePath) throws IOException {
-        FTPClient ftpClient = null;
-        try {
-            ftpClient = createFtpClient();
-            
+        return ftpClientPool.execute(ftpClient -> {
             FTPFile[] files = ftpClient.listFiles(remotePath);
-            if (files.length > 0) {
-                return files[0].getSize();
-            }
-            
-            return -1;
-            
-        } finally {
-            closeFtpClient(ftpClient);
-        }
+            return files.length > 0 ? files[0].getSize() : -1L;
+        });
+    }
+    
+    /**
+     * 获取FTP连接池与目录缓存统计
+     */
+    public Map<String, Object> getPoolStats() {
+        Map<String, Object> stats = ftpClientPool.getStats();
+        stats.put("directoryCacheSize", knownDirectories.estimatedSize());
+        stats.put("directoryCacheHits", directoryCacheHits.get());
+        stats.put("directoryCacheMisses", directoryCacheMisses.get());
+        return stats;
     }
     
     /**
@@ -274,10 +215,18 @@ public class FtpService {
     
     /**
      * 创建目录树
+     * 已确认存在的目录直接跳过；整条路径都已确认时不发送任何命令
      */
     private void createDirectoryTree(FTPClient ftpClient, String remotePath) throws IOException {
+        if (knownDirectories.getIfPresent(remotePath) != null) {
+            directoryCacheHits.incrementAndGet();
+            return;
+        }
+        directoryCacheMisses.incrementAndGet();
+        
         String[] pathElements = remotePath.split("/");
         StringBuilder currentPath = new StringBuilder();
+        boolean changed = false;
         
         for (String pathElement : pathElements) {
             if (pathElement.isEmpty()) {
@@ -286,18 +235,27 @@ public class FtpService {
             }
             
             currentPath.append(pathElement).append("/");
+            String directory = currentPath.toString();
+            if (knownDirectories.getIfPresent(directory) != null) {
+                continue;
+            }
             
             // 尝试切换到目录，如果失败则创建目录
-            if (!ftpClient.changeWorkingDirectory(currentPath.toString())) {
-                if (!ftpClient.makeDirectory(currentPath.toString())) {
-                    throw new IOException("创建目录失败: " + currentPath.toString());
+            changed = true;
+            if (!ftpClient.changeWorkingDirectory(directory)) {
+                if (!ftpClient.makeDirectory(directory)) {
+                    throw new IOException("创建目录失败: " + directory);
                 }
-                log.debug("创建目录: {}", currentPath.toString());
+                log.debug("创建目录: {}", directory);
             }
+            knownDirectories.put(directory, Boolean.TRUE);
         }
+        knownDirectories.put(remotePath, Boolean.TRUE);
         
         // 重置工作目录
-        ftpClient.changeWorkingDirectory("/");
+        if (changed) {
+            ftpClient.changeWorkingDirectory("/");
+        }
     }
     
     /**
@@ -312,17 +270,30 @@ public class FtpService {
     }
     
     /**
-     * FTP输入流包装类，用于在关闭流时同时关闭FTP连接
+     * 上传结果：远程路径及上传过程中得到的大小与MD5
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class UploadResult {
+        private final String remotePath;
+        private final long size;
+        private final String checksum;
+    }
+    
+    /**
+     * FTP输入流包装类，用于在关闭流时结束传输并归还连接
      */
     private static class FtpInputStream extends InputStream {
         private final InputStream inputStream;
-        private final FTPClient ftpClient;
+        private final FtpClientPool.Session session;
+        private final FtpClientPool pool;
         private final String remotePath;
         private volatile boolean closed = false;
         
-        public FtpInputStream(InputStream inputStream, FTPClient ftpClient, String remotePath) {
+        public FtpInputStream(InputStream inputStream, FtpClientPool.Session session, FtpClientPool pool, String remotePath) {
             this.inputStream = inputStream;
-            this.ftpClient = ftpClient;
+            this.session = session;
+            this.pool = pool;
             this.remotePath = remotePath;
         }
         
@@ -383,24 +354,19 @@ public class FtpService {
                 log.error("关闭输入流失败: {}", remotePath, e);
             }
             
+            // 传输正常结束的连接归还连接池，否则关闭
+            boolean reusable = false;
             try {
-                if (ftpClient != null && ftpClient.isConnected()) {
-                    ftpClient.completePendingCommand();
+                FTPClient ftpClient = session.getClient();
+                if (ftpClient.isConnected()) {
+                    reusable = ftpClient.completePendingCommand();
                     log.debug("FTP命令完成: {}", remotePath);
                 }
             } catch (IOException e) {
                 log.error("完成FTP命令失败: {}", remotePath, e);
-            }
-            
-            try {
-                if (ftpClient != null && ftpClient.isConnected()) {
-                    ftpClient.logout();
-                    ftpClient.disconnect();
-                    log.debug("FTP连接已关闭: {}", remotePath);
-                }
-            } catch (IOException e) {
-                log.error("关闭FTP连接失败: {}", remotePath, e);
+            } finally {
+                pool.release(session, reusable);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -2,172 +2,319 @@ package com.qltiku2.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.qltiku2.utils.IpRegionDatabase;
 import com.qltiku2.utils.IpUtils;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.web.client.RestClientException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * IP地理位置查询服务
- * 使用ip-api.com免费API查询IP地址的地理位置信息
+ * 优先查询本地IP地址库（内存中的有序地址段，二分查找），热点IP再经过有界本地缓存；
+ * 地址库文件变化时自动重新加载。本地库未收录的地址可选地异步回退到ip-api.com查询，
+ * 查询结果写入缓存供后续使用，调用方不会等待网络请求；查询失败或被放弃的IP短时间内记为未知，
+ * 避免同一IP反复触发回退查询。
  */
 @Service
 public class IpLocationService {
-
+    
     private static final Logger logger = LoggerFactory.getLogger(IpLocationService.class);
     
-    private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper;
+    private static final String UNKNOWN_LOCATION = "未知位置";
+    private static final String LOCAL_NETWORK = "本地网络";
     
     // ip-api.com API地址，支持中文显示
     private static final String IP_API_URL = "http://ip-api.com/json/{ip}?lang=zh-CN";
     
+    private final RestTemplate restTemplate;
+    private final AsyncTaskExecutor ipLookupExecutor;
+    private final ObjectMapper objectMapper;
+    
+    @Value("${ip-location.database-path:./data/ip-region.csv}")
+    private String databasePath;
+    
+    @Value("${ip-location.cache-size:10000}")
+    private int cacheSize;
+    
+    @Value("${ip-location.http-fallback-enabled:true}")
+    private boolean httpFallbackEnabled;
+    
+    @Value("${ip-location.failed-lookup-ttl-seconds:300}")
+    private long failedLookupTtlSeconds;
+    
+    private volatile IpRegionDatabase database = IpRegionDatabase.EMPTY;
+    
+    /**
+     * 已加载文件的修改时间与大小，用于检测变化
+     */
+    private volatile long loadedModified = -1;
+    private volatile long loadedSize = -1;
+    private volatile LocalDateTime loadedAt;
+    
+    /**
+     * 热点IP -> 完整地理位置
+     */
+    private Cache<String, String> locationCache;
+    
+    /**
+     * HTTP回退查询失败或被放弃的IP，过期前直接返回未知位置
+     */
+    private Cache<String, String> failedLookupCache;
+    
+    /**
+     * 正在进行HTTP回退查询的IP
+     */
+    private final Set<String> pendingFallbacks = ConcurrentHashMap.newKeySet();
+    
+    // 查询统计
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong databaseHits = new AtomicLong();
+    private final AtomicLong databaseMisses = new AtomicLong();
+    private final AtomicLong fallbackRequests = new AtomicLong();
+    private final AtomicLong fallbackFailures = new AtomicLong();
+    private final AtomicLong fallbackDropped = new AtomicLong();
+    private final AtomicLong reloadCount = new AtomicLong();
+    
     @Autowired
-    public IpLocationService(RestTemplate restTemplate) {
+    public IpLocationService(RestTemplate restTemplate, @Qualifier("ipLookupExecutor") AsyncTaskExecutor ipLookupExecutor) {
         this.restTemplate = restTemplate;
+        this.ipLookupExecutor = ipLookupExecutor;
         this.objectMapper = new ObjectMapper();
     }
     
+    @PostConstruct
+    public void init() {
+        locationCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+        failedLookupCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofSeconds(failedLookupTtlSeconds))
+                .build();
+        reloadIfChanged();
+    }
+    
     /**
      * 根据IP地址查询地理位置信息
-     * 
+     *
      * @param ipAddress IP地址
      * @return 地理位置信息字符串，格式：国家-省份-城市-运营商
      */
     public String getLocationByIp(String ipAddress) {
         if (ipAddress == null || ipAddress.trim().isEmpty()) {
-            logger.warn("IP地址为空，无法查询地理位置");
-            return "未知位置";
+            return UNKNOWN_LOCATION;
         }
-        
+    
         // 过滤本地IP地址
         if (IpUtils.isLocalIp(ipAddress)) {
-            logger.debug("检测到本地IP地址: {}", ipAddress);
-            return "本地网络";
+            return LOCAL_NETWORK;
         }
-        
-        try {
-            logger.info("开始查询公网IP地址地理位置: {}", ipAddress);
-            
-            // 调用ip-api.com API
-            String response = restTemplate.getForObject(IP_API_URL, String.class, ipAddress);
-            
-            logger.info("API响应内容，IP: {}, 响应: {}", ipAddress, response);
-            
-            if (response == null || response.trim().isEmpty()) {
-                logger.warn("API返回空响应，IP: {}", ipAddress);
-                return "查询失败";
-            }
-            
-            // 解析JSON响应
-            JsonNode jsonNode = objectMapper.readTree(response);
-            
-            // 检查API调用是否成功
-            String status = jsonNode.path("status").asText();
-            logger.info("API查询状态，IP: {}, 状态: {}", ipAddress, status);
-            
-            if (!"success".equals(status)) {
-                String message = jsonNode.path("message").asText("未知错误");
-                logger.warn("API查询失败，IP: {}, 状态: {}, 消息: {}", ipAddress, status, message);
-                return "查询失败: " + message;
-            }
-            
-            // 提取地理位置信息
-            String country = jsonNode.path("country").asText("");
-            String regionName = jsonNode.path("regionName").asText("");
-            String city = jsonNode.path("city").asText("");
-            String isp = jsonNode.path("isp").asText("");
-            
-            logger.info("解析地理位置信息，IP: {}, 国家: {}, 省份: {}, 城市: {}, 运营商: {}", 
-                ipAddress, country, regionName, city, isp);
-            
-            // 构建地理位置字符串
-            StringBuilder location = new StringBuilder();
-            
-            if (!country.isEmpty() && !"null".equals(country)) {
-                location.append(country);
-            }
-            
-            if (!regionName.isEmpty() && !"null".equals(regionName)) {
-                if (location.length() > 0) location.append("-");
-                location.append(regionName);
-            }
-            
-            if (!city.isEmpty() && !"null".equals(city)) {
-                if (location.length() > 0) location.append("-");
-                location.append(city);
-            }
-            
-            if (!isp.isEmpty() && !"null".equals(isp)) {
-                if (location.length() > 0) location.append("-");
-                location.append(isp);
-            }
-            
-            String result = location.length() > 0 ? location.toString() : "未知位置";
-            logger.info("IP地址 {} 的地理位置查询最终结果: {}", ipAddress, result);
-            
-            return result;
-            
-        } catch (RestClientException e) {
-            logger.error("网络请求异常，IP: {}, 错误详情: {}", ipAddress, e.getMessage(), e);
-            return "网络异常";
-        } catch (Exception e) {
-            logger.error("查询IP地理位置时发生异常，IP: {}", ipAddress, e);
-            return "查询异常";
+    
+        String cached = locationCache.getIfPresent(ipAddress);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+    
+        String location = database.lookup(ipAddress);
+        if (location != null) {
+            databaseHits.incrementAndGet();
+            locationCache.put(ipAddress, location);
+            return location;
+        }
+    
+        databaseMisses.incrementAndGet();
+        if (failedLookupCache.getIfPresent(ipAddress) != null) {
+            cacheHits.incrementAndGet();
+            return UNKNOWN_LOCATION;
+        }
+        if (httpFallbackEnabled) {
+            // 异步查询，结果写入缓存，本次先返回未知
+            fallbackAsync(ipAddress);
+        } else {
+            locationCache.put(ipAddress, UNKNOWN_LOCATION);
         }
+        return UNKNOWN_LOCATION;
     }
     
     /**
      * 获取简化的地理位置信息
-     * 
+     *
      * @param ipAddress IP地址
      * @return 简化的地理位置信息，格式：国家-城市
      */
     public String getSimpleLocationByIp(String ipAddress) {
         if (ipAddress == null || ipAddress.trim().isEmpty()) {
-            return "未知位置";
+            return UNKNOWN_LOCATION;
         }
-        
+    
         // 过滤本地IP地址
         if (IpUtils.isLocalIp(ipAddress)) {
-            return "本地网络";
+            return LOCAL_NETWORK;
+        }
+    
+        String location = database.lookupSimple(ipAddress);
+        return location != null ? location : UNKNOWN_LOCATION;
+    }
+    
+    /**
+     * 地址库文件变化时重新加载（启动时及定时检查）
+     */
+    @Scheduled(fixedDelayString = "${ip-location.reload-check-interval-ms:60000}", initialDelay = 60000)
+    public void reloadIfChanged() {
+        Path file = Paths.get(databasePath);
+        try {
+            if (!Files.isRegularFile(file)) {
+                if (loadedModified == -1) {
+                    logger.warn("IP地址库文件不存在: {}，地理位置查询仅使用{}", file.toAbsolutePath(),
+                            httpFallbackEnabled ? "HTTP回退" : "本地/未知");
+                    loadedModified = 0;
+                }
+                return;
+            }
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            long size = Files.size(file);
+            if (modified == loadedModified && size == loadedSize) {
+                return;
+            }
+            reload(file, modified, size);
+        } catch (Exception e) {
+            logger.error("IP地址库加载失败，继续使用已加载的数据: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 强制重新加载地址库
+     *
+     * @return 加载后的统计信息
+     */
+    public Map<String, Object> reload() throws Exception {
+        Path file = Paths.get(databasePath);
+        reload(file, Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+        return getStats();
+    }
+    
+    private synchronized void reload(Path file, long modified, long size) throws Exception {
+        long start = System.currentTimeMillis();
+        IpRegionDatabase loaded = IpRegionDatabase.loadCsv(file);
+        database = loaded;
+        loadedModified = modified;
+        loadedSize = size;
+        loadedAt = LocalDateTime.now();
+        reloadCount.incrementAndGet();
+        locationCache.invalidateAll();
+        failedLookupCache.invalidateAll();
+        logger.info("IP地址库加载完成: {}，地址段: {}，地理位置: {}，耗时: {}ms", file.toAbsolutePath(),
+                loaded.rangeCount(), loaded.regionCount(), System.currentTimeMillis() - start);
+    }
+    
+    /**
+     * 异步回退到ip-api.com查询；同一IP只查询一次，在专用的有界线程池中执行，
+     * 查询失败或线程池繁忙放弃查询时，该IP在短时间内记为未知，过期后再尝试
+     */
+    private void fallbackAsync(String ipAddress) {
+        if (!pendingFallbacks.add(ipAddress)) {
+            return;
         }
-        
+        try {
+            ipLookupExecutor.execute(() -> {
+                try {
+                    String location = fetchFromApi(ipAddress);
+                    if (location != null) {
+                        locationCache.put(ipAddress, location);
+                    } else {
+                        fallbackFailures.incrementAndGet();
+                        failedLookupCache.put(ipAddress, UNKNOWN_LOCATION);
+                    }
+                } finally {
+                    pendingFallbacks.remove(ipAddress);
+                }
+            });
+            fallbackRequests.incrementAndGet();
+        } catch (TaskRejectedException e) {
+            failedLookupCache.put(ipAddress, UNKNOWN_LOCATION);
+            pendingFallbacks.remove(ipAddress);
+            fallbackDropped.incrementAndGet();
+        }
+    }
+    
+    /**
+     * 调用ip-api.com查询地理位置
+     *
+     * @return 地理位置，查询失败时返回null
+     */
+    private String fetchFromApi(String ipAddress) {
         try {
             String response = restTemplate.getForObject(IP_API_URL, String.class, ipAddress);
-            
             if (response == null || response.trim().isEmpty()) {
-                return "查询失败";
+                logger.warn("API返回空响应，IP: {}", ipAddress);
+                return null;
             }
-            
+    
             JsonNode jsonNode = objectMapper.readTree(response);
-            
             if (!"success".equals(jsonNode.path("status").asText())) {
-                return "查询失败";
+                logger.warn("API查询失败，IP: {}, 消息: {}", ipAddress, jsonNode.path("message").asText("未知错误"));
+                return null;
             }
-            
-            String country = jsonNode.path("country").asText("");
-            String city = jsonNode.path("city").asText("");
-            
+    
+            // 构建地理位置字符串：国家-省份-城市-运营商
             StringBuilder location = new StringBuilder();
-            
-            if (!country.isEmpty() && !"null".equals(country)) {
-                location.append(country);
+            for (String field : new String[]{"country", "regionName", "city", "isp"}) {
+                String value = jsonNode.path(field).asText("");
+                if (!value.isEmpty() && !"null".equals(value)) {
+                    if (location.length() > 0) location.append("-");
+                    location.append(value);
+                }
             }
-            
-            if (!city.isEmpty() && !"null".equals(city)) {
-                if (location.length() > 0) location.append("-");
-                location.append(city);
-            }
-            
-            return location.length() > 0 ? location.toString() : "未知位置";
-            
+            return location.length() > 0 ? location.toString() : UNKNOWN_LOCATION;
         } catch (Exception e) {
-            logger.error("查询IP简化地理位置时发生异常，IP: {}", ipAddress, e);
-            return "查询异常";
+            logger.warn("查询IP地理位置时发生异常，IP: {}, 错误: {}", ipAddress, e.getMessage());
+            return null;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * 获取查询统计
+     */
+    public Map<String, Object> getStats() {
+        IpRegionDatabase current = database;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("databasePath", databasePath);
+        stats.put("ranges", current.rangeCount());
+        stats.put("regions", current.regionCount());
+        stats.put("loadedAt", loadedAt);
+        stats.put("reloadCount", reloadCount.get());
+        stats.put("cacheSize", locationCache.estimatedSize());
+        stats.put("failedLookupCacheSize", failedLookupCache.estimatedSize());
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("databaseHits", databaseHits.get());
+        stats.put("databaseMisses", databaseMisses.get());
+        stats.put("httpFallbackEnabled", httpFallbackEnabled);
+        stats.put("fallbackRequests", fallbackRequests.get());
+        stats.put("fallbackFailures", fallbackFailures.get());
+        stats.put("fallbackDropped", fallbackDropped.get());
+        stats.put("pendingFallbacks", pendingFallbacks.size());
+        return stats;
+    }
+}
@@ -0,0 +1,395 @@
+package com.qltiku2.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.qltiku2.entity.AnswerRecord;
+import com.qltiku2.entity.Question;
+import com.qltiku2.entity.UserDailyStats;
+import com.qltiku2.mapper.QuestionMapper;
+import com.qltiku2.mapper.UserDailyStatsMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 学习统计汇总服务
+ * 维护 user_daily_stats 表（按用户/日期/科目/难度累计答题数、正确数、答题用时），统计看板只读汇总表。
+ *
+ * 答题与交卷时通过 {@link #recordAnswers} 把增量写入内存缓冲（事务提交后才生效），
+ * 定时任务批量查询题目属性后合并为多行 upsert 写回；进程异常退出时未刷新的增量可通过回填修正。
+ * 回填在一个事务内删除并重算用户今天之前的数据（可重复执行），今天的数据完全由增量维护，二者互不重复计数。
+ * 首次部署（汇总表为空）时的自动回填截止到本进程启动时刻，补齐今天启动前的答题；回填期间暂停写回，
+ * 启动后产生的增量留在缓冲中，回填完成后再写回，同样不会重复计数。
+ * 首次回填完成前汇总表数据不完整（{@link #isRollupReady()} 为false），统计看板改为直接按答题记录聚合。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class LearningStatsRollupService {
+
+    /**
+     * 单条批量SQL的最大行数
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 回填时每批处理的用户数
+     */
+    private static final int BACKFILL_USER_PAGE = 200;
+
+    @Autowired
+    private UserDailyStatsMapper userDailyStatsMapper;
+
+    @Autowired
+    private QuestionMapper questionMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    private final Object bufferLock = new Object();
+
+    /**
+     * 待写回的增量：(用户, 日期, 题目) -> [答题数, 正确数, 用时]
+     */
+    private Map<PendingKey, long[]> pending = new HashMap<>();
+
+    private final AtomicBoolean backfillRunning = new AtomicBoolean(false);
+
+    /**
+     * 本进程开始接收增量的时刻，此前的答题只能由回填计入
+     */
+    private final LocalDateTime startedAt = LocalDateTime.now();
+
+    /**
+     * 首次回填进行中，暂停写回增量
+     */
+    private volatile boolean initialBackfillRunning;
+
+    /**
+     * 汇总表已包含完整历史，可供统计看板读取
+     */
+    private volatile boolean rollupReady;
+
+    // 写回统计
+    private final AtomicLong recordedAnswers = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+
+    /**
+     * 记录答题增量；存在事务时在提交后才计入，回滚的答题不会被统计
+     *
+     * @param records 已写入的答题记录
+     */
+    public void recordAnswers(Collection<AnswerRecord> records) {
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        List<AnswerRecord> snapshot = new ArrayList<>(records);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bufferAnswers(snapshot);
+                }
+            });
+        } else {
+            bufferAnswers(snapshot);
+        }
+    }
+
+    /**
+     * 记录单条答题增量
+     */
+    public void recordAnswer(AnswerRecord record) {
+        if (record != null) {
+            recordAnswers(Collections.singletonList(record));
+        }
+    }
+
+    /**
+     * 记录答题结果的修正（如AI判题把已保存的答题改判为正确），只调整正确数，不增加答题数
+     *
+     * @param record 被修正的答题记录（需包含用户、题目与答题时间）
+     * @param correctDelta 正确数的变化（改判为正确为1，改判为错误为-1）
+     */
+    public void recordCorrection(AnswerRecord record, int correctDelta) {
+        if (record == null || record.getUserId() == null || record.getQuestionId() == null || correctDelta == 0) {
+            return;
+        }
+        PendingKey key = new PendingKey(record.getUserId(),
+                record.getCreateTime() != null ? record.getCreateTime().toLocalDate() : LocalDate.now(),
+                record.getQuestionId());
+        Runnable apply = () -> {
+            synchronized (bufferLock) {
+                pending.computeIfAbsent(key, k -> new long[3])[1] += correctDelta;
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private void bufferAnswers(List<AnswerRecord> records) {
+        LocalDate today = LocalDate.now();
+        synchronized (bufferLock) {
+            for (AnswerRecord record : records) {
+                if (record.getUserId() == null || record.getQuestionId() == null) {
+                    continue;
+                }
+                LocalDate date = record.getCreateTime() != null ? record.getCreateTime().toLocalDate() : today;
+                long[] delta = pending.computeIfAbsent(new PendingKey(record.getUserId(), date, record.getQuestionId()),
+                        k -> new long[3]);
+                delta[0]++;
+                if (record.getIsCorrect() != null && record.getIsCorrect() == 1) {
+                    delta[1]++;
+                }
+                if (record.getAnswerTime() != null) {
+                    delta[2] += record.getAnswerTime();
+                }
+            }
+        }
+        recordedAnswers.addAndGet(records.size());
+    }
+
+    /**
+     * 将缓冲的增量批量写回汇总表
+     */
+    @Scheduled(fixedDelay = 5000, initialDelay = 5000)
+    public synchronized void flush() {
+        if (initialBackfillRunning) {
+            return;
+        }
+        Map<PendingKey, long[]> batch;
+        synchronized (bufferLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+
+        try {
+            // 批量加载题目的科目与难度
+            Set<Long> questionIds = new HashSet<>();
+            batch.keySet().forEach(key -> questionIds.add(key.questionId));
+            Map<Long, Question> questions = loadQuestionAttributes(questionIds);
+
+            // 合并为 (用户, 日期, 科目, 难度) 粒度
+            Map<String, UserDailyStats> rows = new LinkedHashMap<>();
+            batch.forEach((key, delta) -> {
+                Question question = questions.get(key.questionId);
+                long subjectId = question != null && question.getSubjectId() != null ? question.getSubjectId() : 0L;
+                int difficulty = question != null && question.getDifficulty() != null ? question.getDifficulty() : 0;
+                UserDailyStats row = rows.computeIfAbsent(key.userId + ":" + key.date + ":" + subjectId + ":" + difficulty, k -> {
+                    UserDailyStats stats = new UserDailyStats();
+                    stats.setUserId(key.userId);
+                    stats.setStatDate(key.date);
+                    stats.setSubjectId(subjectId);
+                    stats.setDifficulty(difficulty);
+                    stats.setAttemptCount(0);
+                    stats.setCorrectCount(0);
+                    stats.setTotalAnswerTime(0L);
+                    return stats;
+                });
+                row.setAttemptCount(row.getAttemptCount() + (int) delta[0]);
+                row.setCorrectCount(row.getCorrectCount() + (int) delta[1]);
+                row.setTotalAnswerTime(row.getTotalAnswerTime() + delta[2]);
+            });
+
+            List<UserDailyStats> rowList = new ArrayList<>(rows.values());
+            for (int i = 0; i < rowList.size(); i += BATCH_SIZE) {
+                userDailyStatsMapper.upsertBatch(rowList.subList(i, Math.min(i + BATCH_SIZE, rowList.size())));
+            }
+            flushCount.incrementAndGet();
+            flushedRows.addAndGet(rowList.size());
+        } catch (Exception e) {
+            // 写回失败时放回缓冲，下次重试
+            failedFlushCount.incrementAndGet();
+            log.error("学习统计增量写回失败，将在下次重试: {}", e.getMessage());
+            synchronized (bufferLock) {
+                batch.forEach((key, delta) -> {
+                    long[] current = pending.computeIfAbsent(key, k -> new long[3]);
+                    for (int i = 0; i < delta.length; i++) {
+                        current[i] += delta[i];
+                    }
+                });
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        initialBackfillRunning = false;
+        flush();
+    }
+
+    /**
+     * 汇总表为空时（首次部署）自动回填历史数据
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        taskExecutor.execute(() -> {
+            try {
+                if (userDailyStatsMapper.selectCount(null) == 0) {
+                    log.info("学习统计汇总表为空，开始回填历史数据（截止到启动时刻 {}）", startedAt);
+                    // 等待进行中的写回结束，之后的写回都会跳过
+                    synchronized (this) {
+                        initialBackfillRunning = true;
+                    }
+                    if (backfill(startedAt) == null) {
+                        return;
+                    }
+                }
+                rollupReady = true;
+            } catch (Exception e) {
+                log.error("学习统计自动回填失败: {}", e.getMessage());
+            } finally {
+                initialBackfillRunning = false;
+            }
+        });
+    }
+
+    /**
+     * 汇总表是否已可供统计看板读取（启动检查完成且首次回填已结束）
+     */
+    public boolean isRollupReady() {
+        return rollupReady;
+    }
+
+    /**
+     * 由答题记录回填今天之前的统计（按用户分批，每批删除后重算）
+     *
+     * @return 回填结果，已有回填在运行时返回null
+     */
+    public Map<String, Object> backfill() {
+        return backfill(LocalDate.now().atStartOfDay());
+    }
+
+    /**
+     * 由答题记录回填截止时间之前的统计；截止时间不在零点时，当天的行按截止时间之前的答题覆盖，
+     * 只能在当天尚无增量写回时使用（首次回填）
+     */
+    private Map<String, Object> backfill(LocalDateTime before) {
+        if (!backfillRunning.compareAndSet(false, true)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        int users = 0;
+        int rows = 0;
+        try {
+            // 先写回缓冲中的增量，缩小跨零点时与重算结果重复计数的窗口
+            flush();
+            long afterUserId = 0;
+            while (true) {
+                List<Long> userIds = userDailyStatsMapper.selectAnswerUserIds(afterUserId, BACKFILL_USER_PAGE);
+                if (userIds.isEmpty()) {
+                    break;
+                }
+                // 先删除这些用户的历史统计再重算：题目改了科目/难度或被删除后，旧维度的行不会被覆盖，只能整体替换
+                rows += transactionTemplate.execute(status -> {
+                    userDailyStatsMapper.deleteForUsers(userIds, before.toLocalDate());
+                    return userDailyStatsMapper.rebuildForUsers(userIds, before);
+                });
+                users += userIds.size();
+                afterUserId = userIds.get(userIds.size() - 1);
+            }
+        } finally {
+            backfillRunning.set(false);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("users", users);
+        result.put("affectedRows", rows);
+        result.put("before", before.toString());
+        result.put("elapsedMillis", System.currentTimeMillis() - start);
+        log.info("学习统计回填完成，用户数: {}, 影响行数: {}, 耗时: {}ms", users, rows, result.get("elapsedMillis"));
+        return result;
+    }
+
+    /**
+     * 获取写回统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (bufferLock) {
+            stats.put("pendingKeys", pending.size());
+        }
+        stats.put("recordedAnswers", recordedAnswers.get());
+        stats.put("flushCount", flushCount.get());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("failedFlushCount", failedFlushCount.get());
+        stats.put("backfillRunning", backfillRunning.get());
+        stats.put("initialBackfillRunning", initialBackfillRunning);
+        stats.put("rollupReady", rollupReady);
+        return stats;
+    }
+
+    private Map<Long, Question> loadQuestionAttributes(Collection<Long> questionIds) {
+        Map<Long, Question> questions = new HashMap<>();
+        List<Long> ids = new ArrayList<>(questionIds);
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            QueryWrapper<Question> wrapper = new QueryWrapper<>();
+            wrapper.select("id", "subject_id", "difficulty").in("id", ids.subList(i, Math.min(i + BATCH_SIZE, ids.size())));
+            for (Question question : questionMapper.selectList(wrapper)) {
+                questions.put(question.getId(), question);
+            }
+        }
+        return questions;
+    }
+
+    private static final class PendingKey {
+        private final long userId;
+        private final LocalDate date;
+        private final long questionId;
+
+        private PendingKey(long userId, LocalDate date, long questionId) {
+            this.userId = userId;
+            this.date = date;
+            this.questionId = questionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey other = (PendingKey) o;
+            return userId == other.userId && questionId == other.questionId && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, date, questionId);
+        }
+    }
+}
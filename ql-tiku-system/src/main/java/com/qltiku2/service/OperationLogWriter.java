@@ -0,0 +1,390 @@
+package com.qltiku2.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qltiku2.entity.OperationLog;
+import com.qltiku2.mapper.OperationLogMapper;
+import com.qltiku2.utils.BoundedRingBuffer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.dao.UncategorizedDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * 操作日志写入管道
+ * 请求线程只把日志放入有界无锁环形缓冲区（满时丢弃最旧的日志），从不阻塞；
+ * 单个后台线程按批量大小或时间间隔取出日志，补充IP地理位置后以多行INSERT写入。
+ * 数据库写入失败时整批溢出到本地文件；连接类/暂时性故障会在一段时间内直接溢出，数据库恢复后空闲时逐个文件在单个事务内回放。
+ * 回放时数据本身被拒绝（约束、类型、SQL语法等）的批次会在保存点内逐行重试，被拒绝的行与无法解析的行
+ * （如写入中途崩溃留下的半行）在文件回放成功后一次性隔离到 .bad 文件，不会阻塞后续回放。
+ */
+@Slf4j
+@Service
+public class OperationLogWriter {
+
+    private static final String SPILL_FILE_PREFIX = "spill-";
+    private static final String SPILL_FILE_SUFFIX = ".jsonl";
+    private static final String QUARANTINE_FILE_SUFFIX = ".bad";
+
+    /**
+     * 写入失败后直接溢出、不再访问数据库的时间
+     */
+    private static final long FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Autowired
+    private OperationLogMapper operationLogMapper;
+
+    @Autowired
+    private IpLocationService ipLocationService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${operation-log.buffer-capacity:8192}")
+    private int bufferCapacity;
+
+    @Value("${operation-log.batch-size:200}")
+    private int batchSize;
+
+    @Value("${operation-log.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${operation-log.spill-dir:./logs/operation-log-spill}")
+    private String spillDir;
+
+    /**
+     * 回放时逐块写入使用的嵌套事务（保存点），单块失败只回滚该块
+     */
+    private TransactionTemplate nestedTransactionTemplate;
+
+    private BoundedRingBuffer<OperationLog> buffer;
+
+    private Thread drainer;
+
+    private volatile boolean running;
+
+    /**
+     * 最近一次写入失败的时间（nanoTime），0表示正常
+     */
+    private long lastFailureNanos;
+
+    // 管道统计
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong spilledRows = new AtomicLong();
+    private final AtomicLong replayedRows = new AtomicLong();
+    private final AtomicLong quarantinedLines = new AtomicLong();
+    private volatile long lastFlushMillis;
+
+    @PostConstruct
+    public void start() {
+        nestedTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        nestedTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        buffer = new BoundedRingBuffer<>(bufferCapacity);
+        running = true;
+        drainer = new Thread(this::drainLoop, "operation-log-writer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交日志（无锁、不阻塞），缓冲区已满时丢弃最旧的日志
+     */
+    public void submit(OperationLog operationLog) {
+        submittedCount.incrementAndGet();
+        while (!buffer.offer(operationLog)) {
+            if (buffer.poll() != null) {
+                droppedCount.incrementAndGet();
+            }
+        }
+        if (buffer.size() >= batchSize) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private void drainLoop() {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        List<OperationLog> batch = new ArrayList<>(batchSize);
+        long batchStartNanos = 0;
+
+        while (running || buffer.size() > 0 || !batch.isEmpty()) {
+            try {
+                OperationLog item;
+                while (batch.size() < batchSize && (item = buffer.poll()) != null) {
+                    if (batch.isEmpty()) {
+                        batchStartNanos = System.nanoTime();
+                    }
+                    batch.add(item);
+                }
+
+                if (batch.isEmpty()) {
+                    // 空闲时回放溢出文件
+                    if (!running || !replaySpillFile()) {
+                        LockSupport.parkNanos(flushIntervalNanos);
+                    }
+                    continue;
+                }
+
+                long waited = System.nanoTime() - batchStartNanos;
+                if (batch.size() >= batchSize || waited >= flushIntervalNanos || !running) {
+                    write(batch);
+                    batch = new ArrayList<>(batchSize);
+                } else {
+                    LockSupport.parkNanos(flushIntervalNanos - waited);
+                }
+            } catch (Throwable e) {
+                log.error("操作日志写入线程异常", e);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    /**
+     * 写入一批日志：数据库异常或处于退避期时溢出到本地文件
+     */
+    private void write(List<OperationLog> batch) {
+        if (lastFailureNanos != 0 && System.nanoTime() - lastFailureNanos < FAILURE_BACKOFF_NANOS) {
+            spill(batch);
+            return;
+        }
+
+        enrichLocations(batch);
+        long start = System.currentTimeMillis();
+        try {
+            operationLogMapper.insertBatch(batch);
+            lastFailureNanos = 0;
+            flushCount.incrementAndGet();
+            flushedRows.addAndGet(batch.size());
+            lastFlushMillis = System.currentTimeMillis() - start;
+        } catch (Exception e) {
+            if (!isRejectedByDatabase(e)) {
+                lastFailureNanos = System.nanoTime();
+            }
+            failedFlushCount.incrementAndGet();
+            log.warn("操作日志批量写入失败，溢出到本地文件: {}", e.getMessage());
+            spill(batch);
+        }
+    }
+
+    /**
+     * 补充IP地理位置（同一批内相同IP只查询一次）
+     */
+    private void enrichLocations(List<OperationLog> batch) {
+        Map<String, String> locations = new HashMap<>();
+        for (OperationLog operationLog : batch) {
+            String ip = operationLog.getIpAddress();
+            if (operationLog.getLocation() != null || ip == null) {
+                continue;
+            }
+            operationLog.setLocation(locations.computeIfAbsent(ip, ipLocationService::getLocationByIp));
+        }
+    }
+
+    private void spill(List<OperationLog> batch) {
+        try {
+            Path dir = Paths.get(spillDir);
+            Files.createDirectories(dir);
+            Path file = dir.resolve(SPILL_FILE_PREFIX + System.currentTimeMillis() + "-" + flushCount.get()
+                    + "-" + failedFlushCount.get() + SPILL_FILE_SUFFIX);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (OperationLog operationLog : batch) {
+                    writer.write(objectMapper.writeValueAsString(operationLog));
+                    writer.newLine();
+                }
+            }
+            spilledRows.addAndGet(batch.size());
+        } catch (IOException e) {
+            droppedCount.addAndGet(batch.size());
+            log.error("操作日志溢出文件写入失败，丢弃 {} 条日志: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 回放最早的一个溢出文件
+     *
+     * @return 是否回放了文件
+     */
+    private boolean replaySpillFile() {
+        if (lastFailureNanos != 0 && System.nanoTime() - lastFailureNanos < FAILURE_BACKOFF_NANOS) {
+            return false;
+        }
+        Path file = oldestSpillFile();
+        if (file == null) {
+            return false;
+        }
+        try {
+            List<OperationLog> logs = new ArrayList<>();
+            List<String> badLines = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        logs.add(objectMapper.readValue(line, OperationLog.class));
+                    } catch (IOException e) {
+                        // 进程在写入中途退出时可能留下不完整的行，隔离后继续回放其余内容
+                        badLines.add(line);
+                    }
+                }
+            }
+            // 退避期间溢出的日志没有补充过地理位置
+            enrichLocations(logs);
+            // 整个文件在一个事务内写入：连接类故障时全部回滚，重试不会重复写入已成功的部分
+            List<OperationLog> rejected = new ArrayList<>();
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int i = 0; i < logs.size(); i += batchSize) {
+                    insertIsolatingRejected(logs.subList(i, Math.min(i + batchSize, logs.size())), rejected);
+                }
+            });
+            for (OperationLog operationLog : rejected) {
+                badLines.add(objectMapper.writeValueAsString(operationLog));
+            }
+            // 事务已提交：隔离与删除只执行一次
+            if (!badLines.isEmpty()) {
+                quarantine(file, badLines);
+            }
+            Files.delete(file);
+            replayedRows.addAndGet(logs.size() - rejected.size());
+            log.info("操作日志溢出文件回放完成: {}, 条数: {}, 隔离: {}", file.getFileName(),
+                    logs.size() - rejected.size(), badLines.size());
+            return true;
+        } catch (Exception e) {
+            // 事务已回滚，文件保留，下次整体重试
+            if (!isRejectedByDatabase(e)) {
+                lastFailureNanos = System.nanoTime();
+            }
+            log.warn("操作日志溢出文件回放失败: {}, {}", file.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 在保存点内写入一块日志；数据被拒绝时逐行重试，仍被拒绝的行加入rejected，其余异常向上抛出使整个文件回滚
+     */
+    private void insertIsolatingRejected(List<OperationLog> chunk, List<OperationLog> rejected) {
+        try {
+            nestedTransactionTemplate.executeWithoutResult(status -> operationLogMapper.insertBatch(chunk));
+        } catch (RuntimeException e) {
+            if (!isRejectedByDatabase(e)) {
+                throw e;
+            }
+            if (chunk.size() == 1) {
+                rejected.add(chunk.get(0));
+                log.warn("操作日志被数据库拒绝，将隔离: {}", e.getMessage());
+                return;
+            }
+            for (OperationLog operationLog : chunk) {
+                insertIsolatingRejected(Collections.singletonList(operationLog), rejected);
+            }
+        }
+    }
+
+    /**
+     * 数据本身被拒绝（约束、数据类型/长度、SQL语法等），重试同样的数据不会成功；
+     * 连接、超时、死锁等资源类或暂时性故障以及无法归类的异常返回false，由调用方退避后整体重试
+     */
+    private static boolean isRejectedByDatabase(Throwable e) {
+        return e instanceof NonTransientDataAccessException
+                && !(e instanceof NonTransientDataAccessResourceException)
+                && !(e instanceof UncategorizedDataAccessException);
+    }
+
+    /**
+     * 将无法解析或被数据库拒绝的行写入隔离文件（不会再被回放），便于人工排查
+     */
+    private void quarantine(Path spillFile, List<String> badLines) throws IOException {
+        String name = spillFile.getFileName().toString();
+        Path target = spillFile.resolveSibling(name.substring(0, name.length() - SPILL_FILE_SUFFIX.length()) + QUARANTINE_FILE_SUFFIX);
+        Files.write(target, badLines, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        quarantinedLines.addAndGet(badLines.size());
+        log.warn("操作日志溢出文件中有 {} 行无法写入，已隔离到: {}", badLines.size(), target.getFileName());
+    }
+
+    private Path oldestSpillFile() {
+        Path dir = Paths.get(spillDir);
+        if (!Files.isDirectory(dir)) {
+            return null;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(this::isSpillFile)
+                    .min(Comparator.comparing(path -> path.getFileName().toString()))
+                    .orElse(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private boolean isSpillFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX);
+    }
+
+    /**
+     * 获取管道统计（队列深度、丢弃数、溢出与回放数等）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", buffer.size());
+        stats.put("capacity", buffer.capacity());
+        stats.put("submitted", submittedCount.get());
+        stats.put("dropped", droppedCount.get());
+        stats.put("flushCount", flushCount.get());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("failedFlushCount", failedFlushCount.get());
+        stats.put("spilledRows", spilledRows.get());
+        stats.put("replayedRows", replayedRows.get());
+        stats.put("quarantinedLines", quarantinedLines.get());
+        stats.put("lastFlushMillis", lastFlushMillis);
+        Path dir = Paths.get(spillDir);
+        long spillFiles = 0;
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                spillFiles = files.filter(this::isSpillFile).count();
+            } catch (IOException e) {
+                spillFiles = -1;
+            }
+        }
+        stats.put("spillFiles", spillFiles);
+        return stats;
+    }
+}
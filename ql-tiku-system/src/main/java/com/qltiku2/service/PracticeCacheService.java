@@ -1,16 +1,29 @@
 package com.qltiku2.service;
 
 import com.qltiku2.utils.QuestionCacheUtils;
+import com.qltiku2.utils.SeededPermutation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 练习缓存服务
  * 负责管理Redis中的题目ID缓存，支持顺序和随机刷题模式
- * 
+ *
+ * 题目队列以Redis List存储（每个元素为一个题目ID），当前索引为独立的计数器；
+ * 取下一题通过Lua脚本原子地执行 LINDEX + INCR，每次只传输一个ID，进度读取只需 LLEN + GET。
+ * 键名通过 QuestionCacheUtils 构建，题目变更时随 practice 命名空间版本号一起失效。
+ *
+ * 随机模式不再为每个用户保存完整的乱序队列，只保存种子和游标（Redis Hash）：
+ * 题目ID数组由 QuestionSampler 按筛选条件共享缓存，第 i 题为 ids[permute(i, n, seed)]，
+ * 会话同时记录开始时ID数组的指纹，题目集合变化（增删、定时重建、其他节点修改）后置换不再一致，会话作废并重新开始；
+ * 开始会话时已作答的题目存入排除集合，取题时跳过。
+ *
  * @author qltiku2
  */
 @Service
@@ -19,9 +32,82 @@ public class PracticeCacheService {
     @Autowired
     private QuestionCacheUtils questionCacheUtils;
     
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private QuestionSampler questionSampler;
+    
     private static final String PRACTICE_CACHE_PREFIX = "practice:ids:";
     private static final String PRACTICE_INDEX_PREFIX = "practice:index:";
+    private static final String PRACTICE_RANDOM_PREFIX = "practice:random:";
     private static final long CACHE_EXPIRE_HOURS = 24;
+    private static final long RANDOM_SESSION_EXPIRE_DAYS = 7;
+    private static final String RANDOM_MODE = "random";
+    private static final String EXCLUDED_SUFFIX = ":excluded";
+    
+    // 单次RPUSH的最大元素数
+    private static final int PUSH_BATCH_SIZE = 1000;
+    
+    // 取下一题：队列不存在返回-2，已做完返回-1，否则返回题目ID并递增索引
+    private static final DefaultRedisScript<Long> NEXT_ID_SCRIPT = new DefaultRedisScript<>(
+            "local len = redis.call('LLEN', KEYS[1]) " +
+            "if len == 0 then return -2 end " +
+            "local index = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+            "if index >= len then return -1 end " +
+            "local id = redis.call('LINDEX', KEYS[1], index) " +
+            "redis.call('INCR', KEYS[2]) " +
+            "return tonumber(id)",
+            Long.class);
+    
+    // 开始随机会话：KEYS[1]=会话，KEYS[2]=排除集合；ARGV = 过期秒数, 种子, ID数组指纹, 排除的题目ID...
+    private static final DefaultRedisScript<Long> START_SESSION_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1], KEYS[2]) " +
+            "redis.call('HSET', KEYS[1], 'seed', ARGV[2], 'cursor', '0', 'ids', ARGV[3]) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "for i = 4, #ARGV do redis.call('SADD', KEYS[2], ARGV[i]) end " +
+            "if #ARGV >= 4 then redis.call('EXPIRE', KEYS[2], ARGV[1]) end " +
+            "return 1",
+            Long.class);
+    
+    // 随机模式取下一个位置：会话不存在返回nil；ID数组指纹不一致时删除会话并返回nil；
+    // 已做完返回 {seed, -1, 0}，否则返回 {seed, 位置, 是否有排除集合} 并递增游标
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> NEXT_POSITION_SCRIPT = new DefaultRedisScript<>(
+            "local session = redis.call('HMGET', KEYS[1], 'seed', 'cursor', 'ids') " +
+            "if not session[1] then return nil end " +
+            "if session[3] ~= ARGV[1] then redis.call('DEL', KEYS[1], KEYS[2]) return nil end " +
+            "local cursor = tonumber(session[2] or '0') " +
+            "if cursor >= tonumber(ARGV[2]) then return {session[1], '-1', '0'} end " +
+            "redis.call('HINCRBY', KEYS[1], 'cursor', 1) " +
+            "return {session[1], tostring(cursor), tostring(redis.call('EXISTS', KEYS[2]))}",
+            List.class);
+    
+    /**
+     * 开始随机刷题会话（生成种子，游标置0，记录当前ID数组指纹与需要跳过的题目）
+     * 
+     * @param userId 用户ID
+     * @param subjectId 科目ID
+     * @param questionType 题目类型
+     * @param difficulty 难度
+     * @param excludedQuestionIds 已作答、需要跳过的题目ID，可为空
+     */
+    public void startRandomSession(Long userId, Long subjectId, Integer questionType, Integer difficulty,
+                                   Collection<Long> excludedQuestionIds) {
+        String sessionKey = buildRandomKey(userId, subjectId, questionType, difficulty);
+        String fingerprint = questionSampler.getIdSnapshot(subjectId, questionType, difficulty).getFingerprint();
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(TimeUnit.DAYS.toSeconds(RANDOM_SESSION_EXPIRE_DAYS)));
+        args.add(String.valueOf(ThreadLocalRandom.current().nextLong()));
+        args.add(fingerprint);
+        if (excludedQuestionIds != null) {
+            for (Long questionId : excludedQuestionIds) {
+                args.add(String.valueOf(questionId));
+            }
+        }
+        stringRedisTemplate.execute(START_SESSION_SCRIPT, Arrays.asList(sessionKey, sessionKey + EXCLUDED_SUFFIX),
+                args.toArray());
+    }
     
     /**
      * 生成并缓存题目ID数组
@@ -36,17 +122,26 @@ public class PracticeCacheService {
     public void cacheQuestionIds(Long userId, Long subjectId, Integer questionType, 
                                Integer difficulty, String mode, List<Long> questionIds) {
         String cacheKey = buildCacheKey(userId, subjectId, questionType, difficulty, mode);
-        
+    
         if (questionIds == null || questionIds.isEmpty()) {
             return;
         }
-        
-        // 存储题目ID数组
-        questionCacheUtils.set(cacheKey, questionIds);
-        
+    
+        // 存储题目ID队列（Redis List）
+        stringRedisTemplate.delete(cacheKey);
+        for (int i = 0; i < questionIds.size(); i += PUSH_BATCH_SIZE) {
+            List<Long> batch = questionIds.subList(i, Math.min(i + PUSH_BATCH_SIZE, questionIds.size()));
+            List<String> values = new ArrayList<>(batch.size());
+            for (Long questionId : batch) {
+                values.add(String.valueOf(questionId));
+            }
+            stringRedisTemplate.opsForList().rightPushAll(cacheKey, values);
+        }
+        stringRedisTemplate.expire(cacheKey, CACHE_EXPIRE_HOURS, TimeUnit.HOURS);
+    
         // 初始化当前索引为0
         String indexKey = buildIndexKey(userId, subjectId, questionType, difficulty, mode);
-        questionCacheUtils.set(indexKey, 0);
+        stringRedisTemplate.opsForValue().set(indexKey, "0", CACHE_EXPIRE_HOURS, TimeUnit.HOURS);
     }
     
     /**
@@ -61,33 +156,56 @@ public class PracticeCacheService {
      */
     public Long getNextQuestionId(Long userId, Long subjectId, Integer questionType, 
                                 Integer difficulty, String mode) {
+        if (RANDOM_MODE.equals(mode)) {
+            return getNextRandomQuestionId(userId, subjectId, questionType, difficulty);
+        }
+        
         String cacheKey = buildCacheKey(userId, subjectId, questionType, difficulty, mode);
         String indexKey = buildIndexKey(userId, subjectId, questionType, difficulty, mode);
-        
-        // 获取题目ID数组
-        List<Long> questionIds = getCachedQuestionIds(userId, subjectId, questionType, difficulty, mode);
-        if (questionIds == null || questionIds.isEmpty()) {
+    
+        // 原子地读取当前题目并递增索引
+        Long questionId = stringRedisTemplate.execute(NEXT_ID_SCRIPT, Arrays.asList(cacheKey, indexKey));
+        if (questionId == null || questionId < 0) {
             return null;
         }
-        
-        // 获取当前索引
-        Integer currentIndex = questionCacheUtils.get(indexKey, Integer.class);
-        if (currentIndex == null) {
-            currentIndex = 0;
-        }
-        
-        // 检查索引是否越界
-        if (currentIndex >= questionIds.size()) {
+    
+        return questionId;
+    }
+    
+    /**
+     * 随机模式取下一题：由共享ID数组 + 种子置换计算，不读取任何队列
+     * 会话已作废（题目集合变化）时返回null且会话被删除，调用方可通过 hasCache 判断并重新开始
+     */
+    private Long getNextRandomQuestionId(Long userId, Long subjectId, Integer questionType, Integer difficulty) {
+        QuestionSampler.IdSnapshot snapshot = questionSampler.getIdSnapshot(subjectId, questionType, difficulty);
+        long[] ids = snapshot.getIds();
+        if (ids.length == 0) {
             return null;
         }
         
-        // 获取题目ID
-        Long questionId = questionIds.get(currentIndex);
-        
-        // 更新索引
-        questionCacheUtils.set(indexKey, currentIndex + 1);
-        
-        return questionId;
+        String sessionKey = buildRandomKey(userId, subjectId, questionType, difficulty);
+        String excludedKey = sessionKey + EXCLUDED_SUFFIX;
+        // 跳过已作答的题目，最多遍历一轮
+        for (int attempt = 0; attempt < ids.length; attempt++) {
+            List<?> result = stringRedisTemplate.execute(NEXT_POSITION_SCRIPT,
+                    Arrays.asList(sessionKey, excludedKey), snapshot.getFingerprint(), String.valueOf(ids.length));
+            if (result == null || result.size() < 3) {
+                return null;
+            }
+            
+            int position = Integer.parseInt(result.get(1).toString());
+            if (position < 0) {
+                return null;
+            }
+            long seed = Long.parseLong(result.get(0).toString());
+            long questionId = ids[SeededPermutation.permute(position, ids.length, seed)];
+            if ("1".equals(result.get(2).toString())
+                    && Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(excludedKey, String.valueOf(questionId)))) {
+                continue;
+            }
+            return questionId;
+        }
+        return null;
     }
     
     /**
@@ -102,35 +220,38 @@ public class PracticeCacheService {
      */
     public List<Long> getCachedQuestionIds(Long userId, Long subjectId, Integer questionType, 
                                          Integer difficulty, String mode) {
+        if (RANDOM_MODE.equals(mode)) {
+            // 随机模式按需物化完整顺序（仅用于兼容，取题流程不会调用）
+            Object seed = stringRedisTemplate.opsForHash().get(buildRandomKey(userId, subjectId, questionType, difficulty), "seed");
+            if (seed == null) {
+                return null;
+            }
+            long[] ids = questionSampler.getIds(subjectId, questionType, difficulty);
+            List<Long> result = new ArrayList<>(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                result.add(ids[SeededPermutation.permute(i, ids.length, Long.parseLong(seed.toString()))]);
+            }
+            return result;
+        }
+        
         String cacheKey = buildCacheKey(userId, subjectId, questionType, difficulty, mode);
-        Object cachedData = questionCacheUtils.get(cacheKey);
-
-        if (cachedData == null) {
+        List<String> values = stringRedisTemplate.opsForList().range(cacheKey, 0, -1);
+    
+        if (values == null || values.isEmpty()) {
             return null;
         }
-
+    
         try {
-            if (cachedData instanceof List) {
-                List<?> rawList = (List<?>) cachedData;
-                List<Long> result = new ArrayList<>();
-                for (Object item : rawList) {
-                    if (item instanceof Integer) {
-                        result.add(((Integer) item).longValue());
-                    } else if (item instanceof Long) {
-                        result.add((Long) item);
-                    } else {
-                        // 类型不符，清除缓存
-                        clearCache(userId, subjectId, questionType, difficulty, mode);
-                        return null;
-                    }
-                }
-                return result;
+            List<Long> result = new ArrayList<>(values.size());
+            for (String value : values) {
+                result.add(Long.valueOf(value));
             }
-        } catch (Exception e) {
+            return result;
+        } catch (NumberFormatException e) {
             // 类型转换失败，清除缓存
             clearCache(userId, subjectId, questionType, difficulty, mode);
         }
-
+    
         return null;
     }
     
@@ -146,8 +267,11 @@ public class PracticeCacheService {
      */
     public boolean hasCache(Long userId, Long subjectId, Integer questionType, 
                           Integer difficulty, String mode) {
+        if (RANDOM_MODE.equals(mode)) {
+            return Boolean.TRUE.equals(stringRedisTemplate.hasKey(buildRandomKey(userId, subjectId, questionType, difficulty)));
+        }
         String cacheKey = buildCacheKey(userId, subjectId, questionType, difficulty, mode);
-        return questionCacheUtils.get(cacheKey) != null;
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(cacheKey));
     }
     
     /**
@@ -161,8 +285,12 @@ public class PracticeCacheService {
      */
     public void resetIndex(Long userId, Long subjectId, Integer questionType, 
                          Integer difficulty, String mode) {
+        if (RANDOM_MODE.equals(mode)) {
+            stringRedisTemplate.opsForHash().put(buildRandomKey(userId, subjectId, questionType, difficulty), "cursor", "0");
+            return;
+        }
         String indexKey = buildIndexKey(userId, subjectId, questionType, difficulty, mode);
-        questionCacheUtils.set(indexKey, 0);
+        stringRedisTemplate.opsForValue().set(indexKey, "0", CACHE_EXPIRE_HOURS, TimeUnit.HOURS);
     }
     
     /**
@@ -176,14 +304,14 @@ public class PracticeCacheService {
     public void clearCache(Long userId, Long subjectId, Integer questionType, 
                           Integer difficulty, String mode) {
         String cacheKey = buildCacheKey(userId, subjectId, questionType, difficulty, mode);
-        String indexKey = cacheKey + ":index";
-        
-        questionCacheUtils.delete(cacheKey);
-        questionCacheUtils.delete(indexKey);
+        String indexKey = buildIndexKey(userId, subjectId, questionType, difficulty, mode);
+    
+        String randomKey = buildRandomKey(userId, subjectId, questionType, difficulty);
+        stringRedisTemplate.delete(Arrays.asList(cacheKey, indexKey, randomKey, randomKey + EXCLUDED_SUFFIX));
     }
     
     /**
-     * 获取当前进度
+     * 获取当前进度（只读取队列长度与索引，不加载队列内容）
      * 
      * @param userId 用户ID
      * @param subjectId 科目ID
@@ -194,20 +322,27 @@ public class PracticeCacheService {
      */
     public Map<String, Integer> getProgress(Long userId, Long subjectId, Integer questionType, 
                                           Integer difficulty, String mode) {
+        if (RANDOM_MODE.equals(mode)) {
+            Object cursor = stringRedisTemplate.opsForHash().get(buildRandomKey(userId, subjectId, questionType, difficulty), "cursor");
+            if (cursor == null) {
+                return Map.of("current", 0, "total", 0);
+            }
+            int total = questionSampler.getIds(subjectId, questionType, difficulty).length;
+            return Map.of("current", Math.min(Integer.parseInt(cursor.toString()), total), "total", total);
+        }
+        
         String cacheKey = buildCacheKey(userId, subjectId, questionType, difficulty, mode);
         String indexKey = buildIndexKey(userId, subjectId, questionType, difficulty, mode);
-        
-        List<Long> questionIds = getCachedQuestionIds(userId, subjectId, questionType, difficulty, mode);
-        if (questionIds == null) {
+    
+        Long total = stringRedisTemplate.opsForList().size(cacheKey);
+        if (total == null || total == 0) {
             return Map.of("current", 0, "total", 0);
         }
-        
-        Integer currentIndex = questionCacheUtils.get(indexKey, Integer.class);
-        if (currentIndex == null) {
-            currentIndex = 0;
-        }
-        
-        return Map.of("current", currentIndex, "total", questionIds.size());
+    
+        String currentIndex = stringRedisTemplate.opsForValue().get(indexKey);
+        int current = currentIndex != null ? Integer.parseInt(currentIndex) : 0;
+    
+        return Map.of("current", Math.min(current, total.intValue()), "total", total.intValue());
     }
     
     /**
@@ -215,10 +350,10 @@ public class PracticeCacheService {
      */
     private String buildCacheKey(Long userId, Long subjectId, Integer questionType, 
                                Integer difficulty, String mode) {
-        return PRACTICE_CACHE_PREFIX + userId + ":" + 
+        return questionCacheUtils.buildKey(PRACTICE_CACHE_PREFIX + userId + ":" +
                (subjectId != null ? subjectId : "all") + ":" +
                (questionType != null ? questionType : "all") + ":" +
-               (difficulty != null ? difficulty : "all") + ":" + mode;
+               (difficulty != null ? difficulty : "all") + ":" + mode);
     }
     
     /**
@@ -226,9 +361,19 @@ public class PracticeCacheService {
      */
     private String buildIndexKey(Long userId, Long subjectId, Integer questionType, 
                                Integer difficulty, String mode) {
-        return PRACTICE_INDEX_PREFIX + userId + ":" + 
+        return questionCacheUtils.buildKey(PRACTICE_INDEX_PREFIX + userId + ":" +
+               (subjectId != null ? subjectId : "all") + ":" +
+               (questionType != null ? questionType : "all") + ":" +
+               (difficulty != null ? difficulty : "all") + ":" + mode);
+    }
+    
+    /**
+     * 构建随机会话键（不带版本号，题目变更后进度保留）
+     */
+    private String buildRandomKey(Long userId, Long subjectId, Integer questionType, Integer difficulty) {
+        return PRACTICE_RANDOM_PREFIX + userId + ":" +
                (subjectId != null ? subjectId : "all") + ":" +
                (questionType != null ? questionType : "all") + ":" +
-               (difficulty != null ? difficulty : "all") + ":" + mode;
+               (difficulty != null ? difficulty : "all");
     }
 }
\ No newline at end of file
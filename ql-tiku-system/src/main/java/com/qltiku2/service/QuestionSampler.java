@@ -0,0 +1,338 @@
+package com.qltiku2.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.qltiku2.entity.Question;
+import com.qltiku2.mapper.QuestionMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 随机抽题器
+ * 在内存中按 (科目, 题型, 难度) 分桶保存题目ID（有序 long[]），抽题时对匹配的桶做部分 Fisher-Yates 洗牌，
+ * 只抽取k个不重复的下标，再由调用方按ID批量查询，取代 ORDER BY RAND() 的全表扫描排序。
+ *
+ * 题目增删改时增量维护；另有定时全量重建，用于同步其他节点的修改。
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class QuestionSampler {
+
+    /**
+     * 题型/难度为空时在桶键中的占位值
+     */
+    private static final int NULL_VALUE = 0xFF;
+
+    @Autowired
+    private QuestionMapper questionMapper;
+
+    /**
+     * 桶键 -> 该桶的题目ID（升序，整体替换，读取无锁）；全量重建时整体替换引用
+     */
+    private volatile ConcurrentHashMap<Long, long[]> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 题目ID -> 所在桶键，用于更新/删除时定位
+     */
+    private volatile ConcurrentHashMap<Long, Long> bucketOfQuestion = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded = false;
+
+    /**
+     * 索引版本号，任何增删改或重建都会递增，用于失效按筛选条件合并的ID数组
+     */
+    private volatile long version = 0;
+
+    /**
+     * 筛选条件 -> 合并后的有序ID数组（所有用户共享）
+     */
+    private final ConcurrentHashMap<String, MergedIds> mergedCache = new ConcurrentHashMap<>();
+
+    /**
+     * 随机抽取不重复的题目ID
+     *
+     * @param subjectId 科目ID，为空表示不限
+     * @param questionTypes 题型集合，为空表示不限
+     * @param difficulties 难度集合，为空表示不限
+     * @param count 抽取数量
+     * @return 题目ID（随机顺序），数量可能少于count
+     */
+    public List<Long> sample(Long subjectId, Collection<Integer> questionTypes, Collection<Integer> difficulties, int count) {
+        ensureLoaded();
+
+        // 收集匹配的桶
+        List<long[]> matched = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<Long, long[]> entry : buckets.entrySet()) {
+            long key = entry.getKey();
+            if (subjectId != null && subjectOf(key) != subjectId) {
+                continue;
+            }
+            if (questionTypes != null && !questionTypes.isEmpty() && !questionTypes.contains(decode(typeOf(key)))) {
+                continue;
+            }
+            if (difficulties != null && !difficulties.isEmpty() && !difficulties.contains(decode(difficultyOf(key)))) {
+                continue;
+            }
+            long[] ids = entry.getValue();
+            if (ids.length > 0) {
+                matched.add(ids);
+                total += ids.length;
+            }
+        }
+
+        int k = Math.min(count, total);
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+
+        // 桶的起始偏移，用于把全局下标映射回具体的桶
+        int[] offsets = new int[matched.size()];
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] = offsets[i - 1] + matched.get(i - 1).length;
+        }
+
+        // 部分 Fisher-Yates：只记录被交换过的位置，O(k) 时间与空间
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<Integer, Integer> swapped = new HashMap<>(k * 2);
+        List<Long> result = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(total - i);
+            int picked = swapped.getOrDefault(j, j);
+            swapped.put(j, swapped.getOrDefault(i, i));
+            result.add(idAt(matched, offsets, picked));
+        }
+        return result;
+    }
+
+    /**
+     * 获取符合筛选条件的全部题目ID（升序，所有调用方共享同一数组，不可修改）
+     *
+     * @param subjectId 科目ID，为空表示不限
+     * @param questionType 题型，为空表示不限
+     * @param difficulty 难度，为空表示不限
+     * @return 题目ID数组
+     */
+    public long[] getIds(Long subjectId, Integer questionType, Integer difficulty) {
+        return getIdSnapshot(subjectId, questionType, difficulty).getIds();
+    }
+
+    /**
+     * 获取符合筛选条件的全部题目ID及其指纹
+     * 指纹只由ID内容决定（数量 + 哈希），同一题目集合在各节点上相同，调用方可据此判断集合是否已变化
+     *
+     * @param subjectId 科目ID，为空表示不限
+     * @param questionType 题型，为空表示不限
+     * @param difficulty 难度，为空表示不限
+     * @return ID快照
+     */
+    public IdSnapshot getIdSnapshot(Long subjectId, Integer questionType, Integer difficulty) {
+        ensureLoaded();
+
+        String filter = subjectId + ":" + questionType + ":" + difficulty;
+        long currentVersion = version;
+        MergedIds cached = mergedCache.get(filter);
+        if (cached != null && cached.version == currentVersion) {
+            return cached.snapshot;
+        }
+
+        int total = 0;
+        List<long[]> matched = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : buckets.entrySet()) {
+            long key = entry.getKey();
+            if ((subjectId == null || subjectOf(key) == subjectId)
+                    && (questionType == null || questionType.equals(decode(typeOf(key))))
+                    && (difficulty == null || difficulty.equals(decode(difficultyOf(key))))) {
+                matched.add(entry.getValue());
+                total += entry.getValue().length;
+            }
+        }
+        long[] ids = new long[total];
+        int offset = 0;
+        for (long[] bucket : matched) {
+            System.arraycopy(bucket, 0, ids, offset, bucket.length);
+            offset += bucket.length;
+        }
+        Arrays.sort(ids);
+
+        IdSnapshot snapshot = new IdSnapshot(ids, ids.length + ":" + Integer.toHexString(Arrays.hashCode(ids)));
+        mergedCache.put(filter, new MergedIds(currentVersion, snapshot));
+        return snapshot;
+    }
+
+    /**
+     * 新增或更新题目后调用
+     */
+    public synchronized void upsert(Long questionId, Long subjectId, Integer questionType, Integer difficulty) {
+        if (questionId == null || subjectId == null || !loaded) {
+            return;
+        }
+        long newKey = bucketKey(subjectId, questionType, difficulty);
+        Long oldKey = bucketOfQuestion.put(questionId, newKey);
+        if (oldKey != null && oldKey == newKey) {
+            return;
+        }
+        version++;
+        if (oldKey != null) {
+            removeFromBucket(oldKey, questionId);
+        }
+        long[] ids = buckets.getOrDefault(newKey, new long[0]);
+        int index = Arrays.binarySearch(ids, questionId);
+        if (index < 0) {
+            int insertAt = -index - 1;
+            long[] updated = new long[ids.length + 1];
+            System.arraycopy(ids, 0, updated, 0, insertAt);
+            updated[insertAt] = questionId;
+            System.arraycopy(ids, insertAt, updated, insertAt + 1, ids.length - insertAt);
+            buckets.put(newKey, updated);
+        }
+    }
+
+    /**
+     * 删除题目后调用
+     */
+    public synchronized void remove(Long questionId) {
+        if (questionId == null || !loaded) {
+            return;
+        }
+        Long key = bucketOfQuestion.remove(questionId);
+        if (key != null) {
+            version++;
+            removeFromBucket(key, questionId);
+        }
+    }
+
+    /**
+     * 从数据库全量重建索引（只查询ID、科目、题型、难度四列）
+     * 重建期间阻塞增量更新，避免旧快照覆盖新写入；抽题读取不受影响
+     */
+    @Scheduled(fixedDelay = 10 * 60 * 1000, initialDelay = 10 * 60 * 1000)
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        QueryWrapper<Question> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("id", "subject_id", "question_type", "difficulty");
+        List<Question> questions = questionMapper.selectList(queryWrapper);
+
+        Map<Long, long[]> newBuckets = new HashMap<>();
+        Map<Long, int[]> sizes = new HashMap<>();
+        Map<Long, Long> newBucketOfQuestion = new HashMap<>(questions.size() * 2);
+        for (Question question : questions) {
+            if (question.getSubjectId() == null) {
+                continue;
+            }
+            long key = bucketKey(question.getSubjectId(), question.getQuestionType(), question.getDifficulty());
+            sizes.computeIfAbsent(key, k -> new int[1])[0]++;
+            newBucketOfQuestion.put(question.getId(), key);
+        }
+        sizes.forEach((key, size) -> newBuckets.put(key, new long[size[0]]));
+        Map<Long, int[]> cursors = new HashMap<>();
+        newBucketOfQuestion.forEach((id, key) -> newBuckets.get(key)[cursors.computeIfAbsent(key, k -> new int[1])[0]++] = id);
+        newBuckets.values().forEach(Arrays::sort);
+
+        bucketOfQuestion = new ConcurrentHashMap<>(newBucketOfQuestion);
+        buckets = new ConcurrentHashMap<>(newBuckets);
+        version++;
+        mergedCache.clear();
+        loaded = true;
+        log.info("随机抽题索引重建完成，题目数: {}, 分桶数: {}, 耗时: {}ms",
+                newBucketOfQuestion.size(), newBuckets.size(), System.currentTimeMillis() - start);
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    rebuild();
+                }
+            }
+        }
+    }
+
+    private void removeFromBucket(long key, long questionId) {
+        long[] ids = buckets.get(key);
+        if (ids == null) {
+            return;
+        }
+        int index = Arrays.binarySearch(ids, questionId);
+        if (index >= 0) {
+            long[] updated = new long[ids.length - 1];
+            System.arraycopy(ids, 0, updated, 0, index);
+            System.arraycopy(ids, index + 1, updated, index, ids.length - index - 1);
+            buckets.put(key, updated);
+        }
+    }
+
+    private static long idAt(List<long[]> matched, int[] offsets, int position) {
+        // 空桶已被排除，偏移严格递增
+        int bucket = Arrays.binarySearch(offsets, position);
+        if (bucket < 0) {
+            bucket = -bucket - 2;
+        }
+        return matched.get(bucket)[position - offsets[bucket]];
+    }
+
+    /**
+     * 桶键布局：高位为科目ID，低16位依次为题型、难度（各8位，空值为0xFF）
+     */
+    private static long bucketKey(long subjectId, Integer questionType, Integer difficulty) {
+        return (subjectId << 16) | ((long) encode(questionType) << 8) | encode(difficulty);
+    }
+
+    private static int encode(Integer value) {
+        return value == null ? NULL_VALUE : value & 0xFF;
+    }
+
+    private static Integer decode(int value) {
+        return value == NULL_VALUE ? null : value;
+    }
+
+    private static long subjectOf(long key) {
+        return key >>> 16;
+    }
+
+    private static int typeOf(long key) {
+        return (int) (key >>> 8) & 0xFF;
+    }
+
+    private static int difficultyOf(long key) {
+        return (int) key & 0xFF;
+    }
+
+    private static final class MergedIds {
+        private final long version;
+        private final IdSnapshot snapshot;
+
+        private MergedIds(long version, IdSnapshot snapshot) {
+            this.version = version;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * 合并后的有序ID数组及其指纹（不可修改）
+     */
+    public static final class IdSnapshot {
+        private final long[] ids;
+        private final String fingerprint;
+
+        public IdSnapshot(long[] ids, String fingerprint) {
+            this.ids = ids;
+            this.fingerprint = fingerprint;
+        }
+
+        public long[] getIds() {
+            return ids;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 题目服务接口
@@ -104,9 +105,9 @@ public interface QuestionService {
     Result<AnswerSubmitResponse> submitAnswer(AnswerSubmitRequest request);
     
     /**
-     * AI判题
+     * AI判题（异步完成，不占用请求线程等待模型输出）
      */
-    Result<Map<String, Object>> aiGrading(Map<String, Object> request);
+    CompletableFuture<Result<Map<String, Object>>> aiGrading(Map<String, Object> request);
     
     /**
      * AI判题流式响应
@@ -0,0 +1,221 @@
+package com.qltiku2.service;
+
+import com.qltiku2.entity.Question;
+import com.qltiku2.vo.QuestionVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟考试会话服务
+ * 创建模拟考试时将试卷快照（题目ID顺序、答案、每题分值）保存到Redis Hash，
+ * 交卷时按快照一次性判分，不再按题目ID逐个探测。
+ * 写入快照与设置过期时间、交卷时领取快照与写入已交卷标记均由Lua脚本原子完成，
+ * 同一场考试并发重复交卷时只有一个请求能领取成功并判分。
+ *
+ * 快照结构（key = exam:simulation:{userId}:{examId}）：
+ *   subjectId -> 科目ID
+ *   order     -> 题目ID列表，逗号分隔
+ *   {题目ID}  -> 题型|分值|正确答案
+ * 已交卷标记：exam:simulation:submitted:{userId}:{examId}
+ *
+ * @author qltiku2
+ */
+@Slf4j
+@Service
+public class SimulationExamSessionService {
+
+    private static final String SESSION_PREFIX = "exam:simulation:";
+    private static final String SUBMITTED_PREFIX = "exam:simulation:submitted:";
+    private static final String FIELD_SUBJECT = "subjectId";
+    private static final String FIELD_ORDER = "order";
+
+    /**
+     * 考试时长之外额外保留的时间（分钟），允许超时后仍能交卷
+     */
+    private static final long GRACE_MINUTES = 60;
+
+    /**
+     * 已交卷标记保留时间（小时），之后由数据库中的答题记录防止重复交卷
+     */
+    private static final long SUBMITTED_MARK_HOURS = 24;
+
+    // 写入快照：KEYS[1]=快照，ARGV[1]=过期秒数，其余为字段、值交替
+    private static final DefaultRedisScript<Long> SAVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1]) " +
+            "for i = 2, #ARGV, 2 do redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return 1",
+            Long.class);
+
+    // 领取快照：KEYS[1]=快照，KEYS[2]=已交卷标记，ARGV[1]=标记过期秒数；
+    // 已有标记时返回nil，否则写入标记、删除并返回快照（字段、值交替，快照不存在时为空列表）
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "if not redis.call('SET', KEYS[2], '1', 'NX', 'EX', ARGV[1]) then return nil end " +
+            "local fields = redis.call('HGETALL', KEYS[1]) " +
+            "redis.call('DEL', KEYS[1]) " +
+            "return fields",
+            List.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    /**
+     * 保存试卷快照
+     *
+     * @param userId 用户ID
+     * @param examId 模拟考试ID
+     * @param subjectId 科目ID
+     * @param questions 试卷题目（按出题顺序）
+     * @param scorePerQuestion 每题分值
+     * @param durationMinutes 考试时长（分钟）
+     */
+    public void saveSnapshot(Long userId, String examId, Long subjectId, List<QuestionVO> questions,
+                             int scorePerQuestion, Integer durationMinutes) {
+        Map<String, String> fields = new HashMap<>(questions.size() + 2);
+        StringJoiner order = new StringJoiner(",");
+        for (QuestionVO question : questions) {
+            order.add(String.valueOf(question.getId()));
+            fields.put(String.valueOf(question.getId()),
+                    question.getQuestionType() + "|" + scorePerQuestion + "|"
+                            + (question.getCorrectAnswer() != null ? question.getCorrectAnswer() : ""));
+        }
+        fields.put(FIELD_SUBJECT, String.valueOf(subjectId));
+        fields.put(FIELD_ORDER, order.toString());
+
+        long ttlMinutes = (durationMinutes != null ? durationMinutes : 0) + GRACE_MINUTES;
+        writeSnapshot(buildKey(userId, examId), fields, TimeUnit.MINUTES.toSeconds(ttlMinutes));
+    }
+
+    /**
+     * 领取试卷快照（交卷时调用）：原子地写入已交卷标记并取出、删除快照
+     *
+     * @return 快照；快照已过期或不存在时返回 {@link Snapshot#isEmpty() 空快照}；
+     *         已被其他请求领取（重复交卷）时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public Snapshot claimSnapshot(Long userId, String examId) {
+        List<Object> values = redisTemplate.execute(CLAIM_SCRIPT,
+                Arrays.asList(buildKey(userId, examId), buildSubmittedKey(userId, examId)),
+                String.valueOf(TimeUnit.HOURS.toSeconds(SUBMITTED_MARK_HOURS)));
+        if (values == null) {
+            return null;
+        }
+        Map<String, String> fields = new HashMap<>(values.size() / 2 + 1);
+        for (int i = 0; i + 1 < values.size(); i += 2) {
+            fields.put(String.valueOf(values.get(i)), String.valueOf(values.get(i + 1)));
+        }
+        return parse(examId, fields);
+    }
+
+    /**
+     * 撤销领取（判分失败时调用）：恢复快照并删除已交卷标记，允许重新交卷
+     */
+    public void releaseClaim(Long userId, String examId, Snapshot snapshot) {
+        if (!snapshot.isEmpty()) {
+            writeSnapshot(buildKey(userId, examId), snapshot.fields, TimeUnit.MINUTES.toSeconds(GRACE_MINUTES));
+        }
+        redisTemplate.delete(buildSubmittedKey(userId, examId));
+    }
+
+    private void writeSnapshot(String key, Map<String, String> fields, long ttlSeconds) {
+        Object[] args = new Object[fields.size() * 2 + 1];
+        args[0] = String.valueOf(ttlSeconds);
+        int i = 1;
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            args[i++] = entry.getKey();
+            args[i++] = entry.getValue();
+        }
+        redisTemplate.execute(SAVE_SCRIPT, Collections.singletonList(key), args);
+    }
+
+    private Snapshot parse(String examId, Map<String, String> fields) {
+        Snapshot snapshot = new Snapshot();
+        String orderValue = fields.get(FIELD_ORDER);
+        if (orderValue == null || orderValue.isEmpty()) {
+            return snapshot;
+        }
+        snapshot.fields.putAll(fields);
+
+        String subjectValue = fields.get(FIELD_SUBJECT);
+        if (subjectValue != null && !"null".equals(subjectValue)) {
+            snapshot.subjectId = Long.valueOf(subjectValue);
+        }
+
+        for (String idText : orderValue.split(",")) {
+            Long questionId = Long.valueOf(idText);
+            String entry = fields.get(idText);
+            if (entry == null) {
+                continue;
+            }
+            String[] parts = entry.split("\\|", 3);
+            if (parts.length < 3) {
+                log.warn("模拟考试快照格式错误，考试ID: {}, 题目ID: {}", examId, questionId);
+                continue;
+            }
+
+            Question question = new Question();
+            question.setId(questionId);
+            question.setQuestionType("null".equals(parts[0]) ? null : Integer.valueOf(parts[0]));
+            question.setCorrectAnswer(parts[2]);
+            snapshot.questionIds.add(questionId);
+            snapshot.questions.put(questionId, question);
+            snapshot.scores.put(questionId, Integer.valueOf(parts[1]));
+        }
+        return snapshot;
+    }
+
+    private String buildKey(Long userId, String examId) {
+        return SESSION_PREFIX + userId + ":" + examId;
+    }
+
+    private String buildSubmittedKey(Long userId, String examId) {
+        return SUBMITTED_PREFIX + userId + ":" + examId;
+    }
+
+    /**
+     * 试卷快照
+     */
+    public static class Snapshot {
+        private Long subjectId;
+        private final List<Long> questionIds = new ArrayList<>();
+        /**
+         * 仅包含判分所需字段（ID、题型、正确答案）
+         */
+        private final Map<Long, Question> questions = new HashMap<>();
+        private final Map<Long, Integer> scores = new HashMap<>();
+        /**
+         * 原始字段，撤销领取时用于恢复
+         */
+        private final Map<String, String> fields = new HashMap<>();
+
+        /**
+         * 快照是否不存在（已过期或未创建）
+         */
+        public boolean isEmpty() {
+            return questionIds.isEmpty();
+        }
+
+        public Long getSubjectId() {
+            return subjectId;
+        }
+
+        public List<Long> getQuestionIds() {
+            return questionIds;
+        }
+
+        public Map<Long, Question> getQuestions() {
+            return questions;
+        }
+
+        public Integer getScore(Long questionId) {
+            return scores.get(questionId);
+        }
+    }
+}
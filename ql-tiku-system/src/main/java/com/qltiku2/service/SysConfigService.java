@@ -89,4 +89,11 @@ public interface SysConfigService extends IService<SysConfig> {
      * @return 网站信息
      */
     Map<String, Object> getSiteInfo();
-}
\ No newline at end of file
+
+    /**
+     * 获取配置快照统计
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> getConfigCacheStats();
+}
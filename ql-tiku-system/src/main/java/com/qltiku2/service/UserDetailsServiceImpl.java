@@ -3,6 +3,7 @@ package com.qltiku2.service;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.qltiku2.entity.SysUser;
 import com.qltiku2.mapper.SysUserMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -21,6 +22,7 @@ import java.util.List;
  * 
  * @author qltiku2
  */
+@Slf4j
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
     
@@ -29,8 +31,7 @@ public class UserDetailsServiceImpl implements UserDetailsService {
     
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        System.out.println("=== UserDetailsService.loadUserByUsername 开始 ===");
-        System.out.println("查询用户名: " + username);
+        log.debug("加载用户详情: {}", username);
         
         // 查询用户
         LambdaQueryWrapper<SysUser> queryWrapper = new LambdaQueryWrapper<>();
@@ -40,15 +41,10 @@ public class UserDetailsServiceImpl implements UserDetailsService {
         SysUser sysUser = sysUserMapper.selectOne(queryWrapper);
         
         if (sysUser == null) {
-            System.err.println("用户不存在: " + username);
+            log.debug("用户不存在: {}", username);
             throw new UsernameNotFoundException("用户不存在: " + username);
         }
         
-        System.out.println("找到用户: " + sysUser.getUsername());
-        System.out.println("用户密码哈希: " + sysUser.getPassword());
-        System.out.println("用户状态: " + sysUser.getStatus());
-        System.out.println("用户类型: " + sysUser.getUserType());
-        
         // 构建权限列表
         Collection<GrantedAuthority> authorities = getAuthorities(sysUser.getUserType());
         
@@ -63,21 +59,16 @@ public class UserDetailsServiceImpl implements UserDetailsService {
             authorities
         );
         
-        System.out.println("UserDetails创建成功，用户名: " + userDetails.getUsername());
-        System.out.println("UserDetails密码: " + userDetails.getPassword());
-        System.out.println("UserDetails启用状态: " + userDetails.isEnabled());
-        System.out.println("=== UserDetailsService.loadUserByUsername 结束 ===");
-        
         return userDetails;
     }
     
     /**
-     * 根据用户类型获取权限列表
+     * 根据用户类型获取权限列表（JWT认证时也据此由声明构建权限）
      */
-    private Collection<GrantedAuthority> getAuthorities(Integer userType) {
+    public static Collection<GrantedAuthority> getAuthorities(Integer userType) {
         List<GrantedAuthority> authorities = new ArrayList<>();
         
-        switch (userType) {
+        switch (userType != null ? userType : -1) {
             case 0: // 学生
                 authorities.add(new SimpleGrantedAuthority("ROLE_USER")); // 添加基础用户权限
                 authorities.add(new SimpleGrantedAuthority("ROLE_STUDENT"));
@@ -6,18 +6,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.qltiku2.entity.AiChatRecord;
 import com.qltiku2.entity.AiModel;
 import com.qltiku2.entity.AiUsageLog;
+import com.qltiku2.exception.AiBusyException;
 import com.qltiku2.mapper.AiChatRecordMapper;
-import com.qltiku2.mapper.AiModelMapper;
-import com.qltiku2.mapper.AiUsageLogMapper;
+import com.qltiku2.service.AiAnalysisCache;
 import com.qltiku2.service.AiChatService;
-import com.qltiku2.service.AiModelService;
+import com.qltiku2.service.AiChatStreamWriter;
+import com.qltiku2.service.AiConcurrencyLimiter;
+import com.qltiku2.service.AiModelRegistry;
+import com.qltiku2.service.AiTokenAccounting;
 import com.qltiku2.service.SysConfigService;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
@@ -27,7 +27,6 @@ import reactor.util.context.Context;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -44,19 +43,19 @@ public class AiChatServiceImpl extends ServiceImpl<AiChatRecordMapper, AiChatRec
     private SysConfigService sysConfigService;
 
     @Autowired
-    private DashScopeChatModel dashScopeChatModel;
+    private AiChatStreamWriter aiChatStreamWriter;
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private AiModelRegistry aiModelRegistry;
 
     @Autowired
-    private AiModelService aiModelService;
+    private AiAnalysisCache aiAnalysisCache;
 
     @Autowired
-    private AiUsageLogMapper aiUsageLogMapper;
+    private AiConcurrencyLimiter aiConcurrencyLimiter;
 
     @Autowired
-    private AiModelMapper aiModelMapper;
+    private AiTokenAccounting aiTokenAccounting;
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -78,60 +77,47 @@ public class AiChatServiceImpl extends ServiceImpl<AiChatRecordMapper, AiChatRec
 
             log.info("开始AI聊天，用户ID: {}, 会话ID: {}, 模型: {}, 消息: {}", userId, sessionId, aiModel.getName(), message);
 
-            // 生成唯一的缓存键用于存储AI回复
-            String cacheKey = "ai_response:" + sessionId + ":" + UUID.randomUUID().toString();
-
             // 创建使用日志记录
             AiUsageLog usageLog = createUsageLog(userId, "chat", aiModel, message);
 
-            // 创建独立的ChatClient实例，确保模型配置完全隔离
-            ChatClient localChatClient = createChatClient(aiModel);
+            // 在内存中累积AI回复，结束后批量写库
+            AiChatStreamWriter.StreamAccumulator accumulator = aiChatStreamWriter.open(userId, sessionId, questionId, usageLog);
 
-            // 使用指定模型进行流式响应
-            return localChatClient.prompt()
-                    .user(message)
-                    .stream()
-                    .content()
-                    .contextWrite(Context.of(SecurityContext.class, securityContext))
-                    .doOnNext(content -> {
-                        log.debug("AI响应片段: {}", content);
-                        // 将每个响应片段追加到Redis缓存中
-                        try {
-                            redisTemplate.opsForValue().append(cacheKey, content);
-                            redisTemplate.expire(cacheKey, 10, TimeUnit.MINUTES);
-                        } catch (Exception e) {
-                            log.warn("缓存AI响应片段失败: {}", e.getMessage());
-                        }
-                    })
-                    .doOnError(error -> {
-                        log.error("AI服务调用失败", error);
-                        String errorMsg = "AI服务调用失败: " + error.getMessage();
-                        saveChatRecord(userId, sessionId, errorMsg, AiChatRecord.MESSAGE_TYPE_AI, questionId);
-                        redisTemplate.delete(cacheKey);
+            // 按模型复用预先构建的ChatClient，模型配置相互隔离
+            ChatClient localChatClient = aiModelRegistry.getChatClient(aiModel);
 
-                        // 记录失败的使用日志
-                        updateUsageLogOnFailure(usageLog);
+            // 用量优先取响应元数据，没有时按输出片段增量估算
+            AiTokenAccounting.Meter meter = aiTokenAccounting.open();
+
+            // 使用指定模型进行流式响应，受全局及模型并发上限控制
+            return aiConcurrencyLimiter.limit(userId, aiModel.getCode(), () -> streamContent(localChatClient, message, meter))
+                    .contextWrite(Context.of(SecurityContext.class, securityContext))
+                    .doOnNext(chunk -> {
+                        accumulator.append(chunk);
+                        meter.append(chunk);
                     })
                     .doOnComplete(() -> {
                         log.info("AI聊天完成，用户ID: {}, 会话ID: {}", userId, sessionId);
-                        try {
-                            String fullResponse = redisTemplate.opsForValue().get(cacheKey);
-                            if (StringUtils.hasText(fullResponse)) {
-                                saveChatRecord(userId, sessionId, fullResponse, AiChatRecord.MESSAGE_TYPE_AI, questionId);
-                                log.info("AI回复已保存到数据库，长度: {}", fullResponse.length());
-
-                                // 更新使用日志
-                                updateUsageLogOnSuccess(usageLog, message, fullResponse);
-                            }
-                            redisTemplate.delete(cacheKey);
-                        } catch (Exception e) {
-                            log.error("保存AI回复到数据库失败", e);
-                        }
+                        completeStream(accumulator, usageLog, message, meter);
+                    })
+                    .doOnCancel(() -> {
+                        // 客户端断开时保存已生成的部分
+                        log.info("AI聊天被客户端取消，用户ID: {}, 会话ID: {}", userId, sessionId);
+                        completeStream(accumulator, usageLog, message, meter);
                     })
                     .onErrorResume(error -> {
+                        if (error instanceof AiBusyException) {
+                            // 繁忙时交给调用方提示重试
+                            log.warn("AI服务繁忙，用户ID: {}, 模型: {}", userId, aiModel.getCode());
+                            updateUsageLogOnFailure(usageLog);
+                            aiChatStreamWriter.fail(accumulator, error.getMessage(), usageLog);
+                            return Flux.error(error);
+                        }
+                        log.error("AI服务调用失败", error);
                         String errorResponse = "抱歉，AI服务暂时不可用: " + error.getMessage();
-                        saveChatRecord(userId, sessionId, errorResponse, AiChatRecord.MESSAGE_TYPE_AI, questionId);
-                        redisTemplate.delete(cacheKey);
+                        // 记录失败的使用日志
+                        updateUsageLogOnFailure(usageLog);
+                        aiChatStreamWriter.fail(accumulator, errorResponse, usageLog);
                         return Flux.just(errorResponse);
                     });
 
@@ -172,59 +158,49 @@ public class AiChatServiceImpl extends ServiceImpl<AiChatRecordMapper, AiChatRec
 
             log.info("开始AI题目解析，用户ID: {}, 题目ID: {}, 模型: {}", userId, questionId, aiModel.getName());
 
-            // 生成唯一的缓存键用于存储AI回复
-            String cacheKey = "ai_analysis:" + sessionId + ":" + UUID.randomUUID().toString();
-
             // 创建使用日志记录
             AiUsageLog usageLog = createUsageLog(userId, "analyze", aiModel, promptMessage);
-            
-            // 创建独立的ChatClient实例，确保模型配置完全隔离
-            ChatClient localChatClient = createChatClient(aiModel);
-
-            // 使用指定模型进行题目解析
-            return localChatClient.prompt()
-                    .user(promptMessage)
-                    .stream()
-                    .content()
-                    .contextWrite(Context.of(SecurityContext.class, securityContext))
-                    .doOnNext(content -> {
-                        log.debug("AI解析片段: {}", content);
-                        try {
-                            redisTemplate.opsForValue().append(cacheKey, content);
-                            redisTemplate.expire(cacheKey, 10, TimeUnit.MINUTES);
-                        } catch (Exception e) {
-                            log.warn("缓存AI解析片段失败: {}", e.getMessage());
-                        }
-                    })
-                    .doOnError(error -> {
-                        log.error("AI题目解析失败", error);
-                        String errorMsg = "AI解析失败: " + error.getMessage();
-                        saveChatRecord(userId, sessionId, errorMsg, AiChatRecord.MESSAGE_TYPE_AI, questionId);
-                        redisTemplate.delete(cacheKey);
 
-                        // 记录失败的使用日志
-                        updateUsageLogOnFailure(usageLog);
+            // 在内存中累积AI解析，结束后批量写库
+            AiChatStreamWriter.StreamAccumulator accumulator = aiChatStreamWriter.open(userId, sessionId, questionId, usageLog);
+
+            // 相同题目、相同模型的解析优先走缓存，并发的相同请求共享一次模型调用
+            long startNanos = System.nanoTime();
+            AiTokenAccounting.Meter meter = aiTokenAccounting.open();
+            String cacheKey = aiAnalysisCache.keyOf(promptMessage, aiModel.getCode());
+            AiAnalysisCache.Lookup lookup = aiAnalysisCache.lookup(cacheKey,
+                    () -> aiConcurrencyLimiter.limit(userId, aiModel.getCode(),
+                            () -> streamContent(aiModelRegistry.getChatClient(aiModel), promptMessage, meter)));
+            usageLog.setCacheHit(lookup.isServed());
+
+            return lookup.content()
+                    .contextWrite(Context.of(SecurityContext.class, securityContext))
+                    .doOnNext(chunk -> {
+                        accumulator.append(chunk);
+                        meter.append(chunk);
                     })
                     .doOnComplete(() -> {
-                        log.info("AI题目解析完成，用户ID: {}, 题目ID: {}", userId, questionId);
-                        try {
-                            String fullResponse = redisTemplate.opsForValue().get(cacheKey);
-                            if (StringUtils.hasText(fullResponse)) {
-                                saveChatRecord(userId, sessionId, fullResponse, AiChatRecord.MESSAGE_TYPE_AI, questionId);
-                                log.info("AI解析已保存到数据库，长度: {}", fullResponse.length());
-
-                                // 更新使用日志
-                                updateUsageLogOnSuccess(usageLog, promptMessage, fullResponse);
-                            }
-                            redisTemplate.delete(cacheKey);
-                        } catch (Exception e) {
-                            log.error("保存AI解析到数据库失败", e);
-                        }
+                        log.info("AI题目解析完成，用户ID: {}, 题目ID: {}, 命中缓存: {}", userId, questionId, lookup.isServed());
+                        completeAnalysis(accumulator, usageLog, promptMessage, meter, startNanos);
+                    })
+                    .doOnCancel(() -> {
+                        // 客户端断开时保存已生成的部分
+                        log.info("AI题目解析被客户端取消，用户ID: {}, 题目ID: {}", userId, questionId);
+                        completeAnalysis(accumulator, usageLog, promptMessage, meter, startNanos);
                     })
                     .onErrorResume(error -> {
+                        if (error instanceof AiBusyException) {
+                            // 繁忙时交给调用方提示重试
+                            log.warn("AI服务繁忙，用户ID: {}, 模型: {}", userId, aiModel.getCode());
+                            updateUsageLogOnFailure(usageLog);
+                            aiChatStreamWriter.fail(accumulator, error.getMessage(), usageLog);
+                            return Flux.error(error);
+                        }
+                        log.error("AI题目解析失败", error);
                         String errorResponse = "抱歉，AI解析服务暂时不可用: " + error.getMessage();
-                        saveChatRecord(userId, sessionId, errorResponse, AiChatRecord.MESSAGE_TYPE_AI, questionId);
-                        redisTemplate.delete(cacheKey);
+                        // 记录失败的使用日志
+                        updateUsageLogOnFailure(usageLog);
+                        aiChatStreamWriter.fail(accumulator, errorResponse, usageLog);
                         return Flux.just(errorResponse);
                     });
 
@@ -264,46 +240,10 @@ public class AiChatServiceImpl extends ServiceImpl<AiChatRecordMapper, AiChatRec
     }
 
     /**
-     * 获取AI模型配置，如果指定ID不存在则返回默认模型
+     * 获取AI模型配置，如果指定ID不存在或未启用则返回默认模型
      */
     private AiModel getAiModel(Long modelId) {
-        if (modelId != null) {
-            // 直接从数据库获取模型实体
-            AiModel model = aiModelMapper.selectById(modelId);
-            if (model != null && model.getEnabled()) {
-                return model;
-            }
-        }
-        // 如果没有指定有效的模型ID，则返回默认模型
-        return aiModelService.getDefaultModel();
-    }
-
-    /**
-     * 根据模型配置创建DashScopeChatOptions
-     */
-    private DashScopeChatOptions createChatOptions(AiModel aiModel) {
-        log.info("使用AI模型: {} ({})", aiModel.getName(), aiModel.getCode());
-        String modelCode = aiModel.getCode();
-
-        // 简化配置，只设置模型代码，避免API兼容性问题
-        return DashScopeChatOptions.builder()
-                .withModel(modelCode)
-                .build();
-    }
-
-    /**
-     * 创建独立的ChatClient实例，确保模型配置完全隔离
-     */
-    private ChatClient createChatClient(AiModel aiModel) {
-        DashScopeChatOptions options = createChatOptions(aiModel);
-        
-        // 使用全局的DashScopeChatModel但设置特定的默认选项
-        ChatClient client = ChatClient.builder(dashScopeChatModel)
-                .defaultOptions(options)
-                .build();
-                
-        log.info("创建ChatClient完成，使用模型: {}", aiModel.getCode());
-        return client;
+        return aiModelRegistry.resolve(modelId);
     }
 
     /**
@@ -320,60 +260,62 @@ public class AiChatServiceImpl extends ServiceImpl<AiChatRecordMapper, AiChatRec
         usageLog.setPromptTokens(0);
         usageLog.setCompletionTokens(0);
         usageLog.setTotalTokens(0);
+        usageLog.setCacheHit(false);
+        usageLog.setTokensSaved(0);
 
         log.debug("创建使用日志，请求内容长度: {}", requestContent != null ? requestContent.length() : 0);
         return usageLog;
     }
 
     /**
-     * AI调用成功后更新使用日志
+     * 流式调用模型，返回文本片段；响应元数据中的用量交给计量器记录
      */
-    private void updateUsageLogOnSuccess(AiUsageLog usageLog, String prompt, String response) {
-        int estimatedPromptTokens = estimateTokens(prompt);
-        int estimatedCompletionTokens = estimateTokens(response);
-        int estimatedTotalTokens = estimatedPromptTokens + estimatedCompletionTokens;
-
-        usageLog.setTokensUsed(estimatedTotalTokens);
-        usageLog.setPromptTokens(estimatedPromptTokens);
-        usageLog.setCompletionTokens(estimatedCompletionTokens);
-        usageLog.setTotalTokens(estimatedTotalTokens);
-        aiUsageLogMapper.insert(usageLog);
-
-        log.info("Token使用统计已记录: prompt={}, completion={}, total={}",
-                estimatedPromptTokens, estimatedCompletionTokens, estimatedTotalTokens);
+    private Flux<String> streamContent(ChatClient chatClient, String prompt, AiTokenAccounting.Meter meter) {
+        return chatClient.prompt()
+                .user(prompt)
+                .stream()
+                .chatResponse()
+                .doOnNext(meter::observe)
+                .map(response -> response.getResult() != null && response.getResult().getOutput() != null
+                        && response.getResult().getOutput().getText() != null
+                        ? response.getResult().getOutput().getText() : "")
+                .filter(StringUtils::hasLength);
     }
-    
+
     /**
-     * AI调用失败后更新使用日志
+     * 回复结束后填写token统计，并交给批量写入器保存回复与使用日志
      */
-    private void updateUsageLogOnFailure(AiUsageLog usageLog) {
-        usageLog.setTokensUsed(0);
-        usageLog.setPromptTokens(0);
-        usageLog.setCompletionTokens(0);
-        usageLog.setTotalTokens(0);
-        aiUsageLogMapper.insert(usageLog);
+    private void completeStream(AiChatStreamWriter.StreamAccumulator accumulator, AiUsageLog usageLog,
+                                String prompt, AiTokenAccounting.Meter meter) {
+        if (!meter.isEmpty()) {
+            aiTokenAccounting.settle(meter, prompt, usageLog);
+        }
+        aiChatStreamWriter.complete(accumulator, usageLog);
     }
 
     /**
-     * 估算token数量（简单实现，实际应该使用更精确的方法）
+     * 题目解析结束：记录耗时；由缓存或共享调用提供的回复不消耗token，估算值记为节省的token
      */
-    private int estimateTokens(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
-        }
-        // 简单估算：中文字符按1.5个token计算，英文单词按1个token计算
-        int chineseChars = 0;
-        int englishWords = 0;
-
-        for (char c : text.toCharArray()) {
-            if (c >= 0x4e00 && c <= 0x9fff) {
-                chineseChars++;
+    private void completeAnalysis(AiChatStreamWriter.StreamAccumulator accumulator, AiUsageLog usageLog,
+                                  String prompt, AiTokenAccounting.Meter meter, long startNanos) {
+        usageLog.setLatencyMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        if (Boolean.TRUE.equals(usageLog.getCacheHit())) {
+            if (!meter.isEmpty()) {
+                usageLog.setTokensSaved(aiTokenAccounting.estimateSaved(meter, prompt));
             }
+            aiChatStreamWriter.complete(accumulator, usageLog);
+            return;
         }
+        completeStream(accumulator, usageLog, prompt, meter);
+    }
 
-        String[] words = text.replaceAll("[\\u4e00-\\u9fff]", "").split("\\s+");
-        englishWords = words.length;
-
-        return (int) (chineseChars * 1.5 + englishWords);
+    /**
+     * AI调用失败后更新使用日志（由批量写入器写库）
+     */
+    private void updateUsageLogOnFailure(AiUsageLog usageLog) {
+        usageLog.setTokensUsed(0);
+        usageLog.setPromptTokens(0);
+        usageLog.setCompletionTokens(0);
+        usageLog.setTotalTokens(0);
     }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import com.qltiku2.common.Result;
 import com.qltiku2.dto.AiModelSaveRequest;
 import com.qltiku2.entity.AiModel;
 import com.qltiku2.mapper.AiModelMapper;
+import com.qltiku2.service.AiModelRegistry;
 import com.qltiku2.service.AiModelService;
 import com.qltiku2.vo.AiModelVO;
 import lombok.extern.slf4j.Slf4j;
@@ -31,6 +32,9 @@ public class AiModelServiceImpl implements AiModelService {
     @Autowired
     private AiModelMapper aiModelMapper;
 
+    @Autowired
+    private AiModelRegistry aiModelRegistry;
+
     @Override
     public Result<IPage<AiModelVO>> getModelPage(Integer current, Integer size, String keyword, Boolean enabled) {
         try {
@@ -130,6 +134,7 @@ public class AiModelServiceImpl implements AiModelService {
             
             int result = aiModelMapper.insert(model);
             if (result > 0) {
+                aiModelRegistry.invalidate();
                 return Result.success("创建成功");
             } else {
                 return Result.error("创建失败");
@@ -159,6 +164,7 @@ public class AiModelServiceImpl implements AiModelService {
             
             int result = aiModelMapper.updateById(existingModel);
             if (result > 0) {
+                aiModelRegistry.invalidate();
                 return Result.success("更新成功");
             } else {
                 return Result.error("更新失败");
@@ -179,6 +185,7 @@ public class AiModelServiceImpl implements AiModelService {
             
             int result = aiModelMapper.deleteById(id);
             if (result > 0) {
+                aiModelRegistry.invalidate();
                 return Result.success("删除成功");
             } else {
                 return Result.error("删除失败");
@@ -194,6 +201,7 @@ public class AiModelServiceImpl implements AiModelService {
         try {
             int result = aiModelMapper.deleteBatchIds(ids);
             if (result > 0) {
+                aiModelRegistry.invalidate();
                 return Result.success("批量删除成功");
             } else {
                 return Result.error("批量删除失败");
@@ -215,6 +223,7 @@ public class AiModelServiceImpl implements AiModelService {
             model.setEnabled(enabled);
             int result = aiModelMapper.updateById(model);
             if (result > 0) {
+                aiModelRegistry.invalidate();
                 return Result.success(enabled ? "启用成功" : "禁用成功");
             } else {
                 return Result.error("操作失败");
@@ -228,14 +237,8 @@ public class AiModelServiceImpl implements AiModelService {
     @Override
     public AiModel getDefaultModel() {
         try {
-            List<AiModel> models = aiModelMapper.selectEnabledModels();
-            if (!models.isEmpty()) {
-                return models.get(0); // 返回第一个启用的模型作为默认模型
-            }
-            
-            // 如果没有启用的模型，返回null或抛出异常
-            log.warn("没有找到启用的AI模型");
-            return null;
+            // 返回第一个启用的模型作为默认模型，没有启用的模型时返回null
+            return aiModelRegistry.getDefaultModel();
         } catch (Exception e) {
             log.error("获取默认AI模型失败", e);
             return null;
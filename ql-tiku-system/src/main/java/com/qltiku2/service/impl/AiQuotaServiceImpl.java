@@ -3,13 +3,23 @@ package com.qltiku2.service.impl;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.qltiku2.entity.UserAiQuota;
 import com.qltiku2.entity.AiUsageLog;
 import com.qltiku2.mapper.UserAiQuotaMapper;
-import com.qltiku2.mapper.AiUsageLogMapper;
+import com.qltiku2.service.AiChatStreamWriter;
 import com.qltiku2.service.AiQuotaService;
+import com.qltiku2.service.AiTokenAccounting;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.context.request.RequestContextHolder;
@@ -18,12 +28,20 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 import jakarta.servlet.http.HttpServletRequest;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * AI配额服务实现类
+ * 已使用次数以Redis计数器为准：按 日期/月份 分键（ai_quota:daily:yyyyMMdd:用户ID、ai_quota:monthly:yyyyMM:用户ID），
+ * 到期自动删除，无需定时重置；检查与扣减由Lua脚本原子完成，同一用户的并发请求不会超出上限。
+ * 配额上限在本地短期缓存，计数器不存在时以数据库中的已使用次数初始化；
+ * 扣减过的用户定时批量写回 user_ai_quota.used_daily/used_monthly，数据库仅作为展示与统计用的镜像。
  * 
  * @author qltiku2
  */
@@ -31,48 +49,104 @@ import java.util.Map;
 @Service
 public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuota> implements AiQuotaService {
     
+    private static final String DAILY_PREFIX = "ai_quota:daily:";
+    private static final String MONTHLY_PREFIX = "ai_quota:monthly:";
+    
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    
+    /**
+     * 单条批量SQL的最大行数
+     */
+    private static final int BATCH_SIZE = 500;
+    
+    // 检查并扣减：KEYS[1]=每日计数，KEYS[2]=每月计数；
+    // ARGV = 每日上限, 每月上限, 扣减次数(0为只检查), 每日过期时间戳, 每月过期时间戳, 每日初始值, 每月初始值
+    // 返回 {是否允许(1/0), 每日已用, 每月已用}
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CHECK_AND_INCR_SCRIPT = new DefaultRedisScript<>(
+            "local d = tonumber(redis.call('GET', KEYS[1]) or '-1') " +
+            "if d < 0 then d = tonumber(ARGV[6]) redis.call('SET', KEYS[1], d) redis.call('EXPIREAT', KEYS[1], ARGV[4]) end " +
+            "local m = tonumber(redis.call('GET', KEYS[2]) or '-1') " +
+            "if m < 0 then m = tonumber(ARGV[7]) redis.call('SET', KEYS[2], m) redis.call('EXPIREAT', KEYS[2], ARGV[5]) end " +
+            "local n = tonumber(ARGV[3]) " +
+            "local need = math.max(n, 1) " +
+            "if d + need > tonumber(ARGV[1]) or m + need > tonumber(ARGV[2]) then return {0, d, m} end " +
+            "if n > 0 then d = redis.call('INCRBY', KEYS[1], n) m = redis.call('INCRBY', KEYS[2], n) end " +
+            "return {1, d, m}",
+            List.class);
+    
+    // 退还次数：KEYS[1]=每日计数，KEYS[2]=每月计数，ARGV[1]=退还次数；计数器不存在（已跨日/跨月或被重置）时不处理，且不减到0以下
+    private static final DefaultRedisScript<Long> REFUND_SCRIPT = new DefaultRedisScript<>(
+            "local n = tonumber(ARGV[1]) " +
+            "for i = 1, 2 do " +
+            "local v = tonumber(redis.call('GET', KEYS[i]) or '-1') " +
+            "if v > 0 then redis.call('DECRBY', KEYS[i], math.min(v, n)) end " +
+            "end " +
+            "return 1",
+            Long.class);
+    
     @Autowired
     private UserAiQuotaMapper userAiQuotaMapper;
     
     @Autowired
-    private AiUsageLogMapper aiUsageLogMapper;
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private AiChatStreamWriter aiChatStreamWriter;
+    
+    @Autowired
+    private AiTokenAccounting aiTokenAccounting;
+    
+    /**
+     * 每个用户每天的token上限，0表示不限制
+     */
+    @Value("${ai.quota.daily-token-limit:0}")
+    private long dailyTokenLimit;
+    
+    /**
+     * 用户配额（上限及初始化计数器用的已使用次数），修改配额时失效；多实例部署时其他实例最多在过期后更新
+     */
+    private final Cache<Long, UserAiQuota> quotaCache = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(30, TimeUnit.SECONDS)
+            .build();
+    
+    /**
+     * 计数器有变化、待写回数据库的用户
+     */
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+    
+    // 写回统计
+    private final AtomicLong writtenBackRows = new AtomicLong();
+    private final AtomicLong failedWriteBacks = new AtomicLong();
+    private final AtomicLong refundedCount = new AtomicLong();
     
     @Override
     public boolean hasQuota(Long userId, String aiType) {
-        UserAiQuota quota = getUserQuota(userId);
-        if (quota == null) {
-            // 如果没有配额记录，初始化一个
-            initializeQuota(userId);
-            quota = getUserQuota(userId);
-        }
-        
-        // 检查是否需要重置每日配额
-        if (quota.getLastResetDate() == null || !quota.getLastResetDate().equals(LocalDate.now())) {
-            quota.setUsedDaily(0);
-            quota.setLastResetDate(LocalDate.now());
-            userAiQuotaMapper.updateById(quota);
+        if (dailyTokenLimit > 0 && aiTokenAccounting.getTodayTokens(userId) >= dailyTokenLimit) {
+            return false;
         }
-        
-        return quota.getUsedDaily() < quota.getDailyQuota() && quota.getUsedMonthly() < quota.getMonthlyQuota();
+        return checkAndIncrement(userId, 0).get(0) == 1L;
     }
     
     @Override
-    @Transactional
     public boolean consumeQuota(Long userId, String aiType, int tokens) {
-        if (!hasQuota(userId, aiType)) {
+        if (dailyTokenLimit > 0 && aiTokenAccounting.getTodayTokens(userId) >= dailyTokenLimit) {
             return false;
         }
+        if (checkAndIncrement(userId, 1).get(0) != 1L) {
+            return false;
+        }
+        dirtyUsers.add(userId);
         
-        UserAiQuota quota = getUserQuota(userId);
-        quota.setUsedDaily(quota.getUsedDaily() + 1);
-        quota.setUsedMonthly(quota.getUsedMonthly() + 1);
-        userAiQuotaMapper.updateById(quota);
-        
-        // 记录使用日志
+        // 记录使用日志（批量写入）
         AiUsageLog log = new AiUsageLog();
         log.setUserId(userId);
         log.setAiType(aiType);
         log.setTokensUsed(tokens);
+        log.setCacheHit(false);
+        log.setTokensSaved(0);
         log.setUsageTime(LocalDateTime.now());
         
         // 获取IP地址和User-Agent
@@ -83,18 +157,98 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
             log.setUserAgent(request.getHeader("User-Agent"));
         }
         
-        aiUsageLogMapper.insert(log);
+        aiChatStreamWriter.submitUsageLog(log);
         
         return true;
     }
     
     @Override
-    public UserAiQuota getUserQuota(Long userId) {
+    public void refundQuota(Long userId, String aiType, int count) {
+        if (count <= 0) {
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        try {
+            stringRedisTemplate.execute(REFUND_SCRIPT,
+                    Arrays.asList(dailyKey(userId, today), monthlyKey(userId, today)),
+                    String.valueOf(count));
+            dirtyUsers.add(userId);
+            refundedCount.addAndGet(count);
+        } catch (Exception e) {
+            log.error("退还用户{}的AI配额失败: {}", userId, e.getMessage());
+        }
+    }
+    
+    /**
+     * 执行检查并扣减脚本
+     *
+     * @param amount 扣减次数，0表示只检查
+     * @return [是否允许(1/0), 每日已用, 每月已用]
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> checkAndIncrement(Long userId, int amount) {
+        UserAiQuota quota = getCachedQuota(userId);
+        LocalDate today = LocalDate.now();
+        // 计数器不存在时，以数据库中同一周期的已使用次数初始化（首次部署或Redis数据丢失）
+        int seedDaily = today.equals(quota.getLastResetDate()) ? nullToZero(quota.getUsedDaily()) : 0;
+        int seedMonthly = quota.getLastResetDate() != null
+                && YearMonth.from(quota.getLastResetDate()).equals(YearMonth.from(today))
+                ? nullToZero(quota.getUsedMonthly()) : 0;
+        List<Long> result = stringRedisTemplate.execute(CHECK_AND_INCR_SCRIPT,
+                Arrays.asList(dailyKey(userId, today), monthlyKey(userId, today)),
+                String.valueOf(nullToZero(quota.getDailyQuota())),
+                String.valueOf(nullToZero(quota.getMonthlyQuota())),
+                String.valueOf(amount),
+                String.valueOf(epochSecond(today.plusDays(1))),
+                String.valueOf(epochSecond(today.withDayOfMonth(1).plusMonths(1))),
+                String.valueOf(seedDaily),
+                String.valueOf(seedMonthly));
+        return result;
+    }
+    
+    private UserAiQuota getCachedQuota(Long userId) {
+        return quotaCache.get(userId, id -> {
+            UserAiQuota quota = getQuotaRow(id);
+            if (quota == null) {
+                // 如果没有配额记录，初始化一个
+                initializeQuota(id);
+                quota = getQuotaRow(id);
+            }
+            return quota;
+        });
+    }
+    
+    private UserAiQuota getQuotaRow(Long userId) {
         QueryWrapper<UserAiQuota> wrapper = new QueryWrapper<>();
         wrapper.eq("user_id", userId);
         return userAiQuotaMapper.selectOne(wrapper);
     }
     
+    @Override
+    public UserAiQuota getUserQuota(Long userId) {
+        UserAiQuota quota = getQuotaRow(userId);
+        if (quota == null) {
+            return null;
+        }
+        // 已使用次数以Redis计数器为准
+        LocalDate today = LocalDate.now();
+        List<String> counters = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(dailyKey(userId, today), monthlyKey(userId, today)));
+        if (counters != null && counters.get(0) != null) {
+            quota.setUsedDaily(Integer.parseInt(counters.get(0)));
+            quota.setLastResetDate(today);
+        } else if (!today.equals(quota.getLastResetDate())) {
+            quota.setUsedDaily(0);
+        }
+        if (counters != null && counters.get(1) != null) {
+            quota.setUsedMonthly(Integer.parseInt(counters.get(1)));
+        } else if (quota.getLastResetDate() == null
+                || !YearMonth.from(quota.getLastResetDate()).equals(YearMonth.from(today))) {
+            quota.setUsedMonthly(0);
+        }
+        return quota;
+    }
+    
     @Override
     public void initializeQuota(Long userId) {
         UserAiQuota quota = new UserAiQuota();
@@ -110,39 +264,40 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
         userAiQuotaMapper.insert(quota);
     }
     
+    /**
+     * 手动重置所有用户今天的次数（每日计数器按日期分键，到期自动失效，无需定时重置）
+     */
     @Override
     public void resetDailyQuota() {
+        long deleted = deleteKeys(DAILY_PREFIX + LocalDate.now().format(DAY_FORMAT) + ":*");
         userAiQuotaMapper.resetAllDailyQuota();
-        log.info("已重置所有用户的每日AI配额");
+        quotaCache.invalidateAll();
+        log.info("已重置所有用户的每日AI配额，删除计数器: {}", deleted);
     }
     
+    /**
+     * 手动重置所有用户本月的次数（每月计数器按月份分键，到期自动失效，无需定时重置）
+     */
     @Override
     public void resetMonthlyQuota() {
+        long deleted = deleteKeys(MONTHLY_PREFIX + LocalDate.now().format(MONTH_FORMAT) + ":*");
         userAiQuotaMapper.resetAllMonthlyQuota();
-        log.info("已重置所有用户的每月AI配额");
+        quotaCache.invalidateAll();
+        log.info("已重置所有用户的每月AI配额，删除计数器: {}", deleted);
     }
     
     @Override
     public int getRemainingDailyQuota(Long userId) {
-        UserAiQuota quota = getUserQuota(userId);
-        if (quota == null) {
-            initializeQuota(userId);
-            quota = getUserQuota(userId);
-        }
-        
-        // 检查是否需要重置每日配额
-        if (quota.getLastResetDate() == null || !quota.getLastResetDate().equals(LocalDate.now())) {
-            quota.setUsedDaily(0);
-            quota.setLastResetDate(LocalDate.now());
-            userAiQuotaMapper.updateById(quota);
-        }
-        
-        return Math.max(0, quota.getDailyQuota() - quota.getUsedDaily());
+        UserAiQuota quota = getCachedQuota(userId);
+        long usedDaily = checkAndIncrement(userId, 0).get(1);
+        return (int) Math.max(0, nullToZero(quota.getDailyQuota()) - usedDaily);
     }
     
     @Override
     public boolean resetDailyQuota(Long userId) {
         try {
+            stringRedisTemplate.delete(dailyKey(userId, LocalDate.now()));
+            quotaCache.invalidate(userId);
             UpdateWrapper<UserAiQuota> wrapper = new UpdateWrapper<>();
             wrapper.eq("user_id", userId)
                    .set("used_daily", 0)
@@ -158,6 +313,8 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
     @Override
     public boolean resetMonthlyQuota(Long userId) {
         try {
+            stringRedisTemplate.delete(monthlyKey(userId, LocalDate.now()));
+            quotaCache.invalidate(userId);
             UpdateWrapper<UserAiQuota> wrapper = new UpdateWrapper<>();
             wrapper.eq("user_id", userId)
                    .set("used_monthly", 0)
@@ -169,6 +326,15 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
         }
     }
     
+    @Override
+    public boolean updateById(UserAiQuota entity) {
+        boolean updated = super.updateById(entity);
+        if (entity.getUserId() != null) {
+            quotaCache.invalidate(entity.getUserId());
+        }
+        return updated;
+    }
+    
     @Override
     @Transactional
     public boolean updateUserQuota(Long userId, Integer vipLevel, Integer dailyQuota, Integer monthlyQuota) {
@@ -190,7 +356,7 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
             }
             quota.setUpdateTime(LocalDateTime.now());
             
-            return userAiQuotaMapper.updateById(quota) > 0;
+            return updateById(quota);
         } catch (Exception e) {
             log.error("更新用户{}配额失败", userId, e);
             return false;
@@ -238,6 +404,7 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
             List<UserAiQuota> quotas = userAiQuotaMapper.selectList(usageWrapper);
             int totalUsage = quotas.stream().mapToInt(UserAiQuota::getUsedDaily).sum();
             stats.put("totalUsage", totalUsage);
+            stats.put("counterWriteBack", getWriteBackStats());
             
         } catch (Exception e) {
             log.error("获取配额统计信息失败", e);
@@ -245,6 +412,108 @@ public class AiQuotaServiceImpl extends ServiceImpl<UserAiQuotaMapper, UserAiQuo
         return stats;
     }
 
+    /**
+     * 将有变化的用户计数器批量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${ai.quota.write-back-interval-ms:10000}", initialDelay = 10000)
+    public void writeBack() {
+        if (dirtyUsers.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = new ArrayList<>(dirtyUsers);
+        dirtyUsers.removeAll(userIds);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < userIds.size(); i += BATCH_SIZE) {
+            List<Long> batch = userIds.subList(i, Math.min(i + BATCH_SIZE, userIds.size()));
+            try {
+                List<String> keys = new ArrayList<>(batch.size() * 2);
+                for (Long userId : batch) {
+                    keys.add(dailyKey(userId, today));
+                    keys.add(monthlyKey(userId, today));
+                }
+                List<String> counters = stringRedisTemplate.opsForValue().multiGet(keys);
+                List<UserAiQuota> rows = new ArrayList<>(batch.size());
+                for (int j = 0; j < batch.size(); j++) {
+                    UserAiQuota row = new UserAiQuota();
+                    row.setUserId(batch.get(j));
+                    // 计数器不存在说明已跨日/跨月或被重置
+                    row.setUsedDaily(parseCounter(counters, j * 2));
+                    row.setUsedMonthly(parseCounter(counters, j * 2 + 1));
+                    rows.add(row);
+                }
+                userAiQuotaMapper.batchUpdateUsage(rows, today);
+                writtenBackRows.addAndGet(rows.size());
+            } catch (Exception e) {
+                // 写回失败时放回待写回集合，下次重试
+                failedWriteBacks.incrementAndGet();
+                dirtyUsers.addAll(batch);
+                log.error("AI配额计数写回失败，将在下次重试: {}", e.getMessage());
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        writeBack();
+    }
+    
+    /**
+     * 获取计数器写回统计
+     */
+    private Map<String, Object> getWriteBackStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("dirtyUsers", dirtyUsers.size());
+        stats.put("writtenBackRows", writtenBackRows.get());
+        stats.put("failedWriteBacks", failedWriteBacks.get());
+        stats.put("refunded", refundedCount.get());
+        stats.put("cachedQuotas", quotaCache.estimatedSize());
+        return stats;
+    }
+    
+    private long deleteKeys(String pattern) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(1000).build();
+        List<String> batch = new ArrayList<>();
+        long deleted = 0;
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= BATCH_SIZE) {
+                    deleted += nullToZero(stringRedisTemplate.delete(batch));
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            deleted += nullToZero(stringRedisTemplate.delete(batch));
+        }
+        return deleted;
+    }
+    
+    private static String dailyKey(Long userId, LocalDate date) {
+        return DAILY_PREFIX + date.format(DAY_FORMAT) + ":" + userId;
+    }
+    
+    private static String monthlyKey(Long userId, LocalDate date) {
+        return MONTHLY_PREFIX + date.format(MONTH_FORMAT) + ":" + userId;
+    }
+    
+    private static long epochSecond(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+    }
+    
+    private static int parseCounter(List<String> counters, int index) {
+        String value = counters != null ? counters.get(index) : null;
+        return value != null ? Integer.parseInt(value) : 0;
+    }
+    
+    private static int nullToZero(Integer value) {
+        return value != null ? value : 0;
+    }
+    
+    private static long nullToZero(Long value) {
+        return value != null ? value : 0L;
+    }
+    
     /**
      * 获取客户端真实IP地址
      */
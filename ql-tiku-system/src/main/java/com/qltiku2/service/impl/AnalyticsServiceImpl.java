@@ -8,6 +8,7 @@ import com.qltiku2.service.AnalyticsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -35,6 +36,9 @@ public class AnalyticsServiceImpl implements AnalyticsService {
     @Autowired
     private WrongQuestionMapper wrongQuestionMapper;
     
+    @Autowired
+    private UserDailyStatsMapper userDailyStatsMapper;
+    
     @Override
     public Result<Map<String, Object>> getAnalyticsData(String dateRange, String subjectId) {
         try {
@@ -92,12 +96,8 @@ public class AnalyticsServiceImpl implements AnalyticsService {
             Long totalExams = answerRecordMapper.selectCount(examWrapper);
             stats.put("totalExams", totalExams);
             
-            // 活跃用户数（最近7天有答题记录的用户）
-            LocalDateTime sevenDaysAgo = LocalDateTime.now().minusDays(7);
-            QueryWrapper<AnswerRecord> activeWrapper = new QueryWrapper<>();
-            activeWrapper.ge("create_time", sevenDaysAgo);
-            activeWrapper.select("DISTINCT user_id");
-            Long activeUsers = answerRecordMapper.selectCount(activeWrapper);
+            // 活跃用户数（最近7天有答题记录的用户，读取每日汇总表）
+            Long activeUsers = userDailyStatsMapper.countActiveUsers(LocalDate.now().minusDays(7));
             stats.put("activeUsers", activeUsers);
             
             return Result.success(stats);
@@ -189,23 +189,25 @@ public class AnalyticsServiceImpl implements AnalyticsService {
         try {
             Map<String, Object> stats = new HashMap<>();
             
-            // 考试统计（最近7天的答题情况）
+            // 考试统计（最近7天的答题情况，一次读取每日汇总表）
             List<Map<String, Object>> examData = new ArrayList<>();
-            LocalDateTime now = LocalDateTime.now();
+            LocalDate today = LocalDate.now();
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM-dd");
             
+            Map<LocalDate, Long> dailyCounts = new HashMap<>();
+            for (Map<String, Object> row : userDailyStatsMapper.selectGlobalDaily(today.minusDays(6), today)) {
+                Object statDate = row.get("stat_date");
+                LocalDate date = statDate instanceof java.sql.Date
+                        ? ((java.sql.Date) statDate).toLocalDate() : LocalDate.parse(statDate.toString());
+                dailyCounts.put(date, ((Number) row.get("total_count")).longValue());
+            }
+            
             for (int i = 6; i >= 0; i--) {
-                LocalDateTime date = now.minusDays(i);
-                LocalDateTime startOfDay = date.withHour(0).withMinute(0).withSecond(0);
-                LocalDateTime endOfDay = date.withHour(23).withMinute(59).withSecond(59);
-                
-                QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-                wrapper.between("create_time", startOfDay, endOfDay);
-                Long count = answerRecordMapper.selectCount(wrapper);
+                LocalDate date = today.minusDays(i);
                 
                 Map<String, Object> dayData = new HashMap<>();
                 dayData.put("date", date.format(formatter));
-                dayData.put("count", count);
+                dayData.put("count", dailyCounts.getOrDefault(date, 0L));
                 examData.add(dayData);
             }
             
@@ -13,9 +13,10 @@ import com.qltiku2.dto.ExamSaveRequest;
 import com.qltiku2.dto.SimulationExamRequest;
 import com.qltiku2.entity.*;
 import com.qltiku2.mapper.*;
+import com.qltiku2.service.ExamGradingService;
 import com.qltiku2.service.ExamService;
 import com.qltiku2.service.QuestionService;
-import com.qltiku2.service.WrongBookService;
+import com.qltiku2.service.SimulationExamSessionService;
 import com.qltiku2.vo.ExamVO;
 import com.qltiku2.vo.QuestionVO;
 import org.springframework.beans.BeanUtils;
@@ -42,6 +43,11 @@ import java.util.stream.Collectors;
 @Service
 public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements ExamService {
     
+    /**
+     * 模拟考试每题分值
+     */
+    private static final int SIMULATION_SCORE_PER_QUESTION = 10;
+    
     @Resource
     private SubjectMapper subjectMapper;
     
@@ -61,7 +67,10 @@ public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements Ex
     private AnswerRecordMapper answerRecordMapper;
     
     @Resource
-    private WrongBookService wrongBookService;
+    private ExamGradingService examGradingService;
+    
+    @Resource
+    private SimulationExamSessionService simulationExamSessionService;
     
     @Override
     public IPage<ExamVO> pageExams(ExamQueryRequest queryRequest) {
@@ -551,78 +560,20 @@ public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements Ex
             throw new RuntimeException("固定试卷暂无题目");
         }
         
-        // 创建用户答案映射
-        Map<Long, AnswerSubmitRequest> answerMap = new HashMap<>();
-        if (answers != null) {
-            answerMap = answers.stream()
-                    .collect(Collectors.toMap(AnswerSubmitRequest::getQuestionId, answer -> answer));
-        }
+        // 批量判分并保存答题记录
+        ExamGradingService.GradingRequest gradingRequest = new ExamGradingService.GradingRequest();
+        gradingRequest.setUserId(userId);
+        gradingRequest.setExamId(examId);
+        gradingRequest.setPracticeType(4); // 4表示固定试卷考试模式
+        gradingRequest.setWrongType("EXAM_FIXED");
+        gradingRequest.setAnswers(answers);
+        gradingRequest.setPaper(examQuestions.stream()
+                .map(eq -> new ExamGradingService.PaperItem(eq.getQuestionId(), eq.getScore()))
+                .collect(Collectors.toList()));
+        ExamGradingService.GradingResult gradingResult = examGradingService.gradeAndSave(gradingRequest);
         
-        int totalScore = 0;
-        int correctCount = 0;
-        
-        // 为所有题目创建答题记录
-        for (ExamQuestion examQuestion : examQuestions) {
-            AnswerRecord record = new AnswerRecord();
-            record.setUserId(userId);
-            record.setQuestionId(examQuestion.getQuestionId());
-            record.setExamId(examId);
-            record.setPracticeType(4); // 4表示固定试卷考试模式
-            
-            // 获取用户答案
-            AnswerSubmitRequest userAnswer = answerMap.get(examQuestion.getQuestionId());
-            if (userAnswer != null) {
-                record.setUserAnswer(userAnswer.getUserAnswer());
-                record.setAnswerTime(userAnswer.getAnswerTime());
-            } else {
-                // 未答题目
-                record.setUserAnswer("");
-                record.setAnswerTime(0);
-            }
-            
-            // 获取题目信息进行判分
-            try {
-                // 直接从数据库获取题目信息，避免类型转换问题
-                Question question = questionMapper.selectById(examQuestion.getQuestionId());
-                if (question != null) {
-                    boolean isCorrect = false;
-                    if (userAnswer != null && userAnswer.getUserAnswer() != null && !userAnswer.getUserAnswer().trim().isEmpty()) {
-                        isCorrect = checkAnswerByQuestion(question, userAnswer.getUserAnswer());
-                    }
-                    
-                    record.setIsCorrect(isCorrect ? 1 : 0);
-                    record.setScore(isCorrect ? examQuestion.getScore() : 0);
-                    
-                    totalScore += record.getScore();
-                    if (isCorrect) {
-                        correctCount++;
-                    } else {
-                        // 添加到错题本（包括未答题目）
-                        try {
-                            String wrongAnswer = userAnswer != null ? userAnswer.getUserAnswer() : "";
-                            wrongBookService.addWrongQuestion(userId, examQuestion.getQuestionId(), wrongAnswer, "EXAM_FIXED");
-                        } catch (Exception e) {
-                            // 记录日志但不影响主流程
-                            System.err.println("添加错题失败: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // 如果无法获取题目信息，标记为错误
-                    record.setIsCorrect(0);
-                    record.setScore(0);
-                    System.err.println("获取题目信息失败，题目ID: " + examQuestion.getQuestionId() + ", 题目不存在");
-                }
-            } catch (Exception e) {
-                System.err.println("获取题目信息失败，题目ID: " + examQuestion.getQuestionId() + ", 错误: " + e.getMessage());
-                e.printStackTrace();
-                // 如果无法获取题目信息，标记为错误
-                record.setIsCorrect(0);
-                record.setScore(0);
-            }
-            
-            record.setCreateTime(LocalDateTime.now());
-            answerRecordMapper.insert(record);
-        }
+        int totalScore = gradingResult.getTotalScore();
+        int correctCount = gradingResult.getCorrectCount();
         
         // 计算准确率和是否通过（基于总题目数）
         int totalQuestions = examQuestions.size();
@@ -733,80 +684,24 @@ public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements Ex
             throw new RuntimeException("考试暂无题目");
         }
         
-        // 创建用户答案映射
-        Map<Long, AnswerSubmitRequest> answerMap = new HashMap<>();
-        if (answers != null) {
-            answerMap = answers.stream()
-                    .collect(Collectors.toMap(AnswerSubmitRequest::getQuestionId, answer -> answer));
-        }
-        
-        int totalScore = 0;
-        int correctCount = 0;
         int totalQuestions = examQuestions.size();
-        
-        // 为所有题目创建答题记录
-        for (ExamQuestion examQuestion : examQuestions) {
-            AnswerRecord record = new AnswerRecord();
-            record.setUserId(userId);
-            record.setQuestionId(examQuestion.getQuestionId());
-            record.setExamId(examId);
-            record.setPracticeType(2); // 考试模式
-            
-            // 获取用户答案
-            AnswerSubmitRequest userAnswer = answerMap.get(examQuestion.getQuestionId());
-            if (userAnswer != null) {
-                record.setUserAnswer(userAnswer.getUserAnswer());
-                record.setAnswerTime(userAnswer.getAnswerTime());
-            } else {
-                // 未答题目
-                record.setUserAnswer("");
-                record.setAnswerTime(0);
-            }
-            
-            // 获取题目信息进行判分
-            // 获取题目信息进行判分
-            try {
-                // 直接从数据库获取题目信息，避免类型转换问题
-                Question question = questionMapper.selectById(examQuestion.getQuestionId());
-                if (question != null) {
-                    boolean isCorrect = false;
-                    if (userAnswer != null && userAnswer.getUserAnswer() != null && !userAnswer.getUserAnswer().trim().isEmpty()) {
-                        isCorrect = checkAnswerByQuestion(question, userAnswer.getUserAnswer());
-                    }
-                    
-                    record.setIsCorrect(isCorrect ? 1 : 0);
-                    
-                    if (isCorrect) {
-                        correctCount++;
-                        // 简单计分：每题分值 = 总分 / 题目数
-                        record.setScore(exam.getTotalScore() / totalQuestions);
-                        totalScore += record.getScore();
-                    } else {
-                        record.setScore(0);
-                        // 添加到错题本（包括未答题目）
-                        try {
-                            String wrongAnswer = userAnswer != null ? userAnswer.getUserAnswer() : "";
-                            wrongBookService.addWrongQuestion(userId, examQuestion.getQuestionId(), wrongAnswer, "EXAM_CUSTOM");
-                        } catch (Exception e) {
-                            // 记录日志但不影响主流程
-                            System.err.println("添加错题失败: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // 如果无法获取题目信息，标记为错误
-                    record.setIsCorrect(0);
-                    record.setScore(0);
-                    System.err.println("获取题目信息失败，题目ID: " + examQuestion.getQuestionId() + ", 题目不存在");
-                }
-            } catch (Exception e) {
-                System.err.println("获取题目信息失败，题目ID: " + examQuestion.getQuestionId() + ", 错误: " + e.getMessage());
-                e.printStackTrace();
-                record.setIsCorrect(0);
-                record.setScore(0);
-            }
-            
-            answerRecordMapper.insert(record);
-        }
+        // 简单计分：每题分值 = 总分 / 题目数
+        int scorePerQuestion = exam.getTotalScore() / totalQuestions;
+        
+        // 批量判分并保存答题记录
+        ExamGradingService.GradingRequest gradingRequest = new ExamGradingService.GradingRequest();
+        gradingRequest.setUserId(userId);
+        gradingRequest.setExamId(examId);
+        gradingRequest.setPracticeType(2); // 考试模式
+        gradingRequest.setWrongType("EXAM_CUSTOM");
+        gradingRequest.setAnswers(answers);
+        gradingRequest.setPaper(examQuestions.stream()
+                .map(eq -> new ExamGradingService.PaperItem(eq.getQuestionId(), scorePerQuestion))
+                .collect(Collectors.toList()));
+        ExamGradingService.GradingResult gradingResult = examGradingService.gradeAndSave(gradingRequest);
+        
+        int totalScore = gradingResult.getTotalScore();
+        int correctCount = gradingResult.getCorrectCount();
         
         Map<String, Object> result = new HashMap<>();
         result.put("examId", examId);
@@ -1355,78 +1250,6 @@ public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements Ex
         return result;
     }
     
-    /**
-     * 检查答案是否正确 - 使用QuestionVO
-     */
-    private boolean checkAnswer(QuestionVO question, String userAnswer) {
-        if (userAnswer == null || userAnswer.trim().isEmpty()) {
-            return false;
-        }
-        
-        String correctAnswer = question.getCorrectAnswer();
-        if (correctAnswer == null) {
-            return false;
-        }
-        
-        // 根据题目类型进行不同的判分逻辑
-        switch (question.getQuestionType()) {
-            case 0: // 单选题
-            case 2: // 判断题
-                return correctAnswer.equals(userAnswer.trim());
-            case 1: // 多选题
-                // 多选题答案格式：A,B,C
-                String[] correctOptions = correctAnswer.split(",");
-                String[] userOptions = userAnswer.split(",");
-                Arrays.sort(correctOptions);
-                Arrays.sort(userOptions);
-                return Arrays.equals(correctOptions, userOptions);
-            case 3: // 填空题
-                // 填空题进行简单的字符串匹配（忽略大小写和前后空格）
-                return correctAnswer.trim().equalsIgnoreCase(userAnswer.trim());
-            case 4: // 简答题
-                // 简答题暂时不自动判分，返回false表示需要人工判分
-                return false;
-            default:
-                return false;
-        }
-    }
-    
-    /**
-     * 检查答案是否正确 - 使用Question实体
-     */
-    private boolean checkAnswerByQuestion(Question question, String userAnswer) {
-        if (userAnswer == null || userAnswer.trim().isEmpty()) {
-            return false;
-        }
-        
-        String correctAnswer = question.getCorrectAnswer();
-        if (correctAnswer == null) {
-            return false;
-        }
-        
-        // 根据题目类型进行不同的判分逻辑
-        switch (question.getQuestionType()) {
-            case 0: // 单选题
-            case 2: // 判断题
-                return correctAnswer.equals(userAnswer.trim());
-            case 1: // 多选题
-                // 多选题答案格式：A,B,C
-                String[] correctOptions = correctAnswer.split(",");
-                String[] userOptions = userAnswer.split(",");
-                Arrays.sort(correctOptions);
-                Arrays.sort(userOptions);
-                return Arrays.equals(correctOptions, userOptions);
-            case 3: // 填空题
-                // 填空题进行简单的字符串匹配（忽略大小写和前后空格）
-                return correctAnswer.trim().equalsIgnoreCase(userAnswer.trim());
-            case 4: // 简答题
-                // 简答题暂时不自动判分，返回false表示需要人工判分
-                return false;
-            default:
-                return false;
-        }
-    }
-    
     @Override
     public Map<String, Object> createSimulationExam(SimulationExamRequest request, Long userId) {
         try {
@@ -1476,9 +1299,14 @@ public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements Ex
                 throw new RuntimeException("题目数量不足，只找到 " + questions.size() + " 道题目");
             }
             
+            // 使用时间戳作为临时考试ID，并在服务端保存试卷快照用于交卷判分
+            String examId = "simulation_" + System.currentTimeMillis();
+            simulationExamSessionService.saveSnapshot(userId, examId, request.getSubjectId(), questions,
+                    SIMULATION_SCORE_PER_QUESTION, request.getDuration());
+            
             // 创建临时考试会话信息，包含所有题目用于全卷预览
             Map<String, Object> result = new HashMap<>();
-            result.put("examId", "simulation_" + System.currentTimeMillis()); // 使用时间戳作为临时考试ID
+            result.put("examId", examId);
             result.put("subjectName", subject.getName());
             result.put("duration", request.getDuration());
             result.put("questionCount", questions.size());
@@ -1507,124 +1335,50 @@ public class ExamServiceImpl extends ServiceImpl<ExamMapper, Exam> implements Ex
             throw new RuntimeException("您已经提交过此模拟考试");
         }
         
-        // 从examId中提取题目数量信息（examId格式：simulation_timestamp_questionCount）
-        // 如果无法提取，则使用默认值或从答案中推断
-        int totalQuestions = 20; // 默认题目数量
-        try {
-            // 尝试从examId中提取题目数量（如果前端传递了这个信息）
-            // 这里暂时使用默认值，后续可以优化
-            if (answers != null && !answers.isEmpty()) {
-                // 如果有答案，可以从答案中获取题目ID的最大值来推断题目数量
-                // 但这种方法不够准确，建议前端在创建模拟考试时传递题目数量
-                totalQuestions = Math.max(totalQuestions, answers.size());
+        ExamGradingService.GradingRequest gradingRequest = new ExamGradingService.GradingRequest();
+        gradingRequest.setUserId(userId);
+        gradingRequest.setExamId(-1L); // 模拟考试使用-1作为examId
+        gradingRequest.setPracticeType(3); // 模拟考试模式
+        gradingRequest.setRemark(examId); // 使用remark字段存储模拟考试ID
+        gradingRequest.setWrongType("EXAM_CUSTOM");
+        gradingRequest.setAnswers(answers);
+        
+        // 领取创建时保存的试卷快照，并发重复交卷时只有领取成功的请求判分
+        SimulationExamSessionService.Snapshot snapshot = simulationExamSessionService.claimSnapshot(userId, examId);
+        if (snapshot == null) {
+            throw new RuntimeException("您已经提交过此模拟考试");
+        }
+        List<ExamGradingService.PaperItem> paper = new ArrayList<>();
+        if (!snapshot.isEmpty()) {
+            for (Long questionId : snapshot.getQuestionIds()) {
+                paper.add(new ExamGradingService.PaperItem(questionId, snapshot.getScore(questionId)));
             }
-        } catch (Exception e) {
-            // 使用默认值
-            totalQuestions = 20;
-        }
-        
-        // 创建用户答案映射
-        Map<Long, AnswerSubmitRequest> answerMap = new HashMap<>();
-        if (answers != null) {
-            answerMap = answers.stream()
-                    .collect(Collectors.toMap(AnswerSubmitRequest::getQuestionId, answer -> answer));
-            // 如果有答案，尝试从题目ID推断总题目数
-            if (!answers.isEmpty()) {
-                Long maxQuestionId = answers.stream()
+            gradingRequest.setQuestions(snapshot.getQuestions());
+        } else {
+            // 快照已过期或不存在，仅对已作答的题目判分，不存在的题目直接跳过
+            if (answers != null) {
+                answers.stream()
                         .map(AnswerSubmitRequest::getQuestionId)
-                        .max(Long::compareTo)
-                        .orElse(0L);
-                // 假设题目ID是连续的，从1开始
-                totalQuestions = Math.max(totalQuestions, maxQuestionId.intValue());
+                        .filter(Objects::nonNull)
+                        .distinct()
+                        .forEach(questionId -> paper.add(
+                                new ExamGradingService.PaperItem(questionId, SIMULATION_SCORE_PER_QUESTION)));
             }
+            gradingRequest.setSkipMissingQuestions(true);
         }
-        
-        int totalScore = 0;
-        int correctCount = 0;
-        
-        // 为所有题目创建答题记录（基于推断的题目数量）
-        for (int i = 1; i <= totalQuestions; i++) {
-            Long questionId = (long) i;
-            AnswerSubmitRequest userAnswer = answerMap.get(questionId);
-            
-            // 如果没有这个题目的答案，但有其他题目的答案，说明这个题目确实存在但未作答
-            // 如果完全没有答案，我们只为已知的题目创建记录
-            if (userAnswer == null && answers != null && !answers.isEmpty()) {
-                // 检查这个questionId是否在答案列表中出现过
-                boolean questionExists = answers.stream()
-                        .anyMatch(a -> a.getQuestionId().equals(questionId));
-                if (!questionExists && i > answers.size()) {
-                    // 如果这个题目ID没有在答案中出现，且超出了答案数量，跳过
-                    continue;
-                }
-            }
-            
-            AnswerRecord record = new AnswerRecord();
-            record.setUserId(userId);
-            record.setQuestionId(questionId);
-            record.setExamId(-1L); // 模拟考试使用-1作为examId
-            record.setPracticeType(3); // 模拟考试模式
-            record.setRemark(examId); // 使用remark字段存储模拟考试ID
-            
-            if (userAnswer != null) {
-                record.setUserAnswer(userAnswer.getUserAnswer());
-                record.setAnswerTime(userAnswer.getAnswerTime());
-            } else {
-                // 未答题目
-                record.setUserAnswer("");
-                record.setAnswerTime(0);
-            }
-            
-            // 获取题目信息进行判分
-            try {
-                // 使用QuestionService获取题目信息，避免类型转换问题
-                Result<QuestionVO> questionResult = questionService.getQuestionById(questionId);
-                if (questionResult != null && questionResult.isSuccess() && questionResult.getData() != null) {
-                    QuestionVO questionVO = questionResult.getData();
-                    boolean isCorrect = false;
-                    if (userAnswer != null && userAnswer.getUserAnswer() != null && !userAnswer.getUserAnswer().trim().isEmpty()) {
-                        isCorrect = checkAnswer(questionVO, userAnswer.getUserAnswer());
-                    }
-                    
-                    record.setIsCorrect(isCorrect ? 1 : 0);
-                    
-                    if (isCorrect) {
-                        correctCount++;
-                        // 简单计分：每题10分
-                        record.setScore(10);
-                        totalScore += record.getScore();
-                    } else {
-                        record.setScore(0);
-                        // 添加到错题本（包括未答题目）
-                        try {
-                            String wrongAnswer = userAnswer != null ? userAnswer.getUserAnswer() : "";
-                            wrongBookService.addWrongQuestion(userId, questionId, wrongAnswer, "EXAM_CUSTOM");
-                        } catch (Exception e) {
-                            // 记录日志但不影响主流程
-                            System.err.println("添加错题失败: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    // 如果题目不存在，跳过这条记录
-                    System.err.println("获取模拟考试题目失败，题目ID: " + questionId + ", 题目不存在或服务调用失败");
-                    continue;
-                }
-            } catch (Exception e) {
-                System.err.println("获取模拟考试题目失败，题目ID: " + questionId + ", 错误: " + e.getMessage());
-                e.printStackTrace();
-                continue;
-            }
-            
-            answerRecordMapper.insert(record);
+        gradingRequest.setPaper(paper);
+        ExamGradingService.GradingResult gradingResult;
+        try {
+            gradingResult = examGradingService.gradeAndSave(gradingRequest);
+        } catch (RuntimeException e) {
+            // 判分失败时恢复快照，允许重新交卷
+            simulationExamSessionService.releaseClaim(userId, examId, snapshot);
+            throw e;
         }
         
-        // 重新计算实际的题目数量（基于成功插入的记录）
-        LambdaQueryWrapper<AnswerRecord> countWrapper = new LambdaQueryWrapper<>();
-        countWrapper.eq(AnswerRecord::getUserId, userId)
-                   .eq(AnswerRecord::getExamId, -1L)
-                   .eq(AnswerRecord::getPracticeType, 3)
-                   .eq(AnswerRecord::getRemark, examId);
-        totalQuestions = Math.toIntExact(answerRecordMapper.selectCount(countWrapper));
+        int totalScore = gradingResult.getTotalScore();
+        int correctCount = gradingResult.getCorrectCount();
+        int totalQuestions = gradingResult.getRecords().size();
         
         Map<String, Object> result = new HashMap<>();
         result.put("examId", examId);
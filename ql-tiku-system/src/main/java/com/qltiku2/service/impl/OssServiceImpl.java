@@ -2,15 +2,18 @@ package com.qltiku2.service.impl;
 
 import com.aliyun.oss.OSS;
 import com.aliyun.oss.OSSClientBuilder;
+import com.aliyun.oss.model.ObjectMetadata;
 import com.aliyun.oss.model.PutObjectRequest;
+import com.aliyun.oss.model.PutObjectResult;
 import com.qltiku2.service.OssService;
+import com.qltiku2.utils.HashingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.UUID;
@@ -69,9 +72,6 @@ public class OssServiceImpl implements OssService {
         OSS ossClient = new OSSClientBuilder().build(endpoint, accessKeyId, accessKeySecret);
         
         try {
-            // 获取文件输入流
-            InputStream inputStream = file.getInputStream();
-            
             // 生成文件名
             String originalFilename = file.getOriginalFilename();
             String extension = "";
@@ -92,11 +92,8 @@ public class OssServiceImpl implements OssService {
             // 生成唯一文件名：avatar/年/月/日/时间戳_UUID.扩展名
             String fileName = "avatar/" + datePath + "/" + timestamp + "_" + uuid + extension;
             
-            // 创建上传请求
-            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, inputStream);
-            
             // 上传文件
-            ossClient.putObject(putObjectRequest);
+            putObject(ossClient, fileName, file);
             
             // 返回文件访问URL
             String url = urlPrefix + "/" + fileName;
@@ -133,9 +130,6 @@ public class OssServiceImpl implements OssService {
         OSS ossClient = new OSSClientBuilder().build(endpoint, accessKeyId, accessKeySecret);
         
         try {
-            // 获取文件输入流
-            InputStream inputStream = file.getInputStream();
-            
             // 生成文件名
             String originalFilename = file.getOriginalFilename();
             String extension = "";
@@ -152,11 +146,8 @@ public class OssServiceImpl implements OssService {
             // 生成唯一文件名：logo/时间戳_UUID.扩展名
             String fileName = "logo/" + timestamp + "_" + uuid + extension;
             
-            // 创建上传请求
-            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, inputStream);
-            
             // 上传文件
-            ossClient.putObject(putObjectRequest);
+            putObject(ossClient, fileName, file);
             
             // 返回文件访问URL
             String url = urlPrefix + "/" + fileName;
@@ -193,14 +184,8 @@ public class OssServiceImpl implements OssService {
         OSS ossClient = new OSSClientBuilder().build(endpoint, accessKeyId, accessKeySecret);
         
         try {
-            // 获取文件输入流
-            InputStream inputStream = file.getInputStream();
-            
-            // 创建上传请求
-            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, inputStream);
-            
             // 上传文件
-            ossClient.putObject(putObjectRequest);
+            putObject(ossClient, fileName, file);
             
             // 返回文件访问URL
             String url = urlPrefix + "/" + fileName;
@@ -270,9 +255,6 @@ public class OssServiceImpl implements OssService {
         OSS ossClient = new OSSClientBuilder().build(endpoint, accessKeyId, accessKeySecret);
         
         try {
-            // 获取文件输入流
-            InputStream inputStream = file.getInputStream();
-            
             // 生成文件名
             String originalFilename = file.getOriginalFilename();
             String extension = "";
@@ -293,11 +275,8 @@ public class OssServiceImpl implements OssService {
             // 生成唯一文件名：question/年/月/日/时间戳_UUID.扩展名
             String fileName = "question/" + datePath + "/" + timestamp + "_" + uuid + extension;
             
-            // 创建上传请求
-            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, fileName, inputStream);
-            
             // 上传文件
-            ossClient.putObject(putObjectRequest);
+            putObject(ossClient, fileName, file);
             
             // 返回文件访问URL
             String url = urlPrefix + "/" + fileName;
@@ -309,4 +288,26 @@ public class OssServiceImpl implements OssService {
             ossClient.shutdown();
         }
     }
+    
+    /**
+     * 流式上传：声明内容长度后SDK边读边发送，不缓冲整个文件；
+     * 发送的同时计算MD5，与OSS返回的ETag（简单上传时即内容MD5）比对
+     */
+    private void putObject(OSS ossClient, String fileName, MultipartFile file) throws IOException {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(file.getSize());
+        if (file.getContentType() != null) {
+            metadata.setContentType(file.getContentType());
+        }
+        
+        try (HashingInputStream inputStream = new HashingInputStream(file.getInputStream())) {
+            PutObjectResult result = ossClient.putObject(new PutObjectRequest(bucketName, fileName, inputStream, metadata));
+            String md5 = inputStream.getMd5Hex();
+            if (result.getETag() != null && !result.getETag().equalsIgnoreCase(md5)) {
+                ossClient.deleteObject(bucketName, fileName);
+                throw new IOException("OSS上传内容校验失败: " + fileName);
+            }
+            logger.info("OSS上传完成: {}, {} bytes, md5={}", fileName, inputStream.getCount(), md5);
+        }
+    }
 }
\ No newline at end of file
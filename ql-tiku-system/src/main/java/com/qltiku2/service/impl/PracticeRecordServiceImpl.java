@@ -6,6 +6,7 @@ import com.qltiku2.entity.AnswerRecord;
 import com.qltiku2.entity.PracticeRecord;
 import com.qltiku2.mapper.AnswerRecordMapper;
 import com.qltiku2.mapper.PracticeRecordMapper;
+import com.qltiku2.service.LearningStatsRollupService;
 import com.qltiku2.service.PracticeRecordService;
 import com.qltiku2.service.WrongBookService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,6 +30,9 @@ public class PracticeRecordServiceImpl extends ServiceImpl<PracticeRecordMapper,
     @Autowired
     private WrongBookService wrongBookService;
     
+    @Autowired
+    private LearningStatsRollupService learningStatsRollupService;
+    
     @Override
     public Page<PracticeRecord> getPracticeRecordPage(Integer page, Integer size, Long userId,
                                                      Long subjectId, Integer questionType, Integer difficulty) {
@@ -135,6 +139,7 @@ public class PracticeRecordServiceImpl extends ServiceImpl<PracticeRecordMapper,
             
             int result = answerRecordMapper.insert(answerRecord);
             System.out.println("插入结果: " + result + ", 记录ID: " + answerRecord.getId());
+            learningStatsRollupService.recordAnswer(answerRecord);
             
             // 如果答错了，添加到错题本
             if (isCorrect != null && !isCorrect) {
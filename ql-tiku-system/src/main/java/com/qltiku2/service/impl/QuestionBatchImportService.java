@@ -7,6 +7,7 @@ import com.qltiku2.entity.Question;
 import com.qltiku2.entity.SysUser;
 import com.qltiku2.mapper.QuestionMapper;
 import com.qltiku2.mapper.SysUserMapper;
+import com.qltiku2.service.QuestionSampler;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -38,6 +39,9 @@ public class QuestionBatchImportService {
     @Autowired
     private StringRedisTemplate redisTemplate;
     
+    @Autowired
+    private QuestionSampler questionSampler;
+    
     private static final String IMPORT_LIMIT_KEY = "question:import:limit:";
     private static final String IMPORT_CACHE_KEY = "question:import:cache:";
     private static final int MAX_IMPORT_PER_HOUR = 5000; // 每小时最多导入5000道题目
@@ -108,6 +112,8 @@ public class QuestionBatchImportService {
                         
                         // 插入数据库
                         questionMapper.insert(question);
+                        questionSampler.upsert(question.getId(), question.getSubjectId(),
+                                question.getQuestionType(), question.getDifficulty());
                         successCount++;
                         
                         // 缓存题目信息（可选，用于快速查询）
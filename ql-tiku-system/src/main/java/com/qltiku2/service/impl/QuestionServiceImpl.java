@@ -21,13 +21,17 @@ import com.qltiku2.mapper.SysUserMapper;
 import com.qltiku2.mapper.PracticeRecordMapper;
 import com.qltiku2.mapper.PracticeSessionQuestionMapper;
 import com.qltiku2.entity.PracticeRecord;
-import com.qltiku2.service.AiChatService;
+import com.qltiku2.service.AiGradingEngine;
+import com.qltiku2.service.AnswerGradingEngine;
+import com.qltiku2.service.LearningStatsRollupService;
 import com.qltiku2.service.PracticeCacheService;
+import com.qltiku2.service.QuestionSampler;
 import com.qltiku2.service.QuestionService;
 import com.qltiku2.service.SysConfigService;
 import com.qltiku2.service.AiGradingRecordService;
 import com.qltiku2.entity.AiGradingRecord;
 import com.qltiku2.utils.QuestionCacheUtils;
+import com.qltiku2.utils.UserContext;
 import com.qltiku2.vo.AnswerSubmitResponse;
 import com.qltiku2.vo.QuestionVO;
 import org.slf4j.Logger;
@@ -44,7 +48,6 @@ import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.Collections;
-import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -69,15 +72,15 @@ public class QuestionServiceImpl implements QuestionService {
     @Autowired
     private SubjectMapper subjectMapper;
     
-    @Autowired
-    private AiChatService aiChatService;
-    
     @Autowired
     private SysConfigService sysConfigService;
     
     @Autowired
     private AiGradingRecordService aiGradingRecordService;
     
+    @Autowired
+    private AiGradingEngine aiGradingEngine;
+    
     @Autowired
     private PracticeRecordMapper practiceRecordMapper;
     
@@ -89,6 +92,15 @@ public class QuestionServiceImpl implements QuestionService {
 
     @Autowired
     private PracticeCacheService practiceCacheService;
+    
+    @Autowired
+    private QuestionSampler questionSampler;
+
+    @Autowired
+    private AnswerGradingEngine answerGradingEngine;
+
+    @Autowired
+    private LearningStatsRollupService learningStatsRollupService;
 
     /**
      * 生成题目ID缓存
@@ -102,8 +114,18 @@ public class QuestionServiceImpl implements QuestionService {
     private void generateQuestionIdCache(Long userId, Long subjectId, Integer questionType, 
                                        Integer difficulty, String mode) {
         try {
-            // 构建查询条件
+            // 获取已做过的题目ID
+            Set<Long> answeredQuestionIds = loadAnsweredQuestionIds(userId);
+            
+            // 随机模式：只生成种子和游标，题目顺序由共享ID数组按种子置换得到，已做过的题目在取题时跳过
+            if ("random".equals(mode)) {
+                practiceCacheService.startRandomSession(userId, subjectId, questionType, difficulty, answeredQuestionIds);
+                return;
+            }
+            
+            // 构建查询条件（只查询ID列）
             QueryWrapper<Question> queryWrapper = new QueryWrapper<>();
+            queryWrapper.select("id");
             queryWrapper.eq("deleted", 0);
             
             if (subjectId != null) {
@@ -118,21 +140,6 @@ public class QuestionServiceImpl implements QuestionService {
                 queryWrapper.eq("difficulty", difficulty);
             }
             
-            // 获取当前用户最新的进行中的练习记录
-            QueryWrapper<PracticeRecord> practiceWrapper = new QueryWrapper<>();
-            practiceWrapper.eq("user_id", userId)
-                          .eq("status", 1) // 进行中状态
-                          .orderByDesc("create_time")
-                          .last("LIMIT 1");
-            PracticeRecord currentPractice = practiceRecordMapper.selectOne(practiceWrapper);
-            
-            // 获取已做过的题目ID
-            Set<Long> answeredQuestionIds = new HashSet<>();
-            if (currentPractice != null) {
-                List<Long> answeredIds = questionMapper.selectAnsweredQuestionIds(currentPractice.getId());
-                answeredQuestionIds.addAll(answeredIds);
-            }
-            
             // 查询所有符合条件的题目
             List<Question> questions = questionMapper.selectList(queryWrapper);
             
@@ -150,14 +157,8 @@ public class QuestionServiceImpl implements QuestionService {
                 return;
             }
             
-            // 根据模式处理题目ID顺序
-            if ("random".equals(mode)) {
-                // 随机模式：使用Set去重后随机排序
-                Collections.shuffle(questionIds, new Random());
-            } else {
-                // 顺序模式：按ID升序排列
-                Collections.sort(questionIds);
-            }
+            // 顺序模式：按ID升序排列
+            Collections.sort(questionIds);
             
             // 缓存题目ID数组
             practiceCacheService.cacheQuestionIds(userId, subjectId, questionType, difficulty, mode, questionIds);
@@ -166,6 +167,26 @@ public class QuestionServiceImpl implements QuestionService {
             log.error("生成题目ID缓存失败", e);
         }
     }
+    
+    /**
+     * 获取用户当前进行中的练习里已做过的题目ID
+     */
+    private Set<Long> loadAnsweredQuestionIds(Long userId) {
+        // 获取当前用户最新的进行中的练习记录
+        QueryWrapper<PracticeRecord> practiceWrapper = new QueryWrapper<>();
+        practiceWrapper.eq("user_id", userId)
+                      .eq("status", 1) // 进行中状态
+                      .orderByDesc("create_time")
+                      .last("LIMIT 1");
+        PracticeRecord currentPractice = practiceRecordMapper.selectOne(practiceWrapper);
+        
+        Set<Long> answeredQuestionIds = new HashSet<>();
+        if (currentPractice != null) {
+            List<Long> answeredIds = questionMapper.selectAnsweredQuestionIds(currentPractice.getId());
+            answeredQuestionIds.addAll(answeredIds);
+        }
+        return answeredQuestionIds;
+    }
 
     @Override
     public Result<IPage<QuestionVO>> getQuestionPage(QuestionQueryRequest request) {
@@ -302,27 +323,10 @@ public class QuestionServiceImpl implements QuestionService {
     @Override
     public Result<QuestionVO> getQuestionById(Long id) {
         try {
-            // 构建缓存键
-            String cacheKey = "id:" + id;
-            
-            // 尝试从缓存获取 - 直接获取Object避免类型转换问题
-            Object cachedObj = questionCache.get(cacheKey);
-            if (cachedObj != null) {
-                if (cachedObj instanceof Result) {
-                    Result<?> result = (Result<?>) cachedObj;
-                    if (result.getData() instanceof QuestionVO) {
-                        return (Result<QuestionVO>) cachedObj;
-                    } else if (result.getData() instanceof java.util.LinkedHashMap) {
-                        // 处理LinkedHashMap转换为QuestionVO的情况
-                        java.util.LinkedHashMap<?, ?> map = (java.util.LinkedHashMap<?, ?>) result.getData();
-                        String json = new ObjectMapper().writeValueAsString(map);
-                        QuestionVO questionVO = new ObjectMapper().readValue(json, QuestionVO.class);
-                        return Result.success(questionVO);
-                    }
-                }
-                
-                // 如果缓存数据格式不正确，删除缓存并重新获取
-                questionCache.delete(cacheKey);
+            // 先查两级缓存
+            QuestionVO cached = questionCache.getQuestion(id);
+            if (cached != null) {
+                return Result.success(cached);
             }
             
             // 缓存未命中，执行查询
@@ -332,12 +336,11 @@ public class QuestionServiceImpl implements QuestionService {
             }
             
             QuestionVO questionVO = convertToVO(question);
-            Result<QuestionVO> result = Result.success(questionVO);
             
             // 将结果存入缓存
-            questionCache.set(cacheKey, result);
+            questionCache.setQuestion(questionVO);
             
-            return result;
+            return Result.success(questionVO);
             
         } catch (Exception e) {
             log.error("获取题目详情失败", e);
@@ -383,6 +386,9 @@ public class QuestionServiceImpl implements QuestionService {
             // 保存题目
             int result = questionMapper.insert(question);
             if (result > 0) {
+                questionSampler.upsert(question.getId(), question.getSubjectId(),
+                        question.getQuestionType(), question.getDifficulty());
+                
                 // 清除相关缓存
                 questionCache.deleteByPrefix("page:");
                 questionCache.deleteByPrefix("random:");
@@ -446,8 +452,14 @@ public class QuestionServiceImpl implements QuestionService {
             // 更新题目
             int result = questionMapper.updateById(question);
             if (result > 0) {
+                questionSampler.upsert(id,
+                        question.getSubjectId() != null ? question.getSubjectId() : existingQuestion.getSubjectId(),
+                        question.getQuestionType() != null ? question.getQuestionType() : existingQuestion.getQuestionType(),
+                        question.getDifficulty() != null ? question.getDifficulty() : existingQuestion.getDifficulty());
+                
                 // 清除特定ID的缓存
-                questionCache.delete("id:" + id);
+                questionCache.evictQuestion(id);
+                answerGradingEngine.evict(id);
                 
                 // 清除可能包含此题目的列表缓存
                 questionCache.deleteByPrefix("page:");
@@ -490,8 +502,11 @@ public class QuestionServiceImpl implements QuestionService {
             // 删除题目（逻辑删除）
             int result = questionMapper.deleteById(id);
             if (result > 0) {
+                questionSampler.remove(id);
+                
                 // 清除特定ID的缓存
-                questionCache.delete("id:" + id);
+                questionCache.evictQuestion(id);
+                answerGradingEngine.evict(id);
                 
                 // 清除可能包含此题目的列表缓存
                 questionCache.deleteByPrefix("page:");
@@ -533,7 +548,9 @@ public class QuestionServiceImpl implements QuestionService {
             if (result > 0) {
                 // 清除每个ID的缓存
                 for (Long id : ids) {
-                    questionCache.delete("id:" + id);
+                    questionSampler.remove(id);
+                    questionCache.evictQuestion(id);
+                    answerGradingEngine.evict(id);
                 }
                 
                 // 清除可能包含这些题目的列表缓存
@@ -558,45 +575,12 @@ public class QuestionServiceImpl implements QuestionService {
     public Result<List<QuestionVO>> getRandomQuestions(Long subjectId, Integer questionType, 
                                                      Integer difficulty, Integer count) {
         try {
-            // 构建缓存键
-            String cacheKey = "random:" + (subjectId != null ? subjectId : "all") + "_" 
-                            + (questionType != null ? questionType : "all") + "_" 
-                            + (difficulty != null ? difficulty : "all") + "_" 
-                            + count;
-            
-            // 尝试从缓存获取
-            Result<List<QuestionVO>> cachedResult = questionCache.get(cacheKey, Result.class);
-            if (cachedResult != null) {
-                return cachedResult;
-            }
-            
-            // 缓存未命中，执行查询
-            // 构建查询条件
-            QueryWrapper<Question> queryWrapper = new QueryWrapper<>();
-            if (subjectId != null) {
-                queryWrapper.eq("subject_id", subjectId);
-            }
-            if (questionType != null) {
-                queryWrapper.eq("question_type", questionType);
-            }
-            if (difficulty != null) {
-                queryWrapper.eq("difficulty", difficulty);
-            }
-            
-            // 随机排序并限制数量
-            queryWrapper.orderByAsc("RAND()").last("LIMIT " + count);
-            
-            List<Question> questions = questionMapper.selectList(queryWrapper);
-            List<QuestionVO> questionVOs = questions.stream()
-                .map(this::convertToVO)
-                .collect(Collectors.toList());
-            
-            Result<List<QuestionVO>> result = Result.success(questionVOs);
-            
-            // 将结果存入缓存
-            questionCache.set(cacheKey, result);
-            
-            return result;
+            // 内存索引抽取ID，再一次性批量查询（每次请求独立随机，不再缓存结果）
+            List<Long> ids = questionSampler.sample(subjectId,
+                    questionType != null ? Collections.singletonList(questionType) : null,
+                    difficulty != null ? Collections.singletonList(difficulty) : null,
+                    count);
+            return Result.success(loadQuestionsInOrder(ids));
             
         } catch (Exception e) {
             log.error("获取随机题目失败", e);
@@ -836,7 +820,7 @@ public class QuestionServiceImpl implements QuestionService {
             }
             
             // 判断答案是否正确
-            boolean isCorrect = checkAnswer(question, request.getUserAnswer());
+            boolean isCorrect = answerGradingEngine.grade(question, request.getUserAnswer());
             
             // 获取当前用户ID
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -856,6 +840,7 @@ public class QuestionServiceImpl implements QuestionService {
                     record.setCreateTime(LocalDateTime.now());
                     
                     answerRecordMapper.insert(record);
+                    learningStatsRollupService.recordAnswer(record);
                     
                     // 将题目ID记录到练习会话中（用于随机不重复）
                     // 获取当前用户最新的进行中的练习记录
@@ -894,338 +879,20 @@ public class QuestionServiceImpl implements QuestionService {
         }
     }
     
-    /**
-     * 检查答案是否正确
-     */
-    private boolean checkAnswer(Question question, String userAnswer) {
-        if (userAnswer == null || question.getCorrectAnswer() == null) {
-            return false;
-        }
-        
-        // 添加调试日志
-        System.out.println("=== 答案验证调试信息 ===");
-        System.out.println("题目ID: " + question.getId());
-        System.out.println("题目类型: " + question.getQuestionType());
-        System.out.println("用户答案: [" + userAnswer + "]");
-        System.out.println("正确答案: [" + question.getCorrectAnswer() + "]");
-        
-        // 对于多选题，需要处理逗号分隔的答案
-        if (question.getQuestionType() == 1) { // 多选题
-            // 将答案按逗号分割并排序
-            String[] userAnswers = userAnswer.split(",");
-            String[] correctAnswers = question.getCorrectAnswer().split(",");
-            
-            // 去除空格
-            for (int i = 0; i < userAnswers.length; i++) {
-                userAnswers[i] = userAnswers[i].trim();
-            }
-            for (int i = 0; i < correctAnswers.length; i++) {
-                correctAnswers[i] = correctAnswers[i].trim();
-            }
-            
-            Arrays.sort(userAnswers);
-            Arrays.sort(correctAnswers);
-            
-            System.out.println("用户答案数组: " + Arrays.toString(userAnswers));
-            System.out.println("正确答案数组: " + Arrays.toString(correctAnswers));
-            
-            boolean result = Arrays.equals(userAnswers, correctAnswers);
-            System.out.println("比较结果: " + result);
-            System.out.println("========================");
-            
-            return result;
-        } else if (question.getQuestionType() == 2) { // 判断题
-            // 判断题需要特殊处理：前端提交A/B，数据库可能存储正确/错误或true/false
-            String normalizedUserAnswer = userAnswer.trim();
-            String normalizedCorrectAnswer = question.getCorrectAnswer().trim();
-            
-            // 将前端的A/B转换为对应格式进行比较
-            String convertedUserAnswer;
-            if ("A".equals(normalizedUserAnswer)) {
-                // A表示正确，根据数据库格式进行转换
-                if ("true".equals(normalizedCorrectAnswer) || "false".equals(normalizedCorrectAnswer)) {
-                    convertedUserAnswer = "true";
-                } else {
-                    convertedUserAnswer = "正确";
-                }
-            } else if ("B".equals(normalizedUserAnswer)) {
-                // B表示错误，根据数据库格式进行转换
-                if ("true".equals(normalizedCorrectAnswer) || "false".equals(normalizedCorrectAnswer)) {
-                    convertedUserAnswer = "false";
-                } else {
-                    convertedUserAnswer = "错误";
-                }
-            } else {
-                convertedUserAnswer = normalizedUserAnswer;
-            }
-            
-            System.out.println("转换后的用户答案: [" + convertedUserAnswer + "]");
-            
-            boolean result = convertedUserAnswer.equals(normalizedCorrectAnswer);
-            System.out.println("比较结果: " + result);
-            System.out.println("========================");
-            
-            return result;
-        } else {
-            // 单选题直接比较
-            boolean result = userAnswer.trim().equals(question.getCorrectAnswer().trim());
-            System.out.println("比较结果: " + result);
-            System.out.println("========================");
-            return result;
-        }
-    }
-    
     @Override
-    public Result<Map<String, Object>> aiGrading(Map<String, Object> request) {
+    public CompletableFuture<Result<Map<String, Object>>> aiGrading(Map<String, Object> request) {
+        Long userId;
         try {
-            // 获取请求参数
-            Long questionId = Long.valueOf(request.get("questionId").toString());
-            String questionContent = (String) request.get("questionContent");
-            String userAnswer = (String) request.get("userAnswer");
-            String correctAnswer = (String) request.get("correctAnswer");
-            
-            // 获取当前用户
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-            if (authentication == null) {
-                return Result.unauthorized("用户未登录");
-            }
-            
-            String username = authentication.getName();
-            SysUser user = sysUserMapper.selectByUsername(username);
-            if (user == null) {
-                return Result.error("用户不存在");
-            }
-            
-            // 检查是否有历史记录
-            AiGradingRecord latestRecord = aiGradingRecordService.getLatestRecord(user.getId(), questionId);
-            
-            // 如果是重新判题，软删除旧记录
-            if (latestRecord != null) {
-                aiGradingRecordService.softDeleteOldRecords(user.getId(), questionId);
-            }
-            
-            // 获取AI判题前缀模板
-            String prefixTemplate = sysConfigService.getConfigValue("ai.grading.prefix");
-            if (prefixTemplate == null || prefixTemplate.trim().isEmpty()) {
-                prefixTemplate = "请对以下简答题进行判题评分：\n题目：{question}\n用户答案：{userAnswer}\n参考答案：{correctAnswer}\n请给出评分和详细的评价，并在最后一行明确标注：判断结果：正确 或 判断结果：错误";
-            }
-            
-            // 获取AI正确性判断前缀模板
-            String correctnessTemplate = sysConfigService.getConfigValue("ai.grading.correctness.prefix");
-            if (correctnessTemplate == null || correctnessTemplate.trim().isEmpty()) {
-                correctnessTemplate = "请判断以下简答题答案是否正确：\n题目：{question}\n用户答案：{userAnswer}\n参考答案：{correctAnswer}\n请只回答：正确 或 错误";
-            }
-            
-            // 替换模板中的占位符
-            String prompt = prefixTemplate
-                .replace("{question}", questionContent)
-                .replace("{userAnswer}", userAnswer)
-                .replace("{correctAnswer}", correctAnswer != null ? correctAnswer : "无参考答案");
-                
-            String correctnessPrompt = correctnessTemplate
-                .replace("{question}", questionContent)
-                .replace("{userAnswer}", userAnswer)
-                .replace("{correctAnswer}", correctAnswer != null ? correctAnswer : "无参考答案");
-            
-            // 生成会话ID
-            String sessionId = "grading_" + questionId + "_" + user.getId() + "_" + System.currentTimeMillis();
-            String correctnessSessionId = "correctness_" + questionId + "_" + user.getId() + "_" + System.currentTimeMillis();
-            
-            // 先调用AI判断正确性
-            StringBuilder correctnessResponse = new StringBuilder();
-            aiChatService.sendMessage(user.getId(), correctnessSessionId, correctnessPrompt, questionId, null)
-                .doOnNext(correctnessResponse::append)
-                .blockLast(java.time.Duration.ofSeconds(30)); // 增加超时时间
-            
-            // 解析正确性判断结果
-            String correctnessResult = correctnessResponse.toString().trim();
-            boolean isCorrect = correctnessResult.contains("正确") && !correctnessResult.contains("错误");
-            
-            // 如果AI判断正确，更新答题记录
-            if (isCorrect) {
-                // 查找现有的答题记录并更新
-                QueryWrapper<AnswerRecord> queryWrapper = new QueryWrapper<>();
-                queryWrapper.eq("user_id", user.getId())
-                           .eq("question_id", questionId)
-                           .orderByDesc("create_time")
-                           .last("LIMIT 1");
-                
-                AnswerRecord existingRecord = answerRecordMapper.selectOne(queryWrapper);
-                 if (existingRecord != null) {
-                     existingRecord.setIsCorrect(1);
-                     existingRecord.setScore(1);
-                     answerRecordMapper.updateById(existingRecord);
-                 }
-            }
-            
-            // 调用AI服务进行详细判题（异步，不阻塞）
-            StringBuilder aiResponse = new StringBuilder();
-            try {
-                aiChatService.sendMessage(user.getId(), sessionId, prompt, questionId, null)
-                    .doOnNext(aiResponse::append)
-                    .blockLast(java.time.Duration.ofSeconds(30)); // 增加超时时间
-            } catch (Exception e) {
-                // 如果详细判题失败，使用简单的判断结果
-                aiResponse.append(isCorrect ? "AI判断：答案正确" : "AI判断：答案需要改进");
-            }
-            
-            // 保存AI判题记录
-            AiGradingRecord newRecord = aiGradingRecordService.saveGradingRecord(
-                user.getId(), 
-                questionId, 
-                userAnswer, 
-                aiResponse.toString(), 
-                isCorrect
-            );
-            
-            // 构建返回结果
-            Map<String, Object> result = new HashMap<>();
-            result.put("gradingResult", aiResponse.toString());
-            result.put("isCorrect", isCorrect);
-            result.put("questionId", questionId);
-            result.put("sessionId", sessionId);
-            result.put("recordId", newRecord.getId());
-            result.put("hasHistory", latestRecord != null);
-            
-            return Result.success(result);
-            
+            userId = UserContext.getCurrentUserId();
         } catch (Exception e) {
-            log.error("AI判题失败", e);
-            return Result.error("AI判题失败：" + e.getMessage());
+            return CompletableFuture.completedFuture(Result.unauthorized("用户未登录"));
         }
+        return aiGradingEngine.grade(userId, request);
     }
     
     @Override
     public void aiGradingStream(Map<String, Object> request, Long userId, SseEmitter emitter) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                // 获取请求参数
-                Long questionId = Long.valueOf(request.get("questionId").toString());
-                String questionContent = (String) request.get("questionContent");
-                String userAnswer = (String) request.get("userAnswer");
-                String correctAnswer = (String) request.get("correctAnswer");
-                
-                // 获取用户信息
-                SysUser user = sysUserMapper.selectById(userId);
-                if (user == null) {
-                    emitter.send(SseEmitter.event()
-                        .name("error")
-                        .data("用户不存在"));
-                    emitter.complete();
-                    return;
-                }
-                
-                // 检查是否有历史记录
-                AiGradingRecord latestRecord = aiGradingRecordService.getLatestRecord(userId, questionId);
-                
-                // 如果是重新判题，软删除旧记录
-                if (latestRecord != null) {
-                    aiGradingRecordService.softDeleteOldRecords(userId, questionId);
-                }
-                
-                // 获取AI判题前缀模板
-                String prefixTemplate = sysConfigService.getConfigValue("ai.grading.prefix");
-                if (prefixTemplate == null || prefixTemplate.trim().isEmpty()) {
-                    prefixTemplate = "请对以下简答题进行判题评分：\n题目：{question}\n用户答案：{userAnswer}\n参考答案：{correctAnswer}\n请给出评分和详细的评价，并在最后一行明确标注：判断结果：正确 或 判断结果：错误";
-                }
-                
-                // 替换模板中的占位符
-                String prompt = prefixTemplate
-                    .replace("{question}", questionContent)
-                    .replace("{userAnswer}", userAnswer)
-                    .replace("{correctAnswer}", correctAnswer != null ? correctAnswer : "无参考答案");
-                
-                // 生成会话ID
-                String sessionId = "grading_" + questionId + "_" + userId + "_" + System.currentTimeMillis();
-                
-                // 调用AI服务进行流式判题
-                StringBuilder aiResponse = new StringBuilder();
-                boolean[] isCorrect = {false};
-                
-                aiChatService.sendMessage(userId, sessionId, prompt, questionId, null)
-                    .doOnNext(chunk -> {
-                        try {
-                            aiResponse.append(chunk);
-                            
-                            // 发送流式数据到前端
-                            Map<String, Object> data = new HashMap<>();
-                            data.put("content", chunk);
-                            data.put("type", "content");
-                            
-                            emitter.send(SseEmitter.event()
-                                .name("data")
-                                .data(new ObjectMapper().writeValueAsString(data)));
-                                
-                        } catch (Exception e) {
-                            System.err.println("发送流式数据失败: " + e.getMessage());
-                        }
-                    })
-                    .doOnComplete(() -> {
-                        try {
-                            // 判断答案是否正确
-                            String fullResponse = aiResponse.toString();
-                            isCorrect[0] = fullResponse.contains("判断结果：正确") || 
-                                          (fullResponse.contains("正确") && !fullResponse.contains("错误"));
-                            
-                            // 如果AI判断正确，更新答题记录
-                            if (isCorrect[0]) {
-                                QueryWrapper<AnswerRecord> queryWrapper = new QueryWrapper<>();
-                                queryWrapper.eq("user_id", userId)
-                                           .eq("question_id", questionId)
-                                           .orderByDesc("create_time")
-                                           .last("LIMIT 1");
-                                
-                                AnswerRecord existingRecord = answerRecordMapper.selectOne(queryWrapper);
-                                if (existingRecord != null) {
-                                    existingRecord.setIsCorrect(1);
-                                    existingRecord.setScore(1);
-                                    answerRecordMapper.updateById(existingRecord);
-                                }
-                            }
-                            
-                            // 保存AI判题记录
-                            AiGradingRecord newRecord = aiGradingRecordService.saveGradingRecord(
-                                userId, 
-                                questionId, 
-                                userAnswer, 
-                                fullResponse, 
-                                isCorrect[0]
-                            );
-                            
-                            // 发送最终结果
-                            Map<String, Object> resultData = new HashMap<>();
-                            resultData.put("isCorrect", isCorrect[0]);
-                            resultData.put("score", isCorrect[0] ? 1 : 0);
-                            resultData.put("recordId", newRecord.getId());
-                            resultData.put("type", "result");
-                            
-                            emitter.send(SseEmitter.event()
-                                .name("data")
-                                .data(new ObjectMapper().writeValueAsString(resultData)));
-                            
-                            // 发送完成标记
-                            emitter.send(SseEmitter.event()
-                                .name("data")
-                                .data("[DONE]"));
-                            
-                            emitter.complete();
-                            
-                        } catch (Exception e) {
-                            System.err.println("完成AI判题处理失败: " + e.getMessage());
-                            emitter.completeWithError(e);
-                        }
-                    })
-                    .doOnError(error -> {
-                        System.err.println("AI判题流式处理失败: " + error.getMessage());
-                        emitter.completeWithError(error);
-                    })
-                    .subscribe();
-                    
-            } catch (Exception e) {
-                System.err.println("AI判题流式处理异常: " + e.getMessage());
-                emitter.completeWithError(e);
-            }
-        });
+        aiGradingEngine.gradeStream(userId, request, emitter);
     }
     
     @Override
@@ -1279,6 +946,13 @@ public class QuestionServiceImpl implements QuestionService {
             // 获取下一个题目ID
             Long nextQuestionId = practiceCacheService.getNextQuestionId(userId, subjectId, questionType, difficulty, mode);
             
+            if (nextQuestionId == null && "random".equals(mode) && !needGenerateCache
+                    && !practiceCacheService.hasCache(userId, subjectId, questionType, difficulty, mode)) {
+                // 题目集合已变化，随机会话已作废：按当前题目重新开始（仍跳过已做过的题目）
+                generateQuestionIdCache(userId, subjectId, questionType, difficulty, mode);
+                nextQuestionId = practiceCacheService.getNextQuestionId(userId, subjectId, questionType, difficulty, mode);
+            }
+            
             if (nextQuestionId == null) {
                 // 所有题目已完成
                 return Result.success(new ArrayList<>());
@@ -1306,28 +980,45 @@ public class QuestionServiceImpl implements QuestionService {
     @Override
     public List<QuestionVO> getRandomQuestions(Long subjectId, Integer count, List<String> difficulties) {
         try {
-            // 构建查询条件
-            QueryWrapper<Question> queryWrapper = new QueryWrapper<>();
-            
-            if (subjectId != null) {
-                queryWrapper.eq("subject_id", subjectId);
-            }
-            
-            if (difficulties != null && !difficulties.isEmpty()) {
-                queryWrapper.in("difficulty", difficulties);
+            List<Integer> difficultyValues = new ArrayList<>();
+            if (difficulties != null) {
+                for (String difficulty : difficulties) {
+                    try {
+                        difficultyValues.add(Integer.valueOf(difficulty.trim()));
+                    } catch (NumberFormatException e) {
+                        log.warn("无效的难度值: {}", difficulty);
+                    }
+                }
             }
             
-            // 随机排序并限制数量
-            queryWrapper.last("ORDER BY RAND() LIMIT " + count);
-            
-            List<Question> questions = questionMapper.selectList(queryWrapper);
-            return questions.stream()
-                .map(this::convertToVO)
-                .collect(Collectors.toList());
+            List<Long> ids = questionSampler.sample(subjectId, null, difficultyValues, count);
+            return loadQuestionsInOrder(ids);
                 
         } catch (Exception e) {
             log.error("获取随机题目失败", e);
             throw new RuntimeException("获取随机题目失败：" + e.getMessage());
         }
     }
+    
+    /**
+     * 按ID批量查询题目，并保持传入ID的顺序
+     */
+    private List<QuestionVO> loadQuestionsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Question> questionMap = questionMapper.selectBatchIds(ids).stream()
+            .collect(Collectors.toMap(Question::getId, q -> q, (a, b) -> a));
+        List<QuestionVO> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Question question = questionMap.get(id);
+            if (question != null) {
+                result.add(convertToVO(question));
+            } else {
+                // 其他节点已删除，同步移出索引
+                questionSampler.remove(id);
+            }
+        }
+        return result;
+    }
 }
@@ -2,7 +2,6 @@ package com.qltiku2.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.qltiku2.common.Result;
-import com.qltiku2.entity.AnswerRecord;
 import com.qltiku2.entity.Question;
 import com.qltiku2.entity.Subject;
 import com.qltiku2.entity.WrongQuestion;
@@ -10,6 +9,8 @@ import com.qltiku2.mapper.AnswerRecordMapper;
 import com.qltiku2.mapper.QuestionMapper;
 import com.qltiku2.mapper.SubjectMapper;
 import com.qltiku2.mapper.WrongQuestionMapper;
+import com.qltiku2.mapper.UserDailyStatsMapper;
+import com.qltiku2.service.LearningStatsRollupService;
 import com.qltiku2.service.StatisticsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -21,15 +22,14 @@ import java.util.*;
 
 /**
  * 统计服务实现类
+ * 看板数据读取每日汇总表（user_daily_stats）；汇总表首次回填完成前，改为在SQL中直接按答题记录分组聚合，
+ * 两种来源返回相同的列，每个看板都只需一次查询。
  * 
  * @author qltiku2
  */
 @Service
 public class StatisticsServiceImpl implements StatisticsService {
     
-    @Autowired
-    private AnswerRecordMapper answerRecordMapper;
-    
     @Autowired
     private QuestionMapper questionMapper;
     
@@ -39,42 +39,39 @@ public class StatisticsServiceImpl implements StatisticsService {
     @Autowired
     private WrongQuestionMapper wrongQuestionMapper;
     
+    @Autowired
+    private UserDailyStatsMapper userDailyStatsMapper;
+    
+    @Autowired
+    private AnswerRecordMapper answerRecordMapper;
+    
+    @Autowired
+    private LearningStatsRollupService learningStatsRollupService;
+    
     @Override
     public Result<Map<String, Object>> getPersonalStats(Long userId) {
         Map<String, Object> stats = new HashMap<>();
         
         try {
-            // 今日练习统计
+            // 今日与累计练习统计（读取每日汇总表）
             LocalDate today = LocalDate.now();
-            LocalDateTime startOfDay = today.atStartOfDay();
-            LocalDateTime endOfDay = today.plusDays(1).atStartOfDay();
-            
-            QueryWrapper<AnswerRecord> todayWrapper = new QueryWrapper<>();
-            todayWrapper.eq("user_id", userId)
-                       .between("create_time", startOfDay, endOfDay);
-            
-            List<AnswerRecord> todayRecords = answerRecordMapper.selectList(todayWrapper);
+            List<DailyStat> dailyStats = loadDailyStats(userId, null, null, null);
             
-            int todayPracticeCount = todayRecords.size();
+            int todayPracticeCount = 0;
             double todayAccuracy = 0.0;
-            
-            if (!todayRecords.isEmpty()) {
-                // 计算正确率（假设AnswerRecord有isCorrect字段）
-                long correctCount = todayRecords.stream()
-                    .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                    .sum();
-                todayAccuracy = (double) correctCount / todayRecords.size() * 100;
+            int totalPracticeCount = 0;
+            for (DailyStat dailyStat : dailyStats) {
+                totalPracticeCount += (int) dailyStat.total;
+                if (today.equals(dailyStat.date)) {
+                    todayPracticeCount = (int) dailyStat.total;
+                    todayAccuracy = accuracy(dailyStat.correct, dailyStat.total);
+                }
             }
             
-            // 总练习统计
-            QueryWrapper<AnswerRecord> totalWrapper = new QueryWrapper<>();
-            totalWrapper.eq("user_id", userId);
-            int totalPracticeCount = Math.toIntExact(answerRecordMapper.selectCount(totalWrapper));
-            
             // 构建返回数据
             Map<String, Object> todayStats = new HashMap<>();
             todayStats.put("practiceCount", todayPracticeCount);
-            todayStats.put("accuracy", Math.round(todayAccuracy * 100) / 100.0);
+            todayStats.put("accuracy", todayAccuracy);
             
             Map<String, Object> totalStats = new HashMap<>();
             totalStats.put("totalCount", totalPracticeCount);
@@ -110,42 +107,28 @@ public class StatisticsServiceImpl implements StatisticsService {
                 startDate = endDate.minusDays(30);
             }
             
-            // 构建查询条件
-            QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-            wrapper.eq("user_id", userId);
-            if (startDate != null) {
-                wrapper.between("create_time", startDate, endDate);
+            // 按天读取汇总表
+            List<DailyStat> dailyStats = loadDailyStats(userId, startDate, endDate, null);
+            long totalCount = 0;
+            long totalCorrect = 0;
+            long totalAnswerTime = 0;
+            int studyDays = 0;
+            for (DailyStat dailyStat : dailyStats) {
+                totalCount += dailyStat.total;
+                totalCorrect += dailyStat.correct;
+                totalAnswerTime += dailyStat.answerTime;
+                if (dailyStat.total > 0) {
+                    studyDays++;
+                }
             }
-            // 注意：AnswerRecord没有subject_id字段，需要通过question关联
-            
-            List<AnswerRecord> records = answerRecordMapper.selectList(wrapper);
             
             // 概览统计
             Map<String, Object> overviewStats = new HashMap<>();
-            overviewStats.put("totalQuestions", records.size());
-            
-            if (!records.isEmpty()) {
-                // 计算正确率
-                long correctCount = records.stream()
-                    .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                    .sum();
-                double correctRate = (double) correctCount / records.size() * 100;
-                overviewStats.put("correctRate", Math.round(correctRate * 100) / 100.0);
-                
-                // 学习天数（去重日期）
-                Set<LocalDate> studyDates = new HashSet<>();
-                records.forEach(record -> {
-                    studyDates.add(record.getCreateTime().toLocalDate());
-                });
-                overviewStats.put("studyDays", studyDates.size());
-                
-                // 学习时长（假设每题1分钟）
-                overviewStats.put("studyTime", records.size());
-            } else {
-                overviewStats.put("correctRate", 0.0);
-                overviewStats.put("studyDays", 0);
-                overviewStats.put("studyTime", 0);
-            }
+            overviewStats.put("totalQuestions", (int) totalCount);
+            overviewStats.put("correctRate", accuracy(totalCorrect, totalCount));
+            overviewStats.put("studyDays", studyDays);
+            // 学习时长（分钟，由累计答题用时换算）
+            overviewStats.put("studyTime", (int) Math.round(totalAnswerTime / 60.0));
             
             // 学习趋势数据（按日期分组）
             Map<String, Integer> trendData = new LinkedHashMap<>();
@@ -158,26 +141,17 @@ public class StatisticsServiceImpl implements StatisticsService {
             }
             
             // 填充实际数据
-            records.forEach(record -> {
-                String dateKey = record.getCreateTime().format(dateFormatter);
+            for (DailyStat dailyStat : dailyStats) {
+                String dateKey = dailyStat.date.format(dateFormatter);
                 if (trendData.containsKey(dateKey)) {
-                    trendData.put(dateKey, trendData.get(dateKey) + 1);
+                    trendData.put(dateKey, trendData.get(dateKey) + (int) dailyStat.total);
                 }
-            });
+            }
             
             // 正确率分析
             Map<String, Integer> accuracyData = new HashMap<>();
-            accuracyData.put("正确", 0);
-            accuracyData.put("错误", 0);
-            
-            records.forEach(record -> {
-                // 基于isCorrect字段进行分类
-                if (record.getIsCorrect() == 1) {
-                    accuracyData.put("正确", accuracyData.get("正确") != null ? accuracyData.get("正确") + 1 : 1);
-                } else {
-                    accuracyData.put("错误", accuracyData.get("错误") != null ? accuracyData.get("错误") + 1 : 1);
-                }
-            });
+            accuracyData.put("正确", (int) totalCorrect);
+            accuracyData.put("错误", (int) (totalCount - totalCorrect));
             
             // 科目分布
             Map<String, Integer> subjectData = new HashMap<>();
@@ -190,11 +164,13 @@ public class StatisticsServiceImpl implements StatisticsService {
                 subjectData.put(subject.getName(), 0);
             });
             
-            // 由于AnswerRecord没有直接的subjectId，暂时使用模拟数据
-            // 实际应用中需要通过questionId关联Question表获取subjectId
-            subjectData.put("数学", records.size() / 3);
-            subjectData.put("语文", records.size() / 3);
-            subjectData.put("英语", records.size() - records.size() / 3 * 2);
+            // 按科目聚合
+            for (Map<String, Object> row : selectSubjectRows(userId, startDate, endDate, null)) {
+                String subjectName = subjectNames.get(toLong(row.get("subject_id")));
+                if (subjectName != null) {
+                    subjectData.put(subjectName, (int) toLong(row.get("total_count")));
+                }
+            }
             
             // 难度分析（需要关联题目表）
             Map<String, Integer> difficultyData = new HashMap<>();
@@ -244,48 +220,33 @@ public class StatisticsServiceImpl implements StatisticsService {
             LocalDateTime startDate = dateRangeArray[0];
             LocalDateTime endDate = dateRangeArray[1];
             
-            // 构建查询条件
-            QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-            wrapper.eq("user_id", userId);
-            if (startDate != null) {
-                wrapper.between("create_time", startDate, endDate);
-            }
-            
-            List<AnswerRecord> records = answerRecordMapper.selectList(wrapper);
-            
-            // 如果指定了科目，需要通过题目关联过滤
-            if (subjectId != null) {
-                records = records.stream()
-                    .filter(record -> {
-                        Question question = questionMapper.selectById(record.getQuestionId());
-                        return question != null && question.getSubjectId().equals(subjectId);
-                    })
-                    .collect(java.util.stream.Collectors.toList());
+            // 按天聚合（一次查询）
+            List<DailyStat> dailyStats = loadDailyStats(userId, startDate, endDate, subjectId);
+            
+            long totalCount = 0;
+            long correctCount = 0;
+            long totalAnswerTime = 0;
+            int studyDays = 0;
+            for (DailyStat dailyStat : dailyStats) {
+                totalCount += dailyStat.total;
+                correctCount += dailyStat.correct;
+                totalAnswerTime += dailyStat.answerTime;
+                if (dailyStat.total > 0) {
+                    studyDays++;
+                }
             }
             
             // 总练习题数
-            stats.put("totalQuestions", records.size());
+            stats.put("totalQuestions", (int) totalCount);
             
             // 平均正确率
-            if (!records.isEmpty()) {
-                long correctCount = records.stream()
-                    .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                    .sum();
-                double correctRate = (double) correctCount / records.size() * 100;
-                stats.put("correctRate", Math.round(correctRate * 100) / 100.0);
-            } else {
-                stats.put("correctRate", 0.0);
-            }
+            stats.put("correctRate", accuracy(correctCount, totalCount));
             
             // 学习天数
-            Set<LocalDate> studyDates = new HashSet<>();
-            records.forEach(record -> {
-                studyDates.add(record.getCreateTime().toLocalDate());
-            });
-            stats.put("studyDays", studyDates.size());
+            stats.put("studyDays", studyDays);
             
-            // 学习时长（假设每题平均1分钟）
-            stats.put("studyTime", Math.round(records.size() / 60.0 * 100) / 100.0);
+            // 学习时长（小时，由累计答题用时换算）
+            stats.put("studyTime", Math.round(totalAnswerTime / 3600.0 * 100) / 100.0);
             
             return Result.success(stats);
             
@@ -315,25 +276,11 @@ public class StatisticsServiceImpl implements StatisticsService {
                 }
             }
             
-            // 构建查询条件
-            QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-            wrapper.eq("user_id", userId)
-                   .between("create_time", startDate, endDate);
-            
-            List<AnswerRecord> records = answerRecordMapper.selectList(wrapper);
-            
-            // 如果指定了科目，过滤记录
-            if (subjectId != null) {
-                records = records.stream()
-                    .filter(record -> {
-                        Question question = questionMapper.selectById(record.getQuestionId());
-                        return question != null && question.getSubjectId().equals(subjectId);
-                    })
-                    .collect(java.util.stream.Collectors.toList());
-            }
+            // 按天聚合（一次查询），再在内存中汇总为日/周/月
+            List<DailyStat> dailyStats = loadDailyStats(userId, startDate, endDate, subjectId);
             
             // 根据趋势类型生成数据
-            Map<String, Object> chartData = generateTrendChartData(records, startDate, endDate, trendType);
+            Map<String, Object> chartData = generateTrendChartData(dailyStats, startDate, endDate, trendType);
             trendData.putAll(chartData);
             
             return Result.success(trendData);
@@ -353,24 +300,8 @@ public class StatisticsServiceImpl implements StatisticsService {
             LocalDateTime startDate = dateRangeArray[0];
             LocalDateTime endDate = dateRangeArray[1];
             
-            // 构建查询条件
-            QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-            wrapper.eq("user_id", userId);
-            if (startDate != null) {
-                wrapper.between("create_time", startDate, endDate);
-            }
-            
-            List<AnswerRecord> records = answerRecordMapper.selectList(wrapper);
-            
-            // 如果指定了科目，过滤记录
-            if (subjectId != null) {
-                records = records.stream()
-                    .filter(record -> {
-                        Question question = questionMapper.selectById(record.getQuestionId());
-                        return question != null && question.getSubjectId().equals(subjectId);
-                    })
-                    .collect(java.util.stream.Collectors.toList());
-            }
+            // 按天聚合（一次查询）
+            List<DailyStat> dailyStats = loadDailyStats(userId, startDate, endDate, subjectId);
             
             // 按正确率区间分组
             Map<String, Integer> accuracyDistribution = new LinkedHashMap<>();
@@ -380,45 +311,36 @@ public class StatisticsServiceImpl implements StatisticsService {
             accuracyDistribution.put("60-70%", 0);
             accuracyDistribution.put("60%以下", 0);
             
-            // 按日期分组计算每日正确率
-            Map<LocalDate, List<AnswerRecord>> dailyRecords = records.stream()
-                .collect(java.util.stream.Collectors.groupingBy(
-                    record -> record.getCreateTime().toLocalDate()
-                ));
-            
-            dailyRecords.forEach((date, dayRecords) -> {
-                if (!dayRecords.isEmpty()) {
-                    long correctCount = dayRecords.stream()
-                        .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                        .sum();
-                    double dailyAccuracy = (double) correctCount / dayRecords.size() * 100;
-                    
-                    if (dailyAccuracy >= 90) {
-                        accuracyDistribution.put("90-100%", accuracyDistribution.get("90-100%") + 1);
-                    } else if (dailyAccuracy >= 80) {
-                        accuracyDistribution.put("80-90%", accuracyDistribution.get("80-90%") + 1);
-                    } else if (dailyAccuracy >= 70) {
-                        accuracyDistribution.put("70-80%", accuracyDistribution.get("70-80%") + 1);
-                    } else if (dailyAccuracy >= 60) {
-                        accuracyDistribution.put("60-70%", accuracyDistribution.get("60-70%") + 1);
-                    } else {
-                        accuracyDistribution.put("60%以下", accuracyDistribution.get("60%以下") + 1);
-                    }
+            // 每日正确率落入的区间
+            long totalCount = 0;
+            long totalCorrect = 0;
+            for (DailyStat dailyStat : dailyStats) {
+                if (dailyStat.total == 0) {
+                    continue;
                 }
-            });
+                totalCount += dailyStat.total;
+                totalCorrect += dailyStat.correct;
+                
+                double dailyAccuracy = (double) dailyStat.correct / dailyStat.total * 100;
+                String bucket;
+                if (dailyAccuracy >= 90) {
+                    bucket = "90-100%";
+                } else if (dailyAccuracy >= 80) {
+                    bucket = "80-90%";
+                } else if (dailyAccuracy >= 70) {
+                    bucket = "70-80%";
+                } else if (dailyAccuracy >= 60) {
+                    bucket = "60-70%";
+                } else {
+                    bucket = "60%以下";
+                }
+                accuracyDistribution.put(bucket, accuracyDistribution.get(bucket) + 1);
+            }
             
             accuracyData.put("distribution", accuracyDistribution);
             
             // 总体正确率
-            if (!records.isEmpty()) {
-                long totalCorrect = records.stream()
-                    .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                    .sum();
-                double overallAccuracy = (double) totalCorrect / records.size() * 100;
-                accuracyData.put("overallAccuracy", Math.round(overallAccuracy * 100) / 100.0);
-            } else {
-                accuracyData.put("overallAccuracy", 0.0);
-            }
+            accuracyData.put("overallAccuracy", accuracy(totalCorrect, totalCount));
             
             return Result.success(accuracyData);
             
@@ -486,135 +408,61 @@ public class StatisticsServiceImpl implements StatisticsService {
     }
     
     /**
-     * 生成趋势图表数据
+     * 生成趋势图表数据（由按天聚合的结果汇总）
      */
-    private Map<String, Object> generateTrendChartData(List<AnswerRecord> records, 
+    private Map<String, Object> generateTrendChartData(List<DailyStat> dailyStats, 
                                                        LocalDateTime startDate, 
                                                        LocalDateTime endDate, 
                                                        String trendType) {
         Map<String, Object> chartData = new HashMap<>();
         
+        // 分组键：月份 / 第n周 / 日期
+        DateTimeFormatter monthFormatter = DateTimeFormatter.ofPattern("yyyy-MM");
+        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MM-dd");
+        LocalDate firstDay = startDate.toLocalDate();
+        java.util.function.Function<LocalDate, String> keyOf;
         if ("monthly".equals(trendType)) {
-            // 按月统计
-            Map<String, Integer> monthlyData = new LinkedHashMap<>();
-            Map<String, Double> monthlyAccuracy = new LinkedHashMap<>();
-            
-            DateTimeFormatter monthFormatter = DateTimeFormatter.ofPattern("yyyy-MM");
-            
-            // 初始化月份数据
-            LocalDateTime current = startDate;
-            while (current.isBefore(endDate)) {
-                String monthKey = current.format(monthFormatter);
-                monthlyData.put(monthKey, 0);
-                monthlyAccuracy.put(monthKey, 0.0);
-                current = current.plusMonths(1);
-            }
-            
-            // 填充实际数据
-            Map<String, List<AnswerRecord>> monthlyRecords = records.stream()
-                .collect(java.util.stream.Collectors.groupingBy(
-                    record -> record.getCreateTime().format(monthFormatter)
-                ));
-            
-            monthlyRecords.forEach((month, monthRecords) -> {
-                if (monthlyData.containsKey(month)) {
-                    monthlyData.put(month, monthRecords.size());
-                    
-                    long correctCount = monthRecords.stream()
-                        .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                        .sum();
-                    double accuracy = monthRecords.isEmpty() ? 0.0 : 
-                        (double) correctCount / monthRecords.size() * 100;
-                    monthlyAccuracy.put(month, Math.round(accuracy * 100) / 100.0);
-                }
-            });
-            
-            chartData.put("categories", new ArrayList<>(monthlyData.keySet()));
-            chartData.put("practiceData", new ArrayList<>(monthlyData.values()));
-            chartData.put("accuracyData", new ArrayList<>(monthlyAccuracy.values()));
-            
+            keyOf = date -> date.format(monthFormatter);
         } else if ("weekly".equals(trendType)) {
-            // 按周统计
-            Map<String, Integer> weeklyData = new LinkedHashMap<>();
-            Map<String, Double> weeklyAccuracy = new LinkedHashMap<>();
-            
-            // 初始化周数据
-            LocalDateTime current = startDate;
-            int weekNum = 1;
-            while (current.isBefore(endDate)) {
-                String weekKey = "第" + weekNum + "周";
-                weeklyData.put(weekKey, 0);
-                weeklyAccuracy.put(weekKey, 0.0);
-                current = current.plusWeeks(1);
-                weekNum++;
-            }
-            
-            // 填充实际数据（简化处理，按周分组）
-            Map<Integer, List<AnswerRecord>> weeklyRecords = records.stream()
-                .collect(java.util.stream.Collectors.groupingBy(
-                    record -> record.getCreateTime().getDayOfYear() / 7
-                ));
-            
-            int index = 1;
-            for (List<AnswerRecord> weekRecords : weeklyRecords.values()) {
-                String weekKey = "第" + index + "周";
-                if (weeklyData.containsKey(weekKey)) {
-                    weeklyData.put(weekKey, weekRecords.size());
-                    
-                    long correctCount = weekRecords.stream()
-                        .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                        .sum();
-                    double accuracy = weekRecords.isEmpty() ? 0.0 : 
-                        (double) correctCount / weekRecords.size() * 100;
-                    weeklyAccuracy.put(weekKey, Math.round(accuracy * 100) / 100.0);
-                }
-                index++;
-            }
-            
-            chartData.put("categories", new ArrayList<>(weeklyData.keySet()));
-            chartData.put("practiceData", new ArrayList<>(weeklyData.values()));
-            chartData.put("accuracyData", new ArrayList<>(weeklyAccuracy.values()));
-            
+            keyOf = date -> "第" + (java.time.temporal.ChronoUnit.DAYS.between(firstDay, date) / 7 + 1) + "周";
         } else {
-            // 按天统计（默认）
-            Map<String, Integer> dailyData = new LinkedHashMap<>();
-            Map<String, Double> dailyAccuracy = new LinkedHashMap<>();
-            
-            DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MM-dd");
-            
-            // 初始化日期数据
-            LocalDateTime current = startDate;
-            while (current.isBefore(endDate)) {
-                String dateKey = current.format(dateFormatter);
-                dailyData.put(dateKey, 0);
-                dailyAccuracy.put(dateKey, 0.0);
+            keyOf = date -> date.format(dateFormatter);
+        }
+        
+        // 初始化分组
+        Map<String, long[]> buckets = new LinkedHashMap<>();
+        LocalDateTime current = startDate;
+        while (current.isBefore(endDate)) {
+            buckets.put(keyOf.apply(current.toLocalDate()), new long[2]);
+            if ("monthly".equals(trendType)) {
+                current = current.plusMonths(1);
+            } else if ("weekly".equals(trendType)) {
+                current = current.plusWeeks(1);
+            } else {
                 current = current.plusDays(1);
             }
-            
-            // 填充实际数据
-            Map<String, List<AnswerRecord>> dailyRecords = records.stream()
-                .collect(java.util.stream.Collectors.groupingBy(
-                    record -> record.getCreateTime().format(dateFormatter)
-                ));
-            
-            dailyRecords.forEach((date, dayRecords) -> {
-                if (dailyData.containsKey(date)) {
-                    dailyData.put(date, dayRecords.size());
-                    
-                    long correctCount = dayRecords.stream()
-                        .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                        .sum();
-                    double accuracy = dayRecords.isEmpty() ? 0.0 : 
-                        (double) correctCount / dayRecords.size() * 100;
-                    dailyAccuracy.put(date, Math.round(accuracy * 100) / 100.0);
-                }
-            });
-            
-            chartData.put("categories", new ArrayList<>(dailyData.keySet()));
-            chartData.put("practiceData", new ArrayList<>(dailyData.values()));
-            chartData.put("accuracyData", new ArrayList<>(dailyAccuracy.values()));
         }
         
+        // 填充实际数据
+        for (DailyStat dailyStat : dailyStats) {
+            long[] bucket = buckets.get(keyOf.apply(dailyStat.date));
+            if (bucket != null) {
+                bucket[0] += dailyStat.total;
+                bucket[1] += dailyStat.correct;
+            }
+        }
+        
+        List<Integer> practiceData = new ArrayList<>(buckets.size());
+        List<Double> accuracyData = new ArrayList<>(buckets.size());
+        for (long[] bucket : buckets.values()) {
+            practiceData.add((int) bucket[0]);
+            accuracyData.add(accuracy(bucket[1], bucket[0]));
+        }
+        
+        chartData.put("categories", new ArrayList<>(buckets.keySet()));
+        chartData.put("practiceData", practiceData);
+        chartData.put("accuracyData", accuracyData);
+        
         return chartData;
     }
     
@@ -628,59 +476,19 @@ public class StatisticsServiceImpl implements StatisticsService {
             LocalDateTime startDate = dateRangeArray[0];
             LocalDateTime endDate = dateRangeArray[1];
 
-            // 构建查询条件
-            QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-            wrapper.eq("user_id", userId);
-            if (startDate != null) {
-                wrapper.between("create_time", startDate, endDate);
-            }
-
-            List<AnswerRecord> records = answerRecordMapper.selectList(wrapper);
-
-            // 如果指定了科目，过滤记录
-            if (subjectId != null) {
-                records = records.stream()
-                    .filter(record -> {
-                        Question question = questionMapper.selectById(record.getQuestionId());
-                        return question != null && subjectId.equals(question.getSubjectId());
-                    })
-                    .collect(java.util.stream.Collectors.toList());
-            }
+            // 按科目聚合（一次查询）
+            List<Map<String, Object>> rows = selectSubjectRows(userId, startDate, endDate, subjectId);
 
-            // 按科目分组统计
             Map<String, Integer> subjectCount = new HashMap<>();
             Map<String, Double> subjectAccuracy = new HashMap<>();
+            for (Map<String, Object> row : rows) {
+                Object name = row.get("subject_name");
+                String subjectName = name != null ? name.toString() : "未知科目";
+                long total = toLong(row.get("total_count"));
+                long correct = toLong(row.get("correct_count"));
 
-            // 通过题目关联获取科目信息
-            Map<Long, List<AnswerRecord>> subjectRecords = new HashMap<>();
-
-            for (AnswerRecord record : records) {
-                Question question = questionMapper.selectById(record.getQuestionId());
-                if (question != null) {
-                    Long qSubjectId = question.getSubjectId();
-                    subjectRecords.computeIfAbsent(qSubjectId, k -> new ArrayList<>()).add(record);
-                }
-            }
-
-            // 获取科目名称并统计
-            for (Map.Entry<Long, List<AnswerRecord>> entry : subjectRecords.entrySet()) {
-                Long sid = entry.getKey();
-                List<AnswerRecord> subjectAnswers = entry.getValue();
-
-                // 获取科目名称
-                Subject subject = subjectMapper.selectById(sid);
-                String subjectName = subject != null ? subject.getName() : "未知科目";
-
-                // 统计数量
-                subjectCount.put(subjectName, subjectAnswers.size());
-
-                // 计算正确率
-                long correctCount = subjectAnswers.stream()
-                    .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                    .sum();
-                double accuracy = subjectAnswers.isEmpty() ? 0.0 :
-                    (double) correctCount / subjectAnswers.size() * 100;
-                subjectAccuracy.put(subjectName, Math.round(accuracy * 100) / 100.0);
+                subjectCount.put(subjectName, (int) total);
+                subjectAccuracy.put(subjectName, accuracy(correct, total));
             }
 
             subjectData.put("distribution", subjectCount);
@@ -703,77 +511,28 @@ public class StatisticsServiceImpl implements StatisticsService {
             LocalDateTime startDate = dateRangeArray[0];
             LocalDateTime endDate = dateRangeArray[1];
             
-            // 构建查询条件
-            QueryWrapper<AnswerRecord> wrapper = new QueryWrapper<>();
-            wrapper.eq("user_id", userId);
-            if (startDate != null) {
-                wrapper.between("create_time", startDate, endDate);
-            }
-            
-            List<AnswerRecord> records = answerRecordMapper.selectList(wrapper);
+            // 按难度聚合（一次查询）
+            List<Map<String, Object>> rows = selectDifficultyRows(userId, startDate, endDate, subjectId);
             
-            // 如果指定了科目，过滤记录
-            if (subjectId != null) {
-                records = records.stream()
-                    .filter(record -> {
-                        Question question = questionMapper.selectById(record.getQuestionId());
-                        return question != null && question.getSubjectId().equals(subjectId);
-                    })
-                    .collect(java.util.stream.Collectors.toList());
+            // 难度等级 -> 简单/中等/困难，[数量, 正确数]
+            Map<String, long[]> difficultyTotals = new LinkedHashMap<>();
+            difficultyTotals.put("简单", new long[2]);
+            difficultyTotals.put("中等", new long[2]);
+            difficultyTotals.put("困难", new long[2]);
+            for (Map<String, Object> row : rows) {
+                Object level = row.get("difficulty");
+                long[] totals = difficultyTotals.get(difficultyLabel(level != null ? (int) toLong(level) : null));
+                totals[0] += toLong(row.get("total_count"));
+                totals[1] += toLong(row.get("correct_count"));
             }
             
-            // 按难度分组统计
+            // 统计各难度的数量和正确率
             Map<String, Integer> difficultyCount = new LinkedHashMap<>();
             Map<String, Double> difficultyAccuracy = new LinkedHashMap<>();
-            
-            // 初始化难度数据
-            difficultyCount.put("简单", 0);
-            difficultyCount.put("中等", 0);
-            difficultyCount.put("困难", 0);
-            difficultyAccuracy.put("简单", 0.0);
-            difficultyAccuracy.put("中等", 0.0);
-            difficultyAccuracy.put("困难", 0.0);
-            
-            // 按难度分组
-            Map<String, List<AnswerRecord>> difficultyRecords = new HashMap<>();
-            difficultyRecords.put("简单", new ArrayList<>());
-            difficultyRecords.put("中等", new ArrayList<>());
-            difficultyRecords.put("困难", new ArrayList<>());
-            
-            for (AnswerRecord record : records) {
-                Question question = questionMapper.selectById(record.getQuestionId());
-                if (question != null) {
-                    String difficulty;
-                    Integer difficultyLevel = question.getDifficulty();
-                    if (difficultyLevel == null) {
-                        difficulty = "中等"; // 默认中等
-                    } else if (difficultyLevel <= 1) {
-                        difficulty = "简单";
-                    } else if (difficultyLevel <= 2) {
-                        difficulty = "中等";
-                    } else {
-                        difficulty = "困难";
-                    }
-                    
-                    difficultyRecords.get(difficulty).add(record);
-                }
-            }
-            
-            // 统计各难度的数量和正确率
-            for (Map.Entry<String, List<AnswerRecord>> entry : difficultyRecords.entrySet()) {
-                String difficulty = entry.getKey();
-                List<AnswerRecord> diffRecords = entry.getValue();
-                
-                difficultyCount.put(difficulty, diffRecords.size());
-                
-                if (!diffRecords.isEmpty()) {
-                    long correctCount = diffRecords.stream()
-                        .mapToLong(record -> record.getIsCorrect() == 1 ? 1 : 0)
-                        .sum();
-                    double accuracy = (double) correctCount / diffRecords.size() * 100;
-                    difficultyAccuracy.put(difficulty, Math.round(accuracy * 100) / 100.0);
-                }
-            }
+            difficultyTotals.forEach((difficulty, totals) -> {
+                difficultyCount.put(difficulty, (int) totals[0]);
+                difficultyAccuracy.put(difficulty, accuracy(totals[1], totals[0]));
+            });
             
             difficultyData.put("distribution", difficultyCount);
             difficultyData.put("accuracy", difficultyAccuracy);
@@ -798,10 +557,13 @@ public class StatisticsServiceImpl implements StatisticsService {
             List<WrongQuestion> wrongQuestions = wrongQuestionMapper.selectList(wrongWrapper);
             
             if (subjectId != null) {
+                Map<Long, Question> questionAttributes = loadQuestionAttributes(wrongQuestions.stream()
+                    .map(WrongQuestion::getQuestionId)
+                    .collect(java.util.stream.Collectors.toSet()));
                 wrongQuestions = wrongQuestions.stream()
                     .filter(wrongQuestion -> {
-                        Question question = questionMapper.selectById(wrongQuestion.getQuestionId());
-                        return question != null && question.getSubjectId().equals(subjectId);
+                        Question question = questionAttributes.get(wrongQuestion.getQuestionId());
+                        return question != null && subjectId.equals(question.getSubjectId());
                     })
                     .collect(java.util.stream.Collectors.toList());
             }
@@ -954,4 +716,141 @@ public class StatisticsServiceImpl implements StatisticsService {
         
         return suggestions;
     }
-}
\ No newline at end of file
+    
+    /**
+     * 按天聚合的答题统计
+     */
+    private static class DailyStat {
+        private final LocalDate date;
+        private final long total;
+        private final long correct;
+        /**
+         * 累计答题用时（秒）
+         */
+        private final long answerTime;
+        
+        private DailyStat(LocalDate date, long total, long correct, long answerTime) {
+            this.date = date;
+            this.total = total;
+            this.correct = correct;
+            this.answerTime = answerTime;
+        }
+    }
+    
+    /**
+     * 加载按天聚合的答题统计
+     */
+    private List<DailyStat> loadDailyStats(Long userId, LocalDateTime startDate, LocalDateTime endDate, Long subjectId) {
+        List<Map<String, Object>> rows = learningStatsRollupService.isRollupReady()
+                ? userDailyStatsMapper.selectDaily(userId, startDay(startDate), endDay(endDate), subjectId)
+                : answerRecordMapper.selectDailyAnswerStats(userId, startDate, endDate, subjectId);
+        List<DailyStat> dailyStats = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            dailyStats.add(new DailyStat(toLocalDate(row.get("stat_date")),
+                    toLong(row.get("total_count")), toLong(row.get("correct_count")),
+                    toLong(row.get("total_answer_time"))));
+        }
+        return dailyStats;
+    }
+    
+    /**
+     * 按科目聚合的答题数与正确数（汇总表未就绪时按答题记录聚合）
+     */
+    private List<Map<String, Object>> selectSubjectRows(Long userId, LocalDateTime startDate, LocalDateTime endDate, Long subjectId) {
+        if (learningStatsRollupService.isRollupReady()) {
+            return userDailyStatsMapper.selectBySubject(userId, startDay(startDate), endDay(endDate), subjectId);
+        }
+        return answerRecordMapper.selectSubjectAnswerStats(userId, startDate, endDate, subjectId);
+    }
+    
+    /**
+     * 按难度聚合的答题数与正确数（汇总表未就绪时按答题记录聚合）
+     */
+    private List<Map<String, Object>> selectDifficultyRows(Long userId, LocalDateTime startDate, LocalDateTime endDate, Long subjectId) {
+        if (learningStatsRollupService.isRollupReady()) {
+            return userDailyStatsMapper.selectByDifficulty(userId, startDay(startDate), endDay(endDate), subjectId);
+        }
+        return answerRecordMapper.selectDifficultyAnswerStats(userId, startDate, endDate, subjectId);
+    }
+    
+    /**
+     * 汇总表按天存储，开始时间取所在日期
+     */
+    private LocalDate startDay(LocalDateTime startDate) {
+        return startDate != null ? startDate.toLocalDate() : null;
+    }
+    
+    /**
+     * 结束时间为开区间，恰为零点时不包含当天
+     */
+    private LocalDate endDay(LocalDateTime endDate) {
+        if (endDate == null) {
+            return null;
+        }
+        LocalDate day = endDate.toLocalDate();
+        return endDate.equals(day.atStartOfDay()) ? day.minusDays(1) : day;
+    }
+    
+    /**
+     * 批量加载题目属性（仅ID、科目、难度），同一请求内共用，避免逐条查询
+     */
+    private Map<Long, Question> loadQuestionAttributes(Collection<Long> questionIds) {
+        if (questionIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        QueryWrapper<Question> wrapper = new QueryWrapper<>();
+        wrapper.select("id", "subject_id", "difficulty").in("id", questionIds);
+        Map<Long, Question> questions = new HashMap<>();
+        for (Question question : questionMapper.selectList(wrapper)) {
+            questions.put(question.getId(), question);
+        }
+        return questions;
+    }
+    
+    /**
+     * 难度等级转换为显示名称
+     */
+    private String difficultyLabel(Integer difficultyLevel) {
+        if (difficultyLevel == null) {
+            return "中等"; // 默认中等
+        } else if (difficultyLevel <= 1) {
+            return "简单";
+        } else if (difficultyLevel <= 2) {
+            return "中等";
+        }
+        return "困难";
+    }
+    
+    /**
+     * 计算正确率（百分比，保留两位小数）
+     */
+    private double accuracy(long correctCount, long totalCount) {
+        if (totalCount == 0) {
+            return 0.0;
+        }
+        return Math.round((double) correctCount / totalCount * 100 * 100) / 100.0;
+    }
+    
+    private long toLong(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+    
+    private LocalDate toLocalDate(Object value) {
+        if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        }
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        }
+        if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toLocalDate();
+        }
+        return LocalDate.parse(value.toString());
+    }
+}
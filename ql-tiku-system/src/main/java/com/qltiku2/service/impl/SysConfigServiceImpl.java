@@ -8,18 +8,25 @@ import com.qltiku2.service.SysConfigService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
 import jakarta.annotation.PostConstruct;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 系统配置服务实现类
+ * 全部配置在启动时一次性加载为本地不可变快照，读取不访问Redis和数据库；
+ * 修改后整体替换快照，并通过Redis版本号与发布订阅通知其他节点重新加载。
  *
  * @author qltiku2
  * @since 2024-01-01
@@ -30,53 +37,86 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
 
     @Autowired
     private StringRedisTemplate redisTemplate;
-    
-    private static final String CONFIG_CACHE_PREFIX = "sys_config:";
-    private static final long CACHE_EXPIRE_TIME = 24; // 24小时过期
-    
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 配置版本号，每次修改配置后递增
+     */
+    private static final String CONFIG_VERSION_KEY = "sys_config:version";
+
+    /**
+     * 配置变更广播频道，消息内容为变更后的版本号
+     */
+    private static final String CONFIG_CHANGE_CHANNEL = "sys_config:changed";
+
+    /**
+     * 尚未成功加载过配置
+     */
+    private static final long NOT_LOADED = Long.MIN_VALUE;
+
+    /**
+     * 加载时无法读取版本号（Redis不可用）
+     */
+    private static final long UNKNOWN_VERSION = -1;
+
+    /**
+     * 配置快照（不可变），读取时只做一次map查找，修改时整体替换
+     */
+    private volatile Map<String, String> snapshot = Collections.emptyMap();
+
+    /**
+     * 当前快照对应的配置版本号
+     */
+    private volatile long loadedVersion = NOT_LOADED;
+
+    private final Object snapshotLock = new Object();
+
+    // 快照统计
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong localUpdateCount = new AtomicLong();
+    private final AtomicLong broadcastReloadCount = new AtomicLong();
+    private final AtomicLong versionCheckReloadCount = new AtomicLong();
+    private volatile LocalDateTime lastReloadTime;
+
     /**
-     * 应用启动时加载所有配置到Redis
+     * 应用启动时一次性加载全部配置，并订阅其他节点的变更通知
      */
     @PostConstruct
     public void initConfigCache() {
-        try {
-            log.info("开始加载系统配置到Redis缓存...");
-            System.out.println("=== 开始加载系统配置到Redis缓存 ===");
-            List<SysConfig> allConfigs = list();
-            for (SysConfig config : allConfigs) {
-                String cacheKey = CONFIG_CACHE_PREFIX + config.getConfigKey();
-                redisTemplate.opsForValue().set(cacheKey, config.getConfigValue(), CACHE_EXPIRE_TIME, TimeUnit.HOURS);
-                System.out.println("缓存配置: " + config.getConfigKey() + " = " + config.getConfigValue());
+        reload();
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            try {
+                long version = Long.parseLong(body);
+                if (version > loadedVersion) {
+                    broadcastReloadCount.incrementAndGet();
+                    reloadIfStale(version);
+                }
+            } catch (NumberFormatException e) {
+                log.warn("无效的系统配置变更通知: {}", body);
             }
-            log.info("系统配置加载到Redis缓存完成，共加载{}条配置", allConfigs.size());
-            System.out.println("=== 系统配置加载到Redis缓存完成，共加载" + allConfigs.size() + "条配置 ===");
-        } catch (Exception e) {
-            log.error("加载系统配置到Redis缓存失败", e);
-            System.err.println("=== 加载系统配置到Redis缓存失败: " + e.getMessage() + " ===");
+        }, new ChannelTopic(CONFIG_CHANGE_CHANNEL));
+    }
+
+    /**
+     * 定时比对配置版本号，防止遗漏变更通知（订阅断线、消息丢失等）
+     */
+    @Scheduled(fixedDelayString = "${sys-config.version-check-interval-ms:30000}",
+            initialDelayString = "${sys-config.version-check-interval-ms:30000}")
+    public void checkVersion() {
+        Long current = readVersion();
+        if (loadedVersion == NOT_LOADED || (current != null && current != loadedVersion)) {
+            versionCheckReloadCount.incrementAndGet();
+            log.info("系统配置版本不一致，重新加载: local={}, remote={}", loadedVersion, current);
+            reload();
         }
     }
 
     @Override
     public String getConfigValue(String configKey) {
-        try {
-            // 优先从Redis缓存获取
-            String cacheKey = CONFIG_CACHE_PREFIX + configKey;
-            String cachedValue = redisTemplate.opsForValue().get(cacheKey);
-            if (cachedValue != null) {
-                return cachedValue;
-            }
-            
-            // 缓存中没有，从数据库获取
-            String dbValue = baseMapper.getConfigValue(configKey);
-            if (dbValue != null) {
-                // 将数据库值缓存到Redis
-                redisTemplate.opsForValue().set(cacheKey, dbValue, CACHE_EXPIRE_TIME, TimeUnit.HOURS);
-            }
-            return dbValue;
-        } catch (Exception e) {
-            log.warn("从Redis获取配置失败，降级到数据库查询，configKey: {}", configKey, e);
-            return baseMapper.getConfigValue(configKey);
-        }
+        return snapshot.get(configKey);
     }
 
     @Override
@@ -89,17 +129,8 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
     @Transactional(rollbackFor = Exception.class)
     public boolean updateConfigValue(String configKey, String configValue) {
         try {
-            // 更新数据库
-            int result = baseMapper.updateConfigValue(configKey, configValue);
-            if (result > 0) {
-                // 更新Redis缓存
-                try {
-                    String cacheKey = CONFIG_CACHE_PREFIX + configKey;
-                    redisTemplate.opsForValue().set(cacheKey, configValue, CACHE_EXPIRE_TIME, TimeUnit.HOURS);
-                    log.debug("更新Redis缓存成功，configKey: {}, configValue: {}", configKey, configValue);
-                } catch (Exception redisException) {
-                    log.warn("更新Redis缓存失败，但数据库更新成功，configKey: {}", configKey, redisException);
-                }
+            if (baseMapper.updateConfigValue(configKey, configValue) > 0) {
+                publishAfterCommit(Collections.singletonMap(configKey, configValue), Collections.emptyList());
                 return true;
             }
             return false;
@@ -113,8 +144,19 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
     @Transactional(rollbackFor = Exception.class)
     public boolean batchUpdateConfig(Map<String, String> configMap) {
         try {
+            Map<String, String> updated = new HashMap<>();
             for (Map.Entry<String, String> entry : configMap.entrySet()) {
-                updateConfigValue(entry.getKey(), entry.getValue());
+                try {
+                    if (baseMapper.updateConfigValue(entry.getKey(), entry.getValue()) > 0) {
+                        updated.put(entry.getKey(), entry.getValue());
+                    }
+                } catch (Exception e) {
+                    log.error("更新配置失败，configKey: {}, configValue: {}", entry.getKey(), entry.getValue(), e);
+                }
+            }
+            // 整批修改只替换一次快照、广播一次
+            if (!updated.isEmpty()) {
+                publishAfterCommit(updated, Collections.emptyList());
             }
             return true;
         } catch (Exception e) {
@@ -153,7 +195,11 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
                 // 更新
                 existConfig.setConfigValue(configValue);
                 existConfig.setRemark(remark);
-                return updateById(existConfig);
+                boolean success = updateById(existConfig);
+                if (success) {
+                    publishAfterCommit(Collections.singletonMap(configKey, configValue), Collections.emptyList());
+                }
+                return success;
             } else {
                 // 新增
                 SysConfig newConfig = new SysConfig();
@@ -161,7 +207,11 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
                 newConfig.setConfigValue(configValue);
                 newConfig.setConfigType(isSystemType != null ? isSystemType : "N");
                 newConfig.setRemark(remark);
-                return save(newConfig);
+                boolean success = save(newConfig);
+                if (success) {
+                    publishAfterCommit(Collections.singletonMap(configKey, configValue), Collections.emptyList());
+                }
+                return success;
             }
         } catch (Exception e) {
             log.error("保存或更新配置失败，configKey: {}", configKey, e);
@@ -175,7 +225,11 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
         try {
             QueryWrapper<SysConfig> queryWrapper = new QueryWrapper<>();
             queryWrapper.eq("config_key", configKey);
-            return remove(queryWrapper);
+            boolean success = remove(queryWrapper);
+            if (success) {
+                publishAfterCommit(Collections.emptyMap(), Collections.singletonList(configKey));
+            }
+            return success;
         } catch (Exception e) {
             log.error("删除配置失败，configKey: {}", configKey, e);
             return false;
@@ -197,6 +251,118 @@ public class SysConfigServiceImpl extends ServiceImpl<SysConfigMapper, SysConfig
         return siteInfo;
     }
 
+    @Override
+    public Map<String, Object> getConfigCacheStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("configCount", snapshot.size());
+        stats.put("loadedVersion", loadedVersion);
+        stats.put("remoteVersion", readVersion());
+        stats.put("reloadCount", reloadCount.get());
+        stats.put("localUpdateCount", localUpdateCount.get());
+        stats.put("broadcastReloadCount", broadcastReloadCount.get());
+        stats.put("versionCheckReloadCount", versionCheckReloadCount.get());
+        stats.put("lastReloadTime", lastReloadTime);
+        return stats;
+    }
+
+    /**
+     * 从数据库一次性加载全部配置并替换快照
+     */
+    private void reload() {
+        synchronized (snapshotLock) {
+            try {
+                // 先读版本号再查库：加载期间如有新的修改，版本号必然大于记录值，下次检查会再次加载
+                Long version = readVersion();
+                List<SysConfig> allConfigs = list();
+                Map<String, String> fresh = new HashMap<>(allConfigs.size() * 2);
+                for (SysConfig config : allConfigs) {
+                    if (config.getConfigValue() != null) {
+                        fresh.put(config.getConfigKey(), config.getConfigValue());
+                    }
+                }
+                snapshot = Collections.unmodifiableMap(fresh);
+                loadedVersion = version != null ? version : UNKNOWN_VERSION;
+                lastReloadTime = LocalDateTime.now();
+                reloadCount.incrementAndGet();
+                log.info("系统配置加载完成，共{}条，版本: {}", fresh.size(), loadedVersion);
+            } catch (Exception e) {
+                log.error("加载系统配置失败", e);
+            }
+        }
+    }
+
+    /**
+     * 收到变更通知时加载；短时间内的多条通知只会触发一次加载
+     */
+    private void reloadIfStale(long version) {
+        synchronized (snapshotLock) {
+            if (version <= loadedVersion) {
+                return;
+            }
+            reload();
+        }
+    }
+
+    /**
+     * 修改在事务提交后生效：替换本地快照，递增版本号并通知其他节点
+     */
+    private void publishAfterCommit(Map<String, String> updated, Collection<String> removed) {
+        Map<String, String> updatedCopy = new HashMap<>(updated);
+        List<String> removedCopy = new ArrayList<>(removed);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applyAndBroadcast(updatedCopy, removedCopy);
+                }
+            });
+        } else {
+            applyAndBroadcast(updatedCopy, removedCopy);
+        }
+    }
+
+    private void applyAndBroadcast(Map<String, String> updated, List<String> removed) {
+        synchronized (snapshotLock) {
+            Map<String, String> next = new HashMap<>(snapshot);
+            updated.forEach((key, value) -> {
+                if (value != null) {
+                    next.put(key, value);
+                } else {
+                    next.remove(key);
+                }
+            });
+            removed.forEach(next::remove);
+            snapshot = Collections.unmodifiableMap(next);
+        }
+        localUpdateCount.incrementAndGet();
+
+        try {
+            Long version = redisTemplate.opsForValue().increment(CONFIG_VERSION_KEY);
+            if (version == null) {
+                return;
+            }
+            synchronized (snapshotLock) {
+                // 期间没有其他节点的修改时，本地快照已是最新；否则保留旧版本号，由通知触发完整加载
+                if (version == loadedVersion + 1) {
+                    loadedVersion = version;
+                }
+            }
+            redisTemplate.convertAndSend(CONFIG_CHANGE_CHANNEL, String.valueOf(version));
+        } catch (Exception e) {
+            log.warn("广播系统配置变更失败，其他节点将在版本检查时刷新: {}", e.getMessage());
+        }
+    }
+
+    private Long readVersion() {
+        try {
+            String value = redisTemplate.opsForValue().get(CONFIG_VERSION_KEY);
+            return value != null ? Long.parseLong(value) : 0L;
+        } catch (Exception e) {
+            log.debug("读取系统配置版本号失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * 根据配置类型转换配置值
      *
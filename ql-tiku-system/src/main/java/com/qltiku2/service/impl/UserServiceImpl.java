@@ -12,6 +12,7 @@ import com.qltiku2.entity.SysUser;
 import com.qltiku2.mapper.AnswerRecordMapper;
 import com.qltiku2.mapper.SysUserMapper;
 import com.qltiku2.service.UserService;
+import com.qltiku2.utils.JwtUtils;
 import com.qltiku2.vo.UserVO;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,6 +22,7 @@ import org.springframework.util.StringUtils;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 /**
@@ -40,6 +42,9 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUser> impleme
     @Autowired
     private AnswerRecordMapper answerRecordMapper;
     
+    @Autowired
+    private JwtUtils jwtUtils;
+    
     @Override
     public Result<IPage<UserVO>> getUserPage(UserQueryRequest request) {
         try {
@@ -176,6 +181,13 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUser> impleme
             
             sysUserMapper.updateById(user);
             
+            // 认证主体取自JWT声明，用户名、类型或状态变更后需重新登录
+            if (changed(request.getUsername(), existingUser.getUsername())
+                    || changed(request.getUserType(), existingUser.getUserType())
+                    || changed(request.getStatus(), existingUser.getStatus())) {
+                jwtUtils.forceLogout(existingUser.getUsername());
+            }
+            
             return Result.success("更新用户成功");
         } catch (Exception e) {
             return Result.error("更新用户失败：" + e.getMessage());
@@ -194,6 +206,7 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUser> impleme
             user.setDeleted(1);
             user.setUpdateTime(LocalDateTime.now());
             sysUserMapper.updateById(user);
+            jwtUtils.forceLogout(user.getUsername());
             
             return Result.success("删除用户成功");
         } catch (Exception e) {
@@ -231,6 +244,9 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUser> impleme
             user.setStatus(status);
             user.setUpdateTime(LocalDateTime.now());
             sysUserMapper.updateById(user);
+            if (status == null || status != 1) {
+                jwtUtils.forceLogout(user.getUsername());
+            }
             
             String statusName = status == 1 ? "启用" : "禁用";
             return Result.success(statusName + "用户成功");
@@ -239,6 +255,10 @@ public class UserServiceImpl extends ServiceImpl<SysUserMapper, SysUser> impleme
         }
     }
     
+    private boolean changed(Object requested, Object current) {
+        return requested != null && !Objects.equals(requested, current);
+    }
+    
     /**
      * 转换为UserVO
      */
@@ -0,0 +1,63 @@
+package com.qltiku2.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 边读取边计算MD5和字节数的输入流
+ * 上传时包装原始输入流，数据发送到存储端的同时得到校验和与大小，无需把文件读入内存或重复读取。
+ *
+ * @author qltiku2
+ */
+public class HashingInputStream extends DigestInputStream {
+
+    private long count;
+
+    public HashingInputStream(InputStream in) {
+        super(in, newMd5());
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    /**
+     * 已读取的字节数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 已读取内容的MD5（小写十六进制），应在流读取完毕后调用
+     */
+    public String getMd5Hex() {
+        return HexFormat.of().formatHex(getMessageDigest().digest());
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5计算失败", e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.qltiku2.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * IPv4地址段 -> 地理位置 的只读数据库
+ * 地址段以无符号整数存放在按起始地址排序的原始类型数组中，地理位置字符串去重后按下标引用，
+ * 查询为一次二分查找，不产生对象分配。实例不可变，重新加载时整体替换。
+ *
+ * CSV格式（# 开头为注释，IP可以是点分十进制或整数）：
+ * <pre>
+ * 起始IP,结束IP,国家,省份,城市,运营商
+ * 1.0.1.0,1.0.3.255,中国,福建,福州,电信
+ * </pre>
+ */
+public final class IpRegionDatabase {
+
+    public static final IpRegionDatabase EMPTY = new IpRegionDatabase(new int[0], new int[0], new int[0],
+            new String[0], new String[0]);
+
+    /**
+     * 地址段起始/结束地址（无符号比较）
+     */
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     * 地址段 -> 地理位置下标
+     */
+    private final int[] regionIndexes;
+
+    /**
+     * 完整位置：国家-省份-城市-运营商
+     */
+    private final String[] fullRegions;
+
+    /**
+     * 简化位置：国家-城市
+     */
+    private final String[] simpleRegions;
+
+    private IpRegionDatabase(int[] starts, int[] ends, int[] regionIndexes, String[] fullRegions, String[] simpleRegions) {
+        this.starts = starts;
+        this.ends = ends;
+        this.regionIndexes = regionIndexes;
+        this.fullRegions = fullRegions;
+        this.simpleRegions = simpleRegions;
+    }
+
+    /**
+     * 从CSV文件加载
+     *
+     * @throws IOException 文件读取失败或内容格式错误
+     */
+    public static IpRegionDatabase loadCsv(Path file) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        Map<String, Integer> regionIds = new HashMap<>();
+        List<String> fullRegions = new ArrayList<>();
+        List<String> simpleRegions = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split(",", -1);
+                long start = parseIpv4(columns[0].trim());
+                long end = columns.length > 1 ? parseIpv4(columns[1].trim()) : -1;
+                if (columns.length < 3 || start < 0 || end < 0 || end < start) {
+                    throw new IOException("IP地址库格式错误，第 " + lineNumber + " 行: " + line);
+                }
+                String country = column(columns, 2);
+                String province = column(columns, 3);
+                String city = column(columns, 4);
+                String isp = column(columns, 5);
+                String full = join(country, province, city, isp);
+                Integer regionId = regionIds.get(full);
+                if (regionId == null) {
+                    regionId = fullRegions.size();
+                    regionIds.put(full, regionId);
+                    fullRegions.add(full);
+                    simpleRegions.add(join(country, city));
+                }
+                ranges.add(new long[]{start, end, regionId});
+            }
+        }
+
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        int size = ranges.size();
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        int[] regionIndexes = new int[size];
+        long previousEnd = -1;
+        for (int i = 0; i < size; i++) {
+            long[] range = ranges.get(i);
+            if (range[0] <= previousEnd) {
+                throw new IOException("IP地址库存在重叠的地址段: " + formatIpv4(range[0]));
+            }
+            starts[i] = (int) range[0];
+            ends[i] = (int) range[1];
+            regionIndexes[i] = (int) range[2];
+            previousEnd = range[1];
+        }
+        return new IpRegionDatabase(starts, ends, regionIndexes,
+                fullRegions.toArray(new String[0]), simpleRegions.toArray(new String[0]));
+    }
+
+    /**
+     * 查询完整地理位置
+     *
+     * @return 国家-省份-城市-运营商，未收录或非IPv4地址时返回null
+     */
+    public String lookup(String ip) {
+        int index = find(ip);
+        return index < 0 ? null : fullRegions[regionIndexes[index]];
+    }
+
+    /**
+     * 查询简化地理位置
+     *
+     * @return 国家-城市，未收录或非IPv4地址时返回null
+     */
+    public String lookupSimple(String ip) {
+        int index = find(ip);
+        return index < 0 ? null : simpleRegions[regionIndexes[index]];
+    }
+
+    public int rangeCount() {
+        return starts.length;
+    }
+
+    public int regionCount() {
+        return fullRegions.length;
+    }
+
+    private int find(String ip) {
+        long address = parseIpv4(ip);
+        if (address < 0 || starts.length == 0) {
+            return -1;
+        }
+        int key = (int) address;
+        // 查找最后一个起始地址 <= key 的地址段
+        int low = 0;
+        int high = starts.length - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(starts[mid], key) <= 0) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (candidate >= 0 && Integer.compareUnsigned(key, ends[candidate]) <= 0) {
+            return candidate;
+        }
+        return -1;
+    }
+
+    /**
+     * 解析IPv4地址（点分十进制或整数），不合法时返回-1
+     */
+    public static long parseIpv4(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return -1;
+        }
+        if (ip.indexOf('.') < 0) {
+            try {
+                long value = Long.parseLong(ip);
+                return value >= 0 && value <= 0xFFFFFFFFL ? value : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        long result = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || dots != 3) {
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+
+    private static String formatIpv4(long address) {
+        return ((address >> 24) & 0xFF) + "." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    private static String column(String[] columns, int index) {
+        if (index >= columns.length) {
+            return "";
+        }
+        String value = columns[index].trim();
+        return "0".equals(value) || "null".equals(value) ? "" : value;
+    }
+
+    private static String join(String... parts) {
+        StringBuilder builder = new StringBuilder();
+        for (String part : parts) {
+            if (!part.isEmpty()) {
+                if (builder.length() > 0) {
+                    builder.append("-");
+                }
+                builder.append(part);
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : "未知位置";
+    }
+}
@@ -1,7 +1,13 @@
 package com.qltiku2.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.qltiku2.security.LoginUser;
+import com.qltiku2.service.UserDetailsServiceImpl;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,10 +16,13 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * JWT工具类
@@ -46,6 +55,32 @@ public class JwtUtils {
     private static final String USER_LOGIN_PREFIX = "user:login:";
     // JWT token在Redis中的过期时间（7天，单位：秒）
     private static final long JWT_REDIS_EXPIRATION = 7 * 24 * 60 * 60L;
+    // 本地认证主体缓存的有效期（秒），其他节点注销的token最多在此时间内仍可使用
+    private static final long PRINCIPAL_CACHE_SECONDS = 30L;
+    
+    // 签名密钥与解析器只构建一次
+    private SecretKey signKey;
+    private JwtParser jwtParser;
+    
+    /**
+     * token -> 已验证的认证主体（短TTL，同一token的连续请求无需解析与访问Redis）
+     */
+    private final Cache<String, CachedPrincipal> principalCache = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(PRINCIPAL_CACHE_SECONDS, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    
+    // 认证统计：请求数、Redis会话检查次数、累计耗时
+    private final AtomicLong authenticateCount = new AtomicLong();
+    private final AtomicLong sessionCheckCount = new AtomicLong();
+    private final AtomicLong authenticateNanos = new AtomicLong();
+    
+    @PostConstruct
+    public void init() {
+        signKey = Keys.hmacShaKeyFor(secret.getBytes());
+        jwtParser = Jwts.parserBuilder().setSigningKey(signKey).build();
+    }
     
     /**
      * 生成JWT令牌
@@ -69,6 +104,12 @@ public class JwtUtils {
         tokenInfo.put("userType", userType);
         tokenInfo.put("createTime", System.currentTimeMillis());
         
+        // 同一用户重新登录后旧token失效，同时清除本地缓存的旧认证主体
+        Object previousToken = redisTemplate.opsForValue().get(userKey);
+        if (previousToken != null) {
+            principalCache.invalidate(previousToken.toString());
+        }
+        
         redisTemplate.opsForValue().set(tokenKey, tokenInfo, JWT_REDIS_EXPIRATION, TimeUnit.SECONDS);
         redisTemplate.opsForValue().set(userKey, token, JWT_REDIS_EXPIRATION, TimeUnit.SECONDS);
         
@@ -134,11 +175,7 @@ public class JwtUtils {
      * 从令牌中获取所有声明
      */
     private Claims getAllClaimsFromToken(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSignKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return jwtParser.parseClaimsJws(token).getBody();
     }
     
     /**
@@ -150,62 +187,105 @@ public class JwtUtils {
     }
     
     /**
-     * 验证令牌
+     * 认证请求令牌：一次解析声明，一次MGET校验Redis会话，结果按token短时缓存
+     *
+     * @param token JWT令牌
+     * @return 认证主体，令牌无效、过期或会话已失效时返回null
      */
-    public Boolean validateToken(String token, String username) {
+    public LoginUser authenticate(String token) {
+        long start = System.nanoTime();
         try {
-            logger.info("=== Token验证开始 ===");
-            logger.info("验证用户名: " + username);
-            logger.info("Token前20字符: " + (token != null ? token.substring(0, Math.min(20, token.length())) + "..." : "null"));
+            CachedPrincipal cached = principalCache.getIfPresent(token);
+            if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+                return cached.user;
+            }
             
-            // 1. 验证JWT token格式和签名
-            final String tokenUsername = getUsernameFromToken(token);
-            logger.info("Token中的用户名: " + tokenUsername);
+            Claims claims;
+            try {
+                claims = getAllClaimsFromToken(token);
+            } catch (JwtException | IllegalArgumentException e) {
+                logger.debug("JWT令牌解析失败: {}", e.getMessage());
+                return null;
+            }
             
-            if (!username.equals(tokenUsername)) {
-                logger.warn("用户名不匹配: 期望=" + username + ", 实际=" + tokenUsername);
-                return false;
+            String username = claims.getSubject();
+            Object userId = claims.get("userId");
+            if (username == null || userId == null || !isSessionActive(token, username)) {
+                return null;
             }
             
-            boolean expired = isTokenExpired(token);
-            logger.info("Token是否过期: " + expired);
-            if (expired) {
-                Date expiration = getExpirationDateFromToken(token);
-                logger.warn("Token已过期，过期时间: " + expiration + ", 当前时间: " + new Date());
+            Integer userType = claims.get("userType") != null ? Integer.valueOf(claims.get("userType").toString()) : null;
+            LoginUser user = new LoginUser(Long.valueOf(userId.toString()), username, userType,
+                    UserDetailsServiceImpl.getAuthorities(userType));
+            principalCache.put(token, new CachedPrincipal(user, claims.getExpiration().getTime()));
+            return user;
+        } finally {
+            authenticateCount.incrementAndGet();
+            authenticateNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * 验证令牌
+     */
+    public Boolean validateToken(String token, String username) {
+        try {
+            // 1. 验证JWT token签名与过期时间（过期时解析直接抛出异常）
+            final String tokenUsername = getUsernameFromToken(token);
+            if (!username.equals(tokenUsername)) {
+                logger.warn("用户名不匹配: 期望={}, 实际={}", username, tokenUsername);
                 return false;
             }
             
-            // 2. 验证token是否在Redis中存在
-            String tokenKey = JWT_TOKEN_PREFIX + token;
-            logger.info("检查Redis中的tokenKey: " + tokenKey);
-            Object tokenInfo = redisTemplate.opsForValue().get(tokenKey);
-            logger.info("Redis中的token信息: " + tokenInfo);
-            if (tokenInfo == null) {
-                logger.warn("Token在Redis中不存在");
+            // 2. 验证token在Redis中存在且为用户当前登录的token
+            return isSessionActive(token, username);
+        } catch (ExpiredJwtException e) {
+            logger.debug("Token已过期，过期时间: {}", e.getClaims().getExpiration());
+            return false;
+        } catch (Exception e) {
+            logger.warn("Token验证异常: {}", e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 一次MGET同时读取token信息与用户当前token，校验会话是否有效
+     */
+    private boolean isSessionActive(String token, String username) {
+        sessionCheckCount.incrementAndGet();
+        try {
+            List<Object> values = redisTemplate.opsForValue().multiGet(
+                    Arrays.asList(JWT_TOKEN_PREFIX + token, USER_LOGIN_PREFIX + username));
+            if (values == null || values.size() != 2 || values.get(0) == null) {
+                logger.debug("Token在Redis中不存在，用户: {}", username);
                 return false;
             }
-            
-            // 3. 验证用户当前登录的token是否匹配
-            String userKey = USER_LOGIN_PREFIX + username;
-            logger.info("检查Redis中的userKey: " + userKey);
-            String currentToken = (String) redisTemplate.opsForValue().get(userKey);
-            logger.info("用户当前token前20字符: " + (currentToken != null ? currentToken.substring(0, Math.min(20, currentToken.length())) + "..." : "null"));
-            
-            boolean tokenMatch = token.equals(currentToken);
-            logger.info("Token是否匹配: " + tokenMatch);
-            if (!tokenMatch) {
-                logger.warn("用户当前token与请求token不匹配");
+            if (!token.equals(values.get(1))) {
+                logger.debug("用户当前token与请求token不匹配，用户: {}", username);
                 return false;
             }
-            
-            logger.info("=== Token验证成功 ===");
             return true;
         } catch (Exception e) {
-            logger.error("Token验证异常: " + e.getMessage(), e);
+            logger.warn("Redis会话校验失败: {}", e.getMessage());
             return false;
         }
     }
     
+    /**
+     * 获取认证统计（平均耗时、本地缓存命中率、Redis会话检查次数）
+     */
+    public Map<String, Object> getAuthenticateStats() {
+        long count = authenticateCount.get();
+        CacheStats stats = principalCache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("authenticateCount", count);
+        result.put("avgMicros", count > 0 ? authenticateNanos.get() / 1000.0 / count : 0);
+        result.put("sessionCheckCount", sessionCheckCount.get());
+        result.put("cacheSize", principalCache.estimatedSize());
+        result.put("cacheHitRate", stats.hitRate());
+        return result;
+    }
+    
     /**
      * 验证令牌格式
      */
@@ -227,7 +307,7 @@ public class JwtUtils {
      * 获取签名密钥
      */
     private SecretKey getSignKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes());
+        return signKey;
     }
     
     /**
@@ -275,6 +355,7 @@ public class JwtUtils {
      * 使token失效（注销）
      */
     public void invalidateToken(String token) {
+        principalCache.invalidate(token);
         try {
             String username = getUsernameFromToken(token);
             String tokenKey = JWT_TOKEN_PREFIX + token;
@@ -327,4 +408,17 @@ public class JwtUtils {
             // 忽略异常
         }
     }
+    
+    /**
+     * 缓存的认证主体，expiresAt 为token本身的过期时间
+     */
+    private static final class CachedPrincipal {
+        private final LoginUser user;
+        private final long expiresAt;
+        
+        private CachedPrincipal(LoginUser user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
\ No newline at end of file
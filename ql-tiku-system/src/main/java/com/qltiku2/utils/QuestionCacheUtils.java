@@ -2,32 +2,196 @@ package com.qltiku2.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.qltiku2.vo.QuestionVO;
+import jakarta.annotation.PostConstruct;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 题目缓存工具类
+ * 单题详情采用两级缓存：进程内Caffeine（L1）+ Redis（L2），
+ * L2直接存储QuestionVO的JSON，题目更新/删除时通过Redis发布订阅通知所有节点失效L1。
+ *
+ * 其余缓存按键的第一段（如 page、random、search）划分命名空间，实际键中带有版本号：
+ *   question:{命名空间}:v{全局版本}.{命名空间版本}:{其余部分}
+ * 批量失效时只递增版本号（O(1)），旧键随TTL自然过期；确需物理删除时使用SCAN游标 + 分批UNLINK，
+ * 不再使用会阻塞Redis的KEYS命令。
  * 
  * @author qltiku2
  */
+@Slf4j
 @Component
 public class QuestionCacheUtils {
     
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
     
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+    
     @Autowired
     private ObjectMapper objectMapper;
     
     // 缓存前缀
     private static final String CACHE_PREFIX = "question:";
     
+    // 单题详情缓存前缀
+    private static final String QUESTION_VO_PREFIX = CACHE_PREFIX + "vo:";
+    
+    // 本地缓存失效通知频道
+    private static final String INVALIDATE_CHANNEL = "question:cache:invalidate";
+    
+    // 失效全部本地缓存的消息
+    private static final String INVALIDATE_ALL = "*";
+    
+    // 版本号变更消息前缀（其余节点收到后重新读取版本号）
+    private static final String GENERATION_MESSAGE_PREFIX = "gen:";
+    
+    // 版本号计数器前缀（不在 question: 之下，避免被全量清理删除）
+    private static final String GENERATION_PREFIX = "question-gen:";
+    
+    // 全局版本号所用的命名空间
+    private static final String GLOBAL_NAMESPACE = "_all";
+    
+    // SCAN每批数量，同时也是每条UNLINK命令的最大键数
+    private static final int SCAN_BATCH_SIZE = 500;
+    
     // 缓存过期时间（24小时）
     private static final long CACHE_TTL = 24;
     
+    // 本地缓存容量与过期时间（分钟）
+    private static final long LOCAL_CACHE_SIZE = 10000;
+    private static final long LOCAL_CACHE_TTL = 10;
+    
+    private final Cache<Long, QuestionVO> localCache = Caffeine.newBuilder()
+            .maximumSize(LOCAL_CACHE_SIZE)
+            .expireAfterWrite(LOCAL_CACHE_TTL, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+    
+    // 本地缓存的版本号，短时间过期以限制错过通知时的不一致窗口
+    private final Cache<String, Long> generationCache = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(5, TimeUnit.SECONDS)
+            .build();
+    
+    /**
+     * 订阅本地缓存失效通知
+     */
+    @PostConstruct
+    public void subscribeInvalidation() {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (INVALIDATE_ALL.equals(body)) {
+                localCache.invalidateAll();
+                generationCache.invalidateAll();
+            } else if (body.startsWith(GENERATION_MESSAGE_PREFIX)) {
+                generationCache.invalidate(body.substring(GENERATION_MESSAGE_PREFIX.length()));
+            } else {
+                try {
+                    localCache.invalidate(Long.valueOf(body));
+                } catch (NumberFormatException e) {
+                    log.warn("无效的题目缓存失效通知: {}", body);
+                }
+            }
+        }, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+    
+    /**
+     * 获取单题详情（先查本地缓存，再查Redis）
+     * 
+     * @param id 题目ID
+     * @return 题目详情，未命中返回null
+     */
+    public QuestionVO getQuestion(Long id) {
+        QuestionVO cached = localCache.getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+        
+        String cacheKey = buildQuestionKey(id);
+        String json = stringRedisTemplate.opsForValue().get(cacheKey);
+        if (json == null) {
+            return null;
+        }
+        
+        try {
+            QuestionVO questionVO = objectMapper.readValue(json, QuestionVO.class);
+            localCache.put(id, questionVO);
+            return questionVO;
+        } catch (JsonProcessingException e) {
+            // 缓存数据格式不正确，删除缓存
+            stringRedisTemplate.delete(cacheKey);
+            return null;
+        }
+    }
+    
+    /**
+     * 缓存单题详情
+     * 
+     * @param questionVO 题目详情
+     */
+    public void setQuestion(QuestionVO questionVO) {
+        if (questionVO == null || questionVO.getId() == null) {
+            return;
+        }
+        try {
+            String json = objectMapper.writeValueAsString(questionVO);
+            stringRedisTemplate.opsForValue().set(buildQuestionKey(questionVO.getId()), json, CACHE_TTL, TimeUnit.HOURS);
+        } catch (JsonProcessingException e) {
+            log.warn("题目缓存序列化失败，题目ID: {}", questionVO.getId(), e);
+        }
+        localCache.put(questionVO.getId(), questionVO);
+    }
+    
+    /**
+     * 失效单题详情缓存，并通知其他节点失效本地缓存
+     * 
+     * @param id 题目ID
+     */
+    public void evictQuestion(Long id) {
+        localCache.invalidate(id);
+        stringRedisTemplate.delete(buildQuestionKey(id));
+        stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, String.valueOf(id));
+    }
+    
+    /**
+     * 获取本地缓存统计
+     */
+    public Map<String, Object> getLocalCacheStats() {
+        CacheStats stats = localCache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("size", localCache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+    
     /**
      * 设置缓存
      * 
@@ -35,7 +199,7 @@ public class QuestionCacheUtils {
      * @param value 缓存值
      */
     public void set(String key, Object value) {
-        String cacheKey = CACHE_PREFIX + key;
+        String cacheKey = buildKey(key);
         redisTemplate.opsForValue().set(cacheKey, value, CACHE_TTL, TimeUnit.HOURS);
     }
     
@@ -46,7 +210,7 @@ public class QuestionCacheUtils {
      * @return 缓存值
      */
     public Object get(String key) {
-        String cacheKey = CACHE_PREFIX + key;
+        String cacheKey = buildKey(key);
         return redisTemplate.opsForValue().get(cacheKey);
     }
     
@@ -88,25 +252,152 @@ public class QuestionCacheUtils {
      * @param key 缓存键
      */
     public void delete(String key) {
-        String cacheKey = CACHE_PREFIX + key;
+        String cacheKey = buildKey(key);
         redisTemplate.delete(cacheKey);
     }
     
     /**
-     * 删除指定前缀的所有缓存
+     * 失效指定前缀的缓存
+     * 前缀恰好是一个命名空间（如 "page:"）时只递增该命名空间的版本号；
+     * 更细的前缀则在当前版本下使用SCAN + UNLINK物理删除。
      * 
      * @param prefix 前缀
+     * @return 清理结果
+     */
+    public CacheClearResult deleteByPrefix(String prefix) {
+        long start = System.nanoTime();
+        CacheClearResult result = new CacheClearResult();
+        String namespace = namespaceOf(prefix);
+        String rest = prefix.substring(namespace.length());
+        if (rest.isEmpty() || ":".equals(rest)) {
+            bumpGeneration(namespace);
+            result.setGenerationsBumped(1);
+        } else {
+            result.setKeysRemoved(scanAndUnlink(buildKey(prefix) + "*"));
+        }
+        result.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+    
+    /**
+     * 失效所有题目缓存（递增全局版本号，O(1)，旧键随TTL过期）
+     * 
+     * @return 清理结果
+     */
+    public CacheClearResult invalidateAll() {
+        long start = System.nanoTime();
+        bumpGeneration(GLOBAL_NAMESPACE);
+        localCache.invalidateAll();
+        stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, INVALIDATE_ALL);
+        
+        CacheClearResult result = new CacheClearResult();
+        result.setGenerationsBumped(1);
+        result.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+    
+    /**
+     * 物理清除所有题目缓存（包括旧版本遗留的键），使用SCAN + 分批UNLINK，不阻塞Redis
+     * 
+     * @return 清理结果
+     */
+    public CacheClearResult clearAll() {
+        long start = System.nanoTime();
+        long removed = scanAndUnlink(CACHE_PREFIX + "*");
+        localCache.invalidateAll();
+        stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, INVALIDATE_ALL);
+        
+        CacheClearResult result = new CacheClearResult();
+        result.setKeysRemoved(removed);
+        result.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+    
+    /**
+     * 按模式游标扫描并分批UNLINK（异步释放内存）
+     * 
+     * @param pattern 键模式
+     * @return 删除的键数
      */
-    public void deleteByPrefix(String prefix) {
-        String pattern = CACHE_PREFIX + prefix + "*";
-        redisTemplate.keys(pattern).forEach(key -> redisTemplate.delete(key));
+    private long scanAndUnlink(String pattern) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_BATCH_SIZE).build();
+        Long removed = stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long count = 0;
+            List<byte[]> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+            try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() >= SCAN_BATCH_SIZE) {
+                        count += unlink(connection, batch);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                count += unlink(connection, batch);
+            }
+            return count;
+        });
+        return removed != null ? removed : 0;
+    }
+    
+    private long unlink(RedisConnection connection, List<byte[]> batch) {
+        Long count = connection.keyCommands().unlink(batch.toArray(new byte[0][]));
+        batch.clear();
+        return count != null ? count : 0;
+    }
+    
+    /**
+     * 构建带版本号的缓存键（供需要直接操作Redis数据结构的调用方使用，键仍受命名空间版本失效控制）
+     * 
+     * @param key 缓存键
+     * @return 实际的Redis键
+     */
+    public String buildKey(String key) {
+        String namespace = namespaceOf(key);
+        return CACHE_PREFIX + namespace + ":v" + getGeneration(GLOBAL_NAMESPACE) + "." + getGeneration(namespace)
+                + key.substring(namespace.length());
+    }
+    
+    private String buildQuestionKey(Long id) {
+        return QUESTION_VO_PREFIX + "v" + getGeneration(GLOBAL_NAMESPACE) + ":" + id;
+    }
+    
+    /**
+     * 键的第一段作为命名空间
+     */
+    private String namespaceOf(String key) {
+        int index = key.indexOf(':');
+        return index < 0 ? key : key.substring(0, index);
+    }
+    
+    private long getGeneration(String namespace) {
+        return generationCache.get(namespace, ns -> {
+            String value = stringRedisTemplate.opsForValue().get(GENERATION_PREFIX + ns);
+            return value != null ? Long.parseLong(value) : 0L;
+        });
+    }
+    
+    private void bumpGeneration(String namespace) {
+        Long generation = stringRedisTemplate.opsForValue().increment(GENERATION_PREFIX + namespace);
+        if (generation != null) {
+            generationCache.put(namespace, generation);
+        }
+        stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, GENERATION_MESSAGE_PREFIX + namespace);
     }
     
     /**
-     * 清除所有题目缓存
+     * 缓存清理结果
      */
-    public void clearAll() {
-        String pattern = CACHE_PREFIX + "*";
-        redisTemplate.keys(pattern).forEach(key -> redisTemplate.delete(key));
+    @Data
+    public static class CacheClearResult {
+        /**
+         * 物理删除的键数
+         */
+        private long keysRemoved;
+        /**
+         * 递增的版本号个数
+         */
+        private int generationsBumped;
+        private long elapsedMillis;
     }
-}
\ No newline at end of file
+}
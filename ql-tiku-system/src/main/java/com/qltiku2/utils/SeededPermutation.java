@@ -0,0 +1,61 @@
+package com.qltiku2.utils;
+
+/**
+ * 基于种子的确定性置换工具类
+ * 使用平衡Feistel网络 + 循环游走（cycle walking）在 [0, n) 上构造双射，
+ * 无需物化整个乱序数组即可按位置计算第 i 个元素，用于随机刷题顺序。
+ */
+public class SeededPermutation {
+
+    private static final int ROUNDS = 4;
+
+    private SeededPermutation() {
+    }
+
+    /**
+     * 计算置换后的位置
+     *
+     * @param position 原位置，范围 [0, size)
+     * @param size 元素总数
+     * @param seed 种子
+     * @return 置换后的位置，范围 [0, size)
+     */
+    public static int permute(int position, int size, long seed) {
+        if (position < 0 || position >= size) {
+            throw new IllegalArgumentException("位置越界: " + position + "/" + size);
+        }
+        if (size <= 1) {
+            return position;
+        }
+
+        // 取不小于size的偶数位宽，作用域最多为4*size，循环游走的期望次数不超过4
+        int bits = 64 - Long.numberOfLeadingZeros(size - 1L);
+        int halfBits = (bits + 1) / 2;
+        long x = position;
+        do {
+            x = encrypt(x, halfBits, seed);
+        } while (x >= size);
+        return (int) x;
+    }
+
+    private static long encrypt(long value, int halfBits, long seed) {
+        long mask = (1L << halfBits) - 1;
+        long left = value >>> halfBits;
+        long right = value & mask;
+        for (int round = 0; round < ROUNDS; round++) {
+            long next = left ^ (mix(seed + round * 0x9E3779B97F4A7C15L + right) & mask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * SplitMix64 终结函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
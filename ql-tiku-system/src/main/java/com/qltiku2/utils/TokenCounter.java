@@ -0,0 +1,94 @@
+package com.qltiku2.utils;
+
+/**
+ * 增量token计数器
+ * 在模型未返回用量信息时估算token数。按字符类别查表累加（单位为0.1个token），
+ * 各类别的权重参照通义千问词表的切分粒度：汉字约0.6个token，英文字母约0.3个token，
+ * 数字逐位切分，标点符号单独成token，连续换行合并为一个token。
+ * 单次遍历、不分配对象，可以随流式片段逐段调用 {@link #feed}，跨片段的连续换行也能正确合并。
+ * 非线程安全，每个回复使用独立的实例。
+ *
+ * @author qltiku2
+ */
+public class TokenCounter {
+
+    private static final int CJK = 6;
+    private static final int LETTER = 3;
+    private static final int DIGIT = 10;
+    private static final int SYMBOL = 10;
+    private static final int NEWLINE = 10;
+    private static final int OTHER = 5;
+
+    /**
+     * 累计权重（0.1个token）
+     */
+    private long tenths;
+
+    private boolean lastNewline;
+
+    /**
+     * 计算一段文本的token数
+     */
+    public static int count(CharSequence text) {
+        TokenCounter counter = new TokenCounter();
+        counter.feed(text);
+        return counter.tokens();
+    }
+
+    /**
+     * 累加一段文本
+     */
+    public void feed(CharSequence text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                if (!lastNewline) {
+                    tenths += NEWLINE;
+                    lastNewline = true;
+                }
+                continue;
+            }
+            lastNewline = false;
+            tenths += weight(c);
+        }
+    }
+
+    /**
+     * 当前累计的token数（向上取整）
+     */
+    public int tokens() {
+        return (int) Math.min(Integer.MAX_VALUE, (tenths + 9) / 10);
+    }
+
+    private static int weight(char c) {
+        if (c < 0x80) {
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                return LETTER;
+            }
+            if (c >= '0' && c <= '9') {
+                return DIGIT;
+            }
+            if (c == ' ' || c == '\t') {
+                // 空格通常与后面的单词合并
+                return 0;
+            }
+            return SYMBOL;
+        }
+        if ((c >= 0x4E00 && c <= 0x9FFF) || (c >= 0x3400 && c <= 0x4DBF)
+                || (c >= 0x3040 && c <= 0x30FF) || (c >= 0xAC00 && c <= 0xD7AF)) {
+            return CJK;
+        }
+        if ((c >= 0x3000 && c <= 0x303F) || (c >= 0xFF00 && c <= 0xFFEF)) {
+            // 中文标点与全角字符
+            return SYMBOL;
+        }
+        if (Character.isLowSurrogate(c)) {
+            // 代理对按高位字符计一次
+            return 0;
+        }
+        return OTHER;
+    }
+}
@@ -2,6 +2,7 @@ package com.qltiku2.utils;
 
 import com.qltiku2.entity.SysUser;
 import com.qltiku2.mapper.SysUserMapper;
+import com.qltiku2.security.LoginUser;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -37,6 +38,11 @@ public class UserContext {
                 throw new RuntimeException("用户未登录");
             }
             
+            // JWT认证的主体已携带用户ID，无需查库
+            if (authentication.getPrincipal() instanceof LoginUser) {
+                return ((LoginUser) authentication.getPrincipal()).getUserId();
+            }
+            
             System.out.println("Authentication.isAuthenticated(): " + authentication.isAuthenticated());
             System.out.println("Authentication.getPrincipal(): " + authentication.getPrincipal());
             
@@ -101,7 +101,8 @@ CREATE TABLE answer_record (
     INDEX idx_question_id (question_id),
     INDEX idx_exam_id (exam_id),
     INDEX idx_is_correct (is_correct),
-    INDEX idx_create_time (create_time)
+    INDEX idx_create_time (create_time),
+    INDEX idx_user_create_time (user_id, create_time)
 ) COMMENT '答题记录表';
 
 -- 错题本表
@@ -137,6 +138,21 @@ CREATE TABLE user_study_stats (
     INDEX idx_user_id (user_id)
 ) COMMENT '用户学习统计表';
 
+-- 用户每日学习统计汇总表（按用户/日期/科目/难度增量累加，统计看板只读此表）
+CREATE TABLE user_daily_stats (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT COMMENT 'ID',
+    user_id BIGINT NOT NULL COMMENT '用户ID',
+    stat_date DATE NOT NULL COMMENT '统计日期',
+    subject_id BIGINT NOT NULL DEFAULT 0 COMMENT '科目ID（0表示未知或题目已删除）',
+    difficulty TINYINT NOT NULL DEFAULT 0 COMMENT '难度（0表示未设置）',
+    attempt_count INT NOT NULL DEFAULT 0 COMMENT '答题数',
+    correct_count INT NOT NULL DEFAULT 0 COMMENT '正确数',
+    total_answer_time BIGINT NOT NULL DEFAULT 0 COMMENT '累计答题用时（秒）',
+    update_time DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    UNIQUE KEY uk_user_date_subject_difficulty (user_id, stat_date, subject_id, difficulty),
+    INDEX idx_stat_date (stat_date)
+) COMMENT '用户每日学习统计汇总表';
+
 -- 系统配置表
 CREATE TABLE sys_config (
     id BIGINT PRIMARY KEY AUTO_INCREMENT COMMENT '配置ID',
@@ -0,0 +1,127 @@
+package com.qltiku2.service;
+
+import com.qltiku2.entity.Question;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 答案判分引擎：各题型判分规则与答案键缓存
+ */
+class AnswerGradingEngineTest {
+
+    private final AnswerGradingEngine engine = new AnswerGradingEngine();
+
+    @Test
+    void singleChoiceComparesTrimmedAnswer() {
+        Question question = question(1L, 0, "B");
+        assertTrue(engine.grade(question, "B"));
+        assertTrue(engine.grade(question, "  B "));
+        assertFalse(engine.grade(question, "C"));
+        assertFalse(engine.grade(question, "b"));
+        assertFalse(engine.grade(question, "   "));
+        assertFalse(engine.grade(question, null));
+    }
+
+    @Test
+    void multipleChoiceIgnoresOrderAndSpacing() {
+        Question question = question(2L, 1, "A,C,D");
+        assertTrue(engine.grade(question, "A,C,D"));
+        assertTrue(engine.grade(question, "D, A ,C"));
+        assertFalse(engine.grade(question, "d,a,c"));
+        assertFalse(engine.grade(question, "A,C"));
+        assertFalse(engine.grade(question, "A,B,C,D"));
+        assertFalse(engine.grade(question, "AC,D"));
+    }
+
+    @Test
+    void multipleChoiceRejectsDuplicateOptions() {
+        assertTrue(engine.grade(question(3L, 1, "A"), "A"));
+        assertFalse(engine.grade(question(3L, 1, "A"), "A,A"));
+        assertFalse(engine.grade(question(4L, 1, "A,B"), "A,B,B"));
+        assertEquals(-1, AnswerGradingEngine.parseMask("A,a"));
+        assertEquals(-1, AnswerGradingEngine.parseMask("a"));
+        assertEquals(0b101, AnswerGradingEngine.parseMask("C,A"));
+    }
+
+    @Test
+    void multipleChoiceFallsBackForNonLetterKeys() {
+        Question question = question(5L, 1, "选项1,选项2");
+        assertTrue(engine.grade(question, "选项2, 选项1"));
+        assertFalse(engine.grade(question, "选项1"));
+    }
+
+    @Test
+    void judgementAcceptsEquivalentForms() {
+        Question correct = question(6L, 2, "正确");
+        assertTrue(engine.grade(correct, "A"));
+        assertTrue(engine.grade(correct, "true"));
+        assertTrue(engine.grade(correct, " 对 "));
+        assertFalse(engine.grade(correct, "B"));
+        assertFalse(engine.grade(correct, "错误"));
+
+        Question wrong = question(7L, 2, "false");
+        assertTrue(engine.grade(wrong, "错"));
+        assertTrue(engine.grade(wrong, "B"));
+        assertFalse(engine.grade(wrong, "b"));
+        assertFalse(engine.grade(wrong, "true"));
+    }
+
+    @Test
+    void fillBlankIgnoresSurroundingSpace() {
+        Question question = question(8L, 3, "Hello World");
+        assertTrue(engine.grade(question, " Hello World "));
+        assertFalse(engine.grade(question, "hello world"));
+        assertFalse(engine.grade(question, "HelloWorld"));
+    }
+
+    @Test
+    void examFillBlankIgnoresCase() {
+        Question question = question(13L, 3, "Hello World");
+        assertTrue(engine.grade(question, " hello world ", true));
+        assertFalse(engine.grade(question, "helloworld", true));
+        // 其他题型不受影响
+        assertFalse(engine.grade(question(14L, 0, "B"), "b", true));
+    }
+
+    @Test
+    void shortAnswerIsNeverAutoGraded() {
+        Question question = question(9L, 4, "参考答案");
+        assertFalse(engine.grade(question, "参考答案"));
+    }
+
+    @Test
+    void missingKeyOrTypeIsWrong() {
+        assertFalse(engine.grade(question(10L, 0, null), "A"));
+        assertFalse(engine.grade(question(11L, null, "A"), "A"));
+        assertFalse(engine.grade(null, "A"));
+    }
+
+    @Test
+    void recompilesWhenQuestionChanges() {
+        Question question = question(12L, 0, "A");
+        question.setUpdateTime(LocalDateTime.of(2024, 1, 1, 0, 0));
+        assertTrue(engine.grade(question, "A"));
+
+        Question updated = question(12L, 0, "B");
+        updated.setUpdateTime(LocalDateTime.of(2024, 1, 2, 0, 0));
+        assertTrue(engine.grade(updated, "B"));
+        assertFalse(engine.grade(updated, "A"));
+
+        // 快照中的题目没有更新时间，按答案原文判断是否过期
+        assertTrue(engine.grade(question(12L, 0, "C"), "C"));
+
+        engine.evict(12L);
+        assertTrue(engine.grade(question(12L, 0, "D"), "D"));
+    }
+
+    private static Question question(Long id, Integer type, String correctAnswer) {
+        Question question = new Question();
+        question.setId(id);
+        question.setQuestionType(type);
+        question.setCorrectAnswer(correctAnswer);
+        return question;
+    }
+}
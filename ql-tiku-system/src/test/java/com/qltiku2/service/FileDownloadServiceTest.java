@@ -0,0 +1,54 @@
+package com.qltiku2.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 下载Range请求头解析
+ */
+class FileDownloadServiceTest {
+
+    private static final long SIZE = 1000;
+
+    @Test
+    void parsesClosedRange() {
+        assertArrayEquals(new long[]{0, 499}, FileDownloadService.parseRange("bytes=0-499", SIZE));
+        assertArrayEquals(new long[]{500, 999}, FileDownloadService.parseRange("bytes=500-999", SIZE));
+        // 结束位置超出文件长度时截断
+        assertArrayEquals(new long[]{900, 999}, FileDownloadService.parseRange("bytes=900-5000", SIZE));
+    }
+
+    @Test
+    void parsesOpenEndedRange() {
+        assertArrayEquals(new long[]{900, 999}, FileDownloadService.parseRange("bytes=900-", SIZE));
+        assertArrayEquals(new long[]{0, 999}, FileDownloadService.parseRange("bytes=0-", SIZE));
+    }
+
+    @Test
+    void parsesSuffixRange() {
+        assertArrayEquals(new long[]{500, 999}, FileDownloadService.parseRange("bytes=-500", SIZE));
+        // 后缀长度超过文件长度时返回整个文件
+        assertArrayEquals(new long[]{0, 999}, FileDownloadService.parseRange("bytes=-5000", SIZE));
+    }
+
+    @Test
+    void reportsUnsatisfiableRanges() {
+        assertEquals(0, FileDownloadService.parseRange("bytes=1000-", SIZE).length);
+        assertEquals(0, FileDownloadService.parseRange("bytes=1000-1999", SIZE).length);
+        assertEquals(0, FileDownloadService.parseRange("bytes=-0", SIZE).length);
+        assertEquals(0, FileDownloadService.parseRange("bytes=-10", 0).length);
+    }
+
+    @Test
+    void ignoresMissingMalformedOrMultipleRanges() {
+        assertNull(FileDownloadService.parseRange(null, SIZE));
+        assertNull(FileDownloadService.parseRange("items=0-1", SIZE));
+        assertNull(FileDownloadService.parseRange("bytes=abc", SIZE));
+        assertNull(FileDownloadService.parseRange("bytes=a-b", SIZE));
+        assertNull(FileDownloadService.parseRange("bytes=0-1,5-6", SIZE));
+        // 结束位置小于起始位置的范围无效，返回完整内容
+        assertNull(FileDownloadService.parseRange("bytes=500-100", SIZE));
+        assertNull(FileDownloadService.parseRange("bytes=1500-1200", SIZE));
+    }
+}
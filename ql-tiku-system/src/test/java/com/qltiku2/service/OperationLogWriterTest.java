@@ -0,0 +1,133 @@
+package com.qltiku2.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.qltiku2.entity.OperationLog;
+import com.qltiku2.mapper.OperationLogMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 溢出文件回放：被数据库拒绝的行逐行隔离，连接类故障整体保留并退避
+ */
+class OperationLogWriterTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final OperationLogMapper mapper = mock(OperationLogMapper.class);
+    private final IpLocationService ipLocationService = mock(IpLocationService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final OperationLogWriter writer = new OperationLogWriter();
+    private final List<OperationLog> inserted = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        TransactionTemplate nested = new TransactionTemplate(transactionManager);
+        nested.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        when(ipLocationService.getLocationByIp(anyString())).thenReturn("本地");
+
+        ReflectionTestUtils.setField(writer, "operationLogMapper", mapper);
+        ReflectionTestUtils.setField(writer, "ipLocationService", ipLocationService);
+        ReflectionTestUtils.setField(writer, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(writer, "nestedTransactionTemplate", nested);
+        ReflectionTestUtils.setField(writer, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(writer, "batchSize", 3);
+        ReflectionTestUtils.setField(writer, "spillDir", spillDir.toString());
+    }
+
+    @Test
+    void rejectedRowsAreQuarantinedAndTheRestReplayed() throws Exception {
+        when(mapper.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<OperationLog> logs = invocation.getArgument(0);
+            if (logs.stream().anyMatch(log -> "rejected".equals(log.getUsername()))) {
+                throw new DataIntegrityViolationException("Data too long for column 'username'");
+            }
+            inserted.addAll(logs);
+            return logs.size();
+        });
+        Path file = writeSpillFile("spill-1.jsonl", "a", "b", "rejected", "c", "d");
+        Files.writeString(file, "{\"username\":\"tru", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        assertTrue(replay());
+
+        assertEquals(List.of("a", "b", "c", "d"), inserted.stream().map(OperationLog::getUsername).toList());
+        assertTrue(inserted.stream().allMatch(log -> "本地".equals(log.getLocation())));
+        assertFalse(Files.exists(file));
+        List<String> quarantined = Files.readAllLines(spillDir.resolve("spill-1.bad"), StandardCharsets.UTF_8);
+        assertEquals(2, quarantined.size());
+        assertTrue(quarantined.stream().anyMatch(line -> line.contains("\"rejected\"")));
+        assertEquals(0L, ReflectionTestUtils.getField(writer, "lastFailureNanos"));
+    }
+
+    @Test
+    void laterFilesAreNotBlockedByARejectedRow() throws Exception {
+        when(mapper.insertBatch(anyList())).thenAnswer(invocation -> {
+            List<OperationLog> logs = invocation.getArgument(0);
+            if (logs.stream().anyMatch(log -> "rejected".equals(log.getUsername()))) {
+                throw new DataIntegrityViolationException("Duplicate entry");
+            }
+            inserted.addAll(logs);
+            return logs.size();
+        });
+        writeSpillFile("spill-1.jsonl", "rejected");
+        writeSpillFile("spill-2.jsonl", "e");
+
+        assertTrue(replay());
+        assertTrue(replay());
+
+        assertEquals(List.of("e"), inserted.stream().map(OperationLog::getUsername).toList());
+        assertFalse(replay());
+    }
+
+    @Test
+    void connectivityFailureKeepsTheFileAndBacksOff() throws Exception {
+        when(mapper.insertBatch(anyList())).thenThrow(new DataAccessResourceFailureException("Communications link failure"));
+        Path file = writeSpillFile("spill-1.jsonl", "a", "b");
+
+        assertFalse(replay());
+
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(spillDir.resolve("spill-1.bad")));
+        assertNotEquals(0L, ReflectionTestUtils.getField(writer, "lastFailureNanos"));
+    }
+
+    private boolean replay() {
+        Boolean replayed = ReflectionTestUtils.invokeMethod(writer, "replaySpillFile");
+        return Boolean.TRUE.equals(replayed);
+    }
+
+    private Path writeSpillFile(String name, String... usernames) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (String username : usernames) {
+            OperationLog log = new OperationLog();
+            log.setUsername(username);
+            log.setIpAddress("127.0.0.1");
+            lines.add(objectMapper.writeValueAsString(log));
+        }
+        return Files.write(spillDir.resolve(name), lines, StandardCharsets.UTF_8);
+    }
+}
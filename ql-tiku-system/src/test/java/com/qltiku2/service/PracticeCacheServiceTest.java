@@ -0,0 +1,182 @@
+package com.qltiku2.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 随机刷题会话：跳过已作答的题目，题目集合变化后会话作废
+ */
+class PracticeCacheServiceTest {
+
+    private static final Long USER_ID = 7L;
+    private static final String MODE = "random";
+
+    private final FakeRedis redis = new FakeRedis();
+    private final QuestionSampler sampler = mock(QuestionSampler.class);
+    private final PracticeCacheService service = new PracticeCacheService();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(service, "questionSampler", sampler);
+    }
+
+    @Test
+    void skipsAnsweredQuestionsAndVisitsTheRestOnce() {
+        useIds(range(1, 50));
+        Set<Long> answered = new HashSet<>(Arrays.asList(2L, 3L, 10L, 25L, 49L, 999L));
+
+        service.startRandomSession(USER_ID, null, null, null, answered);
+
+        Set<Long> visited = drain();
+        Set<Long> expected = new HashSet<>();
+        for (long id = 1; id <= 50; id++) {
+            if (!answered.contains(id)) {
+                expected.add(id);
+            }
+        }
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    void returnsNothingWhenEveryQuestionWasAnswered() {
+        useIds(range(1, 5));
+
+        service.startRandomSession(USER_ID, null, null, null, Arrays.asList(1L, 2L, 3L, 4L, 5L));
+
+        assertNull(service.getNextQuestionId(USER_ID, null, null, null, MODE));
+        assertTrue(service.hasCache(USER_ID, null, null, null, MODE));
+    }
+
+    @Test
+    void dropsTheSessionWhenTheQuestionSetChanges() {
+        useIds(range(1, 20));
+        service.startRandomSession(USER_ID, null, null, null, Collections.emptySet());
+        assertNotNull(service.getNextQuestionId(USER_ID, null, null, null, MODE));
+
+        // 新增一题：数组长度与置换都变化，旧游标不再可信
+        useIds(range(1, 21));
+
+        assertNull(service.getNextQuestionId(USER_ID, null, null, null, MODE));
+        assertFalse(service.hasCache(USER_ID, null, null, null, MODE));
+
+        service.startRandomSession(USER_ID, null, null, null, Collections.emptySet());
+        assertEquals(21, drain().size());
+    }
+
+    @Test
+    void sessionSurvivesARebuildWithTheSameQuestions() {
+        useIds(range(1, 30));
+        service.startRandomSession(USER_ID, null, null, null, Collections.emptySet());
+        Set<Long> visited = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            visited.add(service.getNextQuestionId(USER_ID, null, null, null, MODE));
+        }
+
+        // 重建后得到内容相同的新数组
+        useIds(range(1, 30));
+
+        visited.addAll(drain());
+        assertEquals(30, visited.size());
+    }
+
+    private Set<Long> drain() {
+        Set<Long> visited = new HashSet<>();
+        Long questionId;
+        while ((questionId = service.getNextQuestionId(USER_ID, null, null, null, MODE)) != null) {
+            assertTrue(visited.add(questionId), "重复出题: " + questionId);
+        }
+        return visited;
+    }
+
+    private void useIds(long[] ids) {
+        QuestionSampler.IdSnapshot snapshot = new QuestionSampler.IdSnapshot(ids,
+                ids.length + ":" + Integer.toHexString(Arrays.hashCode(ids)));
+        when(sampler.getIdSnapshot(null, null, null)).thenReturn(snapshot);
+    }
+
+    private static long[] range(long from, long to) {
+        long[] ids = new long[(int) (to - from + 1)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+
+    /**
+     * 在内存中模拟随机会话用到的两个Lua脚本与集合操作
+     */
+    private static final class FakeRedis extends StringRedisTemplate {
+
+        private final Map<String, Map<String, String>> hashes = new HashMap<>();
+        private final Map<String, Set<String>> sets = new HashMap<>();
+        private final SetOperations<String, String> setOperations;
+
+        @SuppressWarnings("unchecked")
+        FakeRedis() {
+            setOperations = mock(SetOperations.class);
+            when(setOperations.isMember(anyString(), anyString())).thenAnswer(invocation ->
+                    sets.getOrDefault(invocation.getArgument(0), Collections.emptySet())
+                            .contains(invocation.getArgument(1).toString()));
+        }
+
+        @Override
+        public SetOperations<String, String> opsForSet() {
+            return setOperations;
+        }
+
+        @Override
+        public Boolean hasKey(String key) {
+            return hashes.containsKey(key) || sets.containsKey(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            String sessionKey = keys.get(0);
+            String excludedKey = keys.get(1);
+            if (Long.class.equals(script.getResultType())) {
+                // 开始会话
+                hashes.remove(sessionKey);
+                sets.remove(excludedKey);
+                Map<String, String> session = new HashMap<>();
+                session.put("seed", args[1].toString());
+                session.put("cursor", "0");
+                session.put("ids", args[2].toString());
+                hashes.put(sessionKey, session);
+                for (int i = 3; i < args.length; i++) {
+                    sets.computeIfAbsent(excludedKey, k -> new HashSet<>()).add(args[i].toString());
+                }
+                return (T) Long.valueOf(1);
+            }
+
+            // 取下一个位置
+            Map<String, String> session = hashes.get(sessionKey);
+            if (session == null) {
+                return null;
+            }
+            if (!session.get("ids").equals(args[0].toString())) {
+                hashes.remove(sessionKey);
+                sets.remove(excludedKey);
+                return null;
+            }
+            int cursor = Integer.parseInt(session.get("cursor"));
+            if (cursor >= Integer.parseInt(args[1].toString())) {
+                return (T) Arrays.asList(session.get("seed"), "-1", "0");
+            }
+            session.put("cursor", String.valueOf(cursor + 1));
+            return (T) Arrays.asList(session.get("seed"), String.valueOf(cursor), sets.containsKey(excludedKey) ? "1" : "0");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.qltiku2.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 有界环形缓冲区：容量、满/空语义、丢弃最旧元素及并发入队出队
+ */
+class BoundedRingBufferTest {
+
+    @Test
+    void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(2, new BoundedRingBuffer<Integer>(2).capacity());
+        assertEquals(8, new BoundedRingBuffer<Integer>(5).capacity());
+        assertEquals(8, new BoundedRingBuffer<Integer>(8).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new BoundedRingBuffer<Integer>(1));
+    }
+
+    @Test
+    void offerFailsWhenFullAndPollReturnsNullWhenEmpty() {
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(4);
+        assertNull(buffer.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void dropOldestKeepsNewestElements() {
+        // 与OperationLogWriter相同的写法：满时取出最旧的一条再重试
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(4);
+        int dropped = 0;
+        for (int i = 0; i < 10; i++) {
+            while (!buffer.offer(i)) {
+                if (buffer.poll() != null) {
+                    dropped++;
+                }
+            }
+        }
+        assertEquals(6, dropped);
+        assertEquals(List.of(6, 7, 8, 9), drain(buffer));
+    }
+
+    @Test
+    void concurrentOfferAndPollDeliverEachElementOnce() throws Exception {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 5000;
+        BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger producersDone = new AtomicInteger();
+        ConcurrentLinkedQueue<Integer> received = new ConcurrentLinkedQueue<>();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                    producersDone.incrementAndGet();
+                    return null;
+                }));
+            }
+            for (int c = 0; c < consumers; c++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    while (true) {
+                        Integer item = buffer.poll();
+                        if (item != null) {
+                            received.add(item);
+                        } else if (producersDone.get() == producers && buffer.size() == 0) {
+                            return null;
+                        } else {
+                            Thread.yield();
+                        }
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(producers * perProducer, received.size());
+        Set<Integer> unique = new HashSet<>(received);
+        assertEquals(producers * perProducer, unique.size());
+        assertNull(buffer.poll());
+    }
+
+    private static List<Integer> drain(BoundedRingBuffer<Integer> buffer) {
+        List<Integer> items = new ArrayList<>();
+        Integer item;
+        while ((item = buffer.poll()) != null) {
+            items.add(item);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,96 @@
+package com.qltiku2.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * IP地址库：无符号地址段查找与加载校验
+ */
+class IpRegionDatabaseTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void looksUpRangesAcrossTheSignedBoundary() throws IOException {
+        IpRegionDatabase database = load(
+                "# 起始IP,结束IP,国家,省份,城市,运营商",
+                "1.0.1.0,1.0.3.255,中国,福建,福州,电信",
+                "127.255.255.0,128.0.0.255,测试,跨界,边界,0",
+                "200.0.0.0,200.0.0.255,美国,加州,洛杉矶,null",
+                "4294967040,4294967295,保留,0,0,0");
+
+        assertEquals(4, database.rangeCount());
+        assertEquals("中国-福建-福州-电信", database.lookup("1.0.1.0"));
+        assertEquals("中国-福建-福州-电信", database.lookup("1.0.3.255"));
+        assertEquals("中国-福州", database.lookupSimple("1.0.2.8"));
+        assertNull(database.lookup("1.0.4.0"));
+
+        // 128.0.0.0及以上作为有符号int为负数，必须按无符号比较
+        assertEquals("测试-跨界-边界", database.lookup("127.255.255.1"));
+        assertEquals("测试-跨界-边界", database.lookup("128.0.0.0"));
+        assertEquals("测试-跨界-边界", database.lookup("128.0.0.255"));
+        assertNull(database.lookup("128.0.1.0"));
+        assertEquals("美国-加州-洛杉矶", database.lookup("200.0.0.128"));
+        assertEquals("美国-洛杉矶", database.lookupSimple("200.0.0.128"));
+        assertEquals("保留", database.lookup("255.255.255.255"));
+        assertNull(database.lookup("0.0.0.1"));
+    }
+
+    @Test
+    void ignoresInvalidAddresses() throws IOException {
+        IpRegionDatabase database = load("1.0.0.0,1.0.0.255,中国,0,0,0");
+        assertNull(database.lookup(null));
+        assertNull(database.lookup(""));
+        assertNull(database.lookup("1.0.0"));
+        assertNull(database.lookup("1.0.0.256"));
+        assertNull(database.lookup("::1"));
+        assertNull(IpRegionDatabase.EMPTY.lookup("1.0.0.1"));
+    }
+
+    @Test
+    void rejectsOverlappingRanges() throws IOException {
+        Path file = write("1.0.0.0,1.0.0.255,中国,0,0,0", "1.0.0.128,1.0.1.0,中国,0,0,0");
+        IOException error = assertThrows(IOException.class, () -> IpRegionDatabase.loadCsv(file));
+        assertTrue(error.getMessage().contains("重叠"));
+    }
+
+    @Test
+    void rejectsRangesTouchingAtOneAddress() throws IOException {
+        Path file = write("1.0.0.0,1.0.0.255,中国,0,0,0", "1.0.0.255,1.0.1.255,中国,0,0,0");
+        assertThrows(IOException.class, () -> IpRegionDatabase.loadCsv(file));
+    }
+
+    @Test
+    void rejectsMalformedLines() throws IOException {
+        assertThrows(IOException.class, () -> IpRegionDatabase.loadCsv(write("1.0.0.9,1.0.0.1,中国")));
+        assertThrows(IOException.class, () -> IpRegionDatabase.loadCsv(write("1.0.0.0,1.0.0.1")));
+        assertThrows(IOException.class, () -> IpRegionDatabase.loadCsv(write("abc,1.0.0.1,中国")));
+    }
+
+    @Test
+    void parsesDottedAndIntegerForms() {
+        assertEquals(0L, IpRegionDatabase.parseIpv4("0.0.0.0"));
+        assertEquals(0xFFFFFFFFL, IpRegionDatabase.parseIpv4("255.255.255.255"));
+        assertEquals(0x80000000L, IpRegionDatabase.parseIpv4("2147483648"));
+        assertEquals(-1L, IpRegionDatabase.parseIpv4("4294967296"));
+        assertEquals(-1L, IpRegionDatabase.parseIpv4("1..2.3"));
+    }
+
+    private IpRegionDatabase load(String... lines) throws IOException {
+        return IpRegionDatabase.loadCsv(write(lines));
+    }
+
+    private Path write(String... lines) throws IOException {
+        Path file = Files.createTempFile(dir, "ip-region", ".csv");
+        Files.write(file, java.util.Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+}
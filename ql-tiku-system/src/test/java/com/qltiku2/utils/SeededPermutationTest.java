@@ -0,0 +1,53 @@
+package com.qltiku2.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 确定性置换：[0, n) 上的双射
+ */
+class SeededPermutationTest {
+
+    @Test
+    void permutesEachDomainBijectively() {
+        int[] sizes = {1, 2, 3, 7, 16, 17, 100, 1000, 4097};
+        long[] seeds = {0L, 1L, -1L, 0x9E3779B97F4A7C15L, 123456789L};
+        for (int size : sizes) {
+            for (long seed : seeds) {
+                boolean[] seen = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    int target = SeededPermutation.permute(i, size, seed);
+                    assertTrue(target >= 0 && target < size, "越界: " + target + "/" + size);
+                    assertFalse(seen[target], "重复位置: " + target + "，size=" + size + "，seed=" + seed);
+                    seen[target] = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    void sameSeedGivesSameOrder() {
+        for (int i = 0; i < 500; i++) {
+            assertEquals(SeededPermutation.permute(i, 500, 42L), SeededPermutation.permute(i, 500, 42L));
+        }
+    }
+
+    @Test
+    void differentSeedsGiveDifferentOrders() {
+        int differences = 0;
+        for (int i = 0; i < 500; i++) {
+            if (SeededPermutation.permute(i, 500, 1L) != SeededPermutation.permute(i, 500, 2L)) {
+                differences++;
+            }
+        }
+        assertTrue(differences > 0);
+    }
+
+    @Test
+    void rejectsOutOfRangePosition() {
+        assertThrows(IllegalArgumentException.class, () -> SeededPermutation.permute(-1, 10, 0L));
+        assertThrows(IllegalArgumentException.class, () -> SeededPermutation.permute(10, 10, 0L));
+        assertThrows(IllegalArgumentException.class, () -> SeededPermutation.permute(0, 0, 0L));
+    }
+}
@@ -0,0 +1,74 @@
+package com.qltiku2.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 增量token计数：中文、英文、混合文本的估算与流式分段累加
+ */
+class TokenCounterTest {
+
+    @Test
+    void countsCjkAtSixTenthsPerCharacter() {
+        // 4 × 0.6 = 2.4，向上取整
+        assertEquals(3, TokenCounter.count("你好世界"));
+        // 10 × 0.6 = 6
+        assertEquals(6, TokenCounter.count("人工智能判题系统测试"));
+        // 中文标点单独成token
+        assertEquals(2, TokenCounter.count("好。"));
+    }
+
+    @Test
+    void countsAsciiByCharacterClass() {
+        // 字母0.3、空格不计
+        assertEquals(3, TokenCounter.count("hello world"));
+        // 数字逐位切分
+        assertEquals(4, TokenCounter.count("abc123"));
+        // 标点单独成token
+        assertEquals(2, TokenCounter.count("a,b"));
+        assertEquals(0, TokenCounter.count(""));
+        assertEquals(0, TokenCounter.count(null));
+    }
+
+    @Test
+    void countsMixedText() {
+        // Java(1.2) + 是一门语言(3.0) + 。(1.0) = 5.2
+        assertEquals(6, TokenCounter.count("Java是一门语言。"));
+        // 第(0.6) + 2(1.0) + 题(0.6) + :(1.0) + B(0.3) = 3.5
+        assertEquals(4, TokenCounter.count("第2题:B"));
+    }
+
+    @Test
+    void mergesConsecutiveNewlines() {
+        assertEquals(TokenCounter.count("a\nb"), TokenCounter.count("a\n\r\n\nb"));
+        assertEquals(2, TokenCounter.count("a\n\n\nb"));
+    }
+
+    @Test
+    void streamingChunksMatchTheWholeText() {
+        String text = "判断结果：正确\n\n解析：Java 的 String 是不可变对象，每次拼接都会创建新对象。\n"
+                + "建议使用 StringBuilder，复杂度从 O(n^2) 降到 O(n)。\n\n总分 100 分。";
+        int expected = TokenCounter.count(text);
+        for (int chunkSize = 1; chunkSize <= 7; chunkSize++) {
+            TokenCounter counter = new TokenCounter();
+            int previous = 0;
+            for (int i = 0; i < text.length(); i += chunkSize) {
+                counter.feed(text.substring(i, Math.min(i + chunkSize, text.length())));
+                int current = counter.tokens();
+                assertTrue(current >= previous, "累计值不应减少");
+                previous = current;
+            }
+            assertEquals(expected, counter.tokens(), "分段大小: " + chunkSize);
+        }
+    }
+
+    @Test
+    void newlinesSplitAcrossChunksAreMergedOnce() {
+        TokenCounter counter = new TokenCounter();
+        counter.feed("a\n");
+        counter.feed("\n");
+        counter.feed("\nb");
+        assertEquals(TokenCounter.count("a\n\n\nb"), counter.tokens());
+    }
+}
@@ -93,6 +93,25 @@ CREATE TABLE `ai_models`  (
   UNIQUE INDEX `code`(`code` ASC) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1954927852323401731 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = 'AI模型配置表' ROW_FORMAT = DYNAMIC;
 
+-- ----------------------------
+-- Table structure for ai_token_usage_daily
+-- ----------------------------
+DROP TABLE IF EXISTS `ai_token_usage_daily`;
+CREATE TABLE `ai_token_usage_daily`  (
+  `id` bigint NOT NULL AUTO_INCREMENT,
+  `user_id` bigint NOT NULL COMMENT '用户ID',
+  `usage_date` date NOT NULL COMMENT '使用日期',
+  `model_code` varchar(50) CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_ai_ci NOT NULL COMMENT '模型代码标识',
+  `request_count` int NOT NULL DEFAULT 0 COMMENT '调用次数',
+  `prompt_tokens` bigint NOT NULL DEFAULT 0 COMMENT '输入token数量',
+  `completion_tokens` bigint NOT NULL DEFAULT 0 COMMENT '输出token数量',
+  `total_tokens` bigint NOT NULL DEFAULT 0 COMMENT '总token数量',
+  `update_time` datetime NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_date_model`(`user_id` ASC, `usage_date` ASC, `model_code` ASC) USING BTREE,
+  INDEX `idx_usage_date`(`usage_date` ASC) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = 'AI每日token用量汇总表' ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for ai_usage_log
 -- ----------------------------
@@ -112,6 +131,9 @@ CREATE TABLE `ai_usage_log`  (
   `prompt_tokens` int NULL DEFAULT 0 COMMENT '输入token数量',
   `completion_tokens` int NULL DEFAULT 0 COMMENT '输出token数量',
   `total_tokens` int NULL DEFAULT 0 COMMENT '总token数量',
+  `cache_hit` tinyint NULL DEFAULT 0 COMMENT '是否命中解析缓存',
+  `tokens_saved` int NULL DEFAULT 0 COMMENT '命中缓存节省的token数量',
+  `latency_ms` bigint NULL DEFAULT NULL COMMENT '响应耗时（毫秒）',
   PRIMARY KEY (`id`) USING BTREE,
   INDEX `idx_user_id`(`user_id` ASC) USING BTREE,
   INDEX `idx_ai_type`(`ai_type` ASC) USING BTREE,
@@ -160,7 +182,8 @@ CREATE TABLE `answer_record`  (
   INDEX `idx_question_id`(`question_id` ASC) USING BTREE,
   INDEX `idx_exam_id`(`exam_id` ASC) USING BTREE,
   INDEX `idx_is_correct`(`is_correct` ASC) USING BTREE,
-  INDEX `idx_create_time`(`create_time` ASC) USING BTREE
+  INDEX `idx_create_time`(`create_time` ASC) USING BTREE,
+  INDEX `idx_user_create_time`(`user_id` ASC, `create_time` ASC) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '答题记录表' ROW_FORMAT = DYNAMIC;
 
 -- ----------------------------
@@ -272,6 +295,7 @@ CREATE TABLE `file_info`  (
   INDEX `idx_generated_file_name`(`generated_file_name` ASC) USING BTREE,
   INDEX `idx_upload_time`(`upload_time` ASC) USING BTREE,
   INDEX `idx_file_extension`(`file_extension` ASC) USING BTREE,
+  INDEX `idx_checksum`(`checksum` ASC) USING BTREE,
   FULLTEXT INDEX `idx_search`(`original_file_name`, `description`)
 ) ENGINE = InnoDB AUTO_INCREMENT = 30 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_unicode_ci COMMENT = '文件信息表' ROW_FORMAT = DYNAMIC;
 
@@ -512,6 +536,25 @@ CREATE TABLE `user_ai_quota`  (
   INDEX `idx_reset_date`(`last_reset_date` ASC) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 5 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '用户AI配额表' ROW_FORMAT = DYNAMIC;
 
+-- ----------------------------
+-- Table structure for user_daily_stats
+-- ----------------------------
+DROP TABLE IF EXISTS `user_daily_stats`;
+CREATE TABLE `user_daily_stats`  (
+  `id` bigint NOT NULL AUTO_INCREMENT COMMENT 'ID',
+  `user_id` bigint NOT NULL COMMENT '用户ID',
+  `stat_date` date NOT NULL COMMENT '统计日期',
+  `subject_id` bigint NOT NULL DEFAULT 0 COMMENT '科目ID（0表示未知或题目已删除）',
+  `difficulty` tinyint NOT NULL DEFAULT 0 COMMENT '难度（0表示未设置）',
+  `attempt_count` int NOT NULL DEFAULT 0 COMMENT '答题数',
+  `correct_count` int NOT NULL DEFAULT 0 COMMENT '正确数',
+  `total_answer_time` bigint NOT NULL DEFAULT 0 COMMENT '累计答题用时（秒）',
+  `update_time` datetime NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_date_subject_difficulty`(`user_id` ASC, `stat_date` ASC, `subject_id` ASC, `difficulty` ASC) USING BTREE,
+  INDEX `idx_stat_date`(`stat_date` ASC) USING BTREE
+) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_0900_ai_ci COMMENT = '用户每日学习统计汇总表' ROW_FORMAT = DYNAMIC;
+
 -- ----------------------------
 -- Table structure for user_study_stats
 -- ----------------------------